@@ -8,13 +8,16 @@ package com.github.ucchyocean.lc;
 import com.github.ucchyocean.lc.channel.Channel;
 
 /**
- * 各チャンネルの期限付きBANや期限付きMuteを、1分間隔で確認しに行くタスク
+ * 各チャンネルの期限付きBANや期限付きMuteを、全て確認しに行くタスク。<br/>
+ * 通常の解除は ExpiryScheduler が期限の時刻に行うので、このタスクは定期実行されていない。
+ * 全チャンネルを一度に確認し直したい場合に使う。
  * @author ucchy
+ * @see com.github.ucchyocean.lc.channel.ExpiryScheduler
  */
 public class ExpireCheckTask implements Runnable {
 
     /**
-     * 1分ごとに呼び出されるメソッド
+     * 全てのチャンネルの期限を確認する
      * @see Runnable#run()
      */
     @Override
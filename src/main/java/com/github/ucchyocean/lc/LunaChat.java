@@ -6,6 +6,8 @@
 package com.github.ucchyocean.lc;
 
 import java.io.File;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 import com.github.ucchyocean.lc.event.EventSenderInterface;
 
@@ -116,4 +118,35 @@ public class LunaChat {
     public static void runAsyncTask(Runnable task) {
         instance.runAsyncTask(task);
     }
+
+    /**
+     * LunaChatで非同期タスクを実行する。同じキーを指定したタスクは、登録された順番に1つずつ実行される。
+     * @param type 処理の種類
+     * @param key キー、順番を気にしないならnull
+     * @param task 実行するタスク
+     */
+    public static void runAsyncTask(LunaChatExecutor.TaskType type, Object key, Runnable task) {
+        instance.getLunaChatExecutor().execute(type, key, task);
+    }
+
+    /**
+     * LunaChatで、完了がFutureで通知される非同期タスクを実行する。
+     * 同じキーを指定したタスクは、前のタスクのFutureが完了してから、次のタスクが開始される。
+     * @param type 処理の種類
+     * @param key キー、順番を気にしないならnull
+     * @param task 実行するタスク（開始して、完了を通知するFutureを返す）
+     * @return タスクの完了を通知するFuture
+     */
+    public static CompletableFuture<Void> runStagedTask(LunaChatExecutor.TaskType type, Object key,
+            Supplier<? extends CompletableFuture<?>> task) {
+        return instance.getLunaChatExecutor().executeStaged(type, key, task);
+    }
+
+    /**
+     * LunaChatの非同期処理の実行クラスを取得する
+     * @return 非同期処理の実行クラス
+     */
+    public static LunaChatExecutor getExecutor() {
+        return instance.getLunaChatExecutor();
+    }
 }
\ No newline at end of file
@@ -8,6 +8,7 @@ package com.github.ucchyocean.lc;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import com.github.ucchyocean.lc.channel.Channel;
 import com.github.ucchyocean.lc.japanize.JapanizeType;
@@ -38,6 +39,20 @@ public interface LunaChatAPI {
      */
     public Collection<Channel> getChannelsByPlayer(String playerName);
 
+    /**
+     * メンバーが参加しているチャンネルを返す
+     * @param member メンバー
+     * @return チャンネル
+     */
+    public Collection<Channel> getChannelsByMember(ChannelMember member);
+
+    /**
+     * メンバーがBANされているチャンネルを返す
+     * @param member メンバー
+     * @return チャンネル
+     */
+    public Collection<Channel> getBannedChannels(ChannelMember member);
+
     /**
      * プレイヤーが参加しているデフォルトのチャンネルを返す
      * @param playerName プレイヤー
@@ -73,13 +88,40 @@ public interface LunaChatAPI {
     public Channel createChannel(String channelName);
 
     /**
-     * 新しいチャンネルを作成する
+     * 新しいチャンネルを作成する。LunaChatChannelCreateEvent のリスナーの処理の完了を待つ。<br/>
+     * Velocityのイベントのリスナーの中からは呼び出さず、createChannelAsync を使用すること。
      * @param channelName チャンネル名
      * @param member チャンネルを作成した人
      * @return 作成されたチャンネル
      */
     public Channel createChannel(String channelName, ChannelMember member);
 
+    /**
+     * 新しいチャンネルを作成する。LunaChatChannelCreateEvent のリスナーの処理が終わってから作成する。
+     * @param channelName チャンネル名
+     * @param member チャンネルを作成した人
+     * @return 作成されたチャンネル（イベントでキャンセルされた場合はnull）を通知するFuture
+     */
+    public CompletableFuture<Channel> createChannelAsync(String channelName, ChannelMember member);
+
+    /**
+     * 送信者から受信者への1:1チャットのチャンネルを取得する。無ければ作成する。<br/>
+     * 1:1チャットのチャンネルは、getChannels() の一覧には含まれない。
+     * @param from 送信者
+     * @param to 受信者
+     * @return チャンネル
+     */
+    public Channel getPrivateMessageChannel(ChannelMember from, ChannelMember to);
+
+    /**
+     * 送信者から受信者への1:1チャットのチャンネルを取得する。無ければ作成する。<br/>
+     * 作成する場合は、2人をメンバーに追加し終わってから完了する。
+     * @param from 送信者
+     * @param to 受信者
+     * @return チャンネルを通知するFuture
+     */
+    public CompletableFuture<Channel> getPrivateMessageChannelAsync(ChannelMember from, ChannelMember to);
+
     /**
      * チャンネルを削除する
      * @param channelName 削除するチャンネル名
@@ -88,13 +130,22 @@ public interface LunaChatAPI {
     public boolean removeChannel(String channelName);
 
     /**
-     * チャンネルを削除する
+     * チャンネルを削除する。LunaChatChannelRemoveEvent のリスナーの処理の完了を待つ。<br/>
+     * Velocityのイベントのリスナーの中からは呼び出さず、removeChannelAsync を使用すること。
      * @param channelName 削除するチャンネル名
      * @param member チャンネルを削除した人
      * @return 削除したかどうか
      */
     public boolean removeChannel(String channelName, ChannelMember member);
 
+    /**
+     * チャンネルを削除する。LunaChatChannelRemoveEvent のリスナーの処理が終わってから削除する。
+     * @param channelName 削除するチャンネル名
+     * @param member チャンネルを削除した人
+     * @return 削除したかどうかを通知するFuture
+     */
+    public CompletableFuture<Boolean> removeChannelAsync(String channelName, ChannelMember member);
+
     /**
      * テンプレートを取得する
      * @param id テンプレートID
@@ -148,6 +199,14 @@ public interface LunaChatAPI {
      */
     public List<ChannelMember> getHideinfo(ChannelMember player);
 
+    /**
+     * 指定されたプレイヤーが、指定されたプレイヤーをhideしているかどうかを返す。
+     * @param player hideしている側のプレイヤー
+     * @param hided hideされている側のプレイヤー
+     * @return hideしているかどうか
+     */
+    public boolean isHiding(ChannelMember player, ChannelMember hided);
+
     /**
      * 指定されたプレイヤーが、指定されたプレイヤーをhideするように設定する。
      * @param player hideする側のプレイヤー
@@ -6,11 +6,17 @@
 package com.github.ucchyocean.lc;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
 
+import com.github.ucchyocean.lc.event.EventType;
 import com.github.ucchyocean.lc.util.EventPriority;
 import com.github.ucchyocean.lc.japanize.JapanizeType;
 import com.github.ucchyocean.lc.util.EventPriority;
@@ -32,12 +38,33 @@ public class LunaChatConfig {
     /** チャットイベントの処理優先度 */
     private EventPriority playerChatEventListenerPriority;
 
+    /** 発生させないイベントの種類 */
+    private Set<EventType> disabledEvents;
+
+    /** チャンネルチャットの発言処理に、この時間（ミリ秒）以上かかったら、段階ごとの処理時間をログに出力する。0なら出力しない。 */
+    private int slowChatWarningMillis;
+
     /** チャンネルチャットに入っていない人の発言を、グローバルとして扱うかどうか */
     private boolean noJoinAsGlobal;
 
     /** チャンネルチャットの発言内容を、ログに残すかどうか */
     private boolean loggingChat;
 
+    /** 指定した日数より古いログを圧縮する */
+    private int logCompressAfterDays;
+
+    /** 指定した日数より古いログを削除する */
+    private int logRetentionDays;
+
+    /** ログフォルダの合計サイズの上限（メガバイト） */
+    private int logMaxTotalSizeMB;
+
+    /** チャンネルの保存先（yaml または journal） */
+    private String channelStore;
+
+    /** UUIDキャッシュの保存形式（yaml または binary） */
+    private String uuidCacheFormat;
+
     /** チャンネルチャットの発言内容を、コンソールに表示するかどうか */
     private boolean displayChatOnConsole;
 
@@ -47,6 +74,9 @@ public class LunaChatConfig {
     /** 全てのメンバーが退出したときに、チャンネルを削除するかどうか */
     private boolean zeroMemberRemove;
 
+    /** 1:1チャットの会話を、最後の発言から破棄するまでの時間（分）、0なら両者が退出するまで破棄しない */
+    private int privateMessageIdleMinutes;
+
     /** ログイン時に、参加中チャンネルを表示するかどうか */
     private boolean showListOnJoin;
 
@@ -74,6 +104,9 @@ public class LunaChatConfig {
     /** OPの画面に、全チャンネルの発言内容を表示するかどうか */
     private boolean opListenAllChannel;
 
+    /** パーミッションの問い合わせ結果をキャッシュする秒数 */
+    private int permissionCacheSeconds;
+
     /** チャンネルを新規作成するときに、チャンネル名が満たさなければならない、最低文字列長 */
     private int minChannelNameLength;
 
@@ -99,15 +132,24 @@ public class LunaChatConfig {
     /** NGワードの設定 */
     private List<String> ngword;
 
+    /** NGワードの設定と、ngwordFile から読み込んだNGワードを合わせたもの */
+    private List<String> ngwordAll;
+
     /** NGワードを発言した人に対して実行するアクション<br/>
      *  mask = マスクするのみ<br/>
      *  kick = マスクしてチャンネルからキックする<br/>
      *  ban = マスクしてチャンネルからBANする */
     private NGWordAction ngwordAction;
 
+    /** NGワードを1行に1つずつ記載したファイル（プラグインフォルダからの相対パス） */
+    private String ngwordFile;
+
     /** NGワードの設定、正規表現マッチング用にコンパイルされたもの */
     private List<Pattern> ngwordCompiled;
 
+    /** NGワードの検出とマスクを行うフィルター */
+    private NGWordFilter ngwordFilter;
+
     /** 通常チャット（非チャンネルチャット）の装飾を、LunaChatから行うかどうか */
     private boolean enableNormalChatMessageFormat;
 
@@ -189,11 +231,27 @@ public class LunaChatConfig {
         enableChannelChat = config.getBoolean("enableChannelChat", true);
         playerChatEventListenerPriority
             = getEventPriority(config.getString("playerChatEventListenerPriority"), EventPriority.HIGHEST);
+        disabledEvents = EnumSet.noneOf(EventType.class);
+        for ( String id : config.getStringList("disabledEvents", new ArrayList<String>()) ) {
+            EventType type = EventType.fromID(id);
+            if ( type == null ) {
+                LunaChat.getPlugin().log(Level.WARNING, "Unknown event type in disabledEvents: " + id);
+                continue;
+            }
+            disabledEvents.add(type);
+        }
+        slowChatWarningMillis = config.getInt("slowChatWarningMillis", 0);
         noJoinAsGlobal = config.getBoolean("noJoinAsGlobal", true);
         loggingChat = config.getBoolean("loggingChat", true);
+        logCompressAfterDays = config.getInt("logCompressAfterDays", 7);
+        logRetentionDays = config.getInt("logRetentionDays", 0);
+        logMaxTotalSizeMB = config.getInt("logMaxTotalSizeMB", 0);
+        channelStore = config.getString("channelStore", "yaml");
+        uuidCacheFormat = config.getString("uuidCacheFormat", "yaml");
         displayChatOnConsole = config.getBoolean("displayChatOnConsole", true);
         globalMarker = config.getString("globalMarker", "!");
         zeroMemberRemove = config.getBoolean("zeroMemberRemove", false);
+        privateMessageIdleMinutes = config.getInt("privateMessageIdleMinutes", 30);
         showListOnJoin = config.getBoolean("showListOnJoin", false);
         createChannelOnJoinCommand =
             config.getBoolean("createChannelOnJoinCommand", false);
@@ -228,6 +286,7 @@ public class LunaChatConfig {
                 "&7[%player -> %to]&f %msg");
 
         opListenAllChannel = config.getBoolean("opListenAllChannel", false);
+        permissionCacheSeconds = config.getInt("permissionCacheSeconds", 60);
 
         minChannelNameLength = config.getInt("minChannelNameLength", 4);
         maxChannelNameLength = config.getInt("maxChannelNameLength", 20);
@@ -243,10 +302,17 @@ public class LunaChatConfig {
         ngword = config.getStringList("ngword");
         ngwordAction = NGWordAction.fromID(config.getString("ngwordAction", "mask"));
 
-        ngwordCompiled = new ArrayList<Pattern>();
-        for ( String word : ngword ) {
-            ngwordCompiled.add(Pattern.compile(word));
+        ngwordFile = config.getString("ngwordFile", "");
+
+        // ngwordFile が指定されている場合は、ファイルからもNGワードを読み込む
+        ngwordAll = new ArrayList<String>(ngword);
+        if ( !ngwordFile.equals("") ) {
+            ngwordAll.addAll(loadNgwordFile(new File(dataFolder, ngwordFile)));
         }
+        ngwordFilter = NGWordFilter.compile(ngwordAll);
+
+        // 互換性のため、getNgwordCompiled が呼ばれたときに初めてコンパイルする
+        ngwordCompiled = null;
 
         enableNormalChatMessageFormat =
                 config.getBoolean("enableNormalChatMessageFormat", true);
@@ -307,6 +373,23 @@ public class LunaChatConfig {
         return playerChatEventListenerPriority;
     }
 
+    /**
+     * 指定した種類のイベントを、発生させない設定になっているかどうか
+     * @param type イベントの種類
+     * @return 発生させないかどうか
+     */
+    public boolean isEventDisabled(EventType type) {
+        return disabledEvents.contains(type);
+    }
+
+    /**
+     * チャンネルチャットの発言処理に、この時間（ミリ秒）以上かかったら、段階ごとの処理時間をログに出力する
+     * @return slowChatWarningMillisを返す
+     */
+    public int getSlowChatWarningMillis() {
+        return slowChatWarningMillis;
+    }
+
     /**
      * チャンネルチャットに入っていない人の発言を、グローバルとして扱うかどうか
      * @return noJoinAsGlobalを返す
@@ -323,6 +406,46 @@ public class LunaChatConfig {
         return loggingChat;
     }
 
+    /**
+     * 指定した日数より古いログを圧縮する
+     * @return logCompressAfterDays（0なら圧縮しない）
+     */
+    public int getLogCompressAfterDays() {
+        return logCompressAfterDays;
+    }
+
+    /**
+     * 指定した日数より古いログを削除する
+     * @return logRetentionDays（0なら削除しない）
+     */
+    public int getLogRetentionDays() {
+        return logRetentionDays;
+    }
+
+    /**
+     * ログフォルダの合計サイズの上限（メガバイト）
+     * @return logMaxTotalSizeMB（0なら制限しない）
+     */
+    public int getLogMaxTotalSizeMB() {
+        return logMaxTotalSizeMB;
+    }
+
+    /**
+     * チャンネルの保存先
+     * @return channelStore（yaml または journal）
+     */
+    public String getChannelStore() {
+        return channelStore;
+    }
+
+    /**
+     * UUIDキャッシュの保存形式
+     * @return uuidCacheFormat（yaml または binary）
+     */
+    public String getUUIDCacheFormat() {
+        return uuidCacheFormat;
+    }
+
     /**
      * チャンネルチャットの発言内容を、コンソールに表示するかどうか
      * @return displayChatOnConsoleを返す
@@ -347,6 +470,14 @@ public class LunaChatConfig {
         return zeroMemberRemove;
     }
 
+    /**
+     * 1:1チャットの会話を、最後の発言から破棄するまでの時間（分）
+     * @return privateMessageIdleMinutesを返す
+     */
+    public int getPrivateMessageIdleMinutes() {
+        return privateMessageIdleMinutes;
+    }
+
     /**
      * ログイン時に、参加中チャンネルを表示するかどうか
      * @return showListOnJoinを返す
@@ -413,6 +544,14 @@ public class LunaChatConfig {
         return opListenAllChannel;
     }
 
+    /**
+     * パーミッションの問い合わせ結果をキャッシュする秒数
+     * @return permissionCacheSeconds（0ならキャッシュしない、マイナスならリロードまで無期限）
+     */
+    public int getPermissionCacheSeconds() {
+        return permissionCacheSeconds;
+    }
+
     /**
      * チャンネルを新規作成するときに、チャンネル名が満たさなければならない、最低文字列長
      * @return minChannelNameLength
@@ -446,7 +585,7 @@ public class LunaChatConfig {
     }
 
     /**
-     * NGワード
+     * NGワード（config.yml に設定されたもののみ）
      * @return ngwordを返す
      * @deprecated 全て正規表現に変更するため、getNgwordCompiledを使用してください
      */
@@ -455,6 +594,14 @@ public class LunaChatConfig {
         return ngword;
     }
 
+    /**
+     * NGワード（config.yml の設定と、ngwordFile から読み込んだものを合わせたもの）
+     * @return ngwordAllを返す
+     */
+    public List<String> getNgwordAll() {
+        return ngwordAll;
+    }
+
     /**
      * NGワードを発言した人に対して実行するアクション<br/>
      *  mask = マスクするのみ<br/>
@@ -467,13 +614,37 @@ public class LunaChatConfig {
     }
 
     /**
-     * コンパイルされたNGワード
+     * コンパイルされたNGワード（config.yml に設定されたもののみ）
      * @return ngwordCompiledを返す
+     * @deprecated NGワードのマスクには、getNgwordFilterを使用してください
      */
-    public List<Pattern> getNgwordCompiled() {
+    @Deprecated
+    public synchronized List<Pattern> getNgwordCompiled() {
+        if ( ngwordCompiled == null ) {
+            ngwordCompiled = new ArrayList<Pattern>();
+            for ( String word : ngword ) {
+                ngwordCompiled.add(Pattern.compile(word));
+            }
+        }
         return ngwordCompiled;
     }
 
+    /**
+     * NGワードの検出とマスクを行うフィルター
+     * @return ngwordFilterを返す
+     */
+    public NGWordFilter getNgwordFilter() {
+        return ngwordFilter;
+    }
+
+    /**
+     * NGワードを1行に1つずつ記載したファイル
+     * @return ngwordFileを返す
+     */
+    public String getNgwordFile() {
+        return ngwordFile;
+    }
+
     /**
      * ブロードキャストチャンネルの発言内容を、dynmapに送信するかどうか。<br/>
      * dynmapがロードされていない場合は、この設定は無視される（false扱い）。
@@ -640,4 +811,30 @@ public class LunaChatConfig {
 
         return def;
     }
+
+    /**
+     * NGワードのファイルを読み込む。空行と # から始まる行は無視する。
+     * @param file ファイル
+     * @return NGワード
+     */
+    private static List<String> loadNgwordFile(File file) {
+
+        List<String> result = new ArrayList<String>();
+        if ( !file.exists() ) {
+            return result;
+        }
+
+        try {
+            for ( String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8) ) {
+                String word = line.trim();
+                if ( !word.isEmpty() && !word.startsWith("#") ) {
+                    result.add(word);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return result;
+    }
 }
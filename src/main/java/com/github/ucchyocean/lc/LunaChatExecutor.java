@@ -0,0 +1,475 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * LunaChatの非同期処理を実行するクラス。<br/>
+ * 処理の種類ごとに、スレッド数とキューの長さが制限されたスレッドプールを持つ。
+ * キーを指定して実行したタスクは、同じキーのタスク同士で、登録された順番に1つずつ実行される。
+ * （例えば、発言者をキーにすれば、同じプレイヤーの発言の順番が入れ替わることがない。）
+ * @author ucchy
+ */
+public class LunaChatExecutor {
+
+    /**
+     * 処理の種類
+     * @author ucchy
+     */
+    public enum TaskType {
+
+        /** チャットの発言処理 */
+        CHAT("Chat", Math.max(2, Runtime.getRuntime().availableProcessors() / 2), 1024, 32, false),
+
+        /** Japanize変換（GoogleIMEへの問い合わせを含む） */
+        JAPANIZE("Japanize", 2, 256, 16, false),
+
+        /** ファイルの読み書き、その他の非同期処理 */
+        IO("IO", 2, 4096, 4096, true);
+
+        private final String name;
+        private final int threads;
+        private final int queueCapacity;
+        private final int laneCapacity;
+        private final boolean runOnReject;
+
+        /**
+         * コンストラクタ
+         * @param name スレッド名に使用する名前
+         * @param threads スレッド数
+         * @param queueCapacity 実行待ちにできるタスクの最大数
+         * @param laneCapacity 1つのキーで実行待ちにできるタスクの最大数
+         * @param runOnReject 実行待ちにできなかったときに、呼び出し元のスレッドで実行するかどうか（falseなら破棄する）
+         */
+        TaskType(String name, int threads, int queueCapacity, int laneCapacity, boolean runOnReject) {
+            this.name = name;
+            this.threads = threads;
+            this.queueCapacity = queueCapacity;
+            this.laneCapacity = laneCapacity;
+            this.runOnReject = runOnReject;
+        }
+    }
+
+    /** 1つのキーのタスクを、続けて実行する最大数。これを超えたら他のキーに順番を譲る。 */
+    private static final int LANE_BATCH = 16;
+
+    private final EnumMap<TaskType, Pool> pools;
+
+    /**
+     * コンストラクタ
+     */
+    public LunaChatExecutor() {
+        pools = new EnumMap<TaskType, Pool>(TaskType.class);
+        for ( TaskType type : TaskType.values() ) {
+            pools.put(type, new Pool(type));
+        }
+    }
+
+    /**
+     * タスクを実行する
+     * @param type 処理の種類
+     * @param task タスク
+     */
+    public void execute(TaskType type, Runnable task) {
+        execute(type, null, task);
+    }
+
+    /**
+     * タスクを実行する。同じキーを指定したタスクは、登録された順番に1つずつ実行される。
+     * @param type 処理の種類
+     * @param key キー、順番を気にしないならnull
+     * @param task タスク
+     */
+    public void execute(TaskType type, @Nullable Object key, Runnable task) {
+        pools.get(type).submit(key, task);
+    }
+
+    /**
+     * 完了がFutureで通知されるタスクを実行する。
+     * 同じキーを指定したタスクは、前のタスクが返したFutureが完了してから、次のタスクが開始される。
+     * Futureの完了を待つ間は、スレッドを占有しない。
+     * @param type 処理の種類
+     * @param key キー、順番を気にしないならnull
+     * @param task タスク（開始して、完了を通知するFutureを返す）
+     * @return タスクの完了を通知するFuture。キューがいっぱいで受け付けられなかった場合は、例外で完了する。
+     */
+    public CompletableFuture<Void> executeStaged(TaskType type, @Nullable Object key,
+            Supplier<? extends CompletableFuture<?>> task) {
+        StagedTask staged = new StagedTask(task);
+        pools.get(type).submit(key, staged);
+        return staged.done;
+    }
+
+    /**
+     * Futureの完了後に、続きの処理を実行する。<br/>
+     * Futureが既に完了している場合は、呼び出し元のスレッドでそのまま実行する。
+     * 完了していない場合は、他のプラグインのスレッド（イベントのリスナーを処理したスレッドなど）で実行しないよう、
+     * 指定した種類のスレッドプールで実行する。キューがいっぱいの場合は、完了させたスレッドで実行する。
+     * @param type 処理の種類
+     * @param future Future
+     * @param next 続きの処理
+     * @return 続きの処理の結果のFuture
+     */
+    public <T, U> CompletableFuture<U> thenCompose(TaskType type, CompletableFuture<T> future,
+            Function<? super T, ? extends CompletionStage<U>> next) {
+        if ( future.isDone() ) {
+            return future.thenCompose(next);
+        }
+        Pool pool = pools.get(type);
+        return future.thenComposeAsync(next, task -> pool.submit(null, new CallerRunsTask(task)));
+    }
+
+    /**
+     * 実行待ちのタスクの数を返す
+     * @param type 処理の種類
+     * @return 実行待ちのタスクの数
+     */
+    public int getQueueDepth(TaskType type) {
+        return pools.get(type).pending.get();
+    }
+
+    /**
+     * キューがいっぱいで受け付けられなかったタスクの数を返す
+     * @param type 処理の種類
+     * @return 受け付けられなかったタスクの数
+     */
+    public long getRejectedCount(TaskType type) {
+        return pools.get(type).rejected.get();
+    }
+
+    /**
+     * 実行が完了したタスクの数を返す
+     * @param type 処理の種類
+     * @return 実行が完了したタスクの数
+     */
+    public long getCompletedCount(TaskType type) {
+        return pools.get(type).completed.get();
+    }
+
+    /**
+     * 全てのスレッドプールを停止する。実行待ちのタスクは、指定した時間まで完了を待つ。
+     * @param timeoutMillis 待つ時間（ミリ秒）
+     */
+    public void shutdown(long timeoutMillis) {
+        for ( Pool pool : pools.values() ) {
+            pool.executor.shutdown();
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for ( Pool pool : pools.values() ) {
+            try {
+                long wait = Math.max(0, deadline - System.currentTimeMillis());
+                if ( !pool.executor.awaitTermination(wait, TimeUnit.MILLISECONDS) ) {
+                    pool.executor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                pool.executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * 処理の種類ごとのスレッドプール
+     * @author ucchy
+     */
+    private static class Pool {
+
+        private final TaskType type;
+        private final ThreadPoolExecutor executor;
+        private final ConcurrentHashMap<Object, Lane> lanes;
+        private final AtomicInteger pending;
+        private final AtomicLong rejected;
+        private final AtomicLong completed;
+
+        /**
+         * コンストラクタ
+         * @param type 処理の種類
+         */
+        Pool(TaskType type) {
+            this.type = type;
+            this.lanes = new ConcurrentHashMap<Object, Lane>();
+            this.pending = new AtomicInteger();
+            this.rejected = new AtomicLong();
+            this.completed = new AtomicLong();
+
+            final AtomicInteger count = new AtomicInteger();
+            ThreadFactory factory = new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "LunaChat-" + Pool.this.type.name + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+
+            // 実行待ちの数は pending で制限しているので、キューがあふれることはない
+            this.executor = new ThreadPoolExecutor(type.threads, type.threads,
+                    60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(type.queueCapacity), factory);
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+
+        /**
+         * タスクを登録する
+         * @param key キー
+         * @param task タスク
+         */
+        void submit(@Nullable Object key, final Runnable task) {
+
+            if ( pending.incrementAndGet() > type.queueCapacity ) {
+                pending.decrementAndGet();
+                reject(task);
+                return;
+            }
+
+            if ( key == null ) {
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            runTask(task);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    pending.decrementAndGet();
+                    reject(task);
+                }
+                return;
+            }
+
+            final boolean[] full = new boolean[1];
+            final boolean[] start = new boolean[1];
+            Lane lane = lanes.compute(key, (k, l) -> {
+                if ( l == null ) {
+                    l = new Lane(k);
+                }
+                if ( l.tasks.size() >= type.laneCapacity ) {
+                    full[0] = true;
+                    return l;
+                }
+                l.tasks.add(task);
+                if ( !l.running ) {
+                    l.running = true;
+                    start[0] = true;
+                }
+                return l;
+            });
+
+            if ( full[0] ) {
+                pending.decrementAndGet();
+                reject(task);
+                return;
+            }
+            if ( start[0] ) {
+                schedule(lane);
+            }
+        }
+
+        /**
+         * キーごとの実行待ちのタスクを、スレッドプールで実行させる
+         * @param lane キーごとの実行待ちのタスク
+         */
+        private void schedule(Lane lane) {
+            try {
+                executor.execute(lane);
+            } catch (RejectedExecutionException e) {
+                // 停止済みの場合は、残りのタスクを破棄する
+                Runnable task;
+                while ( (task = lane.poll()) != null ) {
+                    pending.decrementAndGet();
+                    reject(task);
+                }
+            }
+        }
+
+        /**
+         * タスクを実行する
+         * @param task タスク
+         */
+        private void runTask(Runnable task) {
+            if ( task instanceof StagedTask ) {
+                startStaged((StagedTask)task);
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable e) {
+                e.printStackTrace();
+            } finally {
+                pending.decrementAndGet();
+                completed.incrementAndGet();
+            }
+        }
+
+        /**
+         * 完了がFutureで通知されるタスクを開始する。実行待ちの数は、Futureが完了したときに減らす。
+         * @param task タスク
+         * @return タスクが返したFuture
+         */
+        private CompletableFuture<?> startStaged(StagedTask task) {
+            CompletableFuture<?> future = task.start();
+            future.whenComplete((r, e) -> {
+                pending.decrementAndGet();
+                completed.incrementAndGet();
+            });
+            return future;
+        }
+
+        /**
+         * 受け付けられなかったタスクを処理する
+         * @param task タスク
+         */
+        private void reject(Runnable task) {
+            long count = rejected.incrementAndGet();
+            if ( count == 1 || count % 100 == 0 ) {
+                LunaChat.getPlugin().log(Level.WARNING, String.format(
+                        "LunaChat %s queue is full. %d task(s) rejected so far.", type.name, count));
+            }
+            if ( type.runOnReject || task instanceof CallerRunsTask ) {
+                task.run();
+            } else if ( task instanceof StagedTask ) {
+                ((StagedTask)task).done.completeExceptionally(
+                        new RejectedExecutionException(type.name + " queue is full"));
+            }
+        }
+
+        /**
+         * 同じキーのタスクを、順番に1つずつ実行するためのクラス
+         * @author ucchy
+         */
+        private class Lane implements Runnable {
+
+            private final Object key;
+            private final ArrayDeque<Runnable> tasks;
+            private boolean running;
+
+            Lane(Object key) {
+                this.key = key;
+                this.tasks = new ArrayDeque<Runnable>();
+            }
+
+            /**
+             * 次のタスクを取り出す。無い場合はこのレーンを削除する。
+             * @return 次のタスク、無い場合はnull
+             */
+            Runnable poll() {
+                final Runnable[] next = new Runnable[1];
+                lanes.computeIfPresent(key, (k, l) -> {
+                    next[0] = l.tasks.poll();
+                    if ( next[0] == null ) {
+                        l.running = false;
+                        return null;
+                    }
+                    return l;
+                });
+                return next[0];
+            }
+
+            @Override
+            public void run() {
+                for ( int i = 0; i < LANE_BATCH; i++ ) {
+                    Runnable task = poll();
+                    if ( task == null ) {
+                        return;
+                    }
+                    if ( task instanceof StagedTask ) {
+                        CompletableFuture<?> future = startStaged((StagedTask)task);
+                        if ( !future.isDone() ) {
+                            // 完了してから、このキーの次のタスクを実行する
+                            future.whenComplete((r, e) -> schedule(this));
+                            return;
+                        }
+                        continue;
+                    }
+                    runTask(task);
+                }
+                // 他のキーのタスクに順番を譲る
+                schedule(this);
+            }
+        }
+    }
+
+    /**
+     * 完了がFutureで通知されるタスク
+     * @author ucchy
+     */
+    private static class StagedTask implements Runnable {
+
+        private final Supplier<? extends CompletableFuture<?>> task;
+        private final CompletableFuture<Void> done;
+
+        StagedTask(Supplier<? extends CompletableFuture<?>> task) {
+            this.task = task;
+            this.done = new CompletableFuture<Void>();
+        }
+
+        /**
+         * タスクを開始する。タスクが例外を投げた場合も、完了したFutureを返す。
+         * @return タスクの完了を通知するFuture
+         */
+        CompletableFuture<?> start() {
+            CompletableFuture<?> future;
+            try {
+                future = task.get();
+            } catch (Throwable e) {
+                CompletableFuture<Void> failed = new CompletableFuture<Void>();
+                failed.completeExceptionally(e);
+                future = failed;
+            }
+            if ( future == null ) {
+                future = CompletableFuture.completedFuture(null);
+            }
+            future.whenComplete((r, e) -> {
+                if ( e != null ) {
+                    e.printStackTrace();
+                    done.completeExceptionally(e);
+                } else {
+                    done.complete(null);
+                }
+            });
+            return future;
+        }
+
+        @Override
+        public void run() {
+            start();
+        }
+    }
+
+    /**
+     * キューがいっぱいで受け付けられなかった場合に、呼び出し元のスレッドで実行するタスク
+     * @author ucchy
+     */
+    private static class CallerRunsTask implements Runnable {
+
+        private final Runnable task;
+
+        CallerRunsTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * チャットログの圧縮と削除を行うクラス。<br/>
+ * 指定日数より古い日付のフォルダのログを gzip で圧縮し（xxx.log → xxx.log.gz）、
+ * 保存期間を過ぎたフォルダや、合計サイズの上限を超えた分の古いフォルダを削除する。
+ * 圧縮したログも、LunaChatLogger からそのまま読み込むことができる。
+ * @author ucchy
+ */
+public class LunaChatLogArchiver implements Runnable {
+
+    /** 圧縮したログファイルの拡張子 */
+    static final String GZIP_SUFFIX = ".gz";
+
+    private static final String LOG_SUFFIX = ".log";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final File folder;
+
+    /**
+     * コンストラクタ
+     * @param dataFolder プラグインのデータフォルダ
+     */
+    public LunaChatLogArchiver(File dataFolder) {
+        this.folder = new File(dataFolder, "logs");
+    }
+
+    /**
+     * 圧縮と削除を実行する
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+
+        LunaChatConfig config = LunaChat.getConfig();
+        if ( config == null ) {
+            return;
+        }
+        int compressDays = config.getLogCompressAfterDays();
+        int retentionDays = config.getLogRetentionDays();
+        long maxTotalSize = config.getLogMaxTotalSizeMB() * 1024L * 1024L;
+
+        LocalDate today = LocalDate.now();
+        TreeMap<LocalDate, File> days = getDayFolders(today);
+
+        // 保存期間を過ぎたフォルダを削除する
+        if ( retentionDays > 0 ) {
+            LocalDate limit = today.minusDays(retentionDays);
+            while ( !days.isEmpty() && days.firstKey().isBefore(limit) ) {
+                deleteFolder(days.pollFirstEntry().getValue());
+            }
+        }
+
+        // 古いフォルダのログを圧縮する
+        if ( compressDays > 0 ) {
+            LocalDate limit = today.minusDays(compressDays);
+            for ( Map.Entry<LocalDate, File> entry : days.headMap(limit, false).entrySet() ) {
+                compressFolder(entry.getValue());
+            }
+        }
+
+        // 合計サイズの上限を超えていたら、古いフォルダから削除する
+        if ( maxTotalSize > 0 ) {
+            long total = 0;
+            for ( File day : days.values() ) {
+                total += getSize(day);
+            }
+            while ( total > maxTotalSize && !days.isEmpty() ) {
+                File oldest = days.pollFirstEntry().getValue();
+                total -= getSize(oldest);
+                deleteFolder(oldest);
+            }
+        }
+    }
+
+    /**
+     * 今日より前の日付のログフォルダを、日付順に取得する
+     * @param today 今日の日付
+     * @return 日付とフォルダ
+     */
+    private TreeMap<LocalDate, File> getDayFolders(LocalDate today) {
+
+        TreeMap<LocalDate, File> result = new TreeMap<LocalDate, File>();
+        File[] folders = folder.listFiles();
+        if ( folders == null ) {
+            return result;
+        }
+
+        for ( File day : folders ) {
+            if ( !day.isDirectory() ) continue;
+            try {
+                LocalDate d = LocalDate.parse(day.getName(), LunaChatLogWriter.FOLDER_FORMAT);
+                if ( d.isBefore(today) ) {
+                    result.put(d, day);
+                }
+            } catch (DateTimeParseException e) {
+                // ログフォルダ以外のフォルダは無視する
+            }
+        }
+        return result;
+    }
+
+    /**
+     * フォルダ内のログファイルを圧縮する
+     * @param day フォルダ
+     */
+    private void compressFolder(File day) {
+
+        File[] files = day.listFiles();
+        if ( files == null ) return;
+
+        for ( File file : files ) {
+            if ( !file.isFile() || !file.getName().endsWith(LOG_SUFFIX) ) continue;
+
+            File gz = new File(day, file.getName() + GZIP_SUFFIX);
+            if ( gz.exists() ) {
+                // 圧縮済み（元ファイルの削除前に停止した）なので、元ファイルを削除するだけでよい
+                file.delete();
+                continue;
+            }
+
+            File temp = new File(day, gz.getName() + TEMP_SUFFIX);
+            try ( InputStream in = new FileInputStream(file);
+                    OutputStream out = new GZIPOutputStream(new FileOutputStream(temp), 64 * 1024) ) {
+                byte[] buf = new byte[64 * 1024];
+                int len;
+                while ( (len = in.read(buf)) != -1 ) {
+                    out.write(buf, 0, len);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                temp.delete();
+                continue;
+            }
+
+            try {
+                Files.move(temp.toPath(), gz.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                file.delete();
+            } catch (IOException e) {
+                e.printStackTrace();
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * フォルダを削除する
+     * @param day フォルダ
+     */
+    private void deleteFolder(File day) {
+        File[] files = day.listFiles();
+        if ( files != null ) {
+            for ( File file : files ) {
+                file.delete();
+            }
+        }
+        if ( !day.delete() ) {
+            LunaChat.getPlugin().log(Level.WARNING, "Could not delete the log folder " + day.getPath());
+        }
+    }
+
+    /**
+     * フォルダ内のファイルの合計サイズを返す
+     * @param day フォルダ
+     * @return 合計サイズ（バイト）
+     */
+    private long getSize(File day) {
+        long size = 0;
+        File[] files = day.listFiles();
+        if ( files != null ) {
+            for ( File file : files ) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * チャットログを1ページ分取得した結果
+ * @author ucchy
+ */
+public class LunaChatLogPage {
+
+    private final List<String> lines;
+    private final long nextCursor;
+
+    /**
+     * コンストラクタ
+     * @param lines ログデータ
+     * @param nextCursor 次のページの読み込み開始位置、次のページが無いならマイナスの値
+     */
+    LunaChatLogPage(List<String> lines, long nextCursor) {
+        this.lines = lines;
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * ログデータを返す
+     * @return ログデータ
+     */
+    public List<String> getLines() {
+        return Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * 次のページの読み込み開始位置を返す
+     * @return 読み込み開始位置、次のページが無いならマイナスの値
+     */
+    public long getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * 次のページがあるかどうか
+     * @return 次のページがあるかどうか
+     */
+    public boolean hasNext() {
+        return nextCursor >= 0;
+    }
+}
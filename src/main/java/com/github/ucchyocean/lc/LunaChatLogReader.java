@@ -0,0 +1,388 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * チャットログファイルを読み込むクラス。<br/>
+ * ファイル全体をメモリに読み込まずに、1行ずつフィルタを適用しながら読み進める。
+ * 後ろから読み込むこともでき、必要な件数が集まった時点で読み込みをやめる。
+ * @author ucchy
+ */
+final class LunaChatLogReader {
+
+    /** 後ろから読み込むときに、1回に読み込むサイズ（バイト） */
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    /** 複数日の検索で、同時に読み込むファイルの数 */
+    private static final int PARALLELISM = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /** 複数日の検索に使うスレッドプール */
+    private static final ForkJoinPool SEARCH_POOL = new ForkJoinPool(PARALLELISM);
+
+    /** 複数日の検索のカーソルで、日付を格納する位置（下位ビットにはファイル内の位置を格納する） */
+    private static final int DAY_SHIFT = 40;
+
+    /** 複数日の検索のカーソルで、ファイル内の位置を取り出すマスク。この値はファイルの末尾を表す。 */
+    private static final long OFFSET_MASK = (1L << DAY_SHIFT) - 1;
+
+    private LunaChatLogReader() {
+        // インスタンス化しない
+    }
+
+    /**
+     * ログの1行が、フィルタに一致するかどうかを返す
+     * @param line ログの1行（「日時,発言内容,発言者」の形式）
+     * @param player プレイヤー名、フィルタしないならnull
+     * @param filter フィルタ、フィルタしないならnull
+     * @return 一致するかどうか
+     */
+    static boolean matches(String line, String player, String filter) {
+
+        if ( player == null && filter == null ) {
+            return true;
+        }
+
+        int first = line.indexOf(',');
+        if ( first < 0 ) {
+            return false;
+        }
+        int second = line.indexOf(',', first + 1);
+
+        if ( player != null ) {
+            if ( second < 0 ) {
+                return false;
+            }
+            int third = line.indexOf(',', second + 1);
+            String name = (third < 0) ? line.substring(second + 1) : line.substring(second + 1, third);
+            if ( !name.contains(player) ) {
+                return false;
+            }
+        }
+
+        if ( filter != null ) {
+            String message = (second < 0) ? line.substring(first + 1) : line.substring(first + 1, second);
+            if ( !message.contains(filter) ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * ログファイルを先頭から読み込んで、フィルタに一致する行を追加する
+     * @param file ログファイル
+     * @param player プレイヤー名、フィルタしないならnull
+     * @param filter フィルタ、フィルタしないならnull
+     * @param result 一致した行を追加するリスト
+     */
+    static void readForward(File file, String player, String filter, List<String> result) {
+
+        if ( !file.exists() ) return;
+
+        try ( BufferedReader reader = openReader(file) ) {
+
+            String line;
+            while ( (line = reader.readLine()) != null ) {
+                line = line.trim();
+                if ( line.length() > 0 && matches(line, player, filter) ) {
+                    result.add(line);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * ログファイルを開く。圧縮されたログファイルは、展開しながら読み込む。
+     * @param file ログファイル
+     * @return リーダー
+     * @throws IOException
+     */
+    private static BufferedReader openReader(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if ( isCompressed(file) ) {
+            try {
+                in = new GZIPInputStream(in, BLOCK_SIZE);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BLOCK_SIZE);
+    }
+
+    /**
+     * 圧縮されたログファイルかどうか
+     * @param file ログファイル
+     * @return 圧縮されているかどうか
+     */
+    static boolean isCompressed(File file) {
+        return file.getName().endsWith(LunaChatLogArchiver.GZIP_SUFFIX);
+    }
+
+    /**
+     * ログファイルを後ろから読み込んで、フィルタに一致する行を、新しい順に取得する
+     * @param file ログファイル
+     * @param player プレイヤー名、フィルタしないならnull
+     * @param filter フィルタ、フィルタしないならnull
+     * @param cursor 読み込みを開始する位置、末尾から読み込むならマイナスの値
+     *   （圧縮されたログファイルの場合は行番号、それ以外はファイル内の位置）
+     * @param limit 取得する最大件数
+     * @return 取得結果
+     */
+    static LunaChatLogPage readBackward(File file, String player, String filter, long cursor, int limit) {
+
+        List<String> lines = new ArrayList<String>();
+        if ( !file.exists() || limit <= 0 ) {
+            return new LunaChatLogPage(lines, -1);
+        }
+
+        if ( isCompressed(file) ) {
+            return readBackwardCompressed(file, player, filter, cursor, limit);
+        }
+
+        try ( RandomAccessFile raf = new RandomAccessFile(file, "r") ) {
+
+            long pos = raf.length();
+            if ( cursor >= 0 && cursor < pos ) {
+                pos = cursor;
+            }
+
+            // ブロックの先頭で途切れている行の断片
+            byte[] carry = new byte[0];
+
+            while ( pos > 0 ) {
+
+                int size = (int)Math.min(BLOCK_SIZE, pos);
+                long blockStart = pos - size;
+                byte[] buf = new byte[size + carry.length];
+                raf.seek(blockStart);
+                raf.readFully(buf, 0, size);
+                System.arraycopy(carry, 0, buf, size, carry.length);
+
+                // 後ろから改行を探して、1行ずつ処理する
+                int end = buf.length;
+                for ( int i = buf.length - 1; i >= 0; i-- ) {
+                    if ( buf[i] != '\n' ) continue;
+                    if ( accept(buf, i + 1, end, player, filter, lines) && lines.size() >= limit ) {
+                        return new LunaChatLogPage(lines, blockStart + i + 1);
+                    }
+                    end = i;
+                }
+
+                carry = new byte[end];
+                System.arraycopy(buf, 0, carry, 0, end);
+                pos = blockStart;
+            }
+
+            // ファイルの先頭の行
+            accept(carry, 0, carry.length, player, filter, lines);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        return new LunaChatLogPage(lines, -1);
+    }
+
+    /**
+     * 圧縮されたログファイルは後ろから読めないので、先頭から展開しながら読み込み、
+     * カーソルより前でフィルタに一致した行のうち、最後の指定件数だけを保持しておく。
+     * @param file ログファイル
+     * @param player プレイヤー名、フィルタしないならnull
+     * @param filter フィルタ、フィルタしないならnull
+     * @param cursor 読み込みを終了する行番号、最後まで読み込むならマイナスの値
+     * @param limit 取得する最大件数
+     * @return 取得結果
+     */
+    private static LunaChatLogPage readBackwardCompressed(
+            File file, String player, String filter, long cursor, int limit) {
+
+        ArrayDeque<String> lines = new ArrayDeque<String>(limit);
+        ArrayDeque<Long> lineNumbers = new ArrayDeque<Long>(limit);
+        boolean dropped = false;
+
+        try ( BufferedReader reader = openReader(file) ) {
+
+            String line;
+            long lineNumber = 0;
+            while ( (cursor < 0 || lineNumber < cursor) && (line = reader.readLine()) != null ) {
+                line = line.trim();
+                if ( line.length() > 0 && matches(line, player, filter) ) {
+                    if ( lines.size() >= limit ) {
+                        lines.pollFirst();
+                        lineNumbers.pollFirst();
+                        dropped = true;
+                    }
+                    lines.addLast(line);
+                    lineNumbers.addLast(lineNumber);
+                }
+                lineNumber++;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        List<String> result = new ArrayList<String>(lines);
+        Collections.reverse(result);
+        // 保持しなかった古い行があれば、保持している一番古い行の行番号が次のカーソルになる
+        return new LunaChatLogPage(result, dropped ? lineNumbers.peekFirst() : -1);
+    }
+
+    /**
+     * 複数の日付のログファイルを、新しい日付から順に後ろから読み込んで、
+     * フィルタに一致する行を、新しい順に取得する。<br/>
+     * ファイルは同時に複数読み込むが、結果は日付の順番に並べられ、
+     * 指定した件数が集まった時点で、残りのファイルは読み込まない。
+     * @param files 日付とログファイル
+     * @param player プレイヤー名、フィルタしないならnull
+     * @param filter フィルタ、フィルタしないならnull
+     * @param cursor 前のページの {@link LunaChatLogPage#getNextCursor()}、最初のページならマイナスの値
+     * @param limit 取得する最大件数
+     * @return 取得結果
+     */
+    static LunaChatLogPage readDays(NavigableMap<LocalDate, File> files,
+            final String player, final String filter, long cursor, int limit) {
+
+        List<String> lines = new ArrayList<String>();
+        if ( limit <= 0 ) {
+            return new LunaChatLogPage(lines, -1);
+        }
+
+        // カーソルの日付以前のファイルを、新しい順に並べる
+        NavigableMap<LocalDate, File> targets = files;
+        long firstOffset = -1;
+        if ( cursor >= 0 ) {
+            targets = files.headMap(LocalDate.ofEpochDay(cursor >>> DAY_SHIFT), true);
+            long offset = cursor & OFFSET_MASK;
+            firstOffset = (offset == OFFSET_MASK) ? -1 : offset;
+        }
+        List<Map.Entry<LocalDate, File>> days =
+                new ArrayList<Map.Entry<LocalDate, File>>(targets.descendingMap().entrySet());
+        if ( days.isEmpty() ) {
+            return new LunaChatLogPage(lines, -1);
+        }
+        boolean startsAtCursor = cursor >= 0 && days.get(0).getKey().toEpochDay() == (cursor >>> DAY_SHIFT);
+
+        int index = 0;
+        while ( index < days.size() ) {
+
+            // 同時に読み込む数ずつ、ファイルを読み込む
+            final int need = limit - lines.size();
+            int waveEnd = Math.min(days.size(), index + PARALLELISM);
+            List<Future<LunaChatLogPage>> futures = new ArrayList<Future<LunaChatLogPage>>();
+            for ( int i = index; i < waveEnd; i++ ) {
+                final File file = days.get(i).getValue();
+                final long dayCursor = (i == 0 && startsAtCursor) ? firstOffset : -1;
+                futures.add(SEARCH_POOL.submit(new Callable<LunaChatLogPage>() {
+                    @Override
+                    public LunaChatLogPage call() {
+                        return readBackward(file, player, filter, dayCursor, need);
+                    }
+                }));
+            }
+
+            // 日付の順番に結果をつなげる
+            for ( int i = index; i < waveEnd; i++ ) {
+
+                LunaChatLogPage page = getResult(futures.get(i - index));
+                int remaining = limit - lines.size();
+                if ( page.getLines().size() < remaining ) {
+                    lines.addAll(page.getLines());
+                    continue;
+                }
+
+                // ページがいっぱいになったので、このファイルの続きの位置を求めて終了する
+                if ( page.getLines().size() > remaining ) {
+                    long dayCursor = (i == 0 && startsAtCursor) ? firstOffset : -1;
+                    page = readBackward(days.get(i).getValue(), player, filter, dayCursor, remaining);
+                }
+                lines.addAll(page.getLines());
+                for ( int j = i - index + 1; j < futures.size(); j++ ) {
+                    futures.get(j).cancel(true);
+                }
+
+                long next = -1;
+                if ( page.hasNext() ) {
+                    next = encodeCursor(days.get(i).getKey(), page.getNextCursor());
+                } else if ( i + 1 < days.size() ) {
+                    next = encodeCursor(days.get(i + 1).getKey(), OFFSET_MASK);
+                }
+                return new LunaChatLogPage(lines, next);
+            }
+
+            index = waveEnd;
+        }
+
+        return new LunaChatLogPage(lines, -1);
+    }
+
+    /**
+     * 複数日の検索のカーソルを作成する
+     * @param day 日付
+     * @param offset ファイル内の位置
+     * @return カーソル
+     */
+    private static long encodeCursor(LocalDate day, long offset) {
+        return (day.toEpochDay() << DAY_SHIFT) | (offset & OFFSET_MASK);
+    }
+
+    /**
+     * 読み込み結果を取得する。読み込みに失敗した場合は、空の結果を返す。
+     * @param future 読み込み処理
+     * @return 読み込み結果
+     */
+    private static LunaChatLogPage getResult(Future<LunaChatLogPage> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        return new LunaChatLogPage(new ArrayList<String>(), -1);
+    }
+
+    /**
+     * 1行をデコードし、フィルタに一致すれば追加する
+     * @return 追加したかどうか
+     */
+    private static boolean accept(byte[] buf, int start, int end,
+            String player, String filter, List<String> lines) {
+        if ( start >= end ) {
+            return false;
+        }
+        String line = new String(buf, start, end - start, StandardCharsets.UTF_8).trim();
+        if ( line.length() == 0 || !matches(line, player, filter) ) {
+            return false;
+        }
+        lines.add(line);
+        return true;
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import com.github.ucchyocean.lc.util.Utility;
+
+/**
+ * チャットログの書き込みを行うクラス。<br/>
+ * ログフォルダごとに1つの書き込みスレッドを持ち、各ロガーから受け取ったログを、
+ * まとめてファイルへ書き込む。ファイルはチャンネルと日付ごとに開いたままにしておき、
+ * 日付が変わったときに、新しい日付のフォルダのファイルへ切り替える。
+ * @author ucchy
+ */
+class LunaChatLogWriter implements Runnable {
+
+    /** ログの時刻の書式 */
+    private static final DateTimeFormatter LINE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    /** ログフォルダの日付の書式 */
+    static final DateTimeFormatter FOLDER_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    /** 書き込まずに溜めておく最大サイズ（バイト）、これを超えたらすぐに書き込む */
+    private static final int FLUSH_SIZE = 64 * 1024;
+
+    /** 書き込まずに溜めておく最大時間（ミリ秒） */
+    private static final long FLUSH_INTERVAL = 500L;
+
+    /** 1回に取り出すログの最大数 */
+    private static final int BATCH_SIZE = 1024;
+
+    private static final ConcurrentHashMap<File, LunaChatLogWriter> WRITERS =
+            new ConcurrentHashMap<File, LunaChatLogWriter>();
+
+    private final File folder;
+    private final ZoneId zone;
+    private final ConcurrentLinkedQueue<Entry> queue;
+    private final Thread thread;
+    private volatile boolean running;
+
+    // 以下は書き込みスレッドからのみ使用する
+    private final Map<String, LogFile> files;
+    private LocalDate currentDay;
+    private long nextDayStart;
+    private int pendingBytes;
+    private long lastFlush;
+
+    /**
+     * コンストラクタ
+     * @param folder ログフォルダ
+     */
+    private LunaChatLogWriter(File folder) {
+        this.folder = folder;
+        this.zone = ZoneId.systemDefault();
+        this.queue = new ConcurrentLinkedQueue<Entry>();
+        this.files = new HashMap<String, LogFile>();
+        this.running = true;
+        this.thread = new Thread(this, "LunaChat-LogWriter");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * 指定したログフォルダの書き込みクラスを取得する
+     * @param folder ログフォルダ
+     * @return 書き込みクラス
+     */
+    static LunaChatLogWriter getInstance(File folder) {
+        return WRITERS.computeIfAbsent(folder.getAbsoluteFile(), LunaChatLogWriter::new);
+    }
+
+    /**
+     * 全ての書き込みクラスを停止する。溜まっているログは、指定した時間まで書き込みを待つ。
+     * @param timeoutMillis 待つ時間（ミリ秒）
+     */
+    static void shutdownAll(long timeoutMillis) {
+        for ( LunaChatLogWriter writer : WRITERS.values() ) {
+            writer.running = false;
+            LockSupport.unpark(writer.thread);
+        }
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        for ( LunaChatLogWriter writer : WRITERS.values() ) {
+            try {
+                writer.thread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        WRITERS.clear();
+    }
+
+    /**
+     * ログを書き込む
+     * @param name ログ名
+     * @param message ログ内容
+     * @param player 発言者名
+     */
+    void write(String name, String message, String player) {
+        queue.add(new Entry(name, System.currentTimeMillis(), message, player));
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * ログフォルダを返す
+     * @return ログフォルダ
+     */
+    File getFolder() {
+        return folder;
+    }
+
+    /**
+     * 指定した日付のログファイルを返す
+     * @param name ログ名
+     * @param day 日付
+     * @return ログファイル
+     */
+    File getFile(String name, LocalDate day) {
+        return new File(getDayFolder(day), name + ".log");
+    }
+
+    /**
+     * 指定した日付のログフォルダを返す
+     * @param day 日付
+     * @return ログフォルダ
+     */
+    File getDayFolder(LocalDate day) {
+        return new File(folder, FOLDER_FORMAT.format(day));
+    }
+
+    /**
+     * 書き込みスレッドの処理
+     * @see java.lang.Runnable#run()
+     */
+    @Override
+    public void run() {
+
+        lastFlush = System.currentTimeMillis();
+
+        while ( running || !queue.isEmpty() ) {
+
+            int count = 0;
+            Entry entry;
+            while ( count < BATCH_SIZE && (entry = queue.poll()) != null ) {
+                append(entry);
+                count++;
+            }
+
+            long now = System.currentTimeMillis();
+            if ( pendingBytes >= FLUSH_SIZE
+                    || (pendingBytes > 0 && now - lastFlush >= FLUSH_INTERVAL) ) {
+                flush();
+            }
+
+            if ( count < BATCH_SIZE && running ) {
+                // 次のログが来るか、次に書き込む時間になるまで待つ
+                long wait = (pendingBytes > 0) ? Math.max(1, FLUSH_INTERVAL - (now - lastFlush)) : FLUSH_INTERVAL;
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(wait));
+            }
+        }
+
+        flush();
+        for ( LogFile file : files.values() ) {
+            file.close();
+        }
+        files.clear();
+    }
+
+    /**
+     * ログを、ファイルごとのバッファへ追加する
+     * @param entry ログ
+     */
+    private void append(Entry entry) {
+
+        // 日付が変わっていたら、開いているファイルを全て閉じる
+        // （日付が変わる直前に受け取ったログが遅れて届いた場合は、新しい日付のファイルへ書き込む）
+        if ( currentDay == null || entry.time >= nextDayStart ) {
+            flush();
+            for ( LogFile file : files.values() ) {
+                file.close();
+            }
+            files.clear();
+            currentDay = Instant.ofEpochMilli(entry.time).atZone(zone).toLocalDate();
+            nextDayStart = currentDay.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            File dir = getDayFolder(currentDay);
+            if ( !dir.exists() || !dir.isDirectory() ) {
+                dir.mkdirs();
+            }
+        }
+
+        LogFile file = files.get(entry.name);
+        if ( file == null ) {
+            file = new LogFile(getFile(entry.name, currentDay));
+            files.put(entry.name, file);
+        }
+
+        String msg = Utility.stripColorCode(entry.message);
+        if ( msg == null ) msg = "";
+        msg = msg.replace(",", "，");
+
+        String time = LINE_FORMAT.format(LocalDateTime.ofInstant(Instant.ofEpochMilli(entry.time), zone));
+        int before = file.buffer.length();
+        file.buffer.append(time).append(',').append(msg).append(',').append(entry.player).append("\r\n");
+        pendingBytes += file.buffer.length() - before;
+    }
+
+    /**
+     * 溜まっているログを、ファイルへ書き込む
+     */
+    private void flush() {
+        Iterator<LogFile> it = files.values().iterator();
+        while ( it.hasNext() ) {
+            LogFile file = it.next();
+            if ( file.buffer.length() > 0 && !file.flush() ) {
+                // 書き込みに失敗したファイルは、次回開き直す
+                file.close();
+                it.remove();
+            }
+        }
+        pendingBytes = 0;
+        lastFlush = System.currentTimeMillis();
+    }
+
+    /**
+     * 書き込み待ちのログ
+     * @author ucchy
+     */
+    private static class Entry {
+
+        private final String name;
+        private final long time;
+        private final String message;
+        private final String player;
+
+        Entry(String name, long time, String message, String player) {
+            this.name = name;
+            this.time = time;
+            this.message = message;
+            this.player = player;
+        }
+    }
+
+    /**
+     * 開いているログファイル
+     * @author ucchy
+     */
+    private static class LogFile {
+
+        private final File file;
+        private final StringBuilder buffer;
+        private FileChannel channel;
+
+        LogFile(File file) {
+            this.file = file;
+            this.buffer = new StringBuilder();
+        }
+
+        /**
+         * バッファの内容をファイルへ書き込む
+         * @return 書き込めたかどうか
+         */
+        boolean flush() {
+            ByteBuffer bytes = StandardCharsets.UTF_8.encode(buffer.toString());
+            buffer.setLength(0);
+            try {
+                if ( channel == null ) {
+                    channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                }
+                while ( bytes.hasRemaining() ) {
+                    channel.write(bytes);
+                }
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+
+        /**
+         * ファイルを閉じる
+         */
+        void close() {
+            if ( channel == null ) {
+                return;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+}
@@ -5,21 +5,16 @@
  */
 package com.github.ucchyocean.lc;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
+import java.time.Year;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
-import java.util.Date;
-
-import com.github.ucchyocean.lc.util.Utility;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 
 /**
  * LunaChatロガー
@@ -27,13 +22,9 @@ import com.github.ucchyocean.lc.util.Utility;
  */
 public class LunaChatLogger {
 
-    private SimpleDateFormat lformat;
-    private SimpleDateFormat dformat;
-
-    private SimpleDateFormat logYearDateFormat;
+    /** ログの日付指定の書式 */
+    private static final DateTimeFormatter LOG_YEAR_DATE_FORMAT = DateTimeFormatter.BASIC_ISO_DATE;
 
-    private File file;
-    private String dirPath;
     private String name;
 
     /**
@@ -41,14 +32,7 @@ public class LunaChatLogger {
      * @param name ログ名
      */
     public LunaChatLogger(String name) {
-
-        lformat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        dformat = new SimpleDateFormat("yyyy-MM-dd");
-
-        logYearDateFormat = new SimpleDateFormat("yyyyMMdd");
-
         this.name = name;
-        checkDir();
     }
 
     /**
@@ -56,29 +40,27 @@ public class LunaChatLogger {
      * @param message ログ内容
      * @param player 発言者名
      */
-    public synchronized void log(final String message, final String player) {
-
-        checkDir();
+    public void log(final String message, final String player) {
 
-        // 以降の処理を、発言処理の負荷軽減のため、非同期実行にする。(see issue #40.)
-        LunaChat.runAsyncTask(new Runnable() {
-            @Override
-            public void run() {
-
-                String msg = Utility.stripColorCode(message);
-                if ( msg == null ) msg = "";
-                msg = msg.replace(",", "，");
+        // 発言処理の負荷軽減のため、書き込みは専用のスレッドでまとめて行う。(see issue #40.)
+        // 書き込む順番は、受け付けた順番のまま維持される。
+        getWriter().write(name, message, player);
+    }
 
-                try ( OutputStreamWriter writer = new OutputStreamWriter(
-                        new FileOutputStream(file, true), "UTF-8"); ) {
+    /**
+     * ログの書き込みクラスを取得する
+     * @return 書き込みクラス
+     */
+    private static LunaChatLogWriter getWriter() {
+        return LunaChatLogWriter.getInstance(new File(LunaChat.getDataFolder(), "logs"));
+    }
 
-                    String str = lformat.format(new Date()) + "," + msg + "," + player;
-                    writer.write(str + "\r\n");
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        });
+    /**
+     * 全てのログの書き込みを停止する。溜まっているログは、指定した時間まで書き込みを待つ。
+     * @param timeoutMillis 待つ時間（ミリ秒）
+     */
+    public static void shutdown(long timeoutMillis) {
+        LunaChatLogWriter.shutdownAll(timeoutMillis);
     }
 
     /**
@@ -92,38 +74,16 @@ public class LunaChatLogger {
     public ArrayList<String> getLog(
             String player, String filter, String date, boolean reverse) {
 
+        ArrayList<String> data = new ArrayList<String>();
+
         // 指定された日付のログを取得する
         File f = getLogFile(date);
         if ( f == null ) {
-            return new ArrayList<String>();
-        }
-
-        // ログファイルの読み込み
-        ArrayList<String> data = readAllLines(f);
-
-        // プレイヤー指定なら、一致するプレイヤー名が含まれているログに絞る
-        if ( player != null ) {
-            ArrayList<String> temp = new ArrayList<String>(data);
-            data = new ArrayList<String>();
-            for ( String t : temp ) {
-                String[] line = t.split(",");
-                if ( line.length >= 3 && line[2].contains(player) ) {
-                    data.add(t);
-                }
-            }
+            return data;
         }
 
-        // フィルタ指定なら、指定のキーワードが含まれているログに絞る
-        if ( filter != null ) {
-            ArrayList<String> temp = new ArrayList<String>(data);
-            data = new ArrayList<String>();
-            for ( String t : temp ) {
-                String[] line = t.split(",");
-                if ( line.length >= 2 && line[1].contains(filter) ) {
-                    data.add(t);
-                }
-            }
-        }
+        // ログファイルを読み込みながら、プレイヤーとフィルタで絞り込む
+        LunaChatLogReader.readForward(f, player, filter, data);
 
         // 逆順が指定されているなら、逆順に並び替える
         if ( reverse ) {
@@ -134,30 +94,58 @@ public class LunaChatLogger {
     }
 
     /**
-     * テキストファイルの内容を読み出す。
-     * @param file ファイル
-     * @return 内容
+     * ログファイルを末尾から読み込んで、ログデータを1ページ分取得する。
+     * ファイル全体は読み込まず、指定した件数が集まった時点で読み込みをやめる。
+     * @param player プレイヤー名、フィルタしないならnullを指定すること
+     * @param filter フィルタ、フィルタしないならnullを指定すること
+     * @param date 日付、今日のデータを取得するならnullを指定すること。
+     *   「20201001-20201018」のような範囲や、全ての日付を対象にする「all」も指定できる。
+     * @param reverse 逆順取得（新しいログを先に並べる）
+     * @param cursor 前のページの {@link LunaChatLogPage#getNextCursor()}、最初のページならマイナスの値
+     * @param limit 1ページの件数
+     * @return ログデータ
      */
-    private ArrayList<String> readAllLines(File file) {
-
-        ArrayList<String> data = new ArrayList<String>();
-        if ( !file.exists() ) return data;
+    public LunaChatLogPage getLogPage(String player, String filter, String date,
+            boolean reverse, long cursor, int limit) {
+
+        LunaChatLogPage page;
+
+        if ( date != null && (date.equalsIgnoreCase("all") || date.indexOf('-') > 0) ) {
+
+            // 複数の日付のログを検索する
+            LocalDate from = null;
+            LocalDate to = null;
+            if ( !date.equalsIgnoreCase("all") ) {
+                int index = date.indexOf('-');
+                from = parseDate(date.substring(0, index));
+                to = parseDate(date.substring(index + 1));
+                if ( from == null || to == null ) {
+                    return new LunaChatLogPage(new ArrayList<String>(), -1);
+                }
+                if ( from.isAfter(to) ) {
+                    LocalDate temp = from;
+                    from = to;
+                    to = temp;
+                }
+            }
+            page = LunaChatLogReader.readDays(getLogFiles(from, to), player, filter, cursor, limit);
 
-        try ( BufferedReader reader = new BufferedReader(
-                new InputStreamReader(new FileInputStream(file), "UTF-8")) ) {
+        } else {
 
-            String line;
-            while ( (line = reader.readLine()) != null ) {
-                line = line.trim();
-                if ( line.length() > 0 ) {
-                    data.add(line);
-                }
+            File f = getLogFile(date);
+            if ( f == null ) {
+                return new LunaChatLogPage(new ArrayList<String>(), -1);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+            page = LunaChatLogReader.readBackward(f, player, filter, cursor, limit);
         }
 
-        return data;
+        // 逆順でなければ、古い順に並び替える
+        if ( !reverse ) {
+            List<String> lines = new ArrayList<String>(page.getLines());
+            Collections.reverse(lines);
+            page = new LunaChatLogPage(lines, page.getNextCursor());
+        }
+        return page;
     }
 
     /**
@@ -169,65 +157,92 @@ public class LunaChatLogger {
     private File getLogFile(String date) {
 
         if ( date == null ) {
-            return file;
+            return getWriter().getFile(name, LocalDate.now());
         }
 
-        Date d;
-        try {
-            if ( date.matches("[0-9]{4}") ) {
-                date = Calendar.getInstance().get(Calendar.YEAR) + date;
-            }
-            if ( date.matches("[0-9]{8}") ) {
-                d = logYearDateFormat.parse(date);
-            } else {
-                return null;
-            }
-        } catch (ParseException e) {
-            e.printStackTrace();
+        LocalDate d = parseDate(date);
+        if ( d == null ) {
             return null;
         }
 
-        File folder = new File(getFolderPath(d));
+        File folder = getWriter().getDayFolder(d);
         if ( !folder.exists() || !folder.isDirectory() ) {
             return null;
         }
 
+        return findLogFile(folder);
+    }
+
+    /**
+     * 指定された日付のフォルダから、このロガーのログファイルを探します。
+     * 圧縮されたログファイルしか無い場合は、そちらを返します。
+     * @param folder 日付のフォルダ
+     * @return ログファイル、見つからない場合はnull
+     */
+    private File findLogFile(File folder) {
         File f = new File(folder, name + ".log");
-        if ( !f.exists() ) {
-            return null;
+        if ( f.exists() ) {
+            return f;
         }
-
-        return f;
+        File gz = new File(folder, name + ".log" + LunaChatLogArchiver.GZIP_SUFFIX);
+        if ( gz.exists() ) {
+            return gz;
+        }
+        return null;
     }
 
     /**
-     * ログの出力先フォルダをチェックし、変更されるなら更新する。
+     * 指定された期間のログファイルを、日付順に取得します。
+     * @param from 開始日、指定しないならnull
+     * @param to 終了日、指定しないならnull
+     * @return 日付とログファイル
      */
-    private void checkDir() {
+    private NavigableMap<LocalDate, File> getLogFiles(LocalDate from, LocalDate to) {
 
-        String temp = getFolderPath(new Date());
-        if ( temp.equals(dirPath) ) {
-            return;
+        NavigableMap<LocalDate, File> result = new TreeMap<LocalDate, File>();
+
+        File[] folders = getWriter().getFolder().listFiles();
+        if ( folders == null ) {
+            return result;
         }
-        dirPath = temp;
 
-        File dir = new File(dirPath);
-        if ( !dir.exists() || !dir.isDirectory() ) {
-            dir.mkdirs();
+        for ( File folder : folders ) {
+            if ( !folder.isDirectory() ) continue;
+            LocalDate d;
+            try {
+                d = LocalDate.parse(folder.getName(), LunaChatLogWriter.FOLDER_FORMAT);
+            } catch (DateTimeParseException e) {
+                continue;
+            }
+            if ( (from != null && d.isBefore(from)) || (to != null && d.isAfter(to)) ) {
+                continue;
+            }
+            File f = findLogFile(folder);
+            if ( f != null ) {
+                result.put(d, f);
+            }
         }
 
-        file = new File(dir, name + ".log");
+        return result;
     }
 
     /**
-     * 指定された日付のログファイル名を生成して返します。
-     * @param date 日付
-     * @return ログファイル名
+     * 日付の指定（「yyyyMMdd」または「MMdd」）を解析します。
+     * 解析できない場合は、nullを返します。
+     * @param date 日付の指定
+     * @return 日付
      */
-    private String getFolderPath(Date date) {
-
-        return LunaChat.getDataFolder() +
-                File.separator + "logs" +
-                File.separator + dformat.format(date);
+    private static LocalDate parseDate(String date) {
+        try {
+            if ( date.matches("[0-9]{4}") ) {
+                date = Year.now().getValue() + date;
+            }
+            if ( date.matches("[0-9]{8}") ) {
+                return LocalDate.parse(date, LOG_YEAR_DATE_FORMAT);
+            }
+        } catch (DateTimeParseException e) {
+            e.printStackTrace();
+        }
+        return null;
     }
 }
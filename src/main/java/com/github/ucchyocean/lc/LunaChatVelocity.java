@@ -6,10 +6,14 @@
 package com.github.ucchyocean.lc;
 
 import com.github.ucchyocean.lc.channel.ChannelManager;
+import com.github.ucchyocean.lc.member.PresenceRegistry;
+import com.github.ucchyocean.lc.util.SaveScheduler;
+import com.github.ucchyocean.lc.util.StageTimer;
 import com.github.ucchyocean.lc.velocity.*;
 import com.google.inject.Inject;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
 import com.velocitypowered.api.plugin.Dependency;
 import com.velocitypowered.api.plugin.Plugin;
 import com.velocitypowered.api.plugin.annotation.DataDirectory;
@@ -24,6 +28,7 @@ import java.io.File;
 import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.stream.Collectors;
 
@@ -49,6 +54,7 @@ public class LunaChatVelocity implements PluginInterface {
     private HashMap<String, String> history;
     private LunaChatConfig config;
     private ChannelManager manager;
+    private LunaChatExecutor executor;
     private UUIDCacheData uuidCacheData;
     private LunaChatLogger normalChatLogger;
 
@@ -68,15 +74,34 @@ public class LunaChatVelocity implements PluginInterface {
         LunaChat.setPlugin(this);
         LunaChat.setMode(LunaChatMode.VELOCITY);
 
-        // 初期化
+        // 非同期処理の実行クラス
+        executor = new LunaChatExecutor();
+
+        // 初期化（段階ごとにかかった時間を記録する）
+        StageTimer timer = new StageTimer();
         config = new LunaChatConfig(getDataFolder(), getPluginJarFile());
+        timer.mark("config");
         uuidCacheData = new UUIDCacheData(getDataFolder());
+        timer.mark("uuid cache");
         Messages.initialize(new File(getDataFolder(), "messages"), getPluginJarFile(), config.getLang());
+        timer.mark("messages");
         history = new HashMap<>();
 
+        // 接続中のプレイヤーを登録する（リロード時に既に接続しているプレイヤー向け）
+        PresenceRegistry.reset(proxy.getAllPlayers());
+
         manager = new ChannelManager();
+        timer.mark("channels");
         normalChatLogger = new LunaChatLogger("==normalchat");
 
+        log(Level.INFO, "LunaChat data loaded in " + timer);
+
+        // 古いログの圧縮と削除を、1時間ごとに行う
+        final LunaChatLogArchiver archiver = new LunaChatLogArchiver(getDataFolder());
+        proxy.getScheduler().buildTask(this, () ->
+                executor.execute(LunaChatExecutor.TaskType.IO, archiver, archiver))
+                .delay(1, TimeUnit.MINUTES).repeat(1, TimeUnit.HOURS).schedule();
+
         // チャンネルチャット無効なら、デフォルト発言先をクリアする
         if (!config.isEnableChannelChat()) {
             manager.removeAllDefaultChannels();
@@ -118,6 +143,23 @@ public class LunaChatVelocity implements PluginInterface {
         proxy.getChannelRegistrar().register(legacyChannelIdentifier);
     }
 
+    @Subscribe
+    public void onProxyShutdown(ProxyShutdownEvent e) {
+
+        // 実行待ちの非同期処理と、書き込み待ちのログを、できるだけ完了させてから停止する
+        if ( executor != null ) {
+            executor.shutdown(5000);
+        }
+        LunaChatLogger.shutdown(5000);
+
+        // 期限付きBANと期限付きMuteのスケジューラを停止する
+        manager.getExpiryScheduler().shutdown();
+
+        // 保存待ちのデータを保存する
+        SaveScheduler.shutdown();
+        ChannelManager.closeStore();
+    }
+
     public static LunaChatVelocity getInstance() {
         if (instance == null) {
             instance = (LunaChatVelocity) PROXY.getPluginManager().getPlugin("LunaChat").orElse(null);
@@ -214,6 +256,11 @@ public class LunaChatVelocity implements PluginInterface {
 
     @Override
     public void runAsyncTask(Runnable task) {
-        proxy.getScheduler().buildTask(this, task).schedule();
+        executor.execute(LunaChatExecutor.TaskType.IO, task);
+    }
+
+    @Override
+    public LunaChatExecutor getLunaChatExecutor() {
+        return executor;
     }
 }
@@ -570,6 +570,17 @@ public class Messages {
         return Utility.replaceColorCode(kr.toString());
     }
 
+    /**
+     * &7さらに古いログがあります。&fc=%cursor% &7を付けて実行すると、次のページを表示します。
+     */
+    public static String logDisplayNextPage(Object cursor) {
+        String msg = resources.getString("logDisplayNextPage");
+        if ( msg == null ) return "";
+        KeywordReplacer kr = new KeywordReplacer(msg);
+        kr.replace("%cursor%", cursor.toString());
+        return Utility.replaceColorCode(kr.toString());
+    }
+
     /**
      * &f[&aLC&f]
      */
@@ -1692,6 +1703,16 @@ public class Messages {
         return Utility.replaceColorCode(resources.getString("errorPrefix", "") + kr.toString());
     }
 
+    /**
+     * 発言の処理が混み合っているため、発言できませんでした。しばらくしてから、もう一度発言してください。
+     */
+    public static String errmsgChatBusy() {
+        String msg = resources.getString("errmsgChatBusy");
+        if ( msg == null ) return "";
+        KeywordReplacer kr = new KeywordReplacer(msg);
+        return Utility.replaceColorCode(resources.getString("errorPrefix", "") + kr.toString());
+    }
+
     /**
      * &6/%label% join (channel) &7- チャンネルに参加します。
      */
@@ -1891,7 +1912,7 @@ public class Messages {
     }
 
     /**
-     * &6/%label% log [channel] [p=player] [f=filter] [d=date] [r] &7- チャンネルの発言ログを表示します。
+     * &6/%label% log [channel] [p=player] [f=filter] [d=date|date-date|all] [r] [c=cursor] &7- チャンネルの発言ログを表示します。
      */
     public static String usageLog(Object label) {
         String msg = resources.getString("usageLog");
@@ -0,0 +1,542 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * NGワードの検出とマスクを行うフィルター。<br/>
+ * 正規表現の記号を含まないNGワードは Aho-Corasick 法のオートマトンにまとめ、
+ * 正規表現のNGワードは、できるだけ少ない数のパターンに結合してコンパイルしておく。
+ * これにより、NGワードが大量に設定されていても、メッセージ1件あたりの走査回数を抑えることができる。<br/>
+ * 結合したパターンの選択は、その位置で最初に一致した候補しか返さないので、
+ * 一致した位置では、結合元のNGワードを個別に照合して、最も長く一致したものをマスクする。<br/>
+ * マスクは元のメッセージに対する全てのNGワードの一致を合わせて、該当する文字を1文字ずつ * に置き換える。
+ * NGワードを1つずつ replaceAll していた以前の方法（そのワードの最初の一致の長さで * を並べる）とは、
+ * 一致の長さが異なる場合や、一致が重なる場合に結果が異なる。
+ * @author ucchy
+ */
+public class NGWordFilter {
+
+    /** 1つのパターンに結合する正規表現の最大数 */
+    private static final int MERGE_LIMIT = 256;
+
+    /** 正規表現として扱う記号 */
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+
+    /** 結合すると意味が変わってしまう正規表現（後方参照、名前付きグループ）の検出用 */
+    private static final Pattern UNMERGEABLE =
+            Pattern.compile("\\\\[1-9]|\\\\k<|\\(\\?<[a-zA-Z]");
+
+    /** 空のフィルター */
+    private static final NGWordFilter EMPTY = new NGWordFilter(new ArrayList<String>());
+
+    private final LiteralMatcher literals;
+    private final List<PatternGroup> patterns;
+    private final int size;
+
+    /**
+     * コンストラクタ
+     * @param entries NGワード
+     */
+    private NGWordFilter(List<String> entries) {
+
+        LiteralMatcher.Builder builder = new LiteralMatcher.Builder();
+        List<String> mergeable = new ArrayList<String>();
+        List<PatternGroup> compiled = new ArrayList<PatternGroup>();
+        int count = 0;
+
+        for ( String entry : entries ) {
+            if ( entry == null || entry.isEmpty() ) {
+                continue;
+            }
+            count++;
+            if ( isLiteral(entry) ) {
+                builder.add(entry);
+                continue;
+            }
+
+            // 構文エラーはここで検出する（従来どおり、読み込み時に例外とする）
+            Pattern pattern = Pattern.compile(entry);
+            if ( UNMERGEABLE.matcher(entry).find() ) {
+                compiled.add(new PatternGroup(pattern, null));
+            } else {
+                mergeable.add(entry);
+            }
+        }
+
+        for ( int i = 0; i < mergeable.size(); i += MERGE_LIMIT ) {
+            List<String> group = mergeable.subList(i, Math.min(i + MERGE_LIMIT, mergeable.size()));
+            if ( group.size() == 1 ) {
+                compiled.add(new PatternGroup(Pattern.compile(group.get(0)), null));
+                continue;
+            }
+            StringBuilder buf = new StringBuilder();
+            Pattern[] members = new Pattern[group.size()];
+            for ( int j = 0; j < group.size(); j++ ) {
+                if ( buf.length() > 0 ) {
+                    buf.append("|");
+                }
+                buf.append("(?:").append(group.get(j)).append(")");
+                members[j] = Pattern.compile(group.get(j));
+            }
+            compiled.add(new PatternGroup(Pattern.compile(buf.toString()), members));
+        }
+
+        this.literals = builder.build();
+        this.patterns = Collections.unmodifiableList(compiled);
+        this.size = count;
+    }
+
+    /**
+     * NGワードのリストから、フィルターを作成する
+     * @param entries NGワード（正規表現が指定可能）
+     * @return フィルター
+     * @throws java.util.regex.PatternSyntaxException 正規表現の構文が正しくない場合
+     */
+    public static NGWordFilter compile(List<String> entries) {
+        if ( entries == null || entries.isEmpty() ) {
+            return EMPTY;
+        }
+        return new NGWordFilter(entries);
+    }
+
+    /**
+     * NGワードが1件も設定されていないかどうか
+     * @return 空かどうか
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * 設定されているNGワードの件数
+     * @return 件数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * メッセージに含まれるNGワードの範囲を返す。
+     * 重なっている範囲や隣接している範囲は1つにまとめられる。
+     * @param message メッセージ
+     * @return NGワードの範囲（{開始位置, 終了位置(この位置を含まない)} の配列のリスト、開始位置順）
+     */
+    public List<int[]> findSpans(String message) {
+        BitSet hits = scan(message);
+        if ( hits == null ) {
+            return Collections.emptyList();
+        }
+        List<int[]> spans = new ArrayList<int[]>();
+        int start = hits.nextSetBit(0);
+        while ( start >= 0 ) {
+            int end = hits.nextClearBit(start);
+            spans.add(new int[] {start, end});
+            start = hits.nextSetBit(end);
+        }
+        return spans;
+    }
+
+    /**
+     * メッセージのNGワードをマスクする
+     * @param message メッセージ
+     * @return マスクされたメッセージ
+     */
+    public String mask(String message) {
+        return filter(message).getMasked();
+    }
+
+    /**
+     * メッセージのNGワードを検出してマスクし、結果を返す
+     * @param message メッセージ
+     * @return 結果
+     */
+    public Result filter(String message) {
+
+        BitSet hits = scan(message);
+        if ( hits == null ) {
+            return new Result(message, Collections.<int[]>emptyList());
+        }
+
+        char[] chars = message.toCharArray();
+        List<int[]> spans = new ArrayList<int[]>();
+        int start = hits.nextSetBit(0);
+        while ( start >= 0 ) {
+            int end = hits.nextClearBit(start);
+            Arrays.fill(chars, start, end, '*');
+            spans.add(new int[] {start, end});
+            start = hits.nextSetBit(end);
+        }
+        return new Result(new String(chars), spans);
+    }
+
+    /**
+     * メッセージを走査して、NGワードに該当する文字の位置を返す
+     * @param message メッセージ
+     * @return 該当する位置、1つも無い場合は null
+     */
+    private BitSet scan(String message) {
+
+        if ( message == null || message.isEmpty() || size == 0 ) {
+            return null;
+        }
+
+        BitSet hits = literals.scan(message, null);
+
+        for ( PatternGroup group : patterns ) {
+            Matcher matcher = group.merged.matcher(message);
+            int from = 0;
+            while ( from < message.length() && matcher.find(from) ) {
+                int end = group.longestEnd(message, matcher.start(), matcher.end());
+                if ( end > matcher.start() ) {
+                    if ( hits == null ) {
+                        hits = new BitSet(message.length());
+                    }
+                    hits.set(matcher.start(), end);
+                }
+                // 重なって出現するNGワードも検出できるよう、次の開始位置から再検索する
+                from = matcher.start() + 1;
+            }
+        }
+
+        return hits;
+    }
+
+    /**
+     * 正規表現の記号を含まない、ただの文字列かどうかを判定する
+     * @param entry NGワード
+     * @return ただの文字列かどうか
+     */
+    private static boolean isLiteral(String entry) {
+        for ( int i = 0; i < entry.length(); i++ ) {
+            if ( REGEX_META_CHARS.indexOf(entry.charAt(i)) >= 0 ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 結合した正規表現と、結合元の正規表現の組
+     * @author ucchy
+     */
+    private static class PatternGroup {
+
+        private final Pattern merged;
+        private final Pattern[] members;
+
+        /**
+         * コンストラクタ
+         * @param merged 結合した正規表現（結合していない場合は、その正規表現）
+         * @param members 結合元の正規表現、結合していない場合は null
+         */
+        private PatternGroup(Pattern merged, Pattern[] members) {
+            this.merged = merged;
+            this.members = members;
+        }
+
+        /**
+         * 指定した位置から一致する結合元の正規表現のうち、最も長い一致の終了位置を返す
+         * @param message メッセージ
+         * @param start 結合した正規表現が一致した開始位置
+         * @param end 結合した正規表現が一致した終了位置
+         * @return 最も長い一致の終了位置
+         */
+        private int longestEnd(String message, int start, int end) {
+            if ( members == null ) {
+                return end;
+            }
+            for ( Pattern member : members ) {
+                // メッセージ全体に対して照合したときと同じ結果になるよう、範囲の外も参照させる
+                Matcher matcher = member.matcher(message)
+                        .region(start, message.length())
+                        .useAnchoringBounds(false)
+                        .useTransparentBounds(true);
+                if ( matcher.lookingAt() && matcher.end() > end ) {
+                    end = matcher.end();
+                }
+            }
+            return end;
+        }
+    }
+
+    /**
+     * NGワードのマスク結果
+     * @author ucchy
+     */
+    public static class Result {
+
+        private final String masked;
+        private final List<int[]> spans;
+
+        /**
+         * コンストラクタ
+         * @param masked マスクされたメッセージ
+         * @param spans NGワードの範囲
+         */
+        private Result(String masked, List<int[]> spans) {
+            this.masked = masked;
+            this.spans = spans;
+        }
+
+        /**
+         * マスクされたメッセージを返す
+         * @return マスクされたメッセージ
+         */
+        public String getMasked() {
+            return masked;
+        }
+
+        /**
+         * NGワードの範囲を返す
+         * @return {開始位置, 終了位置(この位置を含まない)} の配列のリスト
+         */
+        public List<int[]> getSpans() {
+            return spans;
+        }
+
+        /**
+         * NGワードが含まれていたかどうか
+         * @return 含まれていたかどうか
+         */
+        public boolean isMatched() {
+            return !spans.isEmpty();
+        }
+    }
+
+    /**
+     * ただの文字列のNGワードをまとめて検出する、Aho-Corasick 法のオートマトン
+     * @author ucchy
+     */
+    private static class LiteralMatcher {
+
+        /** 遷移表（キーは (ノード番号 << 16) | 文字、-1 は空き） */
+        private final long[] edgeKeys;
+        private final int[] edgeValues;
+
+        /** 失敗時の遷移先 */
+        private final int[] fail;
+
+        /** そのノードで終わるNGワードのうち、最も長いものの長さ（無い場合は0） */
+        private final int[] output;
+
+        /**
+         * コンストラクタ
+         */
+        private LiteralMatcher(long[] edgeKeys, int[] edgeValues, int[] fail, int[] output) {
+            this.edgeKeys = edgeKeys;
+            this.edgeValues = edgeValues;
+            this.fail = fail;
+            this.output = output;
+        }
+
+        /**
+         * メッセージを走査して、NGワードに該当する文字の位置を記録する
+         * @param message メッセージ
+         * @param hits 記録先（null なら必要になった時点で作成する）
+         * @return 記録先
+         */
+        BitSet scan(String message, BitSet hits) {
+            if ( output.length <= 1 ) {
+                return hits;
+            }
+            int node = 0;
+            for ( int i = 0; i < message.length(); i++ ) {
+                char c = message.charAt(i);
+                int next = child(node, c);
+                while ( next < 0 && node != 0 ) {
+                    node = fail[node];
+                    next = child(node, c);
+                }
+                node = (next < 0) ? 0 : next;
+                int length = output[node];
+                if ( length > 0 ) {
+                    if ( hits == null ) {
+                        hits = new BitSet(message.length());
+                    }
+                    hits.set(i - length + 1, i + 1);
+                }
+            }
+            return hits;
+        }
+
+        /**
+         * 遷移先を取得する
+         * @param node ノード番号
+         * @param c 文字
+         * @return 遷移先、無い場合は -1
+         */
+        private int child(int node, char c) {
+            return lookup(edgeKeys, edgeValues, ((long)node << 16) | c);
+        }
+
+        /**
+         * 遷移表から値を検索する
+         */
+        private static int lookup(long[] keys, int[] values, long key) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while ( true ) {
+                long k = keys[slot];
+                if ( k == key ) {
+                    return values[slot];
+                }
+                if ( k == -1 ) {
+                    return -1;
+                }
+                slot = (slot + 1) & mask;
+            }
+        }
+
+        /**
+         * 遷移表へ値を登録する
+         */
+        private static void store(long[] keys, int[] values, long key, int value) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while ( keys[slot] != -1 ) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        /**
+         * キーのハッシュ値を計算する
+         */
+        private static int mix(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int)(h ^ (h >>> 32));
+        }
+
+        /**
+         * オートマトンを組み立てるためのビルダー
+         * @author ucchy
+         */
+        static class Builder {
+
+            private long[] keys = newKeys(64);
+            private int[] values = new int[64];
+            private int edges = 0;
+            private int nodes = 1;
+            private int[] depth = new int[16];
+            private boolean[] terminal = new boolean[16];
+
+            /**
+             * NGワードを追加する
+             * @param word NGワード
+             */
+            void add(String word) {
+                int node = 0;
+                for ( int i = 0; i < word.length(); i++ ) {
+                    long key = ((long)node << 16) | word.charAt(i);
+                    int next = lookup(keys, values, key);
+                    if ( next < 0 ) {
+                        next = newNode(i + 1);
+                        if ( (edges + 1) * 2 > keys.length ) {
+                            grow();
+                        }
+                        store(keys, values, key, next);
+                        edges++;
+                    }
+                    node = next;
+                }
+                terminal[node] = true;
+            }
+
+            /**
+             * オートマトンを作成する
+             * @return オートマトン
+             */
+            LiteralMatcher build() {
+
+                // 子ノードの一覧を作る
+                int[] childCount = new int[nodes + 1];
+                for ( int slot = 0; slot < keys.length; slot++ ) {
+                    if ( keys[slot] != -1 ) {
+                        childCount[(int)(keys[slot] >>> 16) + 1]++;
+                    }
+                }
+                for ( int i = 0; i < nodes; i++ ) {
+                    childCount[i + 1] += childCount[i];
+                }
+                int[] fill = Arrays.copyOf(childCount, nodes);
+                long[] childKeys = new long[edges];
+                for ( int slot = 0; slot < keys.length; slot++ ) {
+                    if ( keys[slot] != -1 ) {
+                        int parent = (int)(keys[slot] >>> 16);
+                        childKeys[fill[parent]++] = keys[slot];
+                    }
+                }
+
+                // 幅優先で失敗時の遷移先と出力を求める
+                int[] fail = new int[nodes];
+                int[] output = new int[nodes];
+                int[] queue = new int[nodes];
+                int head = 0;
+                int tail = 0;
+                queue[tail++] = 0;
+                while ( head < tail ) {
+                    int node = queue[head++];
+                    for ( int i = childCount[node]; i < childCount[node + 1]; i++ ) {
+                        char c = (char)(childKeys[i] & 0xFFFF);
+                        int child = lookup(keys, values, childKeys[i]);
+                        if ( node == 0 ) {
+                            fail[child] = 0;
+                        } else {
+                            int f = fail[node];
+                            int next = lookup(keys, values, ((long)f << 16) | c);
+                            while ( next < 0 && f != 0 ) {
+                                f = fail[f];
+                                next = lookup(keys, values, ((long)f << 16) | c);
+                            }
+                            fail[child] = (next < 0 || next == child) ? 0 : next;
+                        }
+                        output[child] = Math.max(
+                                terminal[child] ? depth[child] : 0, output[fail[child]]);
+                        queue[tail++] = child;
+                    }
+                }
+
+                return new LiteralMatcher(keys, values, fail, output);
+            }
+
+            private int newNode(int d) {
+                if ( nodes == depth.length ) {
+                    depth = Arrays.copyOf(depth, nodes * 2);
+                    terminal = Arrays.copyOf(terminal, nodes * 2);
+                }
+                depth[nodes] = d;
+                return nodes++;
+            }
+
+            private void grow() {
+                long[] oldKeys = keys;
+                int[] oldValues = values;
+                keys = newKeys(oldKeys.length * 2);
+                values = new int[oldKeys.length * 2];
+                for ( int slot = 0; slot < oldKeys.length; slot++ ) {
+                    if ( oldKeys[slot] != -1 ) {
+                        store(keys, values, oldKeys[slot], oldValues[slot]);
+                    }
+                }
+            }
+
+            private static long[] newKeys(int size) {
+                long[] keys = new long[size];
+                Arrays.fill(keys, -1);
+                return keys;
+            }
+        }
+    }
+}
@@ -69,4 +69,10 @@ public interface PluginInterface {
      * @param task タスク
      */
     public void runAsyncTask(Runnable task);
+
+    /**
+     * 非同期処理の実行クラスを取得する
+     * @return 非同期処理の実行クラス
+     */
+    public LunaChatExecutor getLunaChatExecutor();
 }
@@ -7,30 +7,83 @@ package com.github.ucchyocean.lc;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 
 import org.jetbrains.annotations.Nullable;
-
+import com.github.ucchyocean.lc.util.SaveScheduler;
 import com.github.ucchyocean.lc.util.YamlConfig;
 
 /**
- * UUIDのキャッシュデータを管理するクラス
+ * UUIDのキャッシュデータを管理するクラス。<br/>
+ * UUID → プレイヤー名 のMapと、小文字にしたプレイヤー名 → UUID の索引を持つ。
+ * 追加されたデータは、保存用のスレッドでまとめて保存する。<br/>
+ * ファイルの形式は、Yaml（uuidcache.yml）か、コンパクトなバイナリ（uuidcache.dat）を選択できる。
+ * バイナリの場合は、新しく追加されたデータだけをファイルの末尾に追記し、古くなったデータが増えたら
+ * ファイル全体を書き直す。途中で切れたレコードは、読み込み時に捨てられる。
+ * Yamlの場合は、書き込み途中で止まると全体が読めなくなるので、追記はせず、常に一時ファイルに全体を書いてから置き換える。<br/>
+ * 読み込みに失敗したファイルは、別名で退避してから新しく書き直すので、失敗したファイルの内容が上書きで失われることはない。
  * @author ucchy
  */
 public class UUIDCacheData {
 
     private static final String FILE_NAME = "uuidcache.yml";
+    private static final String BINARY_FILE_NAME = "uuidcache.dat";
+
+    private static final int MAGIC = 0x4C435531; // "LCU1"
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_HEADER_SIZE = 17;
+
+    /** ファイル全体を書き直す、古くなったデータの最小の数 */
+    private static final int COMPACT_MIN_STALE = 1000;
 
     // キャッシュデータ key=UUID文字列、value=プレイヤー名
-    private YamlConfig cache;
+    private final ConcurrentHashMap<String, String> names;
+
+    // 索引 key=小文字にしたプレイヤー名、value=UUID文字列
+    private final ConcurrentHashMap<String, String> index;
+
+    // まだファイルに保存していないデータ key=UUID文字列、value=プレイヤー名
+    private final ConcurrentHashMap<String, String> pending;
 
     private File dataFolder;
+    private boolean binary;
+
+    /** ファイルに保存されているデータの数 */
+    private int persisted;
+
+    /** ファイルに保存されているデータのうち、古くなったデータの数 */
+    private int stale;
+
+    /** 前回の保存から、名前が変わったUUIDの数 */
+    private final AtomicInteger renamed = new AtomicInteger();
+
+    /** バイナリファイルの、有効なデータの末尾の位置 */
+    private long binaryEnd;
 
     /**
      * コンストラクタ
      * @param dataFolder プラグインのデータ格納フォルダ
      */
     public UUIDCacheData(File dataFolder) {
-        cache = new YamlConfig();
+        this.names = new ConcurrentHashMap<String, String>();
+        this.index = new ConcurrentHashMap<String, String>();
+        this.pending = new ConcurrentHashMap<String, String>();
         this.dataFolder = dataFolder;
         reload();
     }
@@ -38,40 +91,84 @@ public class UUIDCacheData {
     /**
      * キャッシュデータを読み込む
      */
-    public void reload() {
-        File file = new File(dataFolder, FILE_NAME);
-        if ( !file.exists() ) {
-            // キャッシュファイルがまだ無いなら、からファイルを作成しておく。
-            cache = new YamlConfig();
+    public synchronized void reload() {
+
+        // 保存待ちのデータがあれば、先に保存する
+        writePending();
+
+        LunaChatConfig config = LunaChat.getConfig();
+        binary = config != null && "binary".equalsIgnoreCase(config.getUUIDCacheFormat());
+
+        names.clear();
+        index.clear();
+        persisted = 0;
+        stale = 0;
+        renamed.set(0);
+
+        File yamlFile = new File(dataFolder, FILE_NAME);
+        File binaryFile = new File(dataFolder, BINARY_FILE_NAME);
+
+        if ( binary && binaryFile.exists() ) {
             try {
-                cache.save(file);
+                loadBinary(binaryFile);
+                return;
             } catch (IOException e) {
                 e.printStackTrace();
+                names.clear();
+                index.clear();
+                moveAside(binaryFile);
             }
-            return;
         }
-        cache = YamlConfig.load(file);
+
+        if ( yamlFile.exists() && yamlFile.length() > 0 ) {
+            try ( Reader reader = Files.newBufferedReader(yamlFile.toPath(), StandardCharsets.UTF_8) ) {
+                YamlConfig cache = YamlConfig.load(reader);
+                for ( String uuid : cache.getKeys(false) ) {
+                    putEntry(uuid, cache.getString(uuid));
+                }
+                persisted = names.size();
+            } catch (Exception e) {
+                e.printStackTrace();
+                names.clear();
+                index.clear();
+                moveAside(yamlFile);
+            }
+        }
+
+        if ( binary || !yamlFile.exists() || persisted == 0 ) {
+            // キャッシュファイルがまだ無いなら、作成しておく。
+            // バイナリ形式に切り替えたときは、Yamlファイルの内容を取り込む。
+            writeAll();
+        }
     }
 
     /**
-     * キャッシュデータをファイルに保存する
+     * キャッシュデータをファイルに保存する。
+     * 保存はすぐには行われず、追加されたデータをまとめて、保存用のスレッドで行われる。
      */
     public void save() {
-        File file = new File(dataFolder, FILE_NAME);
-        try {
-            cache.save(file);
-        } catch (IOException e) {
-            e.printStackTrace();
+        if ( !pending.isEmpty() ) {
+            SaveScheduler.markDirty(this, () -> writePending());
         }
     }
 
     /**
      * プレイヤーのUUIDとプレイヤー名を追加する。
+     * 追加されたデータは、保存用のスレッドでまとめて保存される。
      * @param uuid UUID
      * @param name プレイヤー名
      */
     public void put(String uuid, String name) {
-        cache.set(uuid, name);
+        if ( uuid == null || name == null ) return;
+        String previous = putEntry(uuid, name);
+        if ( name.equals(previous) ) {
+            return;
+        }
+        if ( previous != null ) {
+            renamed.incrementAndGet();
+        }
+        pending.put(uuid, name);
+        save();
     }
 
     /**
@@ -80,7 +177,8 @@ public class UUIDCacheData {
      * @return プレイヤー名（キャッシュされていない場合はnullが返される）
      */
     public @Nullable String get(String uuid) {
-        return cache.getString(uuid);
+        if ( uuid == null ) return null;
+        return names.get(uuid);
     }
 
     /**
@@ -90,12 +188,226 @@ public class UUIDCacheData {
      */
     public @Nullable String getUUIDFromName(String name) {
         if ( name == null ) return null;
-        for ( String uuid : cache.getKeys(false) ) {
-            String n = cache.getString(uuid);
-            if ( name.equalsIgnoreCase(n) ) {
-                return uuid;
+        return index.get(name.toLowerCase());
+    }
+
+    /**
+     * キャッシュデータのMapと索引に、データを追加する
+     * @param uuid UUID
+     * @param name プレイヤー名
+     * @return 以前のプレイヤー名
+     */
+    private String putEntry(String uuid, String name) {
+        if ( name == null ) return null;
+        String previous = names.put(uuid, name);
+        if ( previous != null && !previous.equals(name) ) {
+            // 名前が変わったので、古い名前の索引を削除する
+            index.remove(previous.toLowerCase(), uuid);
+        }
+        index.put(name.toLowerCase(), uuid);
+        return previous;
+    }
+
+    /**
+     * 読み込めなかったファイルを、上書きで失われないように、別名で退避する
+     * @param file ファイル
+     */
+    private void moveAside(File file) {
+        File broken = new File(dataFolder, file.getName() + ".broken");
+        try {
+            Files.move(file.toPath(), broken.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            LunaChat.getPlugin().log(Level.WARNING, "Could not read the uuid cache " + file.getName()
+                    + ", moved it to " + broken.getName() + " and starting with an empty cache.");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 保存待ちのデータを保存する。
+     * バイナリの場合はファイルの末尾に追記し、古くなったデータが多くなった場合は、ファイル全体を書き直す。
+     * Yamlの場合は、常にファイル全体を書き直す。
+     */
+    private synchronized void writePending() {
+
+        if ( pending.isEmpty() ) return;
+
+        LinkedHashMap<String, String> batch = new LinkedHashMap<String, String>();
+        for ( String uuid : pending.keySet() ) {
+            String name = pending.remove(uuid);
+            if ( name != null ) batch.put(uuid, name);
+        }
+
+        // 名前が変わったUUIDは、追記するとファイル内の古いデータが不要になる
+        stale = Math.min(stale + renamed.getAndSet(0), persisted);
+
+        if ( !binary || persisted == 0 || stale > Math.max(COMPACT_MIN_STALE, names.size() / 4) ) {
+            writeAll();
+            return;
+        }
+
+        try {
+            appendBinary(batch);
+            persisted += batch.size();
+        } catch (IOException e) {
+            e.printStackTrace();
+            // 次のタイミングで保存し直す
+            for ( Map.Entry<String, String> entry : batch.entrySet() ) {
+                pending.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 全てのデータを、ファイルに書き直す
+     */
+    private synchronized void writeAll() {
+
+        pending.clear();
+        try {
+            if ( binary ) {
+                writeBinary(new File(dataFolder, BINARY_FILE_NAME));
+            } else {
+                YamlConfig cache = new YamlConfig();
+                for ( Map.Entry<String, String> entry : names.entrySet() ) {
+                    cache.set(entry.getKey(), entry.getValue());
+                }
+                cache.save(new File(dataFolder, FILE_NAME));
+            }
+            persisted = names.size();
+            stale = 0;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * バイナリファイルを、メモリマップして読み込む。
+     * 末尾のデータが途中で切れている場合は、そこから後ろを捨てる。
+     * @param file ファイル
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private void loadBinary(File file) throws IOException {
+
+        int records = 0;
+        long size;
+        long valid = HEADER_SIZE;
+
+        try ( FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ) ) {
+            size = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            if ( size < HEADER_SIZE || buffer.getInt() != MAGIC ) {
+                throw new IOException(file.getName() + " is not a uuid cache file.");
+            }
+
+            byte[] bytes = new byte[255];
+            while ( buffer.remaining() >= RECORD_HEADER_SIZE ) {
+                long most = buffer.getLong();
+                long least = buffer.getLong();
+                int length = buffer.get() & 0xff;
+                if ( buffer.remaining() < length ) {
+                    break;
+                }
+                buffer.get(bytes, 0, length);
+                putEntry(new UUID(most, least).toString(), new String(bytes, 0, length, StandardCharsets.UTF_8));
+                valid = buffer.position();
+                records++;
+            }
+        }
+
+        if ( valid < size ) {
+            LunaChat.getPlugin().log(Level.WARNING, "The uuid cache " + file.getName()
+                    + " has a torn tail, dropped " + (size - valid) + " bytes at offset " + valid + ".");
+        }
+        binaryEnd = valid;
+        persisted = records;
+        stale = records - names.size();
+    }
+
+    /**
+     * バイナリファイルの有効なデータの末尾に追記する
+     * @param batch 追記するデータ
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private void appendBinary(Map<String, String> batch) throws IOException {
+
+        ByteBuffer buffer = encode(batch);
+        try ( FileChannel channel = FileChannel.open(
+                new File(dataFolder, BINARY_FILE_NAME).toPath(), StandardOpenOption.WRITE) ) {
+            long position = binaryEnd;
+            while ( buffer.hasRemaining() ) {
+                position += channel.write(buffer, position);
+            }
+            // 途中で切れていたデータが残っていれば、ここで切り捨てる
+            if ( channel.size() > position ) {
+                channel.truncate(position);
             }
+            binaryEnd = position;
+        }
+    }
+
+    /**
+     * 全てのデータをバイナリファイルに書き直す
+     * @param file ファイル
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private void writeBinary(File file) throws IOException {
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.flip();
+        ByteBuffer body = encode(names);
+
+        File temp = new File(dataFolder, BINARY_FILE_NAME + ".tmp");
+        try ( FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) ) {
+            while ( header.hasRemaining() ) channel.write(header);
+            while ( body.hasRemaining() ) channel.write(body);
+            channel.force(true);
+            binaryEnd = channel.size();
+        }
+
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * データを、バイナリファイルのレコード（UUID 16バイト、名前の長さ 1バイト、名前）に変換する。
+     * UUIDの形式になっていないデータは、変換しない。
+     * @param data データ
+     * @return 変換したレコード
+     */
+    private static ByteBuffer encode(Map<String, String> data) {
+
+        List<byte[]> encoded = new ArrayList<byte[]>(data.size());
+        List<UUID> ids = new ArrayList<UUID>(data.size());
+        int total = 0;
+        for ( Map.Entry<String, String> entry : data.entrySet() ) {
+            UUID id;
+            try {
+                id = UUID.fromString(entry.getKey());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            byte[] name = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            if ( name.length > 255 ) continue;
+            ids.add(id);
+            encoded.add(name);
+            total += RECORD_HEADER_SIZE + name.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(total);
+        for ( int i = 0; i < ids.size(); i++ ) {
+            buffer.putLong(ids.get(i).getMostSignificantBits());
+            buffer.putLong(ids.get(i).getLeastSignificantBits());
+            buffer.put((byte)encoded.get(i).length);
+            buffer.put(encoded.get(i));
         }
-        return null;
+        buffer.flip();
+        return buffer;
     }
 }
@@ -10,26 +10,32 @@ import com.github.ucchyocean.lc.event.EventResult;
 import com.github.ucchyocean.lc.japanize.JapanizeType;
 import com.github.ucchyocean.lc.member.ChannelMember;
 import com.github.ucchyocean.lc.member.ChannelMemberOther;
+import com.github.ucchyocean.lc.member.PresenceRegistry;
 import com.github.ucchyocean.lc.util.ChatColor;
 import com.github.ucchyocean.lc.util.ClickableFormat;
+import com.github.ucchyocean.lc.util.CompiledFormat;
+import com.github.ucchyocean.lc.util.SaveScheduler;
+import com.github.ucchyocean.lc.util.StageTimer;
 import com.github.ucchyocean.lc.util.Utility;
-import com.github.ucchyocean.lc.util.YamlConfig;
 import net.kyori.text.Component;
 import net.kyori.text.TextComponent;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 
-import java.io.File;
-import java.io.FilenameFilter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 /**
  * チャンネル
@@ -41,6 +47,9 @@ public abstract class Channel {
 
     private static final String FOLDER_NAME_CHANNELS = "channels";
 
+    /** 1:1チャットの共通のログ */
+    private static final LunaChatLogger PRIVATE_MESSAGE_LOGGER = new LunaChatLogger("==privatemessage");
+
     private static final String KEY_NAME = "name";
     private static final String KEY_ALIAS = "alias";
     private static final String KEY_DESC = "desc";
@@ -79,6 +88,9 @@ public abstract class Channel {
     /** チャンネルの名称 */
     private String name;
 
+    /** 発言権限のパーミッションノード */
+    private final String speakPermissionNode;
+
     /** チャンネルの別名 */
     private String alias;
 
@@ -132,6 +144,12 @@ public abstract class Channel {
 
     protected LunaChatLogger logger;
 
+    /** 受信者（オンラインで非表示にしていないメンバー）のインデックス */
+    private final RecipientIndex recipients;
+
+    /** 解析済みのチャットフォーマット */
+    private volatile CompiledFormat compiledFormat;
+
     /**
      * コンストラクタ
      * @param name チャンネルの名称
@@ -139,21 +157,22 @@ public abstract class Channel {
     protected Channel(String name) {
 
         this.name = name;
+        this.speakPermissionNode = PERMISSION_SPEAK_PREFIX + "." + name;
         this.alias = "";
         this.description = "";
-        this.members = new ArrayList<ChannelMember>();
-        this.banned = new ArrayList<ChannelMember>();
-        this.muted = new ArrayList<ChannelMember>();
-        this.hided = new ArrayList<ChannelMember>();
-        this.moderator = new ArrayList<ChannelMember>();
+        this.members = new ChannelMemberList();
+        this.banned = new ChannelMemberList();
+        this.muted = new ChannelMemberList();
+        this.hided = new ChannelMemberList();
+        this.moderator = new ChannelMemberList();
         this.password = "";
         this.visible = true;
         this.colorCode = "";
         this.broadcastChannel = false;
         this.isWorldRange = false;
         this.chatRange = 0;
-        this.banExpires = new HashMap<ChannelMember, Long>();
-        this.muteExpires = new HashMap<ChannelMember, Long>();
+        this.banExpires = new ConcurrentHashMap<ChannelMember, Long>();
+        this.muteExpires = new ConcurrentHashMap<ChannelMember, Long>();
         this.privateMessageTo = null;
         this.allowcc = true;
 
@@ -165,7 +184,15 @@ public abstract class Channel {
         }
         this.japanizeType = config.getJapanizeType();
 
-        logger = new LunaChatLogger(name.replace(">", "-").replace("*", "_"));
+        if ( isPersonalChat() ) {
+            // 1:1チャットは会話ごとにファイルを作らず、共通のログに記録する
+            logger = PRIVATE_MESSAGE_LOGGER;
+        } else {
+            logger = new LunaChatLogger(name.replace("*", "_"));
+        }
+
+        this.recipients = new RecipientIndex();
+        rebuildRecipients();
     }
 
     /**
@@ -213,30 +240,48 @@ public abstract class Channel {
     }
 
     /**
-     * このチャットに発言をする
+     * このチャットに発言をする。発言の処理は、完了を待たずに返る。
      * @param player 発言をするプレイヤー
      * @param message 発言をするメッセージ
      */
     public void chat(ChannelMember player, String message) {
+        chatAsync(player, message);
+    }
 
-        //TODO 削除する
-        //Logger log = LunaChatVelocity.getInstance().getLogger();
-        //log.info("4. chat " + message);
+    /**
+     * このチャットに発言をする
+     * @param player 発言をするプレイヤー
+     * @param message 発言をするメッセージ
+     * @return 発言の処理が完了したときに完了するFuture
+     */
+    public CompletableFuture<Void> chatAsync(ChannelMember player, String message) {
+        return chatAsync(player, message, new StageTimer());
+    }
+
+    /**
+     * このチャットに発言をする。<br/>
+     * イベントの段階ごとに、前の段階のFutureが完了してから次の段階を実行するので、
+     * イベントのリスナーの処理を待つ間も、スレッドを占有しない。
+     * @param player 発言をするプレイヤー
+     * @param message 発言をするメッセージ
+     * @param timer 段階ごとの処理時間を記録するタイマー
+     * @return 発言の処理が完了したときに完了するFuture
+     */
+    public CompletableFuture<Void> chatAsync(ChannelMember player, String message, StageTimer timer) {
 
         // 発言権限を確認する
-        String node = PERMISSION_SPEAK_PREFIX + "." + getName();
+        String node = speakPermissionNode;
         if ( player.isPermissionSet(node) && !player.hasPermission(node) ) {
             player.sendMessage(Messages.errmsgPermission(node));
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         LunaChatConfig config = LunaChat.getConfig();
-        LunaChatAPI api = LunaChat.getAPI();
 
         // Muteされているかどうかを確認する
         if ( getMuted().contains(player) ) {
             player.sendMessage(Messages.errmsgMuted());
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
         String maskedMessage = new String(message);
@@ -250,18 +295,12 @@ public abstract class Channel {
         }
 
         // NGワード発言をしたかどうかのチェックとマスク
-        boolean isNG = false;
-        for ( Pattern pattern : config.getNgwordCompiled() ) {
-            Matcher matcher = pattern.matcher(maskedMessage);
-            if ( matcher.find() ) {
-                maskedMessage = matcher.replaceAll(
-                        Utility.getAstariskString(matcher.group(0).length()));
-                isNG = true;
-            }
-        }
+        NGWordFilter.Result ngResult = config.getNgwordFilter().filter(maskedMessage);
+        maskedMessage = ngResult.getMasked();
+        boolean isNG = ngResult.isMatched();
 
         // キーワード置き換え
-        ClickableFormat cf = ClickableFormat.makeFormat(getFormat(), player, this, true);
+        ClickableFormat cf = ClickableFormat.makeFormat(getCompiledFormat(), player, this, true);
 
         // カラーコード置き換え
         // チャンネルで許可されていて、発言者がパーミッションを持っている場合に置き換える
@@ -270,15 +309,43 @@ public abstract class Channel {
         } else {
             maskedMessage = Utility.stripColorCode(maskedMessage);
         }
+        timer.mark("format");
 
         // LunaChatChannelChatEvent イベントコール
-        EventResult result = LunaChat.getEventSender().sendLunaChatChannelChatEvent(
+        final boolean skip = skipJapanize;
+        CompletableFuture<EventResult> event = LunaChat.getEventSender().sendLunaChatChannelChatEventAsync(
                 getName(), player, message, maskedMessage, cf.toLegacyText());
-        if ( result.isCancelled() ) {
-            return;
-        }
-//        msgFormat = result.getMessageFormat();
-        maskedMessage = result.getNgMaskedMessage();
+        CompletableFuture<Void> done = LunaChat.getExecutor().thenCompose(LunaChatExecutor.TaskType.CHAT, event, result -> {
+            timer.mark("channel-chat-event");
+            if ( result.isCancelled() ) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
+//            msgFormat = result.getMessageFormat();
+            return deliverChat(player, result.getNgMaskedMessage(), cf, skip, isNG, timer);
+        });
+        return done.whenComplete((v, e) -> {
+            if ( e != null ) {
+                e.printStackTrace();
+            }
+            reportSlowChat(timer);
+        });
+    }
+
+    /**
+     * LunaChatChannelChatEvent の後の発言処理を行う。メッセージを送信し、Japanize変換とNGワードアクションを実行する。
+     * @param player 発言をするプレイヤー
+     * @param maskedMessage 発言内容（NGマスク後）
+     * @param cf チャットフォーマット
+     * @param skipJapanize Japanize変換を行わないかどうか
+     * @param isNG NGワードを発言したかどうか
+     * @param timer 段階ごとの処理時間を記録するタイマー
+     * @return メッセージの送信が完了したときに完了するFuture
+     */
+    private CompletableFuture<Void> deliverChat(ChannelMember player, String maskedMessage,
+            ClickableFormat cf, boolean skipJapanize, boolean isNG, StageTimer timer) {
+
+        LunaChatConfig config = LunaChat.getConfig();
+        LunaChatAPI api = LunaChat.getAPI();
 
         // 2byteコードを含むか、半角カタカナのみなら、Japanize変換は行わない
         String kanaTemp = Utility.stripColorCode(maskedMessage);
@@ -315,51 +382,83 @@ public abstract class Channel {
                     japanizeType, this, player, jpFormat, messageFormat);
         }
 
-        if ( isIncludeSyncChat ) {
-            // メッセージの送信
-            sendMessage(player, maskedMessage, cf, true);
-        }
+        // メッセージの送信
+        CompletableFuture<Void> sent = isIncludeSyncChat
+                ? sendMessageAsync(player, maskedMessage, cf, true)
+                : CompletableFuture.completedFuture(null);
+
+        final ChannelChatJapanizeTask japanizeTask = delayedTask;
+        return LunaChat.getExecutor().thenCompose(LunaChatExecutor.TaskType.CHAT, sent, v -> {
+            timer.mark("message-event");
+
+            // 非同期実行タスクがある場合、追加で実行する
+            // 同じプレイヤーの変換結果は、前の変換結果の表示が完了してから、発言した順番に表示する
+            if ( japanizeTask != null ) {
+                LunaChat.runStagedTask(LunaChatExecutor.TaskType.JAPANIZE, player, japanizeTask::runAsync);
+            }
 
-        // 非同期実行タスクがある場合、追加で実行する
-        if ( delayedTask != null ) {
-            LunaChat.runAsyncTask(delayedTask);
-        }
+            // NGワード発言者に、NGワードアクションを実行する
+            if ( isNG ) {
+                runNGWordAction(player);
+            }
+            return CompletableFuture.<Void>completedFuture(null);
+        });
+    }
+
+    /**
+     * NGワード発言者に、NGワードアクションを実行する
+     * @param player NGワードを発言したプレイヤー
+     */
+    private void runNGWordAction(ChannelMember player) {
 
-        // NGワード発言者に、NGワードアクションを実行する
-        if ( isNG ) {
-            if ( config.getNgwordAction() == NGWordAction.BAN ) {
-                // BANする
+        LunaChatConfig config = LunaChat.getConfig();
+
+        if ( config.getNgwordAction() == NGWordAction.BAN ) {
+            // BANする
 
-                if ( !isGlobalChannel() ) {
-                    getBanned().add(player);
-                    removeMember(player);
+            if ( !isGlobalChannel() ) {
+                getBanned().add(player);
+                removeMemberAsync(player).thenRun(() -> {
                     Messages.banNGWordMessage(getColorCode(), getName(), player.getName()).ifPresent(m -> {
                         player.sendMessage(m);
                         sendSystemMessage(m, true, "system");
                     });
-                }
+                });
+            }
 
-            } else if ( config.getNgwordAction() == NGWordAction.KICK ) {
-                // キックする
+        } else if ( config.getNgwordAction() == NGWordAction.KICK ) {
+            // キックする
 
-                if ( !isGlobalChannel() ) {
-                    removeMember(player);
+            if ( !isGlobalChannel() ) {
+                removeMemberAsync(player).thenRun(() -> {
                     Messages.kickNGWordMessage(getColorCode(), getName(), player.getName()).ifPresent(m -> {
                         player.sendMessage(m);
                         sendSystemMessage(m, true, "system");
                     });
-                }
-
-            } else if ( config.getNgwordAction() == NGWordAction.MUTE ) {
-                // Muteする
-
-                getMuted().add(player);
-                save();
-                Messages.muteNGWordMessage(getColorCode(), getName(), player.getName()).ifPresent(m -> {
-                    player.sendMessage(m);
-                    sendSystemMessage(m, true, "system");
                 });
             }
+
+        } else if ( config.getNgwordAction() == NGWordAction.MUTE ) {
+            // Muteする
+
+            getMuted().add(player);
+            save();
+            Messages.muteNGWordMessage(getColorCode(), getName(), player.getName()).ifPresent(m -> {
+                player.sendMessage(m);
+                sendSystemMessage(m, true, "system");
+            });
+        }
+    }
+
+    /**
+     * 発言の処理に、設定された時間以上かかった場合は、段階ごとの処理時間をログに出力する
+     * @param timer 段階ごとの処理時間を記録したタイマー
+     */
+    private void reportSlowChat(StageTimer timer) {
+        int threshold = LunaChat.getConfig().getSlowChatWarningMillis();
+        if ( threshold > 0 && timer.getTotalMillis() >= threshold ) {
+            LunaChat.getPlugin().log(Level.WARNING,
+                    "Slow chat in channel " + getName() + ": " + timer);
         }
     }
 
@@ -382,17 +481,10 @@ public abstract class Channel {
         }
 
         // NGワード発言のマスク
-        String maskedMessage = new String(message);
-        for ( Pattern pattern : config.getNgwordCompiled() ) {
-            Matcher matcher = pattern.matcher(maskedMessage);
-            if ( matcher.find() ) {
-                maskedMessage = matcher.replaceAll(
-                        Utility.getAstariskString(matcher.group(0).length()));
-            }
-        }
+        String maskedMessage = config.getNgwordFilter().mask(message);
 
         // キーワード置き換え
-        ClickableFormat msgFormat = ClickableFormat.makeFormat(getFormat(), new ChannelMemberOther(name), this, false);
+        ClickableFormat msgFormat = ClickableFormat.makeFormat(getCompiledFormat(), new ChannelMemberOther(name), this, false);
 
         // カラーコード置き換え チャンネルで許可されている場合に置き換える。
         if ( isAllowCC() ) {
@@ -424,23 +516,16 @@ public abstract class Channel {
 
         LunaChatConfig config = LunaChat.getConfig();
 
-        // 受信者（＝メンバー全員からhideしているプレイヤーを除く）
-        List<ChannelMember> recipients = new ArrayList<>(getMembers());
-        for ( ChannelMember cp : getHided() ) {
-            if ( recipients.contains(cp) ) {
-                recipients.remove(cp);
-            }
-        }
+        // 受信者（＝オンラインのメンバーからhideしているプレイヤーを除く）
+        List<ChannelMember> recipients = new ArrayList<>(getRecipients());
 
         // opListenAllChannel 設定がある場合は、
         // パーミッション lunachat-admin.listen-all-channels を持つプレイヤーを
         // 受信者に加える。
         if ( config.isOpListenAllChannel() ) {
-            for ( String playerName : LunaChat.getPlugin().getOnlinePlayerNames() ) {
-                ChannelMember cp = ChannelMember.getChannelMember(playerName);
-                if ( cp != null
-                        && cp.hasPermission("lunachat-admin.listen-all-channels")
-                        && !recipients.contains(cp) ) {
+            Set<ChannelMember> already = new HashSet<>(recipients);
+            for ( ChannelMember cp : PresenceRegistry.getListenAllMembers() ) {
+                if ( already.add(cp) ) {
                     recipients.add(cp);
                 }
             }
@@ -474,14 +559,26 @@ public abstract class Channel {
     }
 
     /**
-     * メンバーを追加する
+     * メンバーを追加する。LunaChatChannelMemberChangedEvent のリスナーの処理の完了を待つ。<br/>
+     * Velocityのイベントのリスナーの中からは呼び出さず、addMemberAsync を使用すること。
      * @param player 追加するプレイヤー
      */
     public void addMember(ChannelMember player) {
+        addMemberAsync(player).join();
+    }
+
+    /**
+     * メンバーを追加する。<br/>
+     * LunaChatChannelMemberChangedEvent のリスナーの処理が終わってから追加するので、
+     * イベントのリスナーの処理を待つ間も、スレッドを占有しない。
+     * @param player 追加するプレイヤー
+     * @return 追加したかどうか（既に参加していた場合や、イベントでキャンセルされた場合はfalse）を通知するFuture
+     */
+    public CompletableFuture<Boolean> addMemberAsync(ChannelMember player) {
 
         // 既に参加しているなら、何もしない
         if ( members.contains(player) ) {
-            return;
+            return CompletableFuture.completedFuture(false);
         }
 
         // 変更後のメンバーリストを作成
@@ -489,33 +586,67 @@ public abstract class Channel {
         after.add(player);
 
         // LunaChatChannelMemberChangedEvent イベントコール
-        EventResult result = LunaChat.getEventSender().sendLunaChatChannelMemberChangedEvent(name, members, after);
-        if ( result.isCancelled() ) {
-            return;
+        CompletableFuture<EventResult> event =
+                LunaChat.getEventSender().sendLunaChatChannelMemberChangedEventAsync(name, members, after);
+        return LunaChat.getExecutor().thenCompose(LunaChatExecutor.TaskType.CHAT, event, result -> {
+            if ( result.isCancelled() ) {
+                return CompletableFuture.completedFuture(false);
+            }
+            return CompletableFuture.completedFuture(applyAddMember(player));
+        });
+    }
+
+    /**
+     * LunaChatChannelMemberChangedEvent の後に、メンバーを追加する
+     * @param player 追加するプレイヤー
+     * @return 追加したかどうか
+     */
+    private boolean applyAddMember(ChannelMember player) {
+
+        // イベントの処理中に参加していたなら、何もしない
+        if ( members.contains(player) ) {
+            return false;
         }
 
         // メンバー更新
         if ( members.size() == 0 && moderator.size() == 0 ) {
             moderator.add(player);
         }
-        members = after;
+        members.add(player);
+        if ( player.isOnline() && !hided.contains(player) ) {
+            recipients.add(player);
+        }
 
         if ( !isPersonalChat() ) {
             player.sendMessage(Messages.joinMessage(getColorCode(), getName(), player.getName()));
         }
 
         save();
+        return true;
     }
 
     /**
-     * メンバーを削除する
+     * メンバーを削除する。LunaChatChannelMemberChangedEvent のリスナーの処理の完了を待つ。<br/>
+     * Velocityのイベントのリスナーの中からは呼び出さず、removeMemberAsync を使用すること。
      * @param player 削除するプレイヤー
      */
     public void removeMember(ChannelMember player) {
+        removeMemberAsync(player).join();
+    }
+
+    /**
+     * メンバーを削除する。<br/>
+     * LunaChatChannelMemberChangedEvent のリスナーの処理が終わってから削除するので、
+     * イベントのリスナーの処理を待つ間も、スレッドを占有しない。
+     * @param player 削除するプレイヤー
+     * @return 削除したかどうか（参加していなかった場合や、イベントでキャンセルされた場合はfalse）を通知するFuture。
+     * 0人になってチャンネルを削除する場合は、チャンネルの削除が終わってから完了する。
+     */
+    public CompletableFuture<Boolean> removeMemberAsync(ChannelMember player) {
 
         // 既に削除しているなら、何もしない
         if ( !members.contains(player) ) {
-            return;
+            return CompletableFuture.completedFuture(false);
         }
 
         // 変更後のメンバーリストを作成
@@ -523,9 +654,26 @@ public abstract class Channel {
         after.remove(player);
 
         // LunaChatChannelMemberChangedEvent イベントコール
-        EventResult result = LunaChat.getEventSender().sendLunaChatChannelMemberChangedEvent(name, members, after);
-        if ( result.isCancelled() ) {
-            return;
+        CompletableFuture<EventResult> event =
+                LunaChat.getEventSender().sendLunaChatChannelMemberChangedEventAsync(name, members, after);
+        return LunaChat.getExecutor().thenCompose(LunaChatExecutor.TaskType.CHAT, event, result -> {
+            if ( result.isCancelled() ) {
+                return CompletableFuture.completedFuture(false);
+            }
+            return applyRemoveMember(player);
+        });
+    }
+
+    /**
+     * LunaChatChannelMemberChangedEvent の後に、メンバーを削除する
+     * @param player 削除するプレイヤー
+     * @return 削除したかどうかを通知するFuture
+     */
+    private CompletableFuture<Boolean> applyRemoveMember(ChannelMember player) {
+
+        // イベントの処理中に退出していたなら、何もしない
+        if ( !members.contains(player) ) {
+            return CompletableFuture.completedFuture(false);
         }
 
         // デフォルト発言先が退出するチャンネルと一致する場合、
@@ -538,6 +686,9 @@ public abstract class Channel {
 
         // 実際にメンバーから削除する
         members.remove(player);
+        if ( !isBroadcastChannel() ) {
+            recipients.remove(player);
+        }
 
         if ( !isPersonalChat() ) {
             player.sendMessage(Messages.quitMessage(getColorCode(), getName(), player.getName()));
@@ -546,8 +697,7 @@ public abstract class Channel {
         // 0人で削除する設定がオンで、0人になったなら、チャンネルを削除する
         LunaChatConfig config = LunaChat.getConfig();
         if ( config.isZeroMemberRemove() && members.size() <= 0 ) {
-            api.removeChannel(this.name);
-            return;
+            return api.removeChannelAsync(this.name, null).thenApply(removed -> true);
         }
 
         // 非表示設定プレイヤーだったら、リストから削除する
@@ -561,6 +711,7 @@ public abstract class Channel {
         }
 
         save();
+        return CompletableFuture.completedFuture(true);
     }
 
     /**
@@ -607,6 +758,96 @@ public abstract class Channel {
         save();
     }
 
+    /**
+     * 指定したプレイヤーが、このチャンネルを非表示にする
+     * @param player 非表示にするプレイヤー
+     */
+    public void hide(ChannelMember player) {
+
+        // 既に非表示なら何もしない
+        if ( hided.contains(player) ) {
+            return;
+        }
+
+        hided.add(player);
+        recipients.remove(player);
+
+        save();
+    }
+
+    /**
+     * 指定したプレイヤーの、このチャンネルの非表示を解除する
+     * @param player 非表示を解除するプレイヤー
+     */
+    public void unhide(ChannelMember player) {
+
+        // 非表示でないなら何もしない
+        if ( !hided.contains(player) ) {
+            return;
+        }
+
+        hided.remove(player);
+        if ( player.isOnline() && (isBroadcastChannel() || members.contains(player)) ) {
+            recipients.add(player);
+        }
+
+        save();
+    }
+
+    /**
+     * 発言を受信するプレイヤー（オンラインで、このチャンネルを非表示にしていないメンバー）を返す。
+     * 返されるリストは変更できないスナップショットである。
+     * @return 受信者
+     */
+    public List<ChannelMember> getRecipients() {
+        return recipients.snapshot();
+    }
+
+    /**
+     * 現在のメンバーの状態から、受信者のインデックスを作り直す
+     */
+    public void rebuildRecipients() {
+        List<ChannelMember> list = new ArrayList<ChannelMember>();
+        for ( ChannelMember member : getMembers() ) {
+            if ( member != null && member.isOnline() && !hided.contains(member) ) {
+                list.add(member);
+            }
+        }
+        recipients.reset(list);
+    }
+
+    /**
+     * メンバーとBANのリストの変更を通知するリスナーを設定する
+     * @param memberListener メンバーのリストの通知先、nullなら通知しない
+     * @param bannedListener BANのリストの通知先、nullなら通知しない
+     */
+    void setMembershipListeners(
+            ChannelMemberList.Listener memberListener, ChannelMemberList.Listener bannedListener) {
+        ((ChannelMemberList)members).setListener(memberListener);
+        ((ChannelMemberList)banned).setListener(bannedListener);
+    }
+
+    /**
+     * プレイヤーがサーバーに接続したときに呼び出され、必要に応じて受信者に追加する
+     * @param player 接続したプレイヤー
+     */
+    void onMemberOnline(ChannelMember player) {
+        if ( hided.contains(player) ) {
+            return;
+        }
+        if ( isBroadcastChannel() || members.contains(player) ) {
+            recipients.add(player);
+        }
+    }
+
+    /**
+     * プレイヤーがサーバーから切断したときに呼び出され、受信者から削除する
+     * @param player 切断したプレイヤー
+     */
+    void onMemberOffline(ChannelMember player) {
+        recipients.remove(player);
+    }
+
     /**
      * メッセージを表示します。指定したプレイヤーの発言として処理されます。
      * @param member 発言者（ワールドチャット、範囲チャットの場合は必須です）
@@ -617,6 +858,21 @@ public abstract class Channel {
     protected abstract void sendMessage(
             ChannelMember member, String message, @Nullable ClickableFormat format, boolean sendDynmap);
 
+    /**
+     * メッセージを表示します。指定したプレイヤーの発言として処理されます。<br/>
+     * イベントのリスナーの処理を待つ間、スレッドを占有しないようにする場合は、サブクラスでオーバーライドしてください。
+     * @param member 発言者（ワールドチャット、範囲チャットの場合は必須です）
+     * @param message メッセージ
+     * @param format フォーマット
+     * @param sendDynmap dynmapへ送信するかどうか
+     * @return 送信が完了したときに完了するFuture
+     */
+    protected CompletableFuture<Void> sendMessageAsync(
+            ChannelMember member, String message, @Nullable ClickableFormat format, boolean sendDynmap) {
+        sendMessage(member, message, format, sendDynmap);
+        return CompletableFuture.completedFuture(null);
+    }
+
     /**
      * ログを記録する
      * @param name 発言者
@@ -631,9 +887,34 @@ public abstract class Channel {
      * @return 置き換え結果
      */
     protected ClickableFormat replaceKeywords(String format, ChannelMember member) {
+        if ( format.equals(getFormat()) ) {
+            return ClickableFormat.makeFormat(getCompiledFormat(), member, this, true);
+        }
         return ClickableFormat.makeFormat(format, member, this, true);
     }
 
+    /**
+     * 解析済みのチャットフォーマットを返す。
+     * フォーマットが変更されていた場合は、解析し直す。
+     * @return 解析済みのチャットフォーマット
+     */
+    public CompiledFormat getCompiledFormat() {
+        String current = getFormat();
+        CompiledFormat compiled = compiledFormat;
+        if ( compiled == null || !compiled.getSource().equals(current) ) {
+            compiled = CompiledFormat.compileWithTemplates(current, LunaChat.getAPI());
+            compiledFormat = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * 解析済みのチャットフォーマットを破棄する。テンプレートが変更されたときに呼び出される。
+     */
+    public void clearCompiledFormat() {
+        compiledFormat = null;
+    }
+
     /**
      * チャンネル情報を返す
      * @param forModerator モデレータ向けの情報を含めるかどうか
@@ -764,51 +1045,106 @@ public abstract class Channel {
      * 期限付きBanや期限付きMuteをチェックし、期限が切れていたら解除を行う
      */
     public void checkExpires() {
+        checkExpires(System.currentTimeMillis());
+    }
+
+    /**
+     * 期限付きBanや期限付きMuteをチェックし、指定した時刻までに期限が切れていたら解除を行う
+     * @param now 現在時刻
+     */
+    public void checkExpires(long now) {
+
+        // 解除すると期限マップから削除されるので、コピーに対して確認する
+        for ( ChannelMember cp : new ArrayList<ChannelMember>(getBanExpires().keySet()) ) {
+            expire(ExpiryScheduler.Kind.BAN, cp, now);
+        }
+        for ( ChannelMember cp : new ArrayList<ChannelMember>(getMuteExpires().keySet()) ) {
+            expire(ExpiryScheduler.Kind.MUTE, cp, now);
+        }
+    }
 
-        long now = System.currentTimeMillis();
+    /**
+     * 期限付きBanを設定する。期限の時刻に、自動で解除される。
+     * @param cp メンバー
+     * @param expire 期限（エポックミリ秒）
+     */
+    public void setBanExpire(ChannelMember cp, long expire) {
+        getBanExpires().put(cp, expire);
+        scheduleExpire(cp, ExpiryScheduler.Kind.BAN, expire);
+    }
 
-        // 期限付きBANのチェック
-        for ( ChannelMember cp : getBanExpires().keySet() ) {
-            if ( getBanExpires().get(cp) <= now ) {
+    /**
+     * 期限付きMuteを設定する。期限の時刻に、自動で解除される。
+     * @param cp メンバー
+     * @param expire 期限（エポックミリ秒）
+     */
+    public void setMuteExpire(ChannelMember cp, long expire) {
+        getMuteExpires().put(cp, expire);
+        scheduleExpire(cp, ExpiryScheduler.Kind.MUTE, expire);
+    }
 
-                // 期限マップから削除し、BANを解除
-                getBanExpires().remove(cp);
-                if ( getBanned().contains(cp) ) {
-                    getBanned().remove(cp);
-                    save();
+    /**
+     * 期限をスケジューラに登録する
+     * @param cp メンバー
+     * @param kind 種類
+     * @param expire 期限
+     */
+    private void scheduleExpire(ChannelMember cp, ExpiryScheduler.Kind kind, long expire) {
+        LunaChatAPI api = LunaChat.getAPI();
+        if ( api instanceof ChannelManager ) {
+            ((ChannelManager)api).getExpiryScheduler().schedule(this, cp, kind, expire);
+        }
+    }
 
-                    // メッセージ通知を流す
-                    Messages.expiredBanMessage(getColorCode(), getName(), cp.getName()).ifPresent(msg -> {
-                        sendSystemMessage(msg, true, "system");
-                    });
+    /**
+     * 指定したメンバーの期限付きBanまたは期限付きMuteの期限が切れていたら、解除を行う
+     * @param kind 種類
+     * @param cp メンバー
+     * @param now 現在時刻
+     */
+    void expire(ExpiryScheduler.Kind kind, ChannelMember cp, long now) {
 
-                    String pardonedMsg = Messages.cmdmsgPardoned(getName());
-                    if ( cp.isOnline() && !pardonedMsg.isEmpty() ) {
-                        cp.sendMessage(pardonedMsg);
-                    }
+        Map<ChannelMember, Long> expires = (kind == ExpiryScheduler.Kind.BAN) ? getBanExpires() : getMuteExpires();
+        Long expire = expires.get(cp);
+
+        // 解除済み、または期限が延長されている場合は何もしない
+        if ( expire == null || expire > now || !expires.remove(cp, expire) ) {
+            return;
+        }
+
+        if ( kind == ExpiryScheduler.Kind.BAN ) {
+
+            // BANを解除
+            if ( getBanned().contains(cp) ) {
+                getBanned().remove(cp);
+                save();
+
+                // メッセージ通知を流す
+                Messages.expiredBanMessage(getColorCode(), getName(), cp.getName()).ifPresent(msg -> {
+                    sendSystemMessage(msg, true, "system");
+                });
+
+                String pardonedMsg = Messages.cmdmsgPardoned(getName());
+                if ( cp.isOnline() && !pardonedMsg.isEmpty() ) {
+                    cp.sendMessage(pardonedMsg);
                 }
             }
-        }
 
-        // 期限付きMuteのチェック
-        for ( ChannelMember cp : getMuteExpires().keySet() ) {
-            if ( getMuteExpires().get(cp) <= now ) {
+        } else {
 
-                // 期限マップから削除し、Muteを解除
-                getMuteExpires().remove(cp);
-                if ( getMuted().contains(cp) ) {
-                    getMuted().remove(cp);
-                    save();
+            // Muteを解除
+            if ( getMuted().contains(cp) ) {
+                getMuted().remove(cp);
+                save();
 
-                    // メッセージ通知を流す
-                    Messages.expiredMuteMessage(getColorCode(), getName(), cp.getName()).ifPresent(msg -> {
-                        sendSystemMessage(msg, true, "system");
-                    });
+                // メッセージ通知を流す
+                Messages.expiredMuteMessage(getColorCode(), getName(), cp.getName()).ifPresent(msg -> {
+                    sendSystemMessage(msg, true, "system");
+                });
 
-                    String unmutedMsg = Messages.cmdmsgUnmuted(getName());
-                    if ( cp.isOnline() && !unmutedMsg.isEmpty() ) {
-                        cp.sendMessage(unmutedMsg);
-                    }
+                String unmutedMsg = Messages.cmdmsgUnmuted(getName());
+                if ( cp.isOnline() && !unmutedMsg.isEmpty() ) {
+                    cp.sendMessage(unmutedMsg);
                 }
             }
         }
@@ -828,6 +1164,22 @@ public abstract class Channel {
         return logger.getLog(player, filter, date, reverse);
     }
 
+    /**
+     * ログを1ページ分取得する
+     * @param player 発言者名
+     * @param filter フィルタ
+     * @param date 日付
+     * @param reverse 逆順取得（新しいログを先に並べる）
+     * @param cursor 前のページの {@link LunaChatLogPage#getNextCursor()}、最初のページならマイナスの値
+     * @param limit 1ページの件数
+     * @return ログデータ
+     */
+    public LunaChatLogPage getLogPage(String player, String filter, String date,
+            boolean reverse, long cursor, int limit) {
+
+        return logger.getLogPage(player, filter, date, reverse, cursor, limit);
+    }
+
     /**
      * チャンネルのオンライン人数を返す
      * @return オンライン人数
@@ -925,6 +1277,7 @@ public abstract class Channel {
         channel.muteExpires = castToChannelMemberLongMap(data.get(KEY_MUTE_EXPIRES));
         channel.allowcc = castWithDefault(data.get(KEY_ALLOWCC), true);
         channel.japanizeType = JapanizeType.fromID(data.get(KEY_JAPANIZE) + "", null);
+        channel.rebuildRecipients();
         return channel;
     }
 
@@ -941,7 +1294,14 @@ public abstract class Channel {
      * @param alias チャンネルの別名
      */
     public void setAlias(String alias) {
+        String old = this.alias;
         this.alias = alias;
+
+        // チャンネル名と別名の索引を更新する
+        LunaChatAPI api = LunaChat.getAPI();
+        if ( api instanceof ChannelManager ) {
+            ((ChannelManager)api).onAliasChanged(this, old, alias);
+        }
     }
 
     /**
@@ -1006,6 +1366,7 @@ public abstract class Channel {
      */
     public void setFormat(String format) {
         this.format = format;
+        clearCompiledFormat();
     }
 
     /**
@@ -1094,6 +1455,7 @@ public abstract class Channel {
      */
     public void setBroadcast(boolean broadcast) {
         this.broadcastChannel = broadcast;
+        rebuildRecipients();
     }
 
     /**
@@ -1177,33 +1539,41 @@ public abstract class Channel {
     }
 
     /**
-     * チャンネルの情報をファイルに保存する。
+     * チャンネルの情報をファイルに保存する。<br/>
+     * 保存はすぐには行われず、変更をまとめて、保存用のスレッドで行われる。
+     * 保存する内容は、変更を行ったこのスレッドで作成しておき、保存用のスレッドでは
+     * チャンネルの状態を読まない。
      * @return 保存をしたかどうか。
      */
     public boolean save() {
 
-        // フォルダーの取得と、必要に応じて作成
-        File folder = new File(
-                LunaChat.getDataFolder(), FOLDER_NAME_CHANNELS);
-        if ( !folder.exists() ) {
-            folder.mkdirs();
-        }
-
         // 1:1チャットチャンネルの場合は、何もしない。
         if ( isPersonalChat() ) {
             return false;
         }
 
-        File file = new File(folder, name + ".yml");
+        Map<String, Object> data = serialize();
+        SaveScheduler.markDirty(getSaveKey(), () -> saveNow(data));
+        return true;
+    }
+
+    /**
+     * 保存の予定を識別するキーを返す
+     * @return キー
+     */
+    private String getSaveKey() {
+        return FOLDER_NAME_CHANNELS + "/" + name;
+    }
+
+    /**
+     * チャンネルの情報を、今すぐ保存先に保存する。
+     * @param data 保存する内容
+     * @return 保存をしたかどうか。
+     */
+    private boolean saveNow(Map<String, Object> data) {
 
-        // ファイルへ保存する
-        YamlConfig conf = new YamlConfig();
-        Map<String, Object> data = this.serialize();
-        for ( String key : data.keySet() ) {
-            conf.set(key, data.get(key));
-        }
         try {
-            conf.save(file);
+            ChannelManager.getStore().saveChannel(name, data);
             return true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -1212,55 +1582,34 @@ public abstract class Channel {
     }
 
     /**
-     * チャンネルの情報を保存したファイルを、削除する。
+     * チャンネルの情報を、保存先から削除する。
      * @return 削除したかどうか。
      */
     protected boolean remove() {
 
-        // フォルダーの取得
-        File folder = new File(
-                LunaChat.getDataFolder(), FOLDER_NAME_CHANNELS);
-        if ( !folder.exists() ) {
-            return false;
-        }
-        File file = new File(folder, name + ".yml");
-        if ( !file.exists() ) {
-            return false;
-        }
+        // 保存待ちになっていたら取り消す
+        SaveScheduler.cancel(getSaveKey());
 
-        // ファイルを削除
-        return file.delete();
+        return ChannelManager.getStore().removeChannel(name);
     }
 
     /**
-     * チャンネルの情報を保存したファイルから全てのチャンネルを復元して返す。
-     * @return 全てのチャンネル
+     * 保存先から全てのチャンネルを復元して返す。
+     * 読み込みと復元は、指定したスレッドプールで並列に行う。
+     * @param store 保存先
+     * @param pool 読み込みに使うスレッドプール
+     * @return 全てのチャンネル（作成や削除と、参照が別のスレッドで行われるので、ConcurrentHashMapで返す）
      */
-    protected static HashMap<String, Channel> loadAllChannels() {
+    protected static ConcurrentHashMap<String, Channel> loadAllChannels(ChannelStore store, ForkJoinPool pool) {
 
-        // フォルダーの取得
-        File folder = new File(
-                LunaChat.getDataFolder(), FOLDER_NAME_CHANNELS);
-        if ( !folder.exists() ) {
-            return new HashMap<String, Channel>();
-        }
+        List<Map<String, Object>> data = store.loadChannels(pool);
+        List<Channel> loaded = pool.submit(() -> data.parallelStream()
+                .map(Channel::deserialize)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList())).join();
 
-        File[] files = folder.listFiles(new FilenameFilter() {
-            @Override
-            public boolean accept(File dir, String name) {
-                return name.endsWith(".yml");
-            }
-        });
-        if ( files == null ) files = new File[0];
-
-        HashMap<String, Channel> result = new HashMap<String, Channel>();
-        for ( File file : files ) {
-            YamlConfig config = YamlConfig.load(file);
-            Map<String, Object> data = new HashMap<String, Object>();
-            for ( String key : config.getKeys(false) ) {
-                data.put(key, config.get(key));
-            }
-            Channel channel = deserialize(data);
+        ConcurrentHashMap<String, Channel> result = new ConcurrentHashMap<String, Channel>();
+        for ( Channel channel : loaded ) {
             result.put(channel.name.toLowerCase(), channel);
         }
 
@@ -1289,8 +1638,8 @@ public abstract class Channel {
     private static Map<String, Long> getStringLongMap(Map<ChannelMember, Long> org) {
 
         HashMap<String, Long> result = new HashMap<String, Long>();
-        for ( ChannelMember cp : org.keySet() ) {
-            if ( cp != null ) result.put(cp.toString(), org.get(cp));
+        for ( Map.Entry<ChannelMember, Long> entry : org.entrySet() ) {
+            if ( entry.getKey() != null ) result.put(entry.getKey().toString(), entry.getValue());
         }
         return result;
     }
@@ -1318,7 +1667,7 @@ public abstract class Channel {
     private static List<ChannelMember> castToChannelMemberList(Object obj) {
 
         List<String> entries = castToStringList(obj);
-        ArrayList<ChannelMember> players = new ArrayList<ChannelMember>();
+        ChannelMemberList players = new ChannelMemberList();
 
         for ( String entry : entries ) {
             players.add(ChannelMember.getChannelMember(entry));
@@ -1352,11 +1701,14 @@ public abstract class Channel {
     private static Map<ChannelMember, Long> castToChannelMemberLongMap(Object obj) {
 
         Map<String, Long> entries = castToStringLongMap(obj);
-        HashMap<ChannelMember, Long> map = new HashMap<ChannelMember, Long>();
+        ConcurrentHashMap<ChannelMember, Long> map = new ConcurrentHashMap<ChannelMember, Long>();
 
         for ( String key : entries.keySet() ) {
             ChannelMember cp = ChannelMember.getChannelMember(key);
-            map.put(cp, entries.get(key));
+            Long value = entries.get(key);
+            if ( cp != null && value != null ) {
+                map.put(cp, value);
+            }
         }
 
         return map;
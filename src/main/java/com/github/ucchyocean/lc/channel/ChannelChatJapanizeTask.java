@@ -5,6 +5,10 @@
  */
 package com.github.ucchyocean.lc.channel;
 
+import java.util.concurrent.CompletableFuture;
+
+import com.github.ucchyocean.lc.LunaChat;
+import com.github.ucchyocean.lc.LunaChatExecutor;
 import com.github.ucchyocean.lc.LunaChatVelocity;
 import com.github.ucchyocean.lc.japanize.JapanizeType;
 import com.github.ucchyocean.lc.member.ChannelMember;
@@ -45,10 +49,22 @@ public class ChannelChatJapanizeTask implements Runnable {
      */
     @Override
     public void run() {
-        if ( task.runSync() ) {
+        runAsync();
+    }
+
+    /**
+     * 変換を行い、変換結果をチャンネルに表示する。
+     * イベントのリスナーの処理を待つ間は、スレッドを占有しない。
+     * @return 表示が完了したときに完了するFuture
+     */
+    public CompletableFuture<Void> runAsync() {
+        return LunaChat.getExecutor().thenCompose(LunaChatExecutor.TaskType.JAPANIZE, task.runAsync(), done -> {
+            if ( !done ) {
+                return CompletableFuture.<Void>completedFuture(null);
+            }
             LunaChatVelocity.getInstance().getLogger().info("player: " + player + "\ntask.getResult(): " + task.getResult() + "\nlineFormat: " + lineFormat);
             // チャンネルへ送信
-            channel.sendMessage(player, task.getResult(), lineFormat, true);
-        }
+            return channel.sendMessageAsync(player, task.getResult(), lineFormat, true);
+        });
     }
 }
@@ -5,21 +5,30 @@
  */
 package com.github.ucchyocean.lc.channel;
 
-import java.io.File;
 import java.io.IOException;
+import java.time.Clock;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
 
 import com.github.ucchyocean.lc.LunaChat;
 import com.github.ucchyocean.lc.LunaChatAPI;
+import com.github.ucchyocean.lc.LunaChatExecutor;
 import com.github.ucchyocean.lc.LunaChatMode;
 import com.github.ucchyocean.lc.Messages;
 import com.github.ucchyocean.lc.event.EventResult;
 import com.github.ucchyocean.lc.japanize.JapanizeType;
 import com.github.ucchyocean.lc.member.ChannelMember;
-import com.github.ucchyocean.lc.util.YamlConfig;
+import com.github.ucchyocean.lc.util.SaveScheduler;
+import com.github.ucchyocean.lc.util.StageTimer;
 
 /**
  * チャンネルマネージャー
@@ -33,23 +42,29 @@ public class ChannelManager implements LunaChatAPI {
     private static final String FILE_NAME_DICTIONARY = "dictionary.yml";
     private static final String FILE_NAME_HIDELIST = "hidelist.yml";
 
-    private File fileDefaults;
-    private File fileTemplates;
-    private File fileJapanize;
-    private File fileDictionary;
-    private File fileHidelist;
-    private HashMap<String, Channel> channels;
-    private HashMap<String, String> defaultChannels;
-    private HashMap<String, String> templates;
-    private HashMap<String, Boolean> japanize;
-    private HashMap<String, String> dictionary;
-    private HashMap<String, List<ChannelMember>> hidelist;
+    /** データの読み込みに使うスレッドの数 */
+    private static final int LOAD_PARALLELISM = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private ConcurrentHashMap<String, Channel> channels;
+    private ConcurrentHashMap<String, String> defaultChannels;
+    private ConcurrentHashMap<String, String> templates;
+    private ConcurrentHashMap<String, Boolean> japanize;
+    private ConcurrentHashMap<String, String> dictionary;
+    private HideGraph hidelist;
+    private final ChannelNameIndex nameIndex = new ChannelNameIndex();
+    private ChannelMembershipIndex membershipIndex;
+    private PrivateMessageStore privateMessages;
+    private final ExpiryScheduler expiryScheduler = new ExpiryScheduler(Clock.systemUTC());
+
+    /** チャンネルとデータの保存先 */
+    private static ChannelStore store;
 
     /**
      * コンストラクタ
      */
     public ChannelManager() {
         reloadAllData();
+        expiryScheduler.start();
     }
 
     /**
@@ -58,84 +73,125 @@ public class ChannelManager implements LunaChatAPI {
     @Override
     public void reloadAllData() {
 
-        // デフォルトチャンネル設定のロード
-        fileDefaults = new File(LunaChat.getDataFolder(), FILE_NAME_DCHANNELS);
+        // 保存待ちの変更があれば、先に保存する
+        SaveScheduler.flush();
 
-        if ( !fileDefaults.exists() ) {
-            makeEmptyFile(fileDefaults);
+        StageTimer timer = new StageTimer();
+
+        if ( store != null ) {
+            store.close();
         }
+        store = openStore();
 
-        YamlConfig config = YamlConfig.load(fileDefaults);
+        ForkJoinPool pool = new ForkJoinPool(LOAD_PARALLELISM);
+        try {
 
-        defaultChannels = new HashMap<String, String>();
-        for ( String key : config.getKeys(false) ) {
-            String value = config.getString(key);
-            if ( value != null) {
-                defaultChannels.put(key, value.toLowerCase());
+            // 各データは、互いに関係が無いので同時に読み込む
+            ForkJoinTask<Map<String, Object>> loadDefaults = pool.submit(() -> store.loadData(FILE_NAME_DCHANNELS));
+            ForkJoinTask<Map<String, Object>> loadTemplates = pool.submit(() -> store.loadData(FILE_NAME_TEMPLATES));
+            ForkJoinTask<Map<String, Object>> loadJapanize = pool.submit(() -> store.loadData(FILE_NAME_JAPANIZE));
+            ForkJoinTask<Map<String, Object>> loadDictionary = pool.submit(() -> store.loadData(FILE_NAME_DICTIONARY));
+            ForkJoinTask<Map<String, Object>> loadHidelist = pool.submit(() -> store.loadData(FILE_NAME_HIDELIST));
+
+            // チャンネル設定のロード
+            ConcurrentHashMap<String, Channel> loadedChannels = Channel.loadAllChannels(store, pool);
+            timer.mark("channels");
+
+            // デフォルトチャンネル設定のロード
+            defaultChannels = new ConcurrentHashMap<String, String>();
+            for ( Map.Entry<String, Object> entry : loadDefaults.join().entrySet() ) {
+                if ( entry.getValue() != null ) {
+                    defaultChannels.put(entry.getKey(), entry.getValue().toString().toLowerCase());
+                }
             }
-        }
-
-        // テンプレート設定のロード
-        fileTemplates = new File(LunaChat.getDataFolder(), FILE_NAME_TEMPLATES);
 
-        if ( !fileTemplates.exists() ) {
-            makeEmptyFile(fileTemplates);
-        }
+            // テンプレート設定のロード
+            templates = new ConcurrentHashMap<String, String>();
+            for ( Map.Entry<String, Object> entry : loadTemplates.join().entrySet() ) {
+                if ( entry.getValue() != null ) {
+                    templates.put(entry.getKey(), entry.getValue().toString());
+                }
+            }
 
-        YamlConfig configTemplates = YamlConfig.load(fileTemplates);
+            // Japanize設定のロード
+            japanize = new ConcurrentHashMap<String, Boolean>();
+            for ( Map.Entry<String, Object> entry : loadJapanize.join().entrySet() ) {
+                japanize.put(entry.getKey(), Boolean.TRUE.equals(entry.getValue()));
+            }
 
-        templates = new HashMap<String, String>();
-        for ( String key : configTemplates.getKeys(false) ) {
-            templates.put(key, configTemplates.getString(key));
-        }
+            // dictionaryのロード
+            dictionary = new ConcurrentHashMap<String, String>();
+            for ( Map.Entry<String, Object> entry : loadDictionary.join().entrySet() ) {
+                if ( entry.getValue() != null ) {
+                    dictionary.put(entry.getKey(), entry.getValue().toString());
+                }
+            }
 
-        // Japanize設定のロード
-        fileJapanize = new File(LunaChat.getDataFolder(), FILE_NAME_JAPANIZE);
+            // hideリストのロード
+            hidelist = HideGraph.fromData(loadHidelist.join());
+            timer.mark("data files");
 
-        if ( !fileJapanize.exists() ) {
-            makeEmptyFile(fileJapanize);
-        }
+            channels = loadedChannels;
+            nameIndex.rebuild(channels.values());
 
-        YamlConfig configJapanize = YamlConfig.load(fileJapanize);
+            // 古いチャンネルのリスナーが残っていても影響しないよう、索引は作り直す
+            membershipIndex = new ChannelMembershipIndex();
+            for ( Channel channel : channels.values() ) {
+                membershipIndex.attach(channel);
+            }
 
-        japanize = new HashMap<String, Boolean>();
-        for ( String key : configJapanize.getKeys(false) ) {
-            japanize.put(key, configJapanize.getBoolean(key));
-        }
+            // 1:1チャットの会話は保存されないので、作り直す
+            privateMessages = new PrivateMessageStore(LunaChat.getConfig().getPrivateMessageIdleMinutes());
 
-        // dictionaryのロード
-        fileDictionary = new File(LunaChat.getDataFolder(), FILE_NAME_DICTIONARY);
+            // 期限付きBANと期限付きMuteを、期限の順に並べ直す
+            expiryScheduler.rebuild(channels.values());
 
-        if ( !fileDictionary.exists() ) {
-            makeEmptyFile(fileDictionary);
+        } finally {
+            pool.shutdown();
         }
 
-        YamlConfig configDictionary = YamlConfig.load(fileDictionary);
+        LunaChat.getPlugin().log(Level.INFO,
+                "Loaded " + channels.size() + " channels in " + timer);
+    }
 
-        dictionary = new HashMap<String, String>();
-        for ( String key : configDictionary.getKeys(false) ) {
-            dictionary.put(key, configDictionary.getString(key));
-        }
+    /**
+     * 設定に従って、チャンネルとデータの保存先を開く。
+     * ジャーナルを開けなかった場合は、Yamlファイルの保存先を使う。
+     * @return 保存先
+     */
+    private static ChannelStore openStore() {
 
-        // hideリストのロード
-        fileHidelist = new File(LunaChat.getDataFolder(), FILE_NAME_HIDELIST);
+        YamlChannelStore yaml = new YamlChannelStore(LunaChat.getDataFolder());
+        if ( !"journal".equalsIgnoreCase(LunaChat.getConfig().getChannelStore()) ) {
+            return yaml;
+        }
 
-        if ( !fileHidelist.exists() ) {
-            makeEmptyFile(fileHidelist);
+        try {
+            return new JournalChannelStore(LunaChat.getDataFolder(), yaml);
+        } catch (IOException e) {
+            e.printStackTrace();
+            LunaChat.getPlugin().log(Level.WARNING,
+                    "Could not open the channel journal, falling back to yaml files.");
+            return yaml;
         }
+    }
 
-        YamlConfig configHidelist = YamlConfig.load(fileHidelist);
+    /**
+     * チャンネルとデータの保存先を返す
+     * @return 保存先
+     */
+    protected static ChannelStore getStore() {
+        return store;
+    }
 
-        hidelist = new HashMap<String, List<ChannelMember>>();
-        for ( String key : configHidelist.getKeys(false) ) {
-            hidelist.put(key, new ArrayList<ChannelMember>());
-            for ( String id : configHidelist.getStringList(key) ) {
-                hidelist.get(key).add(ChannelMember.getChannelMember(id));
-            }
+    /**
+     * 保存先を閉じる。保存待ちの変更があれば、先に保存する。
+     */
+    public static void closeStore() {
+        SaveScheduler.flush();
+        if ( store != null ) {
+            store.close();
         }
-
-        // チャンネル設定のロード
-        channels = Channel.loadAllChannels();
     }
 
     /**
@@ -151,93 +207,60 @@ public class ChannelManager implements LunaChatAPI {
     }
 
     /**
-     * デフォルトチャンネル設定を保存する
-     * @return 保存したかどうか
+     * デフォルトチャンネル設定を保存する。保存は、変更をまとめて、保存用のスレッドで行われる。<br/>
+     * 設定のマップは ConcurrentHashMap なので、保存用のスレッドでコピーしても、
+     * 並行して変更されていないエントリが欠けることはない。並行した変更は、その変更の後の保存で書き込まれる。
      */
-    private boolean saveDefaults() {
-
-        try {
-            YamlConfig config = new YamlConfig();
-            for ( String key : defaultChannels.keySet() ) {
-                config.set(key, defaultChannels.get(key));
-            }
-            config.save(fileDefaults);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    private void saveDefaults() {
+        SaveScheduler.markDirty(FILE_NAME_DCHANNELS,
+                () -> writeData(FILE_NAME_DCHANNELS, new HashMap<String, Object>(defaultChannels)));
     }
 
     /**
-     * テンプレート設定を保存する
-     * @return 保存したかどうか
+     * テンプレート設定を保存する。保存は、変更をまとめて、保存用のスレッドで行われる。
+     * @see #saveDefaults()
      */
-    private boolean saveTemplates() {
-
-        try {
-            YamlConfig config = new YamlConfig();
-            for ( String key : templates.keySet() ) {
-                config.set(key, templates.get(key));
-            }
-            config.save(fileTemplates);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    private void saveTemplates() {
+        SaveScheduler.markDirty(FILE_NAME_TEMPLATES,
+                () -> writeData(FILE_NAME_TEMPLATES, new HashMap<String, Object>(templates)));
     }
 
     /**
-     * Japanize設定を保存する
-     * @return 保存したかどうか
+     * Japanize設定を保存する。保存は、変更をまとめて、保存用のスレッドで行われる。
+     * @see #saveDefaults()
      */
-    private boolean saveJapanize() {
-
-        try {
-            YamlConfig config = new YamlConfig();
-            for ( String key : japanize.keySet() ) {
-                config.set(key, japanize.get(key));
-            }
-            config.save(fileJapanize);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    private void saveJapanize() {
+        SaveScheduler.markDirty(FILE_NAME_JAPANIZE,
+                () -> writeData(FILE_NAME_JAPANIZE, new HashMap<String, Object>(japanize)));
     }
 
     /**
-     * Dictionary設定を保存する
-     * @return 保存したかどうか
+     * Dictionary設定を保存する。保存は、変更をまとめて、保存用のスレッドで行われる。
+     * @see #saveDefaults()
      */
-    private boolean saveDictionary() {
+    private void saveDictionary() {
+        SaveScheduler.markDirty(FILE_NAME_DICTIONARY,
+                () -> writeData(FILE_NAME_DICTIONARY, new HashMap<String, Object>(dictionary)));
+    }
 
-        try {
-            YamlConfig config = new YamlConfig();
-            for ( String key : dictionary.keySet() ) {
-                config.set(key, dictionary.get(key));
-            }
-            config.save(fileDictionary);
-            return true;
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+    /**
+     * Hidelist設定を保存する。保存は、変更をまとめて、保存用のスレッドで行われる。
+     */
+    private void saveHidelist() {
+        SaveScheduler.markDirty(FILE_NAME_HIDELIST,
+                () -> writeData(FILE_NAME_HIDELIST, hidelist.toData()));
     }
 
     /**
-     * Hidelist設定を保存する
+     * データを、今すぐ保存先に保存する
+     * @param name データ名
+     * @param data 保存する内容
      * @return 保存したかどうか
      */
-    private boolean saveHidelist() {
+    private static boolean writeData(String name, Map<String, Object> data) {
 
         try {
-            YamlConfig config = new YamlConfig();
-            for ( String key : hidelist.keySet() ) {
-                config.set(key, getIdList(hidelist.get(key)));
-            }
-            config.save(fileHidelist);
+            store.saveData(name, data);
             return true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -291,6 +314,38 @@ public class ChannelManager implements LunaChatAPI {
         return channels.values();
     }
 
+    /**
+     * 全チャンネルの解析済みチャットフォーマットを破棄する
+     */
+    private void clearCompiledFormats() {
+        for ( Channel channel : channels.values() ) {
+            channel.clearCompiledFormat();
+        }
+    }
+
+    /**
+     * プレイヤーがサーバーに接続したときに呼び出され、各チャンネルの受信者を更新する
+     * @param member 接続したプレイヤー
+     */
+    public void onPlayerJoin(ChannelMember member) {
+        for ( Channel channel : channels.values() ) {
+            channel.onMemberOnline(member);
+        }
+    }
+
+    /**
+     * プレイヤーがサーバーから切断したときに呼び出され、各チャンネルの受信者を更新する
+     * @param member 切断したプレイヤー
+     */
+    public void onPlayerQuit(ChannelMember member) {
+        for ( Channel channel : channels.values() ) {
+            channel.onMemberOffline(member);
+        }
+
+        // お互いがオフラインになった1:1チャットの会話を破棄する
+        privateMessages.onPlayerQuit(member);
+    }
+
     /**
      * プレイヤーが参加しているチャンネルを返す
      * @param playerName プレイヤー名
@@ -301,17 +356,36 @@ public class ChannelManager implements LunaChatAPI {
     public Collection<Channel> getChannelsByPlayer(String playerName) {
 
         ChannelMember cp = ChannelMember.getChannelMember(playerName);
-        Collection<Channel> result = new ArrayList<Channel>();
-        for ( String key : channels.keySet() ) {
-            Channel channel = channels.get(key);
-            if ( channel.getMembers().contains(cp) ||
-                    channel.isGlobalChannel() ) {
-                result.add(channel);
-            }
+        Collection<Channel> result = new ArrayList<Channel>(getChannelsByMember(cp));
+        Channel global = channels.get(LunaChat.getConfig().getGlobalChannel().toLowerCase());
+        if ( global != null && global.isGlobalChannel() && !result.contains(global) ) {
+            result.add(global);
         }
         return result;
     }
 
+    /**
+     * メンバーが参加しているチャンネルを返す。グローバルチャンネルは、参加していなければ含まれない。
+     * @param member メンバー
+     * @return チャンネル（変更不可）
+     * @see com.github.ucchyocean.lc.LunaChatAPI#getChannelsByMember(com.github.ucchyocean.lc.member.ChannelMember)
+     */
+    @Override
+    public Collection<Channel> getChannelsByMember(ChannelMember member) {
+        return membershipIndex.getChannels(member);
+    }
+
+    /**
+     * メンバーがBANされているチャンネルを返す
+     * @param member メンバー
+     * @return チャンネル（変更不可）
+     * @see com.github.ucchyocean.lc.LunaChatAPI#getBannedChannels(com.github.ucchyocean.lc.member.ChannelMember)
+     */
+    @Override
+    public Collection<Channel> getBannedChannels(ChannelMember member) {
+        return membershipIndex.getBannedChannels(member);
+    }
+
     /**
      * プレイヤーが参加しているデフォルトのチャンネルを返す
      * @param playerName プレイヤー
@@ -341,7 +415,12 @@ public class ChannelManager implements LunaChatAPI {
             removeDefaultChannel(playerName);
             return;
         }
-        defaultChannels.put(playerName, channelName.toLowerCase());
+        String lower = channelName.toLowerCase();
+        if ( lower.equals(defaultChannels.get(playerName)) ) {
+            // 変更が無いなら保存しない（ログインのたびに呼ばれるため）
+            return;
+        }
+        defaultChannels.put(playerName, lower);
         saveDefaults();
     }
 
@@ -354,8 +433,8 @@ public class ChannelManager implements LunaChatAPI {
     public void removeDefaultChannel(String playerName) {
         if ( defaultChannels.containsKey(playerName) ) {
             defaultChannels.remove(playerName);
+            saveDefaults();
         }
-        saveDefaults();
     }
 
     /**
@@ -369,16 +448,68 @@ public class ChannelManager implements LunaChatAPI {
         if ( channelName == null ) return null;
         Channel channel = channels.get(channelName.toLowerCase());
         if ( channel != null ) return channel;
-        for ( Channel ch : channels.values() ) {
-            String alias = ch.getAlias();
-            if ( alias != null && alias.length() > 0
-                    && channelName.equalsIgnoreCase(ch.getAlias()) ) {
-                return ch;
-            }
+        channel = nameIndex.getByAlias(channelName);
+        if ( channel != null ) return channel;
+        if ( channelName.indexOf('>') > 0 ) {
+            return privateMessages.getChannel(channelName);
         }
         return null;
     }
 
+    /**
+     * 送信者から受信者への1:1チャットのチャンネルを取得する。無ければ作成する。
+     * @param from 送信者
+     * @param to 受信者
+     * @return チャンネル
+     * @see com.github.ucchyocean.lc.LunaChatAPI#getPrivateMessageChannel(com.github.ucchyocean.lc.member.ChannelMember, com.github.ucchyocean.lc.member.ChannelMember)
+     */
+    @Override
+    public Channel getPrivateMessageChannel(ChannelMember from, ChannelMember to) {
+        return getPrivateMessageChannelAsync(from, to).join();
+    }
+
+    /**
+     * 送信者から受信者への1:1チャットのチャンネルを取得する。無ければ作成する。
+     * @param from 送信者
+     * @param to 受信者
+     * @return チャンネルを通知するFuture
+     * @see com.github.ucchyocean.lc.LunaChatAPI#getPrivateMessageChannelAsync(com.github.ucchyocean.lc.member.ChannelMember, com.github.ucchyocean.lc.member.ChannelMember)
+     */
+    @Override
+    public CompletableFuture<Channel> getPrivateMessageChannelAsync(ChannelMember from, ChannelMember to) {
+        return privateMessages.getChannel(from, to);
+    }
+
+    /**
+     * 指定された文字列が、チャンネル名または別名になり得る形をしているかどうかを返す。
+     * チャンネルを検索する前に、チャンネル名ではあり得ない文字列を除外するために使う。
+     * @param name 文字列
+     * @return チャンネル名または別名になり得るかどうか
+     */
+    public boolean isChannelNameShaped(String name) {
+        return name != null && nameIndex.isNameShaped(name);
+    }
+
+    /**
+     * 期限付きBANと期限付きMuteのスケジューラを返す
+     * @return スケジューラ
+     */
+    public ExpiryScheduler getExpiryScheduler() {
+        return expiryScheduler;
+    }
+
+    /**
+     * チャンネルの別名の変更を、索引に反映する
+     * @param channel チャンネル
+     * @param oldAlias 変更前の別名
+     * @param newAlias 変更後の別名
+     */
+    protected void onAliasChanged(Channel channel, String oldAlias, String newAlias) {
+        if ( channels.get(channel.getName().toLowerCase()) == channel ) {
+            nameIndex.updateAlias(channel, oldAlias, newAlias);
+        }
+    }
+
     /**
      * 新しいチャンネルを作成する
      * @param channelName チャンネル名
@@ -399,13 +530,36 @@ public class ChannelManager implements LunaChatAPI {
      */
     @Override
     public Channel createChannel(String channelName, ChannelMember member) {
+        return createChannelAsync(channelName, member).join();
+    }
+
+    /**
+     * 新しいチャンネルを作成する。LunaChatChannelCreateEvent のリスナーの処理が終わってから作成する。
+     * @param channelName チャンネル名
+     * @param member チャンネルを作成した人
+     * @return 作成されたチャンネルを通知するFuture
+     * @see com.github.ucchyocean.lc.LunaChatAPI#createChannelAsync(String, com.github.ucchyocean.lc.member.ChannelMember)
+     */
+    @Override
+    public CompletableFuture<Channel> createChannelAsync(String channelName, ChannelMember member) {
 
         // LunaChatChannelCreateEvent イベントコール
-        EventResult result = LunaChat.getEventSender().sendLunaChatChannelCreateEvent(channelName, member);
-        if ( result.isCancelled() ) {
-            return null;
-        }
-        String name = result.getChannelName();
+        CompletableFuture<EventResult> event =
+                LunaChat.getEventSender().sendLunaChatChannelCreateEventAsync(channelName, member);
+        return LunaChat.getExecutor().thenCompose(LunaChatExecutor.TaskType.CHAT, event, result -> {
+            if ( result.isCancelled() ) {
+                return CompletableFuture.<Channel>completedFuture(null);
+            }
+            return CompletableFuture.completedFuture(register(result.getChannelName()));
+        });
+    }
+
+    /**
+     * LunaChatChannelCreateEvent の後に、チャンネルを作成して登録する
+     * @param name チャンネル名
+     * @return 作成されたチャンネル
+     */
+    private Channel register(String name) {
 
         Channel channel = new VelocityChannel(name);
         /*
@@ -419,6 +573,8 @@ public class ChannelManager implements LunaChatAPI {
          */
 
         channels.put(name.toLowerCase(), channel);
+        nameIndex.add(channel);
+        membershipIndex.attach(channel);
         channel.save();
         return channel;
     }
@@ -443,17 +599,41 @@ public class ChannelManager implements LunaChatAPI {
      */
     @Override
     public boolean removeChannel(String channelName, ChannelMember member) {
+        return removeChannelAsync(channelName, member).join();
+    }
 
-        channelName = channelName.toLowerCase();
+    /**
+     * チャンネルを削除する。LunaChatChannelRemoveEvent のリスナーの処理が終わってから削除する。
+     * @param channelName 削除するチャンネル名
+     * @param member チャンネルを削除した人
+     * @return 削除したかどうかを通知するFuture
+     * @see com.github.ucchyocean.lc.LunaChatAPI#removeChannelAsync(String, com.github.ucchyocean.lc.member.ChannelMember)
+     */
+    @Override
+    public CompletableFuture<Boolean> removeChannelAsync(String channelName, ChannelMember member) {
 
         // LunaChatChannelRemoveEvent イベントコール
-        EventResult result = LunaChat.getEventSender().sendLunaChatChannelRemoveEvent(channelName, member);
-        if ( result.isCancelled() ) {
-            return false;
-        }
-        channelName = result.getChannelName();
+        CompletableFuture<EventResult> event =
+                LunaChat.getEventSender().sendLunaChatChannelRemoveEventAsync(channelName.toLowerCase(), member);
+        return LunaChat.getExecutor().thenCompose(LunaChatExecutor.TaskType.CHAT, event, result -> {
+            if ( result.isCancelled() ) {
+                return CompletableFuture.completedFuture(false);
+            }
+            return CompletableFuture.completedFuture(unregister(result.getChannelName()));
+        });
+    }
+
+    /**
+     * LunaChatChannelRemoveEvent の後に、チャンネルを削除する
+     * @param channelName 削除するチャンネル名
+     * @return 削除したかどうか
+     */
+    private boolean unregister(String channelName) {
 
         Channel channel = getChannel(channelName);
+        if ( channel != null && channel.isPersonalChat() && privateMessages.remove(channel) ) {
+            return true;
+        }
         if ( channel != null ) {
 
             // 強制解散のメッセージを、残ったメンバーに流す
@@ -466,7 +646,9 @@ public class ChannelManager implements LunaChatAPI {
 
             // チャンネルの削除
             channel.remove();
-            channels.remove(channelName);
+            channels.remove(channel.getName().toLowerCase());
+            nameIndex.remove(channel);
+            membershipIndex.detach(channel);
         }
 
         return true;
@@ -491,8 +673,13 @@ public class ChannelManager implements LunaChatAPI {
      */
     @Override
     public void setTemplate(String id, String template) {
-        templates.put(id, template);
+        if ( template == null ) {
+            templates.remove(id);
+        } else {
+            templates.put(id, template);
+        }
         saveTemplates();
+        clearCompiledFormats();
     }
 
     /**
@@ -504,13 +691,14 @@ public class ChannelManager implements LunaChatAPI {
     public void removeTemplate(String id) {
         templates.remove(id);
         saveTemplates();
+        clearCompiledFormats();
     }
 
     /**
      * 辞書データを全て取得する
      * @return 辞書データ
      */
-    public HashMap<String, String> getAllDictionary() {
+    public Map<String, String> getAllDictionary() {
         return dictionary;
     }
 
@@ -520,7 +708,11 @@ public class ChannelManager implements LunaChatAPI {
      * @param value 値
      */
     public void setDictionary(String key, String value) {
-        dictionary.put(key, value);
+        if ( value == null ) {
+            dictionary.remove(key);
+        } else {
+            dictionary.put(key, value);
+        }
         saveDictionary();
     }
 
@@ -542,10 +734,7 @@ public class ChannelManager implements LunaChatAPI {
         if ( key == null ) {
             return new ArrayList<ChannelMember>();
         }
-        if ( hidelist.containsKey(key.toString()) ) {
-            return hidelist.get(key.toString());
-        }
-        return new ArrayList<ChannelMember>();
+        return getMembers(hidelist.getHiders(key.toString()));
     }
 
     /**
@@ -557,13 +746,22 @@ public class ChannelManager implements LunaChatAPI {
         if ( player == null ) {
             return new ArrayList<ChannelMember>();
         }
-        ArrayList<ChannelMember> info = new ArrayList<ChannelMember>();
-        for ( String key : hidelist.keySet() ) {
-            if ( hidelist.get(key).contains(player) ) {
-                info.add(ChannelMember.getChannelMember(key));
-            }
+        return getMembers(hidelist.getHiding(player.toString()));
+    }
+
+    /**
+     * 指定されたプレイヤーが、指定されたプレイヤーをhideしているかどうかを返す。
+     * @param player hideしている側のプレイヤー
+     * @param hided hideされている側のプレイヤー
+     * @return hideしているかどうか
+     * @see com.github.ucchyocean.lc.LunaChatAPI#isHiding(com.github.ucchyocean.lc.member.ChannelMember, com.github.ucchyocean.lc.member.ChannelMember)
+     */
+    @Override
+    public boolean isHiding(ChannelMember player, ChannelMember hided) {
+        if ( player == null || hided == null ) {
+            return false;
         }
-        return info;
+        return hidelist.isHiding(player.toString(), hided.toString());
     }
 
     /**
@@ -572,12 +770,7 @@ public class ChannelManager implements LunaChatAPI {
      * @param hided hideされる側のプレイヤー
      */
     public void addHidelist(ChannelMember player, ChannelMember hided) {
-        String hidedId = hided.toString();
-        if ( !hidelist.containsKey(hidedId) ) {
-            hidelist.put(hidedId, new ArrayList<ChannelMember>());
-        }
-        if ( !hidelist.get(hidedId).contains(player) ) {
-            hidelist.get(hidedId).add(player);
+        if ( hidelist.add(player.toString(), hided.toString()) ) {
             saveHidelist();
         }
     }
@@ -588,19 +781,25 @@ public class ChannelManager implements LunaChatAPI {
      * @param hided hideされていた側のプレイヤー
      */
     public void removeHidelist(ChannelMember player, ChannelMember hided) {
-        String hidedId = hided.toString();
-        if ( !hidelist.containsKey(hidedId) ) {
-            return;
-        }
-        if ( hidelist.get(hidedId).contains(player) ) {
-            hidelist.get(hidedId).remove(player);
-            if ( hidelist.get(hidedId).size() <= 0 ) {
-                hidelist.remove(hidedId);
-            }
+        if ( hidelist.remove(player.toString(), hided.toString()) ) {
             saveHidelist();
         }
     }
 
+    /**
+     * IDの集合を、ChannelMemberのリストに変換して返す
+     * @param ids IDの集合
+     * @return ChannelMemberのリスト
+     */
+    private static ArrayList<ChannelMember> getMembers(Set<String> ids) {
+        ArrayList<ChannelMember> result = new ArrayList<ChannelMember>(ids.size());
+        for ( String id : ids ) {
+            ChannelMember member = ChannelMember.getChannelMember(id);
+            if ( member != null ) result.add(member);
+        }
+        return result;
+    }
+
     /**
      * Japanize変換を行う
      * @param message 変換するメッセージ
@@ -632,36 +831,4 @@ public class ChannelManager implements LunaChatAPI {
         japanize.put(playerName, doJapanize);
         saveJapanize();
     }
-
-    /**
-     * ChannelMemberのリストを、IDのStringリストに変換して返す
-     * @param players
-     * @return
-     */
-    private List<String> getIdList(List<ChannelMember> players) {
-        List<String> results = new ArrayList<String>();
-        for ( ChannelMember cp : players ) {
-            results.add(cp.toString());
-        }
-        return results;
-    }
-
-    /**
-     * 指定されたファイル出力先に、空のYamlファイルを作成する
-     * @param file 出力先
-     */
-    private void makeEmptyFile(File file) {
-//        try {
-//            file.createNewFile();
-//        } catch (IOException e) {
-//            e.printStackTrace();
-//        }
-
-        YamlConfig config = new YamlConfig();
-        try {
-            config.save(file);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
 }
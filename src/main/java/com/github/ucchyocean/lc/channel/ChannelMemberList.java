@@ -0,0 +1,489 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.channel;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import com.github.ucchyocean.lc.member.ChannelMember;
+import com.github.ucchyocean.lc.member.ChannelMemberPlayer;
+
+/**
+ * チャンネルのメンバー、BAN、Mute、非表示、モデレーターを保持するためのリスト。<br/>
+ * メンバーは、挿入順の配列に1つの並びとして保持する。UUIDで管理されるメンバーは、UUIDを2つのlongとして
+ * オープンアドレス法のハッシュテーブルに、UUIDを持たないメンバー（名前管理のメンバーやコンソールなど）は
+ * HashMapに、配列の位置を登録するため、contains、add、remove は O(1) で行える。<br/>
+ * 削除したメンバーの位置は空き（null）として残し、空きが生きているメンバーより多くなったときに
+ * まとめて詰めるので、挿入順は保たれる。<br/>
+ * 同じメンバーは重複して登録されない。反復は変更不可のスナップショットに対して行われる。<br/>
+ * リスナーを設定すると、メンバーの追加と削除が、リストの変更と同じロックの中で通知される。
+ * @author ucchy
+ */
+class ChannelMemberList extends AbstractList<ChannelMember> {
+
+    /**
+     * メンバーの追加と削除を受け取るリスナー
+     */
+    interface Listener {
+
+        /**
+         * メンバーが追加された
+         * @param member メンバー
+         */
+        void onAdded(ChannelMember member);
+
+        /**
+         * メンバーが削除された
+         * @param member メンバー
+         */
+        void onRemoved(ChannelMember member);
+    }
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    /** メンバー（挿入順、削除した位置は null） */
+    private ChannelMember[] entries;
+
+    /** UUIDの上位64bit（entries と同じ位置） */
+    private long[] msbs;
+
+    /** UUIDの下位64bit（entries と同じ位置） */
+    private long[] lsbs;
+
+    /** entries の使用済みの長さ（空きを含む） */
+    private int end;
+
+    /** 生きているメンバーの数 */
+    private int size;
+
+    /** ハッシュテーブル（UUIDメンバーの entries の位置 + 1 を格納、0 は空き） */
+    private int[] table;
+
+    /** UUIDを持たないメンバーの entries の位置 */
+    private final HashMap<ChannelMember, Integer> others;
+
+    /** 反復用のスナップショット（変更があったら null に戻す） */
+    private volatile List<ChannelMember> snapshot;
+
+    /** 追加と削除の通知先 */
+    private Listener listener;
+
+    /**
+     * コンストラクタ
+     */
+    ChannelMemberList() {
+        entries = new ChannelMember[INITIAL_CAPACITY];
+        msbs = new long[INITIAL_CAPACITY];
+        lsbs = new long[INITIAL_CAPACITY];
+        table = new int[INITIAL_CAPACITY * 2];
+        others = new HashMap<ChannelMember, Integer>();
+    }
+
+    /**
+     * コンストラクタ
+     * @param members 初期メンバー
+     */
+    ChannelMemberList(Collection<? extends ChannelMember> members) {
+        this();
+        for ( ChannelMember member : members ) {
+            add(member);
+        }
+    }
+
+    /**
+     * 指定したメンバーが含まれているかどうかを返す
+     * @param obj メンバー
+     * @return 含まれているかどうか
+     * @see java.util.AbstractCollection#contains(Object)
+     */
+    @Override
+    public synchronized boolean contains(Object obj) {
+        if ( !(obj instanceof ChannelMember) ) {
+            return false;
+        }
+        ChannelMember member = (ChannelMember)obj;
+        UUID id = getUUID(member);
+        if ( id == null ) {
+            return others.containsKey(member);
+        }
+        return findSlot(id.getMostSignificantBits(), id.getLeastSignificantBits()) >= 0;
+    }
+
+    /**
+     * メンバーを追加する。既に含まれている場合は何もしない。
+     * @param member メンバー
+     * @return 追加されたかどうか
+     * @see java.util.AbstractList#add(Object)
+     */
+    @Override
+    public synchronized boolean add(ChannelMember member) {
+        if ( member == null ) {
+            return false;
+        }
+        UUID id = getUUID(member);
+        long msb = 0;
+        long lsb = 0;
+        if ( id == null ) {
+            if ( others.containsKey(member) ) {
+                return false;
+            }
+        } else {
+            msb = id.getMostSignificantBits();
+            lsb = id.getLeastSignificantBits();
+            if ( findSlot(msb, lsb) >= 0 ) {
+                return false;
+            }
+        }
+
+        if ( end == entries.length ) {
+            if ( end - size >= size ) {
+                // 空きが多いので、詰めるだけで足りる
+                compact(entries.length);
+            } else {
+                compact(entries.length * 2);
+            }
+        }
+
+        int index = end++;
+        entries[index] = member;
+        if ( id == null ) {
+            others.put(member, index);
+        } else {
+            msbs[index] = msb;
+            lsbs[index] = lsb;
+            insert(msb, lsb, index + 1);
+        }
+        size++;
+        snapshot = null;
+        if ( listener != null ) listener.onAdded(member);
+        return true;
+    }
+
+    /**
+     * メンバーを削除する
+     * @param obj メンバー
+     * @return 削除されたかどうか
+     * @see java.util.AbstractCollection#remove(Object)
+     */
+    @Override
+    public synchronized boolean remove(Object obj) {
+        if ( !(obj instanceof ChannelMember) ) {
+            return false;
+        }
+        ChannelMember member = (ChannelMember)obj;
+        UUID id = getUUID(member);
+        int index;
+        if ( id == null ) {
+            Integer removed = others.remove(member);
+            if ( removed == null ) {
+                return false;
+            }
+            index = removed;
+        } else {
+            int slot = findSlot(id.getMostSignificantBits(), id.getLeastSignificantBits());
+            if ( slot < 0 ) {
+                return false;
+            }
+            index = table[slot] - 1;
+            delete(slot);
+        }
+
+        // 位置は空きとして残し、挿入順を崩さない
+        ChannelMember removed = entries[index];
+        entries[index] = null;
+        size--;
+        if ( index == end - 1 ) {
+            end--;
+        }
+        if ( end > INITIAL_CAPACITY && end - size > size ) {
+            compact(entries.length);
+        }
+        snapshot = null;
+        if ( listener != null ) listener.onRemoved(removed);
+        return true;
+    }
+
+    /**
+     * 指定したインデックスのメンバーを削除する
+     * @param index インデックス
+     * @return 削除したメンバー
+     * @see java.util.AbstractList#remove(int)
+     */
+    @Override
+    public synchronized ChannelMember remove(int index) {
+        ChannelMember member = get(index);
+        remove(member);
+        return member;
+    }
+
+    /**
+     * 全てのメンバーを削除する
+     * @see java.util.AbstractList#clear()
+     */
+    @Override
+    public synchronized void clear() {
+        List<ChannelMember> removed = listener != null ? snapshot() : null;
+        Arrays.fill(entries, 0, end, null);
+        Arrays.fill(table, 0);
+        others.clear();
+        end = 0;
+        size = 0;
+        snapshot = null;
+        if ( removed != null ) {
+            for ( ChannelMember member : removed ) {
+                listener.onRemoved(member);
+            }
+        }
+    }
+
+    /**
+     * 追加と削除の通知先を設定する。
+     * 以前の通知先には現在のメンバー全員の削除を、新しい通知先には現在のメンバー全員の追加を通知する。
+     * @param listener 通知先、nullなら通知しない
+     */
+    synchronized void setListener(Listener listener) {
+        if ( this.listener == listener ) {
+            return;
+        }
+        List<ChannelMember> current = snapshot();
+        if ( this.listener != null ) {
+            for ( ChannelMember member : current ) {
+                this.listener.onRemoved(member);
+            }
+        }
+        this.listener = listener;
+        if ( listener != null ) {
+            for ( ChannelMember member : current ) {
+                listener.onAdded(member);
+            }
+        }
+    }
+
+    /**
+     * 指定したインデックスのメンバーを返す
+     * @param index インデックス
+     * @return メンバー
+     * @see java.util.AbstractList#get(int)
+     */
+    @Override
+    public ChannelMember get(int index) {
+        return snapshot().get(index);
+    }
+
+    /**
+     * メンバー数を返す
+     * @return メンバー数
+     * @see java.util.AbstractCollection#size()
+     */
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * スナップショットに対するイテレータを返す。
+     * イテレータの remove は、このリストから削除する。
+     * @return イテレータ
+     * @see java.util.AbstractList#iterator()
+     */
+    @Override
+    public Iterator<ChannelMember> iterator() {
+
+        final Iterator<ChannelMember> it = snapshot().iterator();
+
+        return new Iterator<ChannelMember>() {
+
+            private ChannelMember last;
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public ChannelMember next() {
+                last = it.next();
+                return last;
+            }
+
+            @Override
+            public void remove() {
+                if ( last == null ) {
+                    throw new IllegalStateException();
+                }
+                ChannelMemberList.this.remove(last);
+                last = null;
+            }
+        };
+    }
+
+    /**
+     * 変更不可のスナップショットを返す
+     * @return スナップショット
+     */
+    List<ChannelMember> snapshot() {
+
+        List<ChannelMember> current = snapshot;
+        if ( current != null ) {
+            return current;
+        }
+
+        synchronized (this) {
+            if ( snapshot == null ) {
+                ArrayList<ChannelMember> list = new ArrayList<ChannelMember>(size);
+                for ( int i = 0; i < end; i++ ) {
+                    if ( entries[i] != null ) {
+                        list.add(entries[i]);
+                    }
+                }
+                snapshot = Collections.unmodifiableList(list);
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * 空きを詰めて、指定した容量の配列に移し、ハッシュテーブルを作り直す
+     * @param capacity 新しい容量
+     */
+    private void compact(int capacity) {
+        ChannelMember[] newEntries = new ChannelMember[capacity];
+        long[] newMsbs = new long[capacity];
+        long[] newLsbs = new long[capacity];
+        int n = 0;
+        for ( int i = 0; i < end; i++ ) {
+            if ( entries[i] != null ) {
+                newEntries[n] = entries[i];
+                newMsbs[n] = msbs[i];
+                newLsbs[n] = lsbs[i];
+                n++;
+            }
+        }
+        entries = newEntries;
+        msbs = newMsbs;
+        lsbs = newLsbs;
+        end = n;
+
+        if ( table.length != capacity * 2 ) {
+            table = new int[capacity * 2];
+        } else {
+            Arrays.fill(table, 0);
+        }
+        others.clear();
+        for ( int i = 0; i < n; i++ ) {
+            if ( getUUID(entries[i]) == null ) {
+                others.put(entries[i], i);
+            } else {
+                insert(msbs[i], lsbs[i], i + 1);
+            }
+        }
+    }
+
+    /**
+     * 指定したUUIDが登録されている、ハッシュテーブルのスロットを探す
+     * @param msb UUIDの上位64bit
+     * @param lsb UUIDの下位64bit
+     * @return スロット、見つからない場合は -1
+     */
+    private int findSlot(long msb, long lsb) {
+        int mask = table.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        while ( true ) {
+            int entry = table[slot];
+            if ( entry == 0 ) {
+                return -1;
+            }
+            if ( msbs[entry - 1] == msb && lsbs[entry - 1] == lsb ) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * ハッシュテーブルにエントリを登録する
+     * @param msb UUIDの上位64bit
+     * @param lsb UUIDの下位64bit
+     * @param entry entries の位置 + 1
+     */
+    private void insert(long msb, long lsb, int entry) {
+        int mask = table.length - 1;
+        int slot = hash(msb, lsb) & mask;
+        while ( table[slot] != 0 ) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry;
+    }
+
+    /**
+     * ハッシュテーブルからスロットを削除する。
+     * 後ろに続くエントリを前に詰めるので（backward shift）、削除済みの印は残らない。
+     * @param slot スロット
+     */
+    private void delete(int slot) {
+        int mask = table.length - 1;
+        int hole = slot;
+        int next = slot;
+        while ( true ) {
+            next = (next + 1) & mask;
+            int entry = table[next];
+            if ( entry == 0 ) {
+                break;
+            }
+            int home = hash(msbs[entry - 1], lsbs[entry - 1]) & mask;
+            // home が (hole, next] の範囲に無ければ、hole に移しても探索できる
+            boolean between = (hole <= next)
+                    ? (hole < home && home <= next)
+                    : (hole < home || home <= next);
+            if ( !between ) {
+                table[hole] = entry;
+                hole = next;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    /**
+     * UUIDのハッシュ値を計算する
+     * @param msb UUIDの上位64bit
+     * @param lsb UUIDの下位64bit
+     * @return ハッシュ値
+     */
+    private static int hash(long msb, long lsb) {
+        long h = msb * 0x9E3779B97F4A7C15L ^ lsb;
+        h ^= (h >>> 33);
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= (h >>> 33);
+        return (int)h;
+    }
+
+    /**
+     * メンバーのUUIDを取得する
+     * @param member メンバー
+     * @return UUID、UUIDで管理されていないメンバーの場合は null
+     */
+    private static UUID getUUID(ChannelMember member) {
+        if ( member instanceof ChannelMemberPlayer ) {
+            return ((ChannelMemberPlayer)member).getUniqueId();
+        }
+        String id = member.toString();
+        if ( id != null && id.length() == 37 && id.startsWith("$") ) {
+            try {
+                return UUID.fromString(id.substring(1));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.channel;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.ucchyocean.lc.member.ChannelMember;
+
+/**
+ * プレイヤーから、参加しているチャンネルと、BANされているチャンネルを引くための索引。<br/>
+ * 各チャンネルのメンバーとBANのリスト（ChannelMemberList）にリスナーとして登録され、
+ * リストが変更されたときに、同じロックの中で更新される。
+ * @author ucchy
+ */
+class ChannelMembershipIndex {
+
+    // 索引 key=メンバーのID（ChannelMember#toString()）、value=チャンネル
+    private final ConcurrentHashMap<String, Set<Channel>> members;
+    private final ConcurrentHashMap<String, Set<Channel>> banned;
+
+    /**
+     * コンストラクタ
+     */
+    ChannelMembershipIndex() {
+        members = new ConcurrentHashMap<String, Set<Channel>>();
+        banned = new ConcurrentHashMap<String, Set<Channel>>();
+    }
+
+    /**
+     * チャンネルを索引に登録する。以降、メンバーとBANのリストの変更が索引に反映される。
+     * @param channel チャンネル
+     */
+    void attach(Channel channel) {
+        channel.setMembershipListeners(
+                new Updater(members, channel), new Updater(banned, channel));
+    }
+
+    /**
+     * チャンネルを索引から削除する
+     * @param channel チャンネル
+     */
+    void detach(Channel channel) {
+        channel.setMembershipListeners(null, null);
+    }
+
+    /**
+     * 指定したメンバーが参加しているチャンネルを返す
+     * @param member メンバー
+     * @return チャンネル（変更不可）
+     */
+    Set<Channel> getChannels(ChannelMember member) {
+        return get(members, member);
+    }
+
+    /**
+     * 指定したメンバーがBANされているチャンネルを返す
+     * @param member メンバー
+     * @return チャンネル（変更不可）
+     */
+    Set<Channel> getBannedChannels(ChannelMember member) {
+        return get(banned, member);
+    }
+
+    /**
+     * 索引からチャンネルを取得する
+     * @param index 索引
+     * @param member メンバー
+     * @return チャンネル（変更不可）
+     */
+    private static Set<Channel> get(ConcurrentHashMap<String, Set<Channel>> index, ChannelMember member) {
+        if ( member == null ) return Collections.emptySet();
+        Set<Channel> channels = index.get(member.toString());
+        if ( channels == null ) return Collections.emptySet();
+        return Collections.unmodifiableSet(channels);
+    }
+
+    /**
+     * リストの変更を、索引に反映するリスナー
+     */
+    private static class Updater implements ChannelMemberList.Listener {
+
+        private final ConcurrentHashMap<String, Set<Channel>> index;
+        private final Channel channel;
+
+        private Updater(ConcurrentHashMap<String, Set<Channel>> index, Channel channel) {
+            this.index = index;
+            this.channel = channel;
+        }
+
+        @Override
+        public void onAdded(ChannelMember member) {
+            index.compute(member.toString(), (key, set) -> {
+                if ( set == null ) set = ConcurrentHashMap.newKeySet();
+                set.add(channel);
+                return set;
+            });
+        }
+
+        @Override
+        public void onRemoved(ChannelMember member) {
+            index.computeIfPresent(member.toString(), (key, set) -> {
+                set.remove(channel);
+                return set.isEmpty() ? null : set;
+            });
+        }
+    }
+}
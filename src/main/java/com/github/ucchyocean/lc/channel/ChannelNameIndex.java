@@ -0,0 +1,115 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.channel;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * チャンネルの別名から、チャンネルを引くための索引。<br/>
+ * チャンネル名の索引（ChannelManagerのチャンネルのMap）と合わせて、
+ * チャンネル名と別名の最大文字列長も記録しておき、チャンネル名になり得ない文字列を、検索せずに判定できるようにする。
+ * @author ucchy
+ */
+class ChannelNameIndex {
+
+    // 索引 key=小文字にした別名、value=チャンネル
+    private final ConcurrentHashMap<String, Channel> aliases;
+
+    // チャンネル名と別名の最大文字列長（削除されても、作り直すまでは小さくしない）
+    private volatile int maxLength;
+
+    /**
+     * コンストラクタ
+     */
+    ChannelNameIndex() {
+        aliases = new ConcurrentHashMap<String, Channel>();
+    }
+
+    /**
+     * 全てのチャンネルから、索引を作り直す
+     * @param channels 全てのチャンネル
+     */
+    void rebuild(Collection<Channel> channels) {
+        aliases.clear();
+        maxLength = 0;
+        for ( Channel channel : channels ) {
+            add(channel);
+        }
+    }
+
+    /**
+     * チャンネルを索引に追加する
+     * @param channel チャンネル
+     */
+    void add(Channel channel) {
+        updateMaxLength(channel.getName());
+        updateAlias(channel, null, channel.getAlias());
+    }
+
+    /**
+     * チャンネルを索引から削除する
+     * @param channel チャンネル
+     */
+    void remove(Channel channel) {
+        updateAlias(channel, channel.getAlias(), null);
+    }
+
+    /**
+     * チャンネルの別名の変更を、索引に反映する
+     * @param channel チャンネル
+     * @param oldAlias 変更前の別名
+     * @param newAlias 変更後の別名
+     */
+    void updateAlias(Channel channel, String oldAlias, String newAlias) {
+        if ( oldAlias != null && oldAlias.length() > 0 ) {
+            aliases.remove(oldAlias.toLowerCase(), channel);
+        }
+        if ( newAlias != null && newAlias.length() > 0 ) {
+            // 同じ別名のチャンネルが複数ある場合は、先に登録されたものを優先する
+            aliases.putIfAbsent(newAlias.toLowerCase(), channel);
+            updateMaxLength(newAlias);
+        }
+    }
+
+    /**
+     * 別名からチャンネルを取得する
+     * @param alias 別名
+     * @return チャンネル、見つからない場合はnull
+     */
+    Channel getByAlias(String alias) {
+        return aliases.get(alias.toLowerCase());
+    }
+
+    /**
+     * 指定された文字列が、チャンネル名または別名になり得る形をしているかどうかを返す。
+     * 空文字列、最大文字列長より長いもの、空白を含むものは、チャンネル名になり得ない。
+     * @param name 文字列
+     * @return チャンネル名または別名になり得るかどうか
+     */
+    boolean isNameShaped(String name) {
+        int length = name.length();
+        if ( length == 0 || length > maxLength ) {
+            return false;
+        }
+        for ( int i = 0; i < length; i++ ) {
+            if ( Character.isWhitespace(name.charAt(i)) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 最大文字列長を更新する
+     * @param name チャンネル名または別名
+     */
+    private void updateMaxLength(String name) {
+        if ( name != null && name.length() > maxLength ) {
+            maxLength = name.length();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.channel;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * チャンネルと、ChannelManagerが管理するデータの保存先。<br/>
+ * チャンネルのデータは Channel#serialize() の形式の Map で、
+ * ChannelManagerのデータ（デフォルトチャンネル、テンプレートなど）は、データ名ごとの Map でやりとりする。
+ * @author ucchy
+ */
+public interface ChannelStore {
+
+    /**
+     * 保存されている全てのチャンネルのデータを読み込む
+     * @param pool 読み込みに使うスレッドプール
+     * @return 全てのチャンネルのデータ
+     */
+    public List<Map<String, Object>> loadChannels(ForkJoinPool pool);
+
+    /**
+     * チャンネルのデータを保存する
+     * @param name チャンネル名
+     * @param data チャンネルのデータ
+     * @throws IOException 保存に失敗した場合
+     */
+    public void saveChannel(String name, Map<String, Object> data) throws IOException;
+
+    /**
+     * チャンネルのデータを削除する
+     * @param name チャンネル名
+     * @return 削除したかどうか
+     */
+    public boolean removeChannel(String name);
+
+    /**
+     * ChannelManagerのデータを読み込む。
+     * 複数のスレッドから同時に呼び出されることがある。
+     * @param name データ名（defaults.yml など）
+     * @return データ、保存されていない場合は空のMap
+     */
+    public Map<String, Object> loadData(String name);
+
+    /**
+     * ChannelManagerのデータを保存する
+     * @param name データ名（defaults.yml など）
+     * @param data データ
+     * @throws IOException 保存に失敗した場合
+     */
+    public void saveData(String name, Map<String, Object> data) throws IOException;
+
+    /**
+     * 保存先を閉じる
+     */
+    public void close();
+}
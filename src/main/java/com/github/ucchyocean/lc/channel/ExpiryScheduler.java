@@ -0,0 +1,212 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.channel;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import com.github.ucchyocean.lc.LunaChat;
+import com.github.ucchyocean.lc.LunaChatAPI;
+import com.github.ucchyocean.lc.member.ChannelMember;
+
+/**
+ * 期限付きBANと期限付きMuteを、期限の時刻に解除するスケジューラ。<br/>
+ * (期限, チャンネル, メンバー, 種類) を期限の順に並べたキューを持ち、専用のスレッドが
+ * 次の期限の時刻まで待機して、期限が来たものを解除する。全チャンネルを定期的に確認することはしない。<br/>
+ * 解除やBANのやり直しでキューに不要な項目が残っても、期限の時刻にチャンネルの期限マップを確認して、
+ * 期限が切れていないものは無視する。<br/>
+ * 時刻は指定したClockから取得するので、テストでは時刻を進めて runDue() を呼び出すことで、
+ * 待機せずに期限切れの処理を確認できる。
+ * @author ucchy
+ */
+public class ExpiryScheduler {
+
+    /**
+     * 期限付きの処置の種類
+     */
+    public enum Kind {
+
+        /** 期限付きBAN */
+        BAN,
+
+        /** 期限付きMute */
+        MUTE;
+    }
+
+    private final Clock clock;
+    private final PriorityQueue<Entry> queue;
+    private Thread thread;
+    private boolean running;
+
+    /**
+     * コンストラクタ。スレッドは start() を呼び出すまで開始しない。
+     * @param clock 時刻の取得に使うClock
+     */
+    public ExpiryScheduler(Clock clock) {
+        this.clock = clock;
+        this.queue = new PriorityQueue<Entry>();
+    }
+
+    /**
+     * 期限の時刻に解除を行うスレッドを開始する
+     */
+    public synchronized void start() {
+        if ( running ) return;
+        running = true;
+        thread = new Thread(this::loop, "LunaChat-Expiry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * スレッドを停止する
+     */
+    public synchronized void shutdown() {
+        running = false;
+        notifyAll();
+    }
+
+    /**
+     * 期限付きの処置を登録する
+     * @param channel チャンネル
+     * @param member メンバー
+     * @param kind 種類
+     * @param deadline 期限（エポックミリ秒）
+     */
+    public synchronized void schedule(Channel channel, ChannelMember member, Kind kind, long deadline) {
+        Entry entry = new Entry(deadline, channel, member, kind);
+        queue.add(entry);
+        if ( queue.peek() == entry ) {
+            // 次の期限が早くなったので、待機中のスレッドを起こす
+            notifyAll();
+        }
+    }
+
+    /**
+     * 全てのチャンネルの期限マップから、キューを作り直す
+     * @param channels 全てのチャンネル
+     */
+    public synchronized void rebuild(Collection<Channel> channels) {
+        queue.clear();
+        for ( Channel channel : channels ) {
+            for ( Map.Entry<ChannelMember, Long> e : channel.getBanExpires().entrySet() ) {
+                if ( e.getKey() != null && e.getValue() != null ) {
+                    queue.add(new Entry(e.getValue(), channel, e.getKey(), Kind.BAN));
+                }
+            }
+            for ( Map.Entry<ChannelMember, Long> e : channel.getMuteExpires().entrySet() ) {
+                if ( e.getKey() != null && e.getValue() != null ) {
+                    queue.add(new Entry(e.getValue(), channel, e.getKey(), Kind.MUTE));
+                }
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * 登録されている項目の数を返す
+     * @return 項目の数
+     */
+    public synchronized int size() {
+        return queue.size();
+    }
+
+    /**
+     * 現在時刻までに期限が来た項目を、全て処理する
+     * @return 処理した項目の数
+     */
+    public int runDue() {
+        long now = clock.millis();
+        List<Entry> due = pollDue(now);
+        for ( Entry entry : due ) {
+            fire(entry, now);
+        }
+        return due.size();
+    }
+
+    /**
+     * 期限が来た項目を、キューから取り出す
+     * @param now 現在時刻
+     * @return 期限が来た項目
+     */
+    private synchronized List<Entry> pollDue(long now) {
+        List<Entry> due = new ArrayList<Entry>();
+        while ( !queue.isEmpty() && queue.peek().deadline <= now ) {
+            due.add(queue.poll());
+        }
+        return due;
+    }
+
+    /**
+     * 項目の期限切れを処理する。チャンネルが削除されている場合は何もしない。
+     * @param entry 項目
+     * @param now 現在時刻
+     */
+    private void fire(Entry entry, long now) {
+        LunaChatAPI api = LunaChat.getAPI();
+        if ( api != null && api.getChannel(entry.channel.getName()) != entry.channel ) {
+            return;
+        }
+        try {
+            entry.channel.expire(entry.kind, entry.member, now);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * スレッドの処理。次の期限の時刻まで待機して、期限が来た項目を処理する。
+     */
+    private void loop() {
+        while ( true ) {
+            synchronized (this) {
+                while ( running ) {
+                    Entry next = queue.peek();
+                    long wait = next == null ? 0 : next.deadline - clock.millis();
+                    if ( next != null && wait <= 0 ) {
+                        break;
+                    }
+                    try {
+                        wait(wait);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if ( !running ) {
+                    return;
+                }
+            }
+            runDue();
+        }
+    }
+
+    /**
+     * キューの項目
+     */
+    private static class Entry implements Comparable<Entry> {
+
+        private final long deadline;
+        private final Channel channel;
+        private final ChannelMember member;
+        private final Kind kind;
+
+        private Entry(long deadline, Channel channel, ChannelMember member, Kind kind) {
+            this.deadline = deadline;
+            this.channel = channel;
+            this.member = member;
+            this.kind = kind;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            return Long.compare(deadline, other.deadline);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.channel;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * プレイヤー同士のhideの関係を保持するグラフ。<br/>
+ * メンバーのID（ChannelMember#toString()、プレイヤーはUUID）ごとに、
+ * hideしている相手の集合と、hideされている相手の集合の両方を持つため、
+ * 「AがBをhideしているかどうか」の判定と、どちらの向きの一覧も、全体を走査せずに取得できる。<br/>
+ * 保存形式は、従来の hidelist.yml と同じ（hideされている側のID → hideしている側のIDのリスト）。
+ * @author ucchy
+ */
+class HideGraph {
+
+    // key=hideしている側のID、value=hideされている側のID
+    private final ConcurrentHashMap<String, Set<String>> hiding;
+
+    // key=hideされている側のID、value=hideしている側のID
+    private final ConcurrentHashMap<String, Set<String>> hiders;
+
+    /**
+     * コンストラクタ
+     */
+    HideGraph() {
+        hiding = new ConcurrentHashMap<String, Set<String>>();
+        hiders = new ConcurrentHashMap<String, Set<String>>();
+    }
+
+    /**
+     * hidelist.yml の形式のデータから、グラフを作成する
+     * @param data データ（hideされている側のID → hideしている側のIDのリスト）
+     * @return グラフ
+     */
+    static HideGraph fromData(Map<String, Object> data) {
+        HideGraph graph = new HideGraph();
+        for ( Map.Entry<String, Object> entry : data.entrySet() ) {
+            if ( !(entry.getValue() instanceof List) ) continue;
+            for ( Object id : (List<?>)entry.getValue() ) {
+                if ( id != null ) {
+                    graph.add(id.toString(), entry.getKey());
+                }
+            }
+        }
+        return graph;
+    }
+
+    /**
+     * hidelist.yml の形式のデータに変換する
+     * @return データ（hideされている側のID → hideしている側のIDのリスト）
+     */
+    synchronized Map<String, Object> toData() {
+        TreeMap<String, Object> data = new TreeMap<String, Object>();
+        for ( Map.Entry<String, Set<String>> entry : hiders.entrySet() ) {
+            List<String> ids = new ArrayList<String>(entry.getValue());
+            Collections.sort(ids);
+            data.put(entry.getKey(), ids);
+        }
+        return data;
+    }
+
+    /**
+     * hideの関係を追加する
+     * @param hider hideする側のID
+     * @param hided hideされる側のID
+     * @return 追加されたかどうか（既にhideしていた場合はfalse）
+     */
+    synchronized boolean add(String hider, String hided) {
+        if ( !hiding.computeIfAbsent(hider, k -> ConcurrentHashMap.newKeySet()).add(hided) ) {
+            return false;
+        }
+        hiders.computeIfAbsent(hided, k -> ConcurrentHashMap.newKeySet()).add(hider);
+        return true;
+    }
+
+    /**
+     * hideの関係を削除する
+     * @param hider hideしていた側のID
+     * @param hided hideされていた側のID
+     * @return 削除されたかどうか（hideしていなかった場合はfalse）
+     */
+    synchronized boolean remove(String hider, String hided) {
+        if ( !removeEdge(hiding, hider, hided) ) {
+            return false;
+        }
+        removeEdge(hiders, hided, hider);
+        return true;
+    }
+
+    /**
+     * 指定した側が、相手をhideしているかどうかを返す
+     * @param hider hideしている側のID
+     * @param hided hideされている側のID
+     * @return hideしているかどうか
+     */
+    boolean isHiding(String hider, String hided) {
+        Set<String> set = hiding.get(hider);
+        return set != null && set.contains(hided);
+    }
+
+    /**
+     * 指定したIDをhideしている相手のIDを返す
+     * @param hided hideされている側のID
+     * @return hideしている側のID（変更不可）
+     */
+    Set<String> getHiders(String hided) {
+        Set<String> set = hiders.get(hided);
+        return set == null ? Collections.emptySet() : Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * 指定したIDがhideしている相手のIDを返す
+     * @param hider hideしている側のID
+     * @return hideされている側のID（変更不可）
+     */
+    Set<String> getHiding(String hider) {
+        Set<String> set = hiding.get(hider);
+        return set == null ? Collections.emptySet() : Collections.unmodifiableSet(set);
+    }
+
+    /**
+     * 片方の向きの隣接集合から、辺を削除する。集合が空になったら、キーごと削除する。
+     * @param adjacency 隣接集合
+     * @param from 辺の始点
+     * @param to 辺の終点
+     * @return 削除されたかどうか
+     */
+    private static boolean removeEdge(ConcurrentHashMap<String, Set<String>> adjacency, String from, String to) {
+        Set<String> set = adjacency.get(from);
+        if ( set == null || !set.remove(to) ) {
+            return false;
+        }
+        if ( set.isEmpty() ) {
+            adjacency.remove(from, set);
+        }
+        return true;
+    }
+}
@@ -8,11 +8,9 @@ package com.github.ucchyocean.lc.channel;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
 
 import com.github.ucchyocean.lc.LunaChat;
-import com.github.ucchyocean.lc.event.EventResult;
 import com.github.ucchyocean.lc.japanize.IMEConverter;
 import com.github.ucchyocean.lc.japanize.JapanizeType;
 import com.github.ucchyocean.lc.japanize.YukiKanaConverter;
@@ -56,10 +54,45 @@ public class JapanizeConvertTask {
     }
 
     /**
-     * 同期処理で変換を行います。結果は getResult() で取得してください。
+     * 同期処理で変換を行います。結果は getResult() で取得してください。<br/>
+     * LunaChatPostJapanizeEvent のリスナーの処理の完了を待つので、
+     * Velocityのイベントのリスナーの中からは呼び出さず、runAsync() を使用してください。
      * @return 処理を実行したかどうか（イベントでキャンセルされた場合はfalseになります）
      */
     public boolean runSync() {
+        return runAsync().join();
+    }
+
+    /**
+     * 変換を行います。変換は呼び出し元のスレッドで行い、
+     * LunaChatPostJapanizeEvent のリスナーの処理が終わってから完了します。結果は getResult() で取得してください。
+     * @return 処理を実行したかどうか（イベントでキャンセルされた場合はfalseになります）を通知するFuture
+     */
+    public CompletableFuture<Boolean> runAsync() {
+
+        String japanized = convert();
+
+        // LunaChatPostJapanizeEvent イベントコール
+        String channelName = (channel == null) ? "" : channel.getName();
+        return LunaChat.getEventSender().sendLunaChatPostJapanizeEventAsync(
+                channelName, player, org, japanized).thenApply(event -> {
+            if ( event.isCancelled() ) {
+                return false;
+            }
+
+            // フォーマットする
+            String formatted = format.replace("%msg", org);
+            result = formatted.replace("%japanize", event.getJapanized());
+
+            return true;
+        });
+    }
+
+    /**
+     * Japanize変換を行う
+     * @return 変換後の文字列
+     */
+    private String convert() {
 
         // 変換対象外のキーワード
         HashMap<String, String> keywordMap = new HashMap<String, String>();
@@ -107,28 +140,7 @@ public class JapanizeConvertTask {
         }
 
         // 変換後の文字列にNGワードが含まれている場合は、マスクする
-        for ( Pattern pattern : LunaChat.getConfig().getNgwordCompiled() ) {
-            Matcher matcher = pattern.matcher(japanized);
-            if ( matcher.find() ) {
-                japanized = matcher.replaceAll(
-                        Utility.getAstariskString(matcher.group(0).length()));
-            }
-        }
-
-        // LunaChatPostJapanizeEvent イベントコール
-        String channelName = (channel == null) ? "" : channel.getName();
-        EventResult event = LunaChat.getEventSender().sendLunaChatPostJapanizeEvent(
-                channelName, player, org, japanized);
-        if ( event.isCancelled() ) {
-            return false;
-        }
-        japanized = event.getJapanized();
-
-        // フォーマットする
-        result = format.replace("%msg", org);
-        result = result.replace("%japanize", japanized);
-
-        return true;
+        return LunaChat.getConfig().getNgwordFilter().mask(japanized);
     }
 
     /**
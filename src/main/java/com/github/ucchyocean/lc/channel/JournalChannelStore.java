@@ -0,0 +1,715 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.channel;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+import com.github.ucchyocean.lc.LunaChat;
+
+/**
+ * チャンネルのデータを、追記型のバイナリのジャーナルファイルに保存する保存先。<br/>
+ * 保存のたびに、前回保存した内容との差分（メンバーの追加・削除、BAN・Muteの変更、設定値の変更など）だけを
+ * 1つのレコードとしてファイルの末尾に追記する。ジャーナルが大きくなったら、現在の内容だけを書き出した
+ * スナップショットで置き換える（コンパクション）。<br/>
+ * 各レコードには長さとCRC32が付いていて、書き込み途中で停止したために壊れた末尾のレコードは、
+ * 起動時の読み込みで切り捨てられる。<br/>
+ * ジャーナルファイルがまだ無い場合は、従来のYamlファイルの内容を取り込む。
+ * @author ucchy
+ */
+public class JournalChannelStore implements ChannelStore {
+
+    /** ジャーナルファイルの名前 */
+    public static final String FILE_NAME = "channels.journal";
+
+    private static final int MAGIC = 0x4C434A31; // "LCJ1"
+    private static final int HEADER_SIZE = 4;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /** コンパクションを行う最小のファイルサイズ */
+    private static final long COMPACT_MIN_SIZE = 1024 * 1024L;
+
+    private static final String SECTION_CHANNEL = "channel:";
+    private static final String SECTION_DATA = "data:";
+
+    private static final byte OP_SET = 1;
+    private static final byte OP_UNSET = 2;
+    private static final byte OP_ADD = 3;
+    private static final byte OP_REMOVE = 4;
+    private static final byte OP_DROP = 5;
+
+    private static final byte TYPE_NULL = 0;
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_BOOLEAN = 2;
+    private static final byte TYPE_INT = 3;
+    private static final byte TYPE_LONG = 4;
+    private static final byte TYPE_DOUBLE = 5;
+    private static final byte TYPE_LIST = 6;
+    private static final byte TYPE_MAP = 7;
+
+    private final File file;
+    private final ChannelStore importFrom;
+
+    /** 保存済みの内容（セクション名 → キー → 値） */
+    private final LinkedHashMap<String, Map<String, Object>> state;
+
+    private final Object lock = new Object();
+    private FileChannel channel;
+    private long snapshotSize;
+    private volatile boolean importing;
+
+    /**
+     * コンストラクタ。ジャーナルファイルを読み込んで、追記できるように開く。
+     * @param dataFolder プラグインのデータフォルダ
+     * @param importFrom ジャーナルファイルが無いときに、内容を取り込む保存先
+     * @throws IOException ジャーナルファイルを開けなかった場合
+     */
+    public JournalChannelStore(File dataFolder, ChannelStore importFrom) throws IOException {
+        this.file = new File(dataFolder, FILE_NAME);
+        this.importFrom = importFrom;
+        this.state = new LinkedHashMap<String, Map<String, Object>>();
+
+        if ( !dataFolder.exists() ) {
+            dataFolder.mkdirs();
+        }
+
+        importing = !file.exists() || file.length() < HEADER_SIZE;
+        if ( importing ) {
+            writeSnapshot();
+        } else {
+            replay();
+        }
+    }
+
+    /**
+     * @see com.github.ucchyocean.lc.channel.ChannelStore#loadChannels(java.util.concurrent.ForkJoinPool)
+     */
+    @Override
+    public List<Map<String, Object>> loadChannels(ForkJoinPool pool) {
+
+        if ( importing ) {
+            // 従来の保存先から取り込む。読み込みはロックの外で行う。
+            for ( Map<String, Object> data : importFrom.loadChannels(pool) ) {
+                Object name = data.get("name");
+                if ( name == null ) continue;
+                try {
+                    saveChannel(name.toString(), data);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+        synchronized (lock) {
+            for ( Map.Entry<String, Map<String, Object>> entry : state.entrySet() ) {
+                if ( entry.getKey().startsWith(SECTION_CHANNEL) ) {
+                    result.add(copy(entry.getValue()));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @see com.github.ucchyocean.lc.channel.ChannelStore#saveChannel(java.lang.String, java.util.Map)
+     */
+    @Override
+    public void saveChannel(String name, Map<String, Object> data) throws IOException {
+        save(SECTION_CHANNEL + name, data);
+    }
+
+    /**
+     * @see com.github.ucchyocean.lc.channel.ChannelStore#removeChannel(java.lang.String)
+     */
+    @Override
+    public boolean removeChannel(String name) {
+
+        String section = SECTION_CHANNEL + name;
+        synchronized (lock) {
+            if ( !state.containsKey(section) ) {
+                return false;
+            }
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+                writeString(out, section);
+                out.writeInt(1);
+                out.writeByte(OP_DROP);
+                append(bytes.toByteArray());
+                state.remove(section);
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @see com.github.ucchyocean.lc.channel.ChannelStore#loadData(java.lang.String)
+     */
+    @Override
+    public Map<String, Object> loadData(String name) {
+
+        String section = SECTION_DATA + name;
+        synchronized (lock) {
+            Map<String, Object> data = state.get(section);
+            if ( data != null || !importing ) {
+                return data == null ? new HashMap<String, Object>() : copy(data);
+            }
+        }
+
+        // 従来の保存先から取り込む
+        Map<String, Object> data = importFrom.loadData(name);
+        try {
+            save(section, data);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return data;
+    }
+
+    /**
+     * @see com.github.ucchyocean.lc.channel.ChannelStore#saveData(java.lang.String, java.util.Map)
+     */
+    @Override
+    public void saveData(String name, Map<String, Object> data) throws IOException {
+        save(SECTION_DATA + name, data);
+    }
+
+    /**
+     * @see com.github.ucchyocean.lc.channel.ChannelStore#close()
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            importing = false;
+            if ( channel == null ) return;
+            try {
+                channel.force(true);
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            channel = null;
+        }
+    }
+
+    /**
+     * 前回保存した内容との差分を、1つのレコードとして追記する
+     * @param section セクション名
+     * @param data 保存する内容
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private void save(String section, Map<String, Object> data) throws IOException {
+
+        synchronized (lock) {
+            Map<String, Object> old = state.get(section);
+            if ( old == null ) old = new HashMap<String, Object>();
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            int count = 0;
+
+            ByteArrayOutputStream opBytes = new ByteArrayOutputStream();
+            DataOutputStream ops = new DataOutputStream(opBytes);
+
+            for ( Map.Entry<String, Object> entry : data.entrySet() ) {
+                String key = entry.getKey();
+                Object value = entry.getValue();
+                if ( old.containsKey(key) && Objects.equals(old.get(key), value) ) {
+                    continue;
+                }
+                int listOps = writeListDiff(ops, key, old.get(key), value);
+                if ( listOps >= 0 ) {
+                    count += listOps;
+                    continue;
+                }
+                ops.writeByte(OP_SET);
+                writeString(ops, key);
+                writeValue(ops, value);
+                count++;
+            }
+            for ( String key : old.keySet() ) {
+                if ( !data.containsKey(key) ) {
+                    ops.writeByte(OP_UNSET);
+                    writeString(ops, key);
+                    count++;
+                }
+            }
+
+            if ( count == 0 && state.containsKey(section) ) {
+                return; // 変更なし
+            }
+
+            writeString(out, section);
+            out.writeInt(count);
+            opBytes.writeTo(out);
+            append(bytes.toByteArray());
+
+            Map<String, Object> saved = new HashMap<String, Object>();
+            for ( Map.Entry<String, Object> entry : data.entrySet() ) {
+                saved.put(entry.getKey(), copyValue(entry.getValue()));
+            }
+            state.put(section, saved);
+
+            if ( channel.size() > Math.max(COMPACT_MIN_SIZE, snapshotSize * 2) ) {
+                writeSnapshot();
+            }
+        }
+    }
+
+    /**
+     * リストの値の変更を、要素の追加と削除として書き出す。
+     * 追加と削除だけで変更後のリストを再現できない場合や、そのほうが大きくなる場合は、何も書き出さない。
+     * @param ops 書き出し先
+     * @param key キー
+     * @param oldValue 変更前の値
+     * @param newValue 変更後の値
+     * @return 書き出した操作の数、書き出さなかった場合は -1
+     * @throws IOException 書き出しに失敗した場合
+     */
+    private static int writeListDiff(DataOutputStream ops, String key,
+            Object oldValue, Object newValue) throws IOException {
+
+        if ( !(oldValue instanceof List) || !(newValue instanceof List) ) {
+            return -1;
+        }
+        List<?> oldList = (List<?>)oldValue;
+        List<?> newList = (List<?>)newValue;
+
+        Set<Object> oldSet = new HashSet<Object>(oldList);
+        Set<Object> newSet = new HashSet<Object>(newList);
+        if ( oldSet.size() != oldList.size() || newSet.size() != newList.size() ) {
+            return -1;
+        }
+        List<String> removed = new ArrayList<String>();
+        List<String> added = new ArrayList<String>();
+        for ( Object o : oldList ) {
+            if ( !(o instanceof String) ) return -1;
+            if ( !newSet.contains(o) ) removed.add((String)o);
+        }
+        for ( Object o : newList ) {
+            if ( !(o instanceof String) ) return -1;
+            if ( !oldSet.contains(o) ) added.add((String)o);
+        }
+        if ( removed.size() + added.size() > newList.size() ) {
+            return -1;
+        }
+
+        // 順番も含めて再現できるかどうかを確認する
+        List<Object> applied = new ArrayList<Object>(oldList);
+        applied.removeAll(removed);
+        applied.addAll(added);
+        if ( !applied.equals(newList) ) {
+            return -1;
+        }
+
+        for ( String element : removed ) {
+            ops.writeByte(OP_REMOVE);
+            writeString(ops, key);
+            writeString(ops, element);
+        }
+        for ( String element : added ) {
+            ops.writeByte(OP_ADD);
+            writeString(ops, key);
+            writeString(ops, element);
+        }
+        return removed.size() + added.size();
+    }
+
+    /**
+     * レコードをジャーナルの末尾に追記する
+     * @param payload レコードの内容
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private void append(byte[] payload) throws IOException {
+
+        if ( channel == null ) {
+            throw new IOException("The journal " + file.getName() + " is already closed.");
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt((int)crc.getValue());
+        buffer.put(payload);
+        buffer.flip();
+
+        // レコードは1回の書き込みでまとめて追記し、途中で停止した場合は起動時に切り捨てる
+        while ( buffer.hasRemaining() ) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * ジャーナルファイルを読み込んで、保存済みの内容を復元する。
+     * 壊れたレコードが見つかった場合は、そこから後ろを切り捨てる。
+     * @throws IOException ジャーナルファイルを開けなかった場合
+     */
+    private void replay() throws IOException {
+
+        long size = file.length();
+        long valid = HEADER_SIZE;
+        int records = 0;
+
+        try ( DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file), 64 * 1024)) ) {
+
+            if ( in.readInt() != MAGIC ) {
+                File broken = new File(file.getParentFile(), file.getName() + ".broken");
+                LunaChat.getPlugin().log(Level.SEVERE, "The channel journal " + file.getName()
+                        + " is not a journal file, it was renamed to " + broken.getName() + ".");
+                in.close();
+                Files.move(file.toPath(), broken.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                importing = true;
+                writeSnapshot();
+                return;
+            }
+
+            byte[] payload = new byte[0];
+            while ( valid + RECORD_HEADER_SIZE <= size ) {
+                int length = in.readInt();
+                int expected = in.readInt();
+                if ( length < 0 || length > size - valid - RECORD_HEADER_SIZE ) {
+                    break;
+                }
+                if ( payload.length < length ) {
+                    payload = new byte[length];
+                }
+                in.readFully(payload, 0, length);
+
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                if ( (int)crc.getValue() != expected ) {
+                    break;
+                }
+                try {
+                    apply(new DataInputStream(new ByteArrayInputStream(payload, 0, length)));
+                } catch (IOException | RuntimeException e) {
+                    break;
+                }
+                valid += RECORD_HEADER_SIZE + length;
+                records++;
+            }
+        } catch (EOFException e) {
+            // 末尾のレコードが途中で切れている
+        }
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        if ( valid < size ) {
+            LunaChat.getPlugin().log(Level.WARNING, "The channel journal " + file.getName()
+                    + " has a torn tail, truncated " + (size - valid) + " bytes at offset " + valid + ".");
+            channel.truncate(valid);
+        }
+        channel.position(valid);
+        snapshotSize = valid;
+
+        LunaChat.getPlugin().log(Level.INFO, "Replayed " + records + " records from " + file.getName() + ".");
+
+        if ( records > state.size() && valid > COMPACT_MIN_SIZE ) {
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * レコードを1つ、保存済みの内容に反映する
+     * @param in レコードの内容
+     * @throws IOException レコードの内容が正しくない場合
+     */
+    private void apply(DataInputStream in) throws IOException {
+
+        String section = readString(in);
+        int count = in.readInt();
+
+        // 適用中に壊れていることが分かっても反映しないように、コピーに対して適用する
+        Map<String, Object> current = state.get(section);
+        Map<String, Object> data = current == null
+                ? new HashMap<String, Object>() : new HashMap<String, Object>(current);
+        boolean drop = false;
+
+        for ( int i = 0; i < count; i++ ) {
+            byte op = in.readByte();
+            switch ( op ) {
+            case OP_SET:
+                String setKey = readString(in);
+                data.put(setKey, readValue(in));
+                break;
+            case OP_UNSET:
+                data.remove(readString(in));
+                break;
+            case OP_ADD:
+            case OP_REMOVE:
+                String listKey = readString(in);
+                String element = readString(in);
+                List<Object> list = new ArrayList<Object>();
+                Object value = data.get(listKey);
+                if ( value instanceof List ) {
+                    list.addAll((List<?>)value);
+                }
+                if ( op == OP_ADD ) {
+                    list.add(element);
+                } else {
+                    list.remove(element);
+                }
+                data.put(listKey, list);
+                break;
+            case OP_DROP:
+                drop = true;
+                break;
+            default:
+                throw new IOException("Unknown journal operation " + op);
+            }
+        }
+
+        if ( drop ) {
+            state.remove(section);
+        } else {
+            state.put(section, data);
+        }
+    }
+
+    /**
+     * 保存済みの内容だけを書き出したスナップショットで、ジャーナルファイルを置き換える
+     * @throws IOException 書き込みに失敗した場合
+     */
+    private void writeSnapshot() throws IOException {
+
+        File temp = new File(file.getParentFile(), file.getName() + ".tmp");
+        try ( FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING) ) {
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC);
+            header.flip();
+            out.write(header);
+
+            FileChannel prev = channel;
+            channel = out;
+            try {
+                for ( Map.Entry<String, Map<String, Object>> entry : state.entrySet() ) {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    DataOutputStream data = new DataOutputStream(bytes);
+                    writeString(data, entry.getKey());
+                    data.writeInt(entry.getValue().size());
+                    for ( Map.Entry<String, Object> value : entry.getValue().entrySet() ) {
+                        data.writeByte(OP_SET);
+                        writeString(data, value.getKey());
+                        writeValue(data, value.getValue());
+                    }
+                    append(bytes.toByteArray());
+                }
+            } finally {
+                channel = prev;
+            }
+            out.force(true);
+        }
+
+        if ( channel != null ) {
+            channel.close();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE);
+        snapshotSize = channel.size();
+        channel.position(snapshotSize);
+    }
+
+    /**
+     * 文字列を書き出す
+     * @param out 書き出し先
+     * @param value 文字列
+     * @throws IOException 書き出しに失敗した場合
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 文字列を読み込む
+     * @param in 読み込み元
+     * @return 文字列
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if ( length < 0 || length > in.available() ) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 値を書き出す。文字列、真偽値、数値、リスト、Map 以外は、文字列として書き出す。
+     * @param out 書き出し先
+     * @param value 値
+     * @throws IOException 書き出しに失敗した場合
+     */
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+
+        if ( value == null ) {
+            out.writeByte(TYPE_NULL);
+        } else if ( value instanceof Boolean ) {
+            out.writeByte(TYPE_BOOLEAN);
+            out.writeBoolean((Boolean)value);
+        } else if ( value instanceof Integer ) {
+            out.writeByte(TYPE_INT);
+            out.writeInt((Integer)value);
+        } else if ( value instanceof Long ) {
+            out.writeByte(TYPE_LONG);
+            out.writeLong((Long)value);
+        } else if ( value instanceof Double ) {
+            out.writeByte(TYPE_DOUBLE);
+            out.writeDouble((Double)value);
+        } else if ( value instanceof List ) {
+            List<?> list = (List<?>)value;
+            out.writeByte(TYPE_LIST);
+            out.writeInt(list.size());
+            for ( Object element : list ) {
+                writeValue(out, element);
+            }
+        } else if ( value instanceof Map ) {
+            Map<?, ?> map = (Map<?, ?>)value;
+            out.writeByte(TYPE_MAP);
+            out.writeInt(map.size());
+            for ( Map.Entry<?, ?> entry : map.entrySet() ) {
+                writeString(out, String.valueOf(entry.getKey()));
+                writeValue(out, entry.getValue());
+            }
+        } else {
+            out.writeByte(TYPE_STRING);
+            writeString(out, value.toString());
+        }
+    }
+
+    /**
+     * 値を読み込む
+     * @param in 読み込み元
+     * @return 値
+     * @throws IOException 読み込みに失敗した場合
+     */
+    private static Object readValue(DataInputStream in) throws IOException {
+
+        byte type = in.readByte();
+        switch ( type ) {
+        case TYPE_NULL:
+            return null;
+        case TYPE_STRING:
+            return readString(in);
+        case TYPE_BOOLEAN:
+            return in.readBoolean();
+        case TYPE_INT:
+            return in.readInt();
+        case TYPE_LONG:
+            return in.readLong();
+        case TYPE_DOUBLE:
+            return in.readDouble();
+        case TYPE_LIST:
+            int size = readSize(in);
+            List<Object> list = new ArrayList<Object>(size);
+            for ( int i = 0; i < size; i++ ) {
+                list.add(readValue(in));
+            }
+            return list;
+        case TYPE_MAP:
+            int entries = readSize(in);
+            Map<String, Object> map = new HashMap<String, Object>();
+            for ( int i = 0; i < entries; i++ ) {
+                String key = readString(in);
+                map.put(key, readValue(in));
+            }
+            return map;
+        default:
+            throw new IOException("Unknown journal value type " + type);
+        }
+    }
+
+    /**
+     * リストやMapの要素数を読み込む
+     * @param in 読み込み元
+     * @return 要素数
+     * @throws IOException 要素数が正しくない場合
+     */
+    private static int readSize(DataInputStream in) throws IOException {
+        int size = in.readInt();
+        if ( size < 0 || size > in.available() ) {
+            throw new IOException("Invalid size " + size);
+        }
+        return size;
+    }
+
+    /**
+     * 保存済みの内容をコピーする
+     * @param data 保存済みの内容
+     * @return コピー
+     */
+    private static Map<String, Object> copy(Map<String, Object> data) {
+        Map<String, Object> result = new HashMap<String, Object>();
+        for ( Map.Entry<String, Object> entry : data.entrySet() ) {
+            result.put(entry.getKey(), copyValue(entry.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * リストとMapの値をコピーする。それ以外の値はそのまま返す。
+     * @param value 値
+     * @return コピー
+     */
+    private static Object copyValue(Object value) {
+        if ( value instanceof List ) {
+            List<Object> list = new ArrayList<Object>();
+            for ( Object element : (List<?>)value ) {
+                list.add(copyValue(element));
+            }
+            return list;
+        } else if ( value instanceof Map ) {
+            Map<String, Object> map = new HashMap<String, Object>();
+            for ( Map.Entry<?, ?> entry : ((Map<?, ?>)value).entrySet() ) {
+                map.put(String.valueOf(entry.getKey()), copyValue(entry.getValue()));
+            }
+            return map;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.channel;
+
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.ucchyocean.lc.member.ChannelMember;
+
+/**
+ * 1:1チャット（/tell）の会話を保持するストア。<br/>
+ * 会話は、2人のID（ChannelMember#toString()、プレイヤーはUUID）を並べ替えた組をキーとして保持し、
+ * 通常のチャンネルの一覧には登録しない。そのため、チャンネルの一覧を処理するときに、1:1チャットを除外する必要は無い。<br/>
+ * 参加者ごとの索引を持つので、退出時には、そのプレイヤーの会話だけを確認して破棄できる。
+ * また、最後の発言から一定時間が経った会話も破棄する。
+ * @author ucchy
+ */
+public class PrivateMessageStore {
+
+    /** 期限切れの会話をまとめて破棄する間隔（ミリ秒） */
+    private static final long SWEEP_INTERVAL = 60 * 1000L;
+
+    // key=並べ替えたIDの組、value=会話
+    private final ConcurrentHashMap<String, Session> sessions;
+
+    // key=参加者のID、value=参加している会話
+    private final ConcurrentHashMap<String, Set<Session>> participants;
+
+    private final long idleMillis;
+    private volatile long nextSweep;
+
+    /**
+     * コンストラクタ
+     * @param idleMinutes 最後の発言から会話を破棄するまでの時間（分）、0以下なら時間では破棄しない
+     */
+    public PrivateMessageStore(int idleMinutes) {
+        this.sessions = new ConcurrentHashMap<String, Session>();
+        this.participants = new ConcurrentHashMap<String, Set<Session>>();
+        this.idleMillis = idleMinutes > 0 ? idleMinutes * 60 * 1000L : 0;
+    }
+
+    /**
+     * 送信者から受信者への1:1チャットのチャンネルを取得する。無ければ作成する。<br/>
+     * 作成する場合は、2人をメンバーに追加し終わってから完了する。
+     * @param from 送信者
+     * @param to 受信者
+     * @return チャンネルを通知するFuture
+     */
+    public CompletableFuture<Channel> getChannel(ChannelMember from, ChannelMember to) {
+
+        long now = System.currentTimeMillis();
+        sweep(now);
+
+        String key = makeKey(from, to);
+        Session session = sessions.get(key);
+        if ( session != null && session.isExpired(now, idleMillis) ) {
+            remove(session);
+            session = null;
+        }
+        if ( session == null ) {
+            Session created = new Session(key, from, to);
+            session = sessions.putIfAbsent(key, created);
+            if ( session == null ) {
+                session = created;
+                index(session);
+            }
+        }
+
+        session.lastUsed = now;
+        return session.getChannel(from, to);
+    }
+
+    /**
+     * チャンネル名（送信者名&gt;受信者名）から、1:1チャットのチャンネルを取得する。作成はしない。
+     * @param channelName チャンネル名
+     * @return チャンネル、見つからない場合はnull
+     */
+    public Channel getChannel(String channelName) {
+
+        Session session = findSession(channelName);
+        if ( session == null ) {
+            return null;
+        }
+        Channel channel = session.peekChannel(channelName);
+        return channel != null && channel.getName().equalsIgnoreCase(channelName) ? channel : null;
+    }
+
+    /**
+     * 1:1チャットのチャンネルを含む会話を破棄する
+     * @param channel チャンネル
+     * @return 破棄したかどうか
+     */
+    public boolean remove(Channel channel) {
+        Session session = findSession(channel);
+        return session != null && remove(session);
+    }
+
+    /**
+     * プレイヤーが退出したときに呼び出され、お互いがオフラインになった会話を破棄する
+     * @param member 退出したプレイヤー
+     */
+    public void onPlayerQuit(ChannelMember member) {
+        Set<Session> joined = participants.get(member.toString());
+        if ( joined == null ) return;
+        for ( Session session : new ArrayList<Session>(joined) ) {
+            ChannelMember other = session.first.toString().equals(member.toString())
+                    ? session.second : session.first;
+            if ( !other.isOnline() ) {
+                remove(session);
+            }
+        }
+    }
+
+    /**
+     * 保持している会話の数を返す
+     * @return 会話の数
+     */
+    public int size() {
+        return sessions.size();
+    }
+
+    /**
+     * 1:1チャットのチャンネルを含む会話を、チャンネルの2人から探す。
+     * 送信者がメンバーから外れている場合は、チャンネル名から探す。
+     * @param channel チャンネル
+     * @return 会話、見つからない場合はnull
+     */
+    private Session findSession(Channel channel) {
+        ChannelMember to = channel.getPrivateMessageTo();
+        if ( to != null ) {
+            for ( ChannelMember from : channel.getMembers() ) {
+                if ( from.equals(to) ) continue;
+                Session session = sessions.get(makeKey(from, to));
+                if ( session != null && session.contains(channel) ) {
+                    return session;
+                }
+            }
+        }
+        Session session = findSession(channel.getName());
+        return session != null && session.contains(channel) ? session : null;
+    }
+
+    /**
+     * チャンネル名（送信者名&gt;受信者名）から、会話を探す
+     * @param channelName チャンネル名
+     * @return 会話、見つからない場合はnull
+     */
+    private Session findSession(String channelName) {
+        int index = channelName.indexOf('>');
+        if ( index <= 0 || index >= channelName.length() - 1 ) {
+            return null;
+        }
+        ChannelMember from = ChannelMember.getChannelMember(channelName.substring(0, index));
+        ChannelMember to = ChannelMember.getChannelMember(channelName.substring(index + 1));
+        if ( from == null || to == null ) {
+            return null;
+        }
+        return sessions.get(makeKey(from, to));
+    }
+
+    /**
+     * 最後の発言から一定時間が経った会話を、まとめて破棄する。
+     * 前回から一定の間隔が空いていない場合は何もしない。
+     * @param now 現在時刻
+     */
+    private void sweep(long now) {
+        if ( idleMillis <= 0 || now < nextSweep ) {
+            return;
+        }
+        nextSweep = now + SWEEP_INTERVAL;
+        for ( Session session : sessions.values() ) {
+            if ( session.isExpired(now, idleMillis) ) {
+                remove(session);
+            }
+        }
+    }
+
+    /**
+     * 会話を破棄する
+     * @param session 会話
+     * @return 破棄したかどうか
+     */
+    private boolean remove(Session session) {
+        if ( !sessions.remove(session.key, session) ) {
+            return false;
+        }
+        unindex(session.first, session);
+        unindex(session.second, session);
+        return true;
+    }
+
+    /**
+     * 参加者の索引に会話を追加する
+     * @param session 会話
+     */
+    private void index(Session session) {
+        for ( ChannelMember member : new ChannelMember[] {session.first, session.second} ) {
+            participants.compute(member.toString(), (key, set) -> {
+                if ( set == null ) set = ConcurrentHashMap.newKeySet();
+                set.add(session);
+                return set;
+            });
+        }
+    }
+
+    /**
+     * 参加者の索引から会話を削除する
+     * @param member 参加者
+     * @param session 会話
+     */
+    private void unindex(ChannelMember member, Session session) {
+        participants.computeIfPresent(member.toString(), (key, set) -> {
+            set.remove(session);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    /**
+     * 2人のIDを並べ替えて、会話のキーを作成する
+     * @param a 1人目
+     * @param b 2人目
+     * @return キー
+     */
+    private static String makeKey(ChannelMember a, ChannelMember b) {
+        String ida = a.toString();
+        String idb = b.toString();
+        return ida.compareTo(idb) <= 0 ? ida + ">" + idb : idb + ">" + ida;
+    }
+
+    /**
+     * 2人の間の会話。発言の向きごとに、1:1チャットのチャンネルを持つ。
+     */
+    private static class Session {
+
+        private final String key;
+        private final ChannelMember first;
+        private final ChannelMember second;
+
+        // 発言の向きごとのチャンネル（必要になったときに作成する）
+        private Channel fromFirst;
+        private Channel fromSecond;
+
+        // 発言の向きごとの、チャンネルの作成（メンバーの追加）の完了を通知するFuture
+        private CompletableFuture<Channel> readyFirst;
+        private CompletableFuture<Channel> readySecond;
+
+        private volatile long lastUsed;
+
+        private Session(String key, ChannelMember first, ChannelMember second) {
+            this.key = key;
+            this.first = first;
+            this.second = second;
+        }
+
+        private boolean isExpired(long now, long idleMillis) {
+            return idleMillis > 0 && lastUsed > 0 && now - lastUsed > idleMillis;
+        }
+
+        private synchronized CompletableFuture<Channel> getChannel(ChannelMember from, ChannelMember to) {
+            boolean isFirst = from.toString().equals(first.toString());
+            CompletableFuture<Channel> ready = isFirst ? readyFirst : readySecond;
+            if ( ready == null || ready.isCompletedExceptionally() ) {
+                Channel channel = new VelocityChannel(from.getName() + ">" + to.getName());
+                channel.setVisible(false);
+                if ( isFirst ) {
+                    fromFirst = channel;
+                } else {
+                    fromSecond = channel;
+                }
+                ready = channel.addMemberAsync(from)
+                        .thenCompose(added -> channel.addMemberAsync(to))
+                        .thenApply(added -> {
+                            channel.setPrivateMessageTo(to);
+                            return channel;
+                        });
+                if ( isFirst ) {
+                    readyFirst = ready;
+                } else {
+                    readySecond = ready;
+                }
+            }
+            return ready;
+        }
+
+        private synchronized Channel peekChannel(String channelName) {
+            if ( fromFirst != null && fromFirst.getName().equalsIgnoreCase(channelName) ) {
+                return fromFirst;
+            }
+            return fromSecond;
+        }
+
+        private synchronized boolean contains(Channel channel) {
+            return channel == fromFirst || channel == fromSecond;
+        }
+    }
+}
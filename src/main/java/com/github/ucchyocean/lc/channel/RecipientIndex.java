@@ -0,0 +1,81 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.channel;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import com.github.ucchyocean.lc.member.ChannelMember;
+
+/**
+ * チャンネルの受信者（オンラインで、チャンネルを非表示にしていないメンバー）を
+ * 常に最新の状態で保持しておくためのインデックス。<br/>
+ * 発言のたびに受信者リストを作り直さなくて済むように、ログイン/ログアウトや
+ * メンバーの増減、hide/unhide のタイミングで差分更新を行い、
+ * 発言時は変更不可のスナップショットを参照する。
+ * @author ucchy
+ */
+class RecipientIndex {
+
+    private final LinkedHashSet<ChannelMember> recipients;
+    private volatile List<ChannelMember> snapshot;
+
+    /**
+     * コンストラクタ
+     */
+    RecipientIndex() {
+        recipients = new LinkedHashSet<ChannelMember>();
+        snapshot = Collections.emptyList();
+    }
+
+    /**
+     * 受信者を追加する
+     * @param member 追加するメンバー
+     */
+    synchronized void add(ChannelMember member) {
+        if ( member != null && recipients.add(member) ) {
+            publish();
+        }
+    }
+
+    /**
+     * 受信者を削除する
+     * @param member 削除するメンバー
+     */
+    synchronized void remove(ChannelMember member) {
+        if ( member != null && recipients.remove(member) ) {
+            publish();
+        }
+    }
+
+    /**
+     * 受信者を全て入れ替える
+     * @param members 新しい受信者
+     */
+    synchronized void reset(Collection<ChannelMember> members) {
+        recipients.clear();
+        recipients.addAll(members);
+        publish();
+    }
+
+    /**
+     * 受信者のスナップショットを返す
+     * @return 受信者（変更不可）
+     */
+    List<ChannelMember> snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 現在の受信者から、新しいスナップショットを作成して公開する
+     */
+    private void publish() {
+        snapshot = Collections.unmodifiableList(new ArrayList<ChannelMember>(recipients));
+    }
+}
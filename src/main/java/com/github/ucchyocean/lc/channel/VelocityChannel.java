@@ -14,15 +14,17 @@ import com.github.ucchyocean.lc.LunaChat;
 import com.github.ucchyocean.lc.LunaChatAPI;
 import com.github.ucchyocean.lc.LunaChatConfig;
 import com.github.ucchyocean.lc.LunaChatVelocity;
-import com.github.ucchyocean.lc.event.EventResult;
 import com.github.ucchyocean.lc.member.ChannelMember;
+import com.github.ucchyocean.lc.member.PresenceRegistry;
 import com.github.ucchyocean.lc.util.ClickableFormat;
-import com.velocitypowered.api.proxy.Player;
 import net.kyori.text.Component;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public class VelocityChannel extends Channel {
 
@@ -35,7 +37,9 @@ public class VelocityChannel extends Channel {
     }
 
     /**
-     * メッセージを表示します。指定したプレイヤーの発言として処理されます。
+     * メッセージを表示します。指定したプレイヤーの発言として処理されます。<br/>
+     * LunaChatChannelMessageEvent のリスナーの処理の完了は待たずに戻り、受信者への送信はリスナーの処理が終わってから行われます。
+     * （Velocityのイベントのリスナーの中から呼び出されても、イベント用のスレッドを待たせないようにするため。）
      * @param player プレイヤー（ワールドチャット、範囲チャットの場合は必須です）
      * @param message メッセージ
      * @param format フォーマット
@@ -44,45 +48,43 @@ public class VelocityChannel extends Channel {
     @Override
     protected void sendMessage(ChannelMember player, String message,
                                @Nullable ClickableFormat format, boolean sendDynmap) {
+        sendMessageAsync(player, message, format, sendDynmap).whenComplete((v, e) -> {
+            if ( e != null ) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * メッセージを表示します。指定したプレイヤーの発言として処理されます。<br/>
+     * LunaChatChannelMessageEvent のリスナーの処理が終わってから、受信者に送信します。
+     * @param player プレイヤー（ワールドチャット、範囲チャットの場合は必須です）
+     * @param message メッセージ
+     * @param format フォーマット
+     * @param sendDynmap dynmapへ送信するかどうか
+     * @return 送信が完了したときに完了するFuture
+     */
+    @Override
+    protected CompletableFuture<Void> sendMessageAsync(ChannelMember player, String message,
+                               @Nullable ClickableFormat format, boolean sendDynmap) {
 
         LunaChatConfig config = LunaChat.getConfig();
 
         String originalMessage = new String(message);
 
         // 受信者を設定する
-        List<ChannelMember> recipients = new ArrayList<>();
-
-        if ( isBroadcastChannel() ) {
-            // ブロードキャストチャンネル
-
-            // NOTE: BungeeChannelは範囲チャットやワールドチャットをサポートしない
-
-            // 通常ブロードキャスト（全員へ送信）
-            for ( Player p : LunaChatVelocity.PROXY.getAllPlayers() ) {
-                ChannelMember cp = ChannelMember.getChannelMember(p);
-                if ( !getHided().contains(cp) ) {
-                    recipients.add(cp);
-                }
-            }
-
-        } else {
-            // 通常チャンネル
-
-            for ( ChannelMember mem : getMembers() ) {
-                if ( mem != null && mem.isOnline() && !getHided().contains(mem) ) {
-                    recipients.add(mem);
-                }
-            }
-        }
+        // NOTE: 受信者（オンラインで非表示にしていないメンバー）はインデックスで管理されているので、
+        //       ここではスナップショットをコピーするだけでよい。
+        // NOTE: BungeeChannelは範囲チャットやワールドチャットをサポートしない
+        List<ChannelMember> recipients = new ArrayList<>(getRecipients());
 
         // opListenAllChannel 設定がある場合は、
         // パーミッション lunachat-admin.listen-all-channels を持つプレイヤーを
         // 受信者に加える。
         if ( config.isOpListenAllChannel() ) {
-            for ( Player p : LunaChatVelocity.PROXY.getAllPlayers() ) {
-                ChannelMember cp = ChannelMember.getChannelMember(p);
-                if ( cp.hasPermission("lunachat-admin.listen-all-channels")
-                        && !recipients.contains(cp) ) {
+            Set<ChannelMember> already = new HashSet<>(recipients);
+            for ( ChannelMember cp : PresenceRegistry.getListenAllMembers() ) {
+                if ( already.add(cp) ) {
                     recipients.add(cp);
                 }
             }
@@ -90,20 +92,31 @@ public class VelocityChannel extends Channel {
 
         // hideされている場合は、受信対象者から抜く。
         LunaChatAPI api = LunaChat.getAPI();
-        for ( ChannelMember cp : api.getHidelist(player) )  {
-            if ( recipients.contains(cp) ) {
-                recipients.remove(cp);
-            }
+        if ( player != null ) {
+            recipients.removeIf(cp -> api.isHiding(cp, player));
         }
 
         // フォーマットがある場合は置き換える
 
         // LunaChatChannelMessageEvent イベントコール
         String name = (player != null) ? player.getDisplayName() : "<null>";
-        EventResult result = LunaChat.getEventSender().sendLunaChatChannelMessageEvent(
-                getName(), player, message, recipients, name, originalMessage);
-        message = result.getMessage();
-        recipients = result.getRecipients();
+        return LunaChat.getEventSender().sendLunaChatChannelMessageEventAsync(
+                getName(), player, message, recipients, name, originalMessage)
+                .thenAccept(result -> deliver(result.getMessage(), result.getRecipients(), format, originalMessage, name));
+    }
+
+    /**
+     * LunaChatChannelMessageEvent の後に、受信者へメッセージを送信し、ログに記録する
+     * @param message メッセージ
+     * @param recipients 受信者
+     * @param format フォーマット
+     * @param originalMessage 元のメッセージ（ログに記録する内容）
+     * @param name 発言者の表示名
+     */
+    private void deliver(String message, List<ChannelMember> recipients,
+                         @Nullable ClickableFormat format, String originalMessage, String name) {
+
+        LunaChatConfig config = LunaChat.getConfig();
 
         // 送信する
         if ( format != null ) {
@@ -139,7 +152,7 @@ public class VelocityChannel extends Channel {
 
         // ブロードキャストチャンネルならサーバー接続人数を返す
         if ( isBroadcastChannel() ) {
-            return LunaChatVelocity.PROXY.getPlayerCount();
+            return PresenceRegistry.getOnlineCount();
         }
 
         return super.getOnlineNum();
@@ -155,7 +168,7 @@ public class VelocityChannel extends Channel {
 
         // ブロードキャストチャンネルならサーバー接続人数を返す
         if ( isBroadcastChannel() ) {
-            return LunaChatVelocity.PROXY.getPlayerCount();
+            return PresenceRegistry.getOnlineCount();
         }
 
         return super.getTotalNum();
@@ -172,11 +185,7 @@ public class VelocityChannel extends Channel {
         // ブロードキャストチャンネルなら、
         // 現在サーバーに接続している全プレイヤーをメンバーとして返す
         if ( isBroadcastChannel() ) {
-            List<ChannelMember> mem = new ArrayList<>();
-            for ( Player p : LunaChatVelocity.PROXY.getAllPlayers() ) {
-                mem.add(ChannelMember.getChannelMember(p));
-            }
-            return mem;
+            return PresenceRegistry.getOnlineMembers();
         }
 
         return super.getMembers();
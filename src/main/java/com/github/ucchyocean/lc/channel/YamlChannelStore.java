@@ -0,0 +1,147 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.channel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import com.github.ucchyocean.lc.util.YamlConfig;
+
+/**
+ * チャンネルごとに1つのYamlファイル（channels/チャンネル名.yml）へ保存する、標準の保存先。
+ * ChannelManagerのデータは、データフォルダ直下のデータ名のYamlファイルへ保存する。
+ * @author ucchy
+ */
+public class YamlChannelStore implements ChannelStore {
+
+    private static final String FOLDER_NAME_CHANNELS = "channels";
+
+    private final File dataFolder;
+    private final File folder;
+
+    /**
+     * コンストラクタ
+     * @param dataFolder プラグインのデータフォルダ
+     */
+    public YamlChannelStore(File dataFolder) {
+        this.dataFolder = dataFolder;
+        this.folder = new File(dataFolder, FOLDER_NAME_CHANNELS);
+    }
+
+    /**
+     * 全てのチャンネルのファイルを、指定したスレッドプールで並列に読み込む
+     * @see com.github.ucchyocean.lc.channel.ChannelStore#loadChannels(java.util.concurrent.ForkJoinPool)
+     */
+    @Override
+    public List<Map<String, Object>> loadChannels(ForkJoinPool pool) {
+
+        if ( !folder.exists() ) {
+            return new ArrayList<Map<String, Object>>();
+        }
+
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".yml"));
+        if ( files == null ) files = new File[0];
+
+        final File[] targets = files;
+        return pool.submit(() -> Arrays.stream(targets).parallel()
+                .map(YamlChannelStore::load)
+                .collect(Collectors.toList())).join();
+    }
+
+    /**
+     * @see com.github.ucchyocean.lc.channel.ChannelStore#saveChannel(java.lang.String, java.util.Map)
+     */
+    @Override
+    public void saveChannel(String name, Map<String, Object> data) throws IOException {
+
+        // フォルダーの取得と、必要に応じて作成
+        if ( !folder.exists() ) {
+            folder.mkdirs();
+        }
+        save(new File(folder, name + ".yml"), data);
+    }
+
+    /**
+     * @see com.github.ucchyocean.lc.channel.ChannelStore#removeChannel(java.lang.String)
+     */
+    @Override
+    public boolean removeChannel(String name) {
+        File file = new File(folder, name + ".yml");
+        if ( !file.exists() ) {
+            return false;
+        }
+        return file.delete();
+    }
+
+    /**
+     * データ名のファイルを読み込む。ファイルが無い場合は、空のファイルを作成する。
+     * @see com.github.ucchyocean.lc.channel.ChannelStore#loadData(java.lang.String)
+     */
+    @Override
+    public Map<String, Object> loadData(String name) {
+        File file = new File(dataFolder, name);
+        if ( !file.exists() ) {
+            try {
+                new YamlConfig().save(file);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return load(file);
+    }
+
+    /**
+     * @see com.github.ucchyocean.lc.channel.ChannelStore#saveData(java.lang.String, java.util.Map)
+     */
+    @Override
+    public void saveData(String name, Map<String, Object> data) throws IOException {
+        save(new File(dataFolder, name), data);
+    }
+
+    /**
+     * Yamlファイルは開いたままにしないので、何もしない
+     * @see com.github.ucchyocean.lc.channel.ChannelStore#close()
+     */
+    @Override
+    public void close() {
+        // do nothing.
+    }
+
+    /**
+     * Yamlファイルを読み込む
+     * @param file ファイル
+     * @return 読み込んだ内容
+     */
+    private static Map<String, Object> load(File file) {
+        YamlConfig config = YamlConfig.load(file);
+        Map<String, Object> data = new HashMap<String, Object>();
+        for ( String key : config.getKeys(false) ) {
+            data.put(key, config.get(key));
+        }
+        return data;
+    }
+
+    /**
+     * Yamlファイルに保存する
+     * @param file ファイル
+     * @param data 保存する内容
+     * @throws IOException 保存に失敗した場合
+     */
+    private static void save(File file, Map<String, Object> data) throws IOException {
+        YamlConfig config = new YamlConfig();
+        for ( String key : data.keySet() ) {
+            config.set(key, data.get(key));
+        }
+        config.save(file);
+    }
+}
@@ -110,12 +110,13 @@ public class AcceptCommand extends LunaChatSubCommand {
         }
 
         // 参加する
-        channel.addMember(sender);
-        sender.sendMessage(Messages.cmdmsgJoin(channel.getName()));
+        channel.addMemberAsync(sender).thenRun(() -> {
+            sender.sendMessage(Messages.cmdmsgJoin(channel.getName()));
 
-        // デフォルトの発言先に設定する
-        api.setDefaultChannel(sender.getName(), channelName);
-        sender.sendMessage(Messages.cmdmsgSet(channel.getName()));
+            // デフォルトの発言先に設定する
+            api.setDefaultChannel(sender.getName(), channelName);
+            sender.sendMessage(Messages.cmdmsgSet(channel.getName()));
+        });
 
         return true;
     }
@@ -138,35 +138,40 @@ public class BanCommand extends LunaChatSubCommand {
         // BAN実行
         channel.getBanned().add(kicked);
         if ( expireMinutes != -1 ) {
-            long expire = System.currentTimeMillis() + expireMinutes * 60 * 1000;
-            channel.getBanExpires().put(kicked, expire);
+            long expire = System.currentTimeMillis() + expireMinutes * 60 * 1000L;
+            channel.setBanExpire(kicked, expire);
         }
-        channel.removeMember(kicked);
 
-        // senderに通知メッセージを出す
-        if ( expireMinutes != -1 ) {
-            sender.sendMessage(Messages.cmdmsgBanWithExpire(
-                    kickedName, channel.getName(), expireMinutes));
-        } else {
-            sender.sendMessage(Messages.cmdmsgBan(
-                    kickedName, channel.getName()));
-        }
+        // メンバーから外れてから、通知メッセージを出す
+        final Channel target = channel;
+        final String name = kickedName;
+        final int minutes = expireMinutes;
+        target.removeMemberAsync(kicked).thenRun(() -> {
+            // senderに通知メッセージを出す
+            if ( minutes != -1 ) {
+                sender.sendMessage(Messages.cmdmsgBanWithExpire(
+                        name, target.getName(), minutes));
+            } else {
+                sender.sendMessage(Messages.cmdmsgBan(
+                        name, target.getName()));
+            }
 
-        // チャンネルに通知メッセージを出す
-        if ( expireMinutes != -1 ) {
-            channel.sendSystemMessage(Messages.banWithExpireMessage(
-                    channel.getColorCode(), channel.getName(), kicked.getName(), expireMinutes),
-                    true, "system");
-        } else {
-            channel.sendSystemMessage(Messages.banMessage(
-                    channel.getColorCode(), channel.getName(), kicked.getName()),
-                    true, "system");
-        }
+            // チャンネルに通知メッセージを出す
+            if ( minutes != -1 ) {
+                target.sendSystemMessage(Messages.banWithExpireMessage(
+                        target.getColorCode(), target.getName(), kicked.getName(), minutes),
+                        true, "system");
+            } else {
+                target.sendSystemMessage(Messages.banMessage(
+                        target.getColorCode(), target.getName(), kicked.getName()),
+                        true, "system");
+            }
 
-        // BANされた人に通知メッセージを出す
-        if ( kicked != null && kicked.isOnline() ) {
-            kicked.sendMessage(Messages.cmdmsgBanned(channel.getName()));
-        }
+            // BANされた人に通知メッセージを出す
+            if ( kicked != null && kicked.isOnline() ) {
+                kicked.sendMessage(Messages.cmdmsgBanned(target.getName()));
+            }
+        });
 
         return true;
     }
@@ -113,12 +113,15 @@ public class CreateCommand extends LunaChatSubCommand {
         }
 
         // チャンネル作成
-        Channel channel = api.createChannel(name, sender);
-        if ( channel != null ) {
-            channel.setDescription(desc);
-            channel.save();
-            sender.sendMessage(Messages.cmdmsgCreate(name));
-        }
+        final String cname = name;
+        final String description = desc;
+        api.createChannelAsync(cname, sender).thenAccept(channel -> {
+            if ( channel != null ) {
+                channel.setDescription(description);
+                channel.save();
+                sender.sendMessage(Messages.cmdmsgCreate(cname));
+            }
+        });
         return true;
     }
 }
@@ -137,8 +137,7 @@ public class HideCommand extends LunaChatSubCommand {
             }
 
             // 設定する
-            channel.getHided().add(sender);
-            channel.save();
+            channel.hide(sender);
             sender.sendMessage(Messages.cmdmsgHided(channel.getName()));
 
             return true;
@@ -148,7 +147,7 @@ public class HideCommand extends LunaChatSubCommand {
 
             // 既に非表示になっていないかどうかをチェックする
             ChannelMember hided = ChannelMember.getChannelMember(cname);
-            if ( api.getHidelist(hided).contains(sender) ) {
+            if ( api.isHiding(sender, hided) ) {
                 sender.sendMessage(Messages.errmsgAlreadyHidedPlayer());
                 return true;
             }
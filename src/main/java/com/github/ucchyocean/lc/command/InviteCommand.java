@@ -187,10 +187,12 @@ public class InviteCommand extends LunaChatSubCommand {
         }
 
         // 参加する
-        channel.addMember(invited);
-        api.setDefaultChannel(invitedName, cname);
-        sender.sendMessage(Messages.cmdmsgInvite(invitedName, channel.getName()));
-        invited.sendMessage(Messages.cmdmsgJoin(channel.getName()));
+        final String name = cname;
+        channel.addMemberAsync(invited).thenRun(() -> {
+            api.setDefaultChannel(invitedName, name);
+            sender.sendMessage(Messages.cmdmsgInvite(invitedName, channel.getName()));
+            invited.sendMessage(Messages.cmdmsgJoin(channel.getName()));
+        });
 
         return true;
     }
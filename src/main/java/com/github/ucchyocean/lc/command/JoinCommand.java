@@ -141,11 +141,13 @@ public class JoinCommand extends LunaChatSubCommand {
                 }
 
                 // チャンネル作成
-                Channel c = api.createChannel(channelName, sender);
-                if ( c != null ) {
-                    c.addMember(sender);
-                    sender.sendMessage(Messages.cmdmsgCreate(channelName));
-                }
+                final String name = channelName;
+                api.createChannelAsync(name, sender).thenAccept(c -> {
+                    if ( c != null ) {
+                        c.addMemberAsync(sender).thenRun(() ->
+                                sender.sendMessage(Messages.cmdmsgCreate(name)));
+                    }
+                });
                 return true;
 
             } else {
@@ -219,19 +221,47 @@ public class JoinCommand extends LunaChatSubCommand {
             }
 
             // チャンネルに参加し、デフォルトの発言先に設定する
+            // 参加は、イベントのリスナーの処理が終わってから行われるので、続きの処理は参加の後に行う
             if ( !channel.getName().equals(config.getGlobalChannel()) ) {
-                channel.addMember(sender);
-                sender.sendMessage(Messages.cmdmsgJoin(channelName));
+                final String name = channelName;
+                final Channel target = channel;
+                channel.addMemberAsync(sender).thenRun(() -> {
+                    sender.sendMessage(Messages.cmdmsgJoin(name));
+                    setDefaultChannel(sender, name);
+                    sendChannelInfo(sender, target);
+                });
+                return true;
             }
 
             // デフォルトの発言先に設定する
-            if ( api.getDefaultChannel(sender.getName()) == null ||
-                    !api.getDefaultChannel(sender.getName()).getName().equals(channelName) ) {
-                api.setDefaultChannel(sender.getName(), channelName);
-                sender.sendMessage(Messages.cmdmsgSet(channelName));
-            }
+            setDefaultChannel(sender, channelName);
         }
 
+        sendChannelInfo(sender, channel);
+
+        return true;
+    }
+
+    /**
+     * デフォルトの発言先に設定する。既に設定されている場合は何もしない。
+     * @param sender コマンド実行者
+     * @param channelName チャンネル名
+     */
+    private void setDefaultChannel(ChannelMember sender, String channelName) {
+        if ( api.getDefaultChannel(sender.getName()) == null ||
+                !api.getDefaultChannel(sender.getName()).getName().equals(channelName) ) {
+            api.setDefaultChannel(sender.getName(), channelName);
+            sender.sendMessage(Messages.cmdmsgSet(channelName));
+        }
+    }
+
+    /**
+     * チャンネルの説明文と、非表示にしている場合の注意を表示する
+     * @param sender コマンド実行者
+     * @param channel チャンネル
+     */
+    private void sendChannelInfo(ChannelMember sender, Channel channel) {
+
         // チャンネル説明文があるなら、説明文を表示する
         if ( !channel.getDescription().trim().equals("") ) {
             sender.sendMessage(Messages.cmdmsgSetTopic(channel.getDescription().trim()));
@@ -241,8 +271,6 @@ public class JoinCommand extends LunaChatSubCommand {
         if ( channel.getHided().contains(sender) ) {
             sender.sendMessage(Messages.cmdmsgSetHide());
         }
-
-        return true;
     }
 
     private boolean hasSpeakPermission(ChannelMember sender, String channelName) {
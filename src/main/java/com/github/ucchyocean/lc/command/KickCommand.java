@@ -113,21 +113,25 @@ public class KickCommand extends LunaChatSubCommand {
         }
 
         // キック実行
-        channel.removeMember(kicked);
-        channel.save();
-
-        // senderに通知メッセージを出す
-        sender.sendMessage(Messages.cmdmsgKick(kickedName, channel.getName()));
-
-        // チャンネルに通知メッセージを出す
-        channel.sendSystemMessage(
-                Messages.kickMessage(channel.getColorCode(), channel.getName(), kicked),
-                true, "system");
-
-        // キックされた人に通知メッセージを出す
-        if ( kicked != null && kicked.isOnline() ) {
-            kicked.sendMessage(Messages.cmdmsgKicked(channel.getName()));
-        }
+        // メンバーから外れてから、通知メッセージを出す
+        final Channel target = channel;
+        final String name = kickedName;
+        target.removeMemberAsync(kicked).thenRun(() -> {
+            target.save();
+
+            // senderに通知メッセージを出す
+            sender.sendMessage(Messages.cmdmsgKick(name, target.getName()));
+
+            // チャンネルに通知メッセージを出す
+            target.sendSystemMessage(
+                    Messages.kickMessage(target.getColorCode(), target.getName(), kicked),
+                    true, "system");
+
+            // キックされた人に通知メッセージを出す
+            if ( kicked != null && kicked.isOnline() ) {
+                kicked.sendMessage(Messages.cmdmsgKicked(target.getName()));
+            }
+        });
 
         return true;
     }
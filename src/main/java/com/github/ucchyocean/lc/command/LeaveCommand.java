@@ -119,8 +119,9 @@ public class LeaveCommand extends LunaChatSubCommand {
         }
 
         // チャンネルから退出する
-        channel.removeMember(sender);
-        sender.sendMessage(Messages.cmdmsgLeave(channelName));
+        final String name = channelName;
+        channel.removeMemberAsync(sender).thenRun(() ->
+                sender.sendMessage(Messages.cmdmsgLeave(name)));
         return true;
     }
 }
@@ -6,6 +6,7 @@
 package com.github.ucchyocean.lc.command;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 
@@ -151,12 +152,16 @@ public class ListCommand extends LunaChatSubCommand {
             }
         });
 
+        // 参加しているチャンネルとBANされているチャンネルは、索引からまとめて取得しておく
+        Collection<Channel> joined = api.getChannelsByMember(player);
+        Collection<Channel> banned = api.getBannedChannels(player);
+
         // 指定されたプレイヤー名に合うように、フィルタ＆表示用整形する。
         ArrayList<Component> items = new ArrayList<>();
         for ( Channel channel : channels ) {
 
             // BANされているチャンネルは表示しない
-            if ( channel.getBanned().contains(player) ) {
+            if ( banned.contains(channel) ) {
                 continue;
             }
 
@@ -173,7 +178,7 @@ public class ListCommand extends LunaChatSubCommand {
                 disp = ChatColor.DARK_AQUA + channel.getName();
             }
 
-            if ( !channel.getMembers().contains(player) &&
+            if ( !joined.contains(channel) &&
                     !channel.isGlobalChannel() ) {
 
                 // 未参加で visible=false のチャンネルは表示しない
@@ -5,9 +5,9 @@
  */
 package com.github.ucchyocean.lc.command;
 
-import java.util.ArrayList;
-
 import com.github.ucchyocean.lc.LunaChat;
+import com.github.ucchyocean.lc.LunaChatExecutor;
+import com.github.ucchyocean.lc.LunaChatLogPage;
 import com.github.ucchyocean.lc.LunaChatLogger;
 import com.github.ucchyocean.lc.Messages;
 import com.github.ucchyocean.lc.channel.Channel;
@@ -22,6 +22,9 @@ public class LogCommand extends LunaChatSubCommand {
     private static final String COMMAND_NAME = "log";
     private static final String PERMISSION_NODE = "lunachat." + COMMAND_NAME;
 
+    /** 1ページに表示するログの件数 */
+    private static final int PAGE_SIZE = 20;
+
     /**
      * コマンドを取得します。
      * @return コマンド
@@ -81,6 +84,7 @@ public class LogCommand extends LunaChatSubCommand {
         String argsFilter = null;
         String argsDate = null;
         boolean reverse = false;
+        long cursor = -1;
 
         // senderがnullなら何もしない
         if ( sender == null ) return true;
@@ -99,8 +103,14 @@ public class LogCommand extends LunaChatSubCommand {
                 argsFilter = arg.substring(2);
             } else if ( arg.startsWith("d=") ) {
                 argsDate = arg.substring(2);
-            } else if ( arg.equals("r=") ) {
+            } else if ( arg.equals("r") || arg.equals("r=") ) {
                 reverse = true;
+            } else if ( arg.startsWith("c=") ) {
+                try {
+                    cursor = Long.parseLong(arg.substring(2));
+                } catch (NumberFormatException e) {
+                    cursor = -1;
+                }
             }
         }
 
@@ -118,23 +128,24 @@ public class LogCommand extends LunaChatSubCommand {
             return true;
         }
 
-        // ログの取得
-        ArrayList<String> logs;
+        // ログの取得元
+        final LunaChatLogger logger;
+        final Channel channel;
 
         if ( config.getGlobalChannel().equals("") &&
                 (cname == null || cname.equals(config.getGlobalMarker())) ) {
 
             // グローバルチャンネル設定が無くて、指定チャンネルがマーカーの場合、
             // 通常チャットのログを取得する
-            LunaChatLogger logger = LunaChat.getNormalChatLogger();
-            logs = logger.getLog(argsPlayer, argsFilter, argsDate, reverse);
+            logger = LunaChat.getNormalChatLogger();
+            channel = null;
 
             cname = "GlobalChat";
 
         } else {
 
             // チャンネルが存在するかどうか確認する
-            Channel channel = api.getChannel(cname);
+            channel = api.getChannel(cname);
             if ( channel == null ) {
                 sender.sendMessage(Messages.errmsgNotExist());
                 return true;
@@ -152,17 +163,44 @@ public class LogCommand extends LunaChatSubCommand {
                 return true;
             }
 
-            logs = channel.getLog(argsPlayer, argsFilter, argsDate, reverse);
+            logger = null;
         }
 
-        // 整形と表示
+        // ログファイルの読み込みは、コマンドの処理を止めないように非同期で行う
+        final String title = cname;
+        final String player = argsPlayer;
+        final String filter = argsFilter;
+        final String date = argsDate;
+        final boolean rev = reverse;
+        final long from = cursor;
+        LunaChat.runAsyncTask(LunaChatExecutor.TaskType.IO, sender, new Runnable() {
+            @Override
+            public void run() {
+                LunaChatLogPage page = (channel != null)
+                        ? channel.getLogPage(player, filter, date, rev, from, PAGE_SIZE)
+                        : logger.getLogPage(player, filter, date, rev, from, PAGE_SIZE);
+                sendLogPage(sender, title, page);
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * ログを整形して表示する
+     * @param sender 表示先
+     * @param cname チャンネル名
+     * @param page ログデータ
+     */
+    private void sendLogPage(ChannelMember sender, String cname, LunaChatLogPage page) {
+
         sender.sendMessage(Messages.logDisplayFirstLine(cname));
 
-        for ( String log : logs ) {
+        for ( String log : page.getLines() ) {
 
             String[] temp = log.split(",");
             String date = temp[0];
-            String message = temp[1];
+            String message = (temp.length >= 2) ? temp[1] : "";
             String playerName = "";
             if ( temp.length >= 3 ) {
                 playerName = temp[2];
@@ -170,9 +208,11 @@ public class LogCommand extends LunaChatSubCommand {
             sender.sendMessage(Messages.logDisplayFormat(date, playerName, message));
         }
 
-        sender.sendMessage(Messages.logDisplayEndLine());
+        if ( page.hasNext() ) {
+            sender.sendMessage(Messages.logDisplayNextPage(page.getNextCursor()));
+        }
 
-        return true;
+        sender.sendMessage(Messages.logDisplayEndLine());
     }
 
 }
@@ -6,9 +6,11 @@
 package com.github.ucchyocean.lc.command;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import com.github.ucchyocean.lc.LunaChat;
+import com.github.ucchyocean.lc.LunaChatAPI;
 import com.github.ucchyocean.lc.Messages;
 import com.github.ucchyocean.lc.channel.Channel;
 import com.github.ucchyocean.lc.member.ChannelMember;
@@ -313,10 +315,15 @@ public class LunaChatCommand {
 
         ArrayList<String> items = new ArrayList<String>();
 
-        for ( Channel channel : LunaChat.getAPI().getChannels() ) {
+        // 参加しているチャンネルとBANされているチャンネルは、索引からまとめて取得しておく
+        LunaChatAPI api = LunaChat.getAPI();
+        Collection<Channel> joined = api.getChannelsByMember(sender);
+        Collection<Channel> banned = api.getBannedChannels(sender);
+
+        for ( Channel channel : api.getChannels() ) {
 
             // BANされているチャンネルは対象外
-            if ( channel.getBanned().contains(sender) ) {
+            if ( banned.contains(channel) ) {
                 continue;
             }
 
@@ -326,7 +333,7 @@ public class LunaChatCommand {
             }
 
             // 未参加で visible=false のチャンネルは対象外
-            if ( !channel.getMembers().contains(sender) &&
+            if ( !joined.contains(channel) &&
                     !channel.isGlobalChannel() && !channel.isVisible() ) {
                 continue;
             }
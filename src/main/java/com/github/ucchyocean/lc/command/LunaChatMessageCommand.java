@@ -9,9 +9,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.github.ucchyocean.lc.LunaChat;
-import com.github.ucchyocean.lc.LunaChatAPI;
 import com.github.ucchyocean.lc.Messages;
-import com.github.ucchyocean.lc.channel.Channel;
 import com.github.ucchyocean.lc.member.ChannelMember;
 
 /**
@@ -80,23 +78,13 @@ public class LunaChatMessageCommand {
             return;
         }
 
-        // チャンネルが存在するかどうかをチェックする
-        LunaChatAPI api = LunaChat.getAPI();
-        String cname = inviter.getName() + ">" + invited.getName();
-        Channel channel = api.getChannel(cname);
-        if ( channel == null ) {
-            // チャンネルを作成して、送信者、受信者をメンバーにする
-            channel = api.createChannel(cname, inviter);
-            channel.setVisible(false);
-            channel.addMember(inviter);
-            channel.addMember(invited);
-            channel.setPrivateMessageTo(invited);
-        }
-
-        // メッセージがあるなら送信する
-        if ( message.trim().length() > 0 ) {
-            channel.chat(inviter, message);
-        }
+        // 1:1チャットのチャンネルを取得する。無ければ、送信者と受信者をメンバーにして作成される。
+        // メッセージがあるなら、チャンネルが用意できてから送信する
+        LunaChat.getAPI().getPrivateMessageChannelAsync(inviter, invited).thenAccept(channel -> {
+            if ( message.trim().length() > 0 ) {
+                channel.chat(inviter, message);
+            }
+        });
 
         // 送信履歴を残す
         DataMaps.privateMessageMap.put(
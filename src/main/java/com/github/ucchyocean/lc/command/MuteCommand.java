@@ -132,8 +132,8 @@ public class MuteCommand extends LunaChatSubCommand {
         // Mute実行
         channel.getMuted().add(kicked);
         if ( expireMinutes != -1 ) {
-            long expire = System.currentTimeMillis() + expireMinutes * 60 * 1000;
-            channel.getMuteExpires().put(kicked, expire);
+            long expire = System.currentTimeMillis() + expireMinutes * 60 * 1000L;
+            channel.setMuteExpire(kicked, expire);
         }
         channel.save();
 
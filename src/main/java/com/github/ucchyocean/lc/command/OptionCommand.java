@@ -8,8 +8,10 @@ package com.github.ucchyocean.lc.command;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import com.github.ucchyocean.lc.LunaChat;
+import com.github.ucchyocean.lc.LunaChatExecutor;
 import com.github.ucchyocean.lc.Messages;
 import com.github.ucchyocean.lc.channel.Channel;
 import com.github.ucchyocean.lc.event.EventResult;
@@ -133,12 +135,26 @@ public class OptionCommand extends LunaChatSubCommand {
         }
 
         // LunaChatChannelOptionChangedEvent イベントコール
-        EventResult result = LunaChat.getEventSender().sendLunaChatChannelOptionChangedEvent(
+        // イベントのリスナーの処理が終わってから、設定する
+        CompletableFuture<EventResult> event = LunaChat.getEventSender().sendLunaChatChannelOptionChangedEventAsync(
                 cname, sender, options);
-        if ( result.isCancelled() ) {
-            return true;
-        }
-        options = result.getOptions();
+        LunaChat.getExecutor().thenCompose(LunaChatExecutor.TaskType.CHAT, event, result -> {
+            if ( !result.isCancelled() ) {
+                setOptions(sender, channel, result.getOptions());
+            }
+            return CompletableFuture.<Void>completedFuture(null);
+        });
+
+        return true;
+    }
+
+    /**
+     * LunaChatChannelOptionChangedEvent の後に、オプションを設定する
+     * @param sender コマンド実行者
+     * @param channel 対象のチャンネル
+     * @param options 設定するオプション
+     */
+    private void setOptions(ChannelMember sender, Channel channel, Map<String, String> options) {
 
         // 設定する
         boolean setOption = false;
@@ -376,8 +392,6 @@ public class OptionCommand extends LunaChatSubCommand {
         } else {
             channel.save();
         }
-
-        return true;
     }
 
 }
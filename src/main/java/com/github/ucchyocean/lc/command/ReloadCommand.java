@@ -6,10 +6,13 @@
 package com.github.ucchyocean.lc.command;
 
 import java.io.File;
+import java.util.logging.Level;
 
 import com.github.ucchyocean.lc.LunaChat;
 import com.github.ucchyocean.lc.Messages;
 import com.github.ucchyocean.lc.member.ChannelMember;
+import com.github.ucchyocean.lc.member.PresenceRegistry;
+import com.github.ucchyocean.lc.util.StageTimer;
 
 /**
  * reloadコマンドの実行クラス
@@ -74,10 +77,16 @@ public class ReloadCommand extends LunaChatSubCommand {
     public boolean runCommand(
             ChannelMember sender, String label, String[] args) {
 
+        StageTimer timer = new StageTimer();
         api.reloadAllData();
+        timer.mark("channels");
         config.reloadConfig(LunaChat.getDataFolder(), LunaChat.getPluginJarFile());
+        timer.mark("config");
         Messages.initialize(new File(LunaChat.getDataFolder(), "messages"),
                 LunaChat.getPluginJarFile(), config.getLang());
+        timer.mark("messages");
+        PresenceRegistry.refreshPermissions();
+        LunaChat.getPlugin().log(Level.INFO, "LunaChat data reloaded in " + timer);
         sender.sendMessage(Messages.cmdmsgReload());
         return true;
     }
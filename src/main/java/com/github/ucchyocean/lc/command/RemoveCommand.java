@@ -107,9 +107,12 @@ public class RemoveCommand extends LunaChatSubCommand {
         }
 
         // チャンネル削除
-        if ( api.removeChannel(cname, sender) ) {
-            sender.sendMessage(Messages.cmdmsgRemove(cname));
-        }
+        final String name = cname;
+        api.removeChannelAsync(name, sender).thenAccept(removed -> {
+            if ( removed ) {
+                sender.sendMessage(Messages.cmdmsgRemove(name));
+            }
+        });
         return true;
     }
 }
@@ -121,8 +121,7 @@ public class UnhideCommand extends LunaChatSubCommand {
             }
 
             // 設定する
-            channel.getHided().remove(sender);
-            channel.save();
+            channel.unhide(sender);
             sender.sendMessage(Messages.cmdmsgUnhided(channel.getName()));
 
             return true;
@@ -132,7 +131,7 @@ public class UnhideCommand extends LunaChatSubCommand {
 
             // 既に表示になっていないかどうかをチェックする
             ChannelMember hided = ChannelMember.getChannelMember(cname);
-            if ( !api.getHidelist(hided).contains(sender) ) {
+            if ( !api.isHiding(sender, hided) ) {
                 sender.sendMessage(Messages.errmsgAlreadyUnhidedPlayer());
                 return true;
             }
@@ -7,6 +7,7 @@ package com.github.ucchyocean.lc.event;
 
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import com.github.ucchyocean.lc.member.ChannelMember;
 
@@ -106,4 +107,127 @@ public interface EventSenderInterface {
      */
     public EventResult sendLunaChatPreChatEvent(
             String channelName, ChannelMember member, String message);
+
+    /**
+     * チャンネルチャットへの発言前に発生するイベントを、リスナーの処理の完了を待たずに実行する。<br/>
+     * 返されるFutureは、全てのリスナーの処理が終わってから完了する。
+     * @param channelName チャンネル名
+     * @param member 発言したメンバー
+     * @param message 発言内容
+     * @return イベント実行結果のFuture
+     */
+    public default CompletableFuture<EventResult> sendLunaChatPreChatEventAsync(
+            String channelName, ChannelMember member, String message) {
+        return CompletableFuture.completedFuture(
+                sendLunaChatPreChatEvent(channelName, member, message));
+    }
+
+    /**
+     * チャンネルチャットのチャットイベントを、リスナーの処理の完了を待たずに実行する。<br/>
+     * 返されるFutureは、全てのリスナーの処理が終わってから完了する。
+     * @param channelName チャンネル名
+     * @param member 発言者
+     * @param originalMessage 発言内容
+     * @param ngMaskedMessage 発言内容（NGマスク後）
+     * @param messageFormat 発言に適用されるフォーマット
+     * @return イベント実行結果のFuture
+     */
+    public default CompletableFuture<EventResult> sendLunaChatChannelChatEventAsync(
+            String channelName, ChannelMember member,
+            String originalMessage, String ngMaskedMessage,
+            String messageFormat) {
+        return CompletableFuture.completedFuture(sendLunaChatChannelChatEvent(
+                channelName, member, originalMessage, ngMaskedMessage, messageFormat));
+    }
+
+    /**
+     * チャンネルチャットのメッセージイベントを、リスナーの処理の完了を待たずに実行する。<br/>
+     * 返されるFutureは、全てのリスナーの処理が終わってから完了する。
+     * @param channelName チャンネル名
+     * @param member 発言者
+     * @param message 発言内容（NGマスクやJapanizeされた後の内容）
+     * @param recipients 受信者
+     * @param displayName 発言者の表示名
+     * @param originalMessage 発言内容（元々の内容）
+     * @return イベント実行結果のFuture
+     */
+    public default CompletableFuture<EventResult> sendLunaChatChannelMessageEventAsync(
+            String channelName, ChannelMember member, String message,
+            List<ChannelMember> recipients, String displayName,
+            String originalMessage) {
+        return CompletableFuture.completedFuture(sendLunaChatChannelMessageEvent(
+                channelName, member, message, recipients, displayName, originalMessage));
+    }
+
+    /**
+     * チャンネル作成イベントを、リスナーの処理の完了を待たずに実行する。<br/>
+     * 返されるFutureは、全てのリスナーの処理が終わってから完了する。
+     * @param channelName チャンネル名
+     * @param member 作成した人
+     * @return イベント実行結果のFuture
+     */
+    public default CompletableFuture<EventResult> sendLunaChatChannelCreateEventAsync(
+            String channelName, ChannelMember member) {
+        return CompletableFuture.completedFuture(
+                sendLunaChatChannelCreateEvent(channelName, member));
+    }
+
+    /**
+     * メンバー変更イベントを、リスナーの処理の完了を待たずに実行する。<br/>
+     * 返されるFutureは、全てのリスナーの処理が終わってから完了する。
+     * @param channelName チャンネル名
+     * @param before 変更前のメンバー
+     * @param after 変更後のメンバー
+     * @return イベント実行結果のFuture
+     */
+    public default CompletableFuture<EventResult> sendLunaChatChannelMemberChangedEventAsync(
+            String channelName, List<ChannelMember> before,
+            List<ChannelMember> after) {
+        return CompletableFuture.completedFuture(
+                sendLunaChatChannelMemberChangedEvent(channelName, before, after));
+    }
+
+    /**
+     * オプション変更イベントを、リスナーの処理の完了を待たずに実行する。<br/>
+     * 返されるFutureは、全てのリスナーの処理が終わってから完了する。
+     * @param channelName チャンネル名
+     * @param member オプションを変更した人
+     * @param options 変更後のオプション
+     * @return イベント実行結果のFuture
+     */
+    public default CompletableFuture<EventResult> sendLunaChatChannelOptionChangedEventAsync(
+            String channelName, ChannelMember member,
+            Map<String, String> options) {
+        return CompletableFuture.completedFuture(
+                sendLunaChatChannelOptionChangedEvent(channelName, member, options));
+    }
+
+    /**
+     * チャンネル削除イベントを、リスナーの処理の完了を待たずに実行する。<br/>
+     * 返されるFutureは、全てのリスナーの処理が終わってから完了する。
+     * @param channelName チャンネル名
+     * @param member 削除を実行した人
+     * @return イベント実行結果のFuture
+     */
+    public default CompletableFuture<EventResult> sendLunaChatChannelRemoveEventAsync(
+            String channelName, ChannelMember member) {
+        return CompletableFuture.completedFuture(
+                sendLunaChatChannelRemoveEvent(channelName, member));
+    }
+
+    /**
+     * Japanize変換が行われた後に呼び出されるイベントを、リスナーの処理の完了を待たずに実行する。<br/>
+     * 返されるFutureは、全てのリスナーの処理が終わってから完了する。
+     * @param channelName チャンネル名
+     * @param member 発言したメンバー
+     * @param original 変換前の文字列
+     * @param japanized 変換後の文字列
+     * @return イベント実行結果のFuture
+     */
+    public default CompletableFuture<EventResult> sendLunaChatPostJapanizeEventAsync(
+            String channelName, ChannelMember member,
+            String original, String japanized) {
+        return CompletableFuture.completedFuture(
+                sendLunaChatPostJapanizeEvent(channelName, member, original, japanized));
+    }
 }
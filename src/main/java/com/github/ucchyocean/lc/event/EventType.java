@@ -0,0 +1,70 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.event;
+
+/**
+ * LunaChatが発生させるイベントの種類
+ * @author ucchy
+ */
+public enum EventType {
+
+    /** チャンネルチャットのチャットイベント */
+    CHANNEL_CHAT("ChannelChat"),
+
+    /** チャンネル作成イベント */
+    CHANNEL_CREATE("ChannelCreate"),
+
+    /** メンバー変更イベント */
+    CHANNEL_MEMBER_CHANGED("ChannelMemberChanged"),
+
+    /** チャンネルチャットのメッセージイベント */
+    CHANNEL_MESSAGE("ChannelMessage"),
+
+    /** オプション変更イベント */
+    CHANNEL_OPTION_CHANGED("ChannelOptionChanged"),
+
+    /** チャンネル削除イベント */
+    CHANNEL_REMOVE("ChannelRemove"),
+
+    /** Japanize変換が行われた後のイベント */
+    POST_JAPANIZE("PostJapanize"),
+
+    /** チャンネルチャットへの発言前のイベント */
+    PRE_CHAT("PreChat");
+
+    private final String id;
+
+    /**
+     * コンストラクタ
+     * @param id 設定ファイルで指定するときの名前
+     */
+    EventType(String id) {
+        this.id = id;
+    }
+
+    /**
+     * 設定ファイルで指定するときの名前を返す
+     * @return 名前
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * 名前から種類を取得する。大文字小文字は区別しない。
+     * @param id 名前
+     * @return 種類、該当するものが無い場合はnull
+     */
+    public static EventType fromID(String id) {
+        if ( id == null ) return null;
+        for ( EventType type : values() ) {
+            if ( type.id.equalsIgnoreCase(id) || type.name().equalsIgnoreCase(id) ) {
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -107,6 +107,16 @@ public abstract class ChannelMember implements Comparable<ChannelMember> {
         return this.toString().equals(other.toString());
     }
 
+    /**
+     * ハッシュ値を返す。equals と整合させるため、toString の結果から算出する。
+     * @return ハッシュ値
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return this.toString().hashCode();
+    }
+
     /**
      * インスタンス同士の比較を行う。このメソッドを実装しておくことで、
      * Java8でのHashMapのキー挿入における高速化が期待できる（らしい）。
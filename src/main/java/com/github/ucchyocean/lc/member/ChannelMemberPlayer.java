@@ -12,13 +12,18 @@ package com.github.ucchyocean.lc.member;
 
 import com.github.ucchyocean.lc.LunaChat;
 import com.github.ucchyocean.lc.LunaChatVelocity;
+import com.velocitypowered.api.permission.Tristate;
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ServerConnection;
 import net.kyori.text.Component;
 import net.kyori.text.TextComponent;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * ChannelMemberのPlayer実装
@@ -26,22 +31,78 @@ import java.util.UUID;
  */
 public class ChannelMemberPlayer extends ChannelMemberVelocity {
 
-    private UUID id;
+    /**
+     * UUIDごとに1つだけ作成したインスタンスを保持するレジストリ。<br/>
+     * 値は弱参照なので、接続しておらず、どのチャンネルからも参照されていないインスタンスは、GCで回収される。
+     * 接続中のプレイヤーは PresenceRegistry が、チャンネルのメンバーはメンバーリストが、強参照を持っている。
+     */
+    private static final ConcurrentHashMap<UUID, Entry> REGISTRY =
+            new ConcurrentHashMap<UUID, Entry>();
+
+    /** GCで回収されたインスタンスの弱参照が入るキュー */
+    private static final ReferenceQueue<ChannelMemberPlayer> COLLECTED =
+            new ReferenceQueue<ChannelMemberPlayer>();
+
+    private final UUID id;
+    private final String idString;
+    private final int hash;
+
+    /** 接続中の Player（PresenceRegistry が設定する、切断中は null） */
+    private volatile Player player;
+
+    /** 今いるサーバー名（PresenceRegistry が設定する） */
+    private volatile String serverName;
+
+    /** パーミッションの問い合わせ結果のキャッシュ */
+    private volatile PermissionSnapshot permissions;
 
     /**
      * コンストラクタ
-     * @param id プレイヤーID
+     * @param id UUID
      */
-    public ChannelMemberPlayer(String id) {
-        this.id = UUID.fromString(id);
+    private ChannelMemberPlayer(UUID id) {
+        this.id = id;
+        this.idString = "$" + id.toString();
+        this.hash = idString.hashCode();
     }
 
     /**
-     * コンストラクタ
+     * UUIDからChannelMemberPlayerを取得する。同じUUIDに対しては常に同じインスタンスが返される。
      * @param id UUID
+     * @return ChannelMemberPlayer
      */
-    public ChannelMemberPlayer(UUID id) {
-        this.id = id;
+    public static ChannelMemberPlayer getChannelMember(UUID id) {
+        Entry entry = REGISTRY.get(id);
+        ChannelMemberPlayer member = (entry != null) ? entry.get() : null;
+        if ( member != null ) {
+            return member;
+        }
+
+        expunge();
+        while ( true ) {
+            ChannelMemberPlayer created = new ChannelMemberPlayer(id);
+            Entry current = REGISTRY.putIfAbsent(id, new Entry(created));
+            if ( current == null ) {
+                return created;
+            }
+            member = current.get();
+            if ( member != null ) {
+                return member;
+            }
+            // 回収済みのエントリが残っていたので、置き換えてやり直す
+            REGISTRY.remove(id, current);
+        }
+    }
+
+    /**
+     * GCで回収されたインスタンスのエントリを、レジストリから取り除く
+     */
+    private static void expunge() {
+        Reference<? extends ChannelMemberPlayer> ref;
+        while ( (ref = COLLECTED.poll()) != null ) {
+            Entry entry = (Entry)ref;
+            REGISTRY.remove(entry.id, entry);
+        }
     }
 
     /**
@@ -51,21 +112,95 @@ public class ChannelMemberPlayer extends ChannelMemberVelocity {
      */
     public static ChannelMemberPlayer getChannelMember(String nameOrUuid) {
         if ( nameOrUuid.startsWith("$") ) {
-            return new ChannelMemberPlayer(UUID.fromString(nameOrUuid.substring(1)));
+            return getChannelMember(UUID.fromString(nameOrUuid.substring(1)));
         } else {
             Optional<Player> player = LunaChatVelocity.PROXY.getPlayer(nameOrUuid);
-            if ( player.isPresent() ) return new ChannelMemberPlayer(player.get().getUniqueId());
+            if ( player.isPresent() ) return getChannelMember(player.get().getUniqueId());
         }
         return null;
     }
 
+    /**
+     * UUIDを返す
+     * @return UUID
+     */
+    public UUID getUniqueId() {
+        return id;
+    }
+
+    /**
+     * 接続中の Player を設定する
+     * @param player Player
+     */
+    void attach(Player player) {
+        this.player = player;
+    }
+
+    /**
+     * 切断したので、Player とサーバー名をクリアする
+     */
+    void detach() {
+        this.player = null;
+        this.serverName = null;
+        this.permissions = null;
+    }
+
+    /**
+     * 今いるサーバー名を設定する
+     * @param serverName サーバー名
+     */
+    void setServerName(String serverName) {
+        this.serverName = serverName;
+    }
+
+    /**
+     * パーミッションのキャッシュを作り直す
+     */
+    void refreshPermissions() {
+        Player p = player;
+        PermissionSnapshot snapshot = (p != null) ? PermissionSnapshot.create(p) : null;
+        permissions = snapshot;
+        if ( snapshot != null ) {
+            PresenceRegistry.updateListenAll(this,
+                    snapshot.get(PresenceRegistry.PERMISSION_LISTEN_ALL).asBoolean());
+        }
+    }
+
+    /**
+     * パーミッションのキャッシュの有効期限が切れていたら、作り直す
+     * @param now 現在時刻
+     */
+    void checkPermissions(long now) {
+        Player p = player;
+        PermissionSnapshot snapshot = permissions;
+        if ( p != null && (snapshot == null || !snapshot.isValid(p, now)) ) {
+            refreshPermissions();
+        }
+    }
+
+    /**
+     * パーミッションノードの値を、キャッシュを使って取得する
+     * @param p プレイヤー
+     * @param node パーミッションノード
+     * @return 値
+     */
+    private Tristate getPermissionValue(Player p, String node) {
+        long now = System.currentTimeMillis();
+        checkPermissions(now);
+        PermissionSnapshot snapshot = permissions;
+        if ( snapshot == null || !snapshot.isValid(p, now) ) {
+            return p.getPermissionValue(node);
+        }
+        return snapshot.get(node);
+    }
+
     /**
      * オンラインかどうか
      * @return オンラインかどうか
      */
     @Override
     public boolean isOnline() {
-        return (LunaChatVelocity.PROXY.getPlayer(id).isPresent());
+        return player != null;
     }
 
     /**
@@ -74,14 +209,14 @@ public class ChannelMemberPlayer extends ChannelMemberVelocity {
      */
     @Override
     public String getName() {
+        Player p = player;
+        if ( p != null ) {
+            return p.getUsername();
+        }
         String cache = LunaChat.getUUIDCacheData().get(id.toString());
         if ( cache != null ) {
             return cache;
         }
-        Optional<Player> player = getPlayer();
-        if (player.isPresent()) {
-            return player.get().getUsername();
-        }
         return id.toString();
     }
 
@@ -91,10 +226,6 @@ public class ChannelMemberPlayer extends ChannelMemberVelocity {
      */
     @Override
     public String getDisplayName() {
-        Optional<Player> player = getPlayer();
-        if (player.isPresent()) {
-            return player.get().getUsername();
-        }
         return getName();
     }
 
@@ -143,8 +274,10 @@ public class ChannelMemberPlayer extends ChannelMemberVelocity {
     @Override
     public void sendMessage(String message) {
         if ( message == null || message.isEmpty() ) return;
-        Optional<Player> player = getPlayer();
-        player.ifPresent(value -> value.sendMessage(TextComponent.of(message)));
+        Player p = player;
+        if ( p != null ) {
+            p.sendMessage(TextComponent.of(message));
+        }
     }
 
     /**
@@ -154,8 +287,10 @@ public class ChannelMemberPlayer extends ChannelMemberVelocity {
      */
     public void sendMessage(Component message) {
         if ( message == null ) return;
-        Optional<Player> player = getPlayer();
-        player.ifPresent(value -> value.sendMessage(message));
+        Player p = player;
+        if ( p != null ) {
+            p.sendMessage(message);
+        }
     }
 
     /**
@@ -165,8 +300,8 @@ public class ChannelMemberPlayer extends ChannelMemberVelocity {
      */
     @Override
     public boolean hasPermission(String node) {
-        Optional<Player> player = getPlayer();
-        return player.map(value -> value.hasPermission(node)).orElse(false);
+        Player p = player;
+        return p != null && getPermissionValue(p, node).asBoolean();
     }
 
     /**
@@ -177,8 +312,8 @@ public class ChannelMemberPlayer extends ChannelMemberVelocity {
      */
     @Override
     public boolean isPermissionSet(String node) {
-        Optional<Player> player = getPlayer();
-        return player.map(value -> value.getPermissionValue(node).asBoolean()).orElse(false);
+        Player p = player;
+        return p != null && getPermissionValue(p, node) != Tristate.UNDEFINED;
     }
 
     /**
@@ -187,8 +322,10 @@ public class ChannelMemberPlayer extends ChannelMemberVelocity {
      * @see com.github.ucchyocean.lc.member.ChannelMember#chat(String)
      */
     public void chat(String message) {
-        Optional<Player> player = getPlayer();
-        player.ifPresent(value -> value.spoofChatInput(message));
+        Player p = player;
+        if ( p != null ) {
+            p.spoofChatInput(message);
+        }
     }
 
     /**
@@ -197,7 +334,34 @@ public class ChannelMemberPlayer extends ChannelMemberVelocity {
      */
     @Override
     public String toString() {
-        return "$" + id.toString();
+        return idString;
+    }
+
+    /**
+     * 同一のオブジェクトかどうかを返す
+     * @param other 他方のオブジェクト
+     * @return 同一かどうか
+     * @see com.github.ucchyocean.lc.member.ChannelMember#equals(Object)
+     */
+    @Override
+    public boolean equals(Object other) {
+        if ( this == other ) {
+            return true;
+        }
+        if ( other instanceof ChannelMemberPlayer ) {
+            return id.equals(((ChannelMemberPlayer)other).id);
+        }
+        return super.equals(other);
+    }
+
+    /**
+     * ハッシュ値を返す
+     * @return ハッシュ値
+     * @see com.github.ucchyocean.lc.member.ChannelMember#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return hash;
     }
 
     /**
@@ -206,7 +370,7 @@ public class ChannelMemberPlayer extends ChannelMemberVelocity {
      */
     @Override
     public Optional<Player> getPlayer() {
-        return LunaChatVelocity.PROXY.getPlayer(id);
+        return Optional.ofNullable(player);
     }
 
     /**
@@ -215,7 +379,34 @@ public class ChannelMemberPlayer extends ChannelMemberVelocity {
      */
     @Override
     public Optional<ServerConnection> getServer() {
-        Optional<Player> player = getPlayer();
-        return player.map(Player::getCurrentServer).orElse(null);
+        Player p = player;
+        if ( p == null ) {
+            return Optional.empty();
+        }
+        return p.getCurrentServer();
+    }
+
+    /**
+     * 発言者が今いるサーバーのサーバー名を取得する
+     * @return サーバー名
+     * @see com.github.ucchyocean.lc.member.ChannelMemberVelocity#getServerName()
+     */
+    @Override
+    public String getServerName() {
+        String name = serverName;
+        return (name != null) ? name : "";
+    }
+
+    /**
+     * レジストリのエントリ。インスタンスを弱参照で持ち、取り除くときのためにUUIDを覚えておく。
+     */
+    private static class Entry extends WeakReference<ChannelMemberPlayer> {
+
+        private final UUID id;
+
+        private Entry(ChannelMemberPlayer member) {
+            super(member, COLLECTED);
+            this.id = member.id;
+        }
     }
 }
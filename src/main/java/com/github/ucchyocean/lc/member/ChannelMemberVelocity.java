@@ -59,7 +59,7 @@ public abstract class ChannelMemberVelocity extends ChannelMember {
     public static ChannelMemberVelocity getChannelMemberVelocity(Object sender) {
         if (!(sender instanceof CommandSource)) return null;
         if ( sender instanceof Player ) {
-            return new ChannelMemberPlayer(((Player)sender).getUniqueId());
+            return ChannelMemberPlayer.getChannelMember(((Player)sender).getUniqueId());
         } else {
             // ProxiedPlayer以外のCommandSenderは、ConsoleSenderしかないはず
             return new ChannelMemberVelocityConsole((CommandSource) sender);
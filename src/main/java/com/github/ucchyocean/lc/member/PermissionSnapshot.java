@@ -0,0 +1,99 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.member;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.ucchyocean.lc.LunaChat;
+import com.github.ucchyocean.lc.LunaChatConfig;
+import com.velocitypowered.api.permission.Tristate;
+import com.velocitypowered.api.proxy.Player;
+
+/**
+ * プレイヤーのパーミッションの問い合わせ結果を保持するクラス。<br/>
+ * 一度問い合わせたノードの結果は、有効期限が切れるまで使いまわされる。
+ * @author ucchy
+ */
+final class PermissionSnapshot {
+
+    /** あらかじめ問い合わせておくパーミッションノード */
+    private static final String[] PRELOAD_NODES = {
+            PresenceRegistry.PERMISSION_LISTEN_ALL,
+            "lunachat.allowcc",
+            "lunachat-admin.mod-all-channels",
+    };
+
+    private final Player player;
+    private final ConcurrentHashMap<String, Tristate> values;
+    private final long expiresAt;
+
+    /**
+     * コンストラクタ
+     * @param player プレイヤー
+     * @param expiresAt 有効期限（System.currentTimeMillis() の値）
+     */
+    private PermissionSnapshot(Player player, long expiresAt) {
+        this.player = player;
+        this.values = new ConcurrentHashMap<String, Tristate>();
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * 指定したプレイヤーのスナップショットを作成する。
+     * キャッシュが無効に設定されている場合は null を返す。
+     * @param player プレイヤー
+     * @return スナップショット、キャッシュが無効ならnull
+     */
+    static PermissionSnapshot create(Player player) {
+        int seconds = getCacheSeconds();
+        if ( seconds == 0 ) {
+            return null;
+        }
+        long expiresAt = (seconds < 0) ? Long.MAX_VALUE
+                : System.currentTimeMillis() + seconds * 1000L;
+        PermissionSnapshot snapshot = new PermissionSnapshot(player, expiresAt);
+        for ( String node : PRELOAD_NODES ) {
+            snapshot.get(node);
+        }
+        return snapshot;
+    }
+
+    /**
+     * パーミッションキャッシュの有効秒数を返す
+     * @return 有効秒数（0ならキャッシュしない、マイナスならリロードまで無期限）
+     */
+    static int getCacheSeconds() {
+        LunaChatConfig config = LunaChat.getConfig();
+        if ( config == null ) {
+            return 0;
+        }
+        return config.getPermissionCacheSeconds();
+    }
+
+    /**
+     * 指定したノードの値を取得する
+     * @param node パーミッションノード
+     * @return 値
+     */
+    Tristate get(String node) {
+        Tristate value = values.get(node);
+        if ( value == null ) {
+            value = player.getPermissionValue(node);
+            values.put(node, value);
+        }
+        return value;
+    }
+
+    /**
+     * このスナップショットが、指定したプレイヤーのものであり、有効期限内かどうか
+     * @param player プレイヤー
+     * @param now 現在時刻
+     * @return 有効かどうか
+     */
+    boolean isValid(Player player, long now) {
+        return this.player == player && now < expiresAt;
+    }
+}
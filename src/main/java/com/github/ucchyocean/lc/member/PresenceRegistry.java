@@ -0,0 +1,178 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.member;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.velocitypowered.api.proxy.Player;
+
+/**
+ * 接続中のプレイヤーを管理するレジストリ。<br/>
+ * ログイン、ログアウト、サーバー移動のイベントで更新され、
+ * ChannelMemberPlayer に接続中の Player と、今いるサーバー名を持たせておく。
+ * これにより、発言のたびにプロキシへプレイヤーを問い合わせなくて済むようにする。
+ * @author ucchy
+ */
+public class PresenceRegistry {
+
+    /** 全チャンネルの発言を受信するパーミッション */
+    public static final String PERMISSION_LISTEN_ALL = "lunachat-admin.listen-all-channels";
+
+    /** パーミッションのキャッシュの有効期限を確認する間隔（ミリ秒） */
+    private static final long CHECK_INTERVAL = 1000L;
+
+    private static final ConcurrentHashMap<UUID, ChannelMemberPlayer> ONLINE =
+            new ConcurrentHashMap<UUID, ChannelMemberPlayer>();
+
+    /** 全チャンネルの発言を受信するパーミッションを持っている、接続中のプレイヤー */
+    private static final Set<ChannelMemberPlayer> LISTEN_ALL = ConcurrentHashMap.newKeySet();
+
+    private static volatile long nextCheck;
+
+    private PresenceRegistry() {
+        // インスタンス化しない
+    }
+
+    /**
+     * プレイヤーが接続したときに呼び出す
+     * @param player プレイヤー
+     * @return プレイヤーに対応する ChannelMemberPlayer
+     */
+    public static ChannelMemberPlayer attach(Player player) {
+        ChannelMemberPlayer member = ChannelMemberPlayer.getChannelMember(player.getUniqueId());
+        member.attach(player);
+        player.getCurrentServer().ifPresent(server ->
+                member.setServerName(server.getServerInfo().getName()));
+        ONLINE.put(player.getUniqueId(), member);
+        member.refreshPermissions();
+        return member;
+    }
+
+    /**
+     * プレイヤーが切断したときに呼び出す
+     * @param player プレイヤー
+     */
+    public static void detach(Player player) {
+        ChannelMemberPlayer member = ONLINE.remove(player.getUniqueId());
+        if ( member != null ) {
+            LISTEN_ALL.remove(member);
+            member.detach();
+        }
+    }
+
+    /**
+     * プレイヤーが接続先のサーバーを移動したときに呼び出す
+     * @param player プレイヤー
+     * @param serverName 移動先のサーバー名
+     */
+    public static void updateServer(Player player, String serverName) {
+        ChannelMemberPlayer member = ONLINE.get(player.getUniqueId());
+        if ( member == null ) {
+            member = attach(player);
+        }
+        member.setServerName(serverName);
+
+        // サーバーによってパーミッションが変わることがあるので、キャッシュを作り直す
+        member.refreshPermissions();
+    }
+
+    /**
+     * 接続中の全てのプレイヤーの、パーミッションのキャッシュを作り直す。
+     * コンフィグのリロード時に呼び出す。
+     */
+    public static void refreshPermissions() {
+        for ( ChannelMemberPlayer member : ONLINE.values() ) {
+            member.refreshPermissions();
+        }
+    }
+
+    /**
+     * 全チャンネルの発言を受信するパーミッションを持っている、接続中のプレイヤーを返す
+     * @return 全チャンネルの発言を受信するプレイヤー
+     */
+    public static List<ChannelMember> getListenAllMembers() {
+
+        // キャッシュしない設定なら、全員に問い合わせる
+        if ( PermissionSnapshot.getCacheSeconds() == 0 ) {
+            List<ChannelMember> result = new ArrayList<ChannelMember>();
+            for ( ChannelMemberPlayer member : ONLINE.values() ) {
+                if ( member.hasPermission(PERMISSION_LISTEN_ALL) ) {
+                    result.add(member);
+                }
+            }
+            return result;
+        }
+
+        // 有効期限の切れたキャッシュを作り直す（作り直すときに LISTEN_ALL も更新される）
+        long now = System.currentTimeMillis();
+        if ( now >= nextCheck ) {
+            nextCheck = now + CHECK_INTERVAL;
+            for ( ChannelMemberPlayer member : ONLINE.values() ) {
+                member.checkPermissions(now);
+            }
+        }
+
+        return new ArrayList<ChannelMember>(LISTEN_ALL);
+    }
+
+    /**
+     * 全チャンネルの発言を受信するプレイヤーの一覧を更新する
+     * @param member プレイヤー
+     * @param listenAll パーミッションを持っているかどうか
+     */
+    static void updateListenAll(ChannelMemberPlayer member, boolean listenAll) {
+        if ( listenAll && ONLINE.get(member.getUniqueId()) == member ) {
+            LISTEN_ALL.add(member);
+        } else {
+            LISTEN_ALL.remove(member);
+        }
+    }
+
+    /**
+     * 全てのプレイヤーを登録し直す。プラグインの起動時に呼び出す。
+     * @param players 接続中の全てのプレイヤー
+     */
+    public static void reset(Collection<Player> players) {
+        for ( ChannelMemberPlayer member : ONLINE.values() ) {
+            member.detach();
+        }
+        ONLINE.clear();
+        LISTEN_ALL.clear();
+        for ( Player player : players ) {
+            attach(player);
+        }
+    }
+
+    /**
+     * 接続中のプレイヤー数を返す
+     * @return 接続中のプレイヤー数
+     */
+    public static int getOnlineCount() {
+        return ONLINE.size();
+    }
+
+    /**
+     * 接続中のプレイヤーを返す
+     * @return 接続中のプレイヤー
+     */
+    public static List<ChannelMember> getOnlineMembers() {
+        return new ArrayList<ChannelMember>(ONLINE.values());
+    }
+
+    /**
+     * 指定したUUIDのプレイヤーが接続中なら、そのChannelMemberPlayerを返す
+     * @param id UUID
+     * @return ChannelMemberPlayer、接続していない場合はnull
+     */
+    public static ChannelMemberPlayer getOnlineMember(UUID id) {
+        return ONLINE.get(id);
+    }
+}
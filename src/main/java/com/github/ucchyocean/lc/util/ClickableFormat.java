@@ -5,33 +5,25 @@
  */
 package com.github.ucchyocean.lc.util;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-import com.github.ucchyocean.lc.LunaChatVelocity;
 import net.kyori.text.Component;
-import net.kyori.text.ComponentBuilder;
-import net.kyori.text.ComponentBuilders;
 import net.kyori.text.TextComponent;
 import net.kyori.text.event.ClickEvent;
 import net.kyori.text.event.HoverEvent;
 import org.jetbrains.annotations.Nullable;
 
 import com.github.ucchyocean.lc.LunaChat;
-import com.github.ucchyocean.lc.LunaChatAPI;
 import com.github.ucchyocean.lc.Messages;
 import com.github.ucchyocean.lc.channel.Channel;
 import com.github.ucchyocean.lc.member.ChannelMember;
-import org.slf4j.Logger;
 
 
 /**
- * チャットのフォーマットを作成するユーティリティクラス
+ * チャットのフォーマットを作成するユーティリティクラス。<br/>
+ * フォーマットは、ただの文字列の部分と、クリック可能な部分（コマンド実行、コマンド入力補完）の
+ * セグメントのリストとして保持し、そこから直接 Component や文字列を作成する。
  * @author ucchy
  */
 public class ClickableFormat {
@@ -39,17 +31,12 @@ public class ClickableFormat {
     private static final String JOIN_COMMAND_TEMPLATE = "/lunachat join %s";
     private static final String TELL_COMMAND_TEMPLATE = "/tell %s";
 
-    private static final String PLACEHOLDER_RUN_COMMAND =
-            "＜type=RUN_COMMAND text=\"%s\" hover=\"%s\" command=\"%s\"＞";
-    private static final String PLACEHOLDER_SUGGEST_COMMAND =
-            "＜type=SUGGEST_COMMAND text=\"%s\" hover=\"%s\" command=\"%s\"＞";
-    private static final String PLACEHOLDER_PATTERN =
-            "＜type=(SUGGEST_COMMAND|RUN_COMMAND) text=\"([^\"]*)\" hover=\"([^\"]*)\" command=\"([^\"]*)\"＞";
+    private static final char COLOR_CHAR = '§';
 
-    private KeywordReplacer message;
+    private final List<Segment> segments;
 
-    private ClickableFormat(KeywordReplacer message) {
-        this.message = message;
+    private ClickableFormat() {
+        this.segments = new ArrayList<Segment>();
     }
 
     /**
@@ -73,84 +60,154 @@ public class ClickableFormat {
     public static ClickableFormat makeFormat(String format,
             @Nullable ChannelMember member, @Nullable Channel channel, boolean withPlayerLink) {
 
-        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd");
-        SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss");
+        CompiledFormat compiled;
+        if ( channel != null ) {
+            compiled = CompiledFormat.compileWithTemplates(format, LunaChat.getAPI());
+        } else {
+            compiled = CompiledFormat.compile(format);
+        }
+        return makeFormat(compiled, member, channel, withPlayerLink);
+    }
 
-        LunaChatAPI api = LunaChat.getAPI();
+    /**
+     * 解析済みのチャットフォーマット内のキーワードを置き換えする
+     * @param format 解析済みのチャットフォーマット
+     * @param member 発言者
+     * @param channel チャンネル
+     * @param withPlayerLink プレイヤー名の箇所にクリック可能なプレースホルダーを挿入するか
+     * @return 置き換え結果
+     */
+    public static ClickableFormat makeFormat(CompiledFormat format,
+            @Nullable ChannelMember member, @Nullable Channel channel, boolean withPlayerLink) {
 
-        KeywordReplacer msg = new KeywordReplacer(format);
+        ClickableFormat result = new ClickableFormat();
 
-        //msg.replace("%msg", message);
+        for ( Object token : format.getTokens() ) {
 
-        if ( channel != null ) {
+            if ( !(token instanceof CompiledFormat.Keyword) ) {
+                result.appendText((String)token);
+                continue;
+            }
 
-            // テンプレートのキーワードを、まず最初に置き換える
-            for ( int i=0; i<=9; i++ ) {
-                String key = "%" + i;
-                if ( msg.contains(key) ) {
-                    if ( api.getTemplate("" + i) != null ) {
-                        msg.replace(key, api.getTemplate("" + i));
-                        break;
-                    }
-                }
+            CompiledFormat.Keyword keyword = (CompiledFormat.Keyword)token;
+            boolean replaced;
+
+            switch ( keyword ) {
+            case DATE:
+                result.appendText(CompiledFormat.getCurrentDate());
+                replaced = true;
+                break;
+            case TIME:
+                result.appendText(CompiledFormat.getCurrentTime());
+                replaced = true;
+                break;
+            case CHANNEL:
+            case COLOR:
+            case TO:
+            case RECIEVER_SERVER:
+                replaced = (channel != null) && result.appendChannelKeyword(keyword, channel);
+                break;
+            default:
+                replaced = (member != null) && result.appendMemberKeyword(keyword, member, withPlayerLink);
+                break;
             }
 
-            // チャンネル関連のキーワード置き換え
-            msg.replace("%ch", String.format(
-                    PLACEHOLDER_RUN_COMMAND,
-                    channel.getName(),
-                    Messages.hoverChannelName(channel.getName()),
-                    String.format(JOIN_COMMAND_TEMPLATE, channel.getName())));
-            msg.replace("%color", channel.getColorCode());
-            if ( channel.getPrivateMessageTo() != null ) {
-                msg.replace("%to", String.format(
-                        PLACEHOLDER_SUGGEST_COMMAND,
-                        channel.getPrivateMessageTo().getDisplayName(),
-                        Messages.hoverPlayerName(channel.getPrivateMessageTo().getName()),
-                        String.format(TELL_COMMAND_TEMPLATE, channel.getPrivateMessageTo().getName())));
-                msg.replace("%recieverserver", channel.getPrivateMessageTo().getServerName());
+            // 置き換えられないキーワードは、そのまま残す
+            if ( !replaced ) {
+                result.appendText(keyword.getKey());
             }
         }
 
-        if ( msg.contains("%date") ) {
-            msg.replace("%date", dateFormat.format(new Date()));
-        }
-        if ( msg.contains("%time") ) {
-            msg.replace("%time", timeFormat.format(new Date()));
+        return result;
+    }
+
+    /**
+     * チャンネル関連のキーワードを置き換えて追加する
+     * @param keyword キーワード
+     * @param channel チャンネル
+     * @return 置き換えたかどうか
+     */
+    private boolean appendChannelKeyword(CompiledFormat.Keyword keyword, Channel channel) {
+
+        ChannelMember to = channel.getPrivateMessageTo();
+
+        switch ( keyword ) {
+        case CHANNEL:
+            appendClickable(ClickEvent.Action.RUN_COMMAND,
+                    channel.getName(),
+                    Messages.hoverChannelName(channel.getName()),
+                    String.format(JOIN_COMMAND_TEMPLATE, channel.getName()));
+            return true;
+        case COLOR:
+            appendText(channel.getColorCode());
+            return true;
+        case TO:
+            if ( to == null ) {
+                return false;
+            }
+            appendClickable(ClickEvent.Action.SUGGEST_COMMAND,
+                    to.getDisplayName(),
+                    Messages.hoverPlayerName(to.getName()),
+                    String.format(TELL_COMMAND_TEMPLATE, to.getName()));
+            return true;
+        case RECIEVER_SERVER:
+            if ( to == null ) {
+                return false;
+            }
+            appendText(to.getServerName());
+            return true;
+        default:
+            return false;
         }
+    }
 
-        if ( member != null ) {
+    /**
+     * ChannelMember関連のキーワードを置き換えて追加する
+     * @param keyword キーワード
+     * @param member 発言者
+     * @param withPlayerLink プレイヤー名の箇所をクリック可能にするか
+     * @return 置き換えたかどうか
+     */
+    private boolean appendMemberKeyword(
+            CompiledFormat.Keyword keyword, ChannelMember member, boolean withPlayerLink) {
 
-            // ChannelMember関連のキーワード置き換え
+        switch ( keyword ) {
+        case DISPLAY_NAME:
+        case USER_NAME:
             if ( withPlayerLink ) {
-                String playerPMPlaceHolder = String.format(
-                        PLACEHOLDER_SUGGEST_COMMAND,
+                appendClickable(ClickEvent.Action.SUGGEST_COMMAND,
                         member.getDisplayName(),
                         Messages.hoverPlayerName(member.getName()),
                         String.format(TELL_COMMAND_TEMPLATE, member.getName()));
-                msg.replace("%displayname", playerPMPlaceHolder);
-                msg.replace("%username", playerPMPlaceHolder);
-                msg.replace("%player", String.format(
-                        PLACEHOLDER_SUGGEST_COMMAND,
+            } else {
+                appendText(member.getDisplayName());
+            }
+            return true;
+        case PLAYER:
+            if ( withPlayerLink ) {
+                appendClickable(ClickEvent.Action.SUGGEST_COMMAND,
                         member.getName(),
                         Messages.hoverPlayerName(member.getName()),
-                        String.format(TELL_COMMAND_TEMPLATE, member.getName())));
+                        String.format(TELL_COMMAND_TEMPLATE, member.getName()));
             } else {
-                msg.replace("%displayname", member.getDisplayName());
-                msg.replace("%username", member.getDisplayName());
-                msg.replace("%player", member.getName());
-            }
-
-            if ( msg.contains("%prefix") || msg.contains("%suffix") ) {
-                msg.replace("%prefix", member.getPrefix());
-                msg.replace("%suffix", member.getSuffix());
+                appendText(member.getName());
             }
-
-            msg.replace("%world", member.getWorldName());
-            msg.replace("%server", member.getServerName());
+            return true;
+        case PREFIX:
+            appendText(member.getPrefix());
+            return true;
+        case SUFFIX:
+            appendText(member.getSuffix());
+            return true;
+        case WORLD:
+            appendText(member.getWorldName());
+            return true;
+        case SERVER:
+            appendText(member.getServerName());
+            return true;
+        default:
+            return false;
         }
-
-        return new ClickableFormat(msg);
     }
 
     /**
@@ -161,15 +218,21 @@ public class ClickableFormat {
      */
     public static ClickableFormat makeChannelClickableMessage(String format, String channelName) {
 
-        KeywordReplacer msg = new KeywordReplacer(format);
+        ClickableFormat result = new ClickableFormat();
         String stripped = Utility.stripColorCode(channelName);
-        msg.replace("%channel%", String.format(
-                PLACEHOLDER_RUN_COMMAND,
-                channelName,
-                Messages.hoverChannelName(stripped),
-                String.format(JOIN_COMMAND_TEMPLATE, stripped)));
+        String hover = Messages.hoverChannelName(stripped);
+        String command = String.format(JOIN_COMMAND_TEMPLATE, stripped);
+
+        int index = 0;
+        int found;
+        while ( (found = format.indexOf("%channel%", index)) > -1 ) {
+            result.appendText(format.substring(index, found));
+            result.appendClickable(ClickEvent.Action.RUN_COMMAND, channelName, hover, command);
+            index = found + "%channel%".length();
+        }
+        result.appendText(format.substring(index));
 
-        return new ClickableFormat(msg);
+        return result;
     }
 
     /**
@@ -185,75 +248,161 @@ public class ClickableFormat {
         return makeFormat(format, member, null, false).toLegacyText();
     }
 
+    /**
+     * カラーコード（&a）を変換して、Componentを作成する。
+     * クリック可能な部分には、直前の文字列のカラーコードが引き継がれる。
+     * @return Component
+     */
     public Component makeTextComponent() {
 
-        message.translateColorCode();
-
         List<Component> components = new ArrayList<>();
-        Matcher matcher = Pattern.compile(PLACEHOLDER_PATTERN).matcher(message.getStringBuilder());
-        int lastIndex = 0;
+        String colorState = "";
 
-        while ( matcher.find() ) {
+        for ( Segment segment : segments ) {
 
-            // マッチする箇所までの文字列を取得する
-            if ( lastIndex < matcher.start() ) {
-                components.add(TextComponent.of(message.substring(lastIndex, matcher.start())));
-            }
+            segment.text = Utility.replaceColorCode(segment.text);
 
-            // マッチした箇所の文字列を解析して追加する
-            String type = matcher.group(1);
-            String text = matcher.group(2);
-            String hover = matcher.group(3);
-            String command = matcher.group(4);
-            TextComponent tc = TextComponent.of(text);
-            if ( !hover.isEmpty() ) {
-                tc.hoverEvent(HoverEvent.showText(TextComponent.of(hover)));
-            }
-            if ( type.equals("RUN_COMMAND") ) {
-                tc.clickEvent(ClickEvent.runCommand(command));
-            } else { // type.equals("SUGGEST_COMMAND")
-                tc.clickEvent(ClickEvent.suggestCommand(command));
+            if ( segment.action == null ) {
+                if ( !segment.text.isEmpty() ) {
+                    components.add(TextComponent.of(segment.text));
+                    colorState = updateColorState(colorState, segment.text);
+                }
+                continue;
             }
 
-            // componentsの最後の要素のカラーコードを、TextComponentにも反映させる。 see issue #202
-            if ( components.size() > 0 ) {
-                Component last = components.get(components.size() - 1);
-                tc.color(last.color());
+            // 直前の文字列のカラーコードを、クリック可能な部分にも反映させる。 see issue #202
+            segment.hover = Utility.replaceColorCode(segment.hover);
+            TextComponent tc = TextComponent.of(colorState + segment.text);
+            if ( !segment.hover.isEmpty() ) {
+                tc = tc.hoverEvent(HoverEvent.showText(TextComponent.of(segment.hover)));
+            }
+            if ( segment.action == ClickEvent.Action.RUN_COMMAND ) {
+                tc = tc.clickEvent(ClickEvent.runCommand(segment.command));
+            } else { // ClickEvent.Action.SUGGEST_COMMAND
+                tc = tc.clickEvent(ClickEvent.suggestCommand(segment.command));
             }
-
-            LunaChatVelocity.getInstance().getLogger().info( "TC is "+ tc);
-
             components.add(tc);
-
-            lastIndex = matcher.end();
+            colorState = updateColorState(colorState, segment.text);
         }
 
-        if ( lastIndex < message.length() - 1 ) {
-            // 残りの部分の文字列を取得する
-            components.add(TextComponent.of(message.substring(lastIndex)));
-        }
         return TextComponent.builder().build().children(components);
     }
 
+    /**
+     * クリック可能な部分を表示テキストに置き換えた、文字列を返す
+     * @return 文字列
+     */
     public String toLegacyText() {
-
-        StringBuilder msg = new StringBuilder(message.toString());
-        Matcher matcher = Pattern.compile(PLACEHOLDER_PATTERN).matcher(msg);
-
-        while ( matcher.find(0) ) {
-            String text = matcher.group(2);
-            msg.replace(matcher.start(), matcher.end(), text);
+        StringBuilder msg = new StringBuilder();
+        for ( Segment segment : segments ) {
+            msg.append(segment.text);
         }
-
         return msg.toString();
     }
 
     @Override
     public String toString() {
-        return message.toString();
+        return toLegacyText();
     }
 
+    /**
+     * クリック可能な部分以外の文字列に含まれる、文字列keywordを、文字列valueに置き換える
+     * @param keyword キーワード
+     * @param value 値
+     */
     public void replace(String keyword, String value) {
-        message.replace(keyword, value);
+        for ( Segment segment : segments ) {
+            if ( segment.action == null && segment.text.contains(keyword) ) {
+                segment.text = segment.text.replace(keyword, value);
+            }
+        }
+    }
+
+    /**
+     * ただの文字列を追加する
+     * @param text 文字列
+     */
+    private void appendText(String text) {
+        if ( text == null || text.isEmpty() ) {
+            return;
+        }
+        if ( !segments.isEmpty() ) {
+            Segment last = segments.get(segments.size() - 1);
+            if ( last.action == null ) {
+                last.text = last.text + text;
+                return;
+            }
+        }
+        segments.add(new Segment(text, null, "", ""));
+    }
+
+    /**
+     * クリック可能な部分を追加する
+     * @param action クリック時の動作
+     * @param text 表示テキスト
+     * @param hover ホバーテキスト
+     * @param command コマンド
+     */
+    private void appendClickable(ClickEvent.Action action, String text, String hover, String command) {
+        segments.add(new Segment(text, action, hover, command));
+    }
+
+    /**
+     * 文字列に含まれるカラーコードから、その文字列の終わりの時点で有効なカラーコードを求める
+     * @param state 文字列の始まりの時点で有効なカラーコード
+     * @param text 文字列（カラーコードは変換済み）
+     * @return 文字列の終わりの時点で有効なカラーコード
+     */
+    private static String updateColorState(String state, String text) {
+
+        int index = text.indexOf(COLOR_CHAR);
+        if ( index < 0 ) {
+            return state;
+        }
+
+        StringBuilder current = new StringBuilder(state);
+        while ( index > -1 && index + 1 < text.length() ) {
+            char code = Character.toLowerCase(text.charAt(index + 1));
+            int next = index + 2;
+            if ( code == 'x' && index + 14 <= text.length() ) {
+                // §x§r§r§g§g§b§b 形式のRGBカラーコード
+                current.setLength(0);
+                current.append(text, index, index + 14);
+                next = index + 14;
+            } else if ( (code >= '0' && code <= '9') || (code >= 'a' && code <= 'f') || code == 'r' ) {
+                current.setLength(0);
+                current.append(COLOR_CHAR).append(code);
+            } else if ( code >= 'k' && code <= 'o' ) {
+                current.append(COLOR_CHAR).append(code);
+            }
+            index = text.indexOf(COLOR_CHAR, next);
+        }
+        return current.toString();
+    }
+
+    /**
+     * フォーマットを構成するセグメント
+     * @author ucchy
+     */
+    private static class Segment {
+
+        /** 表示テキスト */
+        private String text;
+
+        /** クリック時の動作（ただの文字列なら null） */
+        private final ClickEvent.Action action;
+
+        /** ホバーテキスト */
+        private String hover;
+
+        /** クリック時のコマンド */
+        private final String command;
+
+        private Segment(String text, ClickEvent.Action action, String hover, String command) {
+            this.text = (text == null) ? "" : text;
+            this.action = action;
+            this.hover = (hover == null) ? "" : hover;
+            this.command = (command == null) ? "" : command;
+        }
     }
 }
@@ -0,0 +1,326 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.util;
+
+/**
+ * カラーコードの変換と除去を、文字列を1回走査するだけで行うためのクラス。<br/>
+ * 以前は正規表現の replaceAll を何回も繰り返していたが、その結果と完全に同じになるように、
+ * 各置き換えを「直前の段の出力を1文字ずつ受け取る段」として連結して処理している。
+ * 除去によって前後の文字がつながり、後の段で新たに一致するケースも、この連結で再現される。<br/>
+ * インスタンスはスレッドごとに1つ作成され、出力用のバッファは使いまわされる。
+ * @author ucchy
+ */
+final class ColorCodeCodec {
+
+    private static final char COLOR_CHAR = '§';
+
+    private static final ThreadLocal<ColorCodeCodec> INSTANCE = new ThreadLocal<ColorCodeCodec>() {
+        @Override
+        protected ColorCodeCodec initialValue() {
+            return new ColorCodeCodec();
+        }
+    };
+
+    /** 使いまわすバッファの最大サイズ、これより大きくなったら作り直す */
+    private static final int MAX_KEEP_CAPACITY = 8192;
+
+    private StringBuilder out;
+
+    private final Output output;
+    private final ReplaceStage replace;
+    private final RemoveStage stripSection;
+    private final RemoveStage stripAmpersand;
+    private final RemoveStage stripHex3;
+    private final RemoveStage stripHex6;
+
+    /**
+     * コンストラクタ
+     */
+    private ColorCodeCodec() {
+        out = new StringBuilder();
+        output = new Output();
+        replace = new ReplaceStage(output);
+
+        // #rrggbb → #rgb → &x → §x の順に除去する
+        stripSection = new RemoveStage('§', 1, output);
+        stripAmpersand = new RemoveStage('&', 1, output);
+        stripHex3 = new RemoveStage('#', 3, stripAmpersand);
+        stripHex6 = new RemoveStage('#', 6, stripHex3);
+    }
+
+    /**
+     * &amp;a や #rgb、#rrggbb のカラーコード候補を、カラーコードに置き換える
+     * @param source 置き換え元
+     * @return 置き換え結果
+     */
+    static String replace(String source) {
+        if ( source.indexOf('&') < 0 && source.indexOf('#') < 0 ) {
+            return source;
+        }
+        return INSTANCE.get().run(source, false, false);
+    }
+
+    /**
+     * &amp;a や #rgb、#rrggbb のカラーコード候補を除去する
+     * @param source 除去元
+     * @return 除去結果
+     */
+    static String stripAlt(String source) {
+        if ( source.indexOf('&') < 0 && source.indexOf('#') < 0 ) {
+            return source;
+        }
+        return INSTANCE.get().run(source, true, false);
+    }
+
+    /**
+     * カラーコード候補と、カラーコード（§a）を除去する
+     * @param source 除去元
+     * @return 除去結果
+     */
+    static String strip(String source) {
+        if ( source.indexOf('&') < 0 && source.indexOf('#') < 0 && source.indexOf(COLOR_CHAR) < 0 ) {
+            return source;
+        }
+        return INSTANCE.get().run(source, true, true);
+    }
+
+    /**
+     * 変換を実行する
+     * @param source 変換元
+     * @param strip 除去するかどうか（false なら置き換える）
+     * @param withSection §a も除去するかどうか
+     * @return 変換結果
+     */
+    private String run(String source, boolean strip, boolean withSection) {
+
+        if ( out.capacity() > MAX_KEEP_CAPACITY ) {
+            out = new StringBuilder();
+        }
+        out.setLength(0);
+        output.target = out;
+
+        Stage first;
+        if ( !strip ) {
+            first = replace;
+        } else {
+            stripAmpersand.next = withSection ? stripSection : output;
+            first = stripHex6;
+        }
+
+        for ( int i = 0; i < source.length(); i++ ) {
+            first.accept(source.charAt(i));
+        }
+        first.finish();
+
+        output.target = null;
+        return out.toString();
+    }
+
+    /**
+     * 16進数の文字かどうか
+     */
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+
+    /**
+     * カラーコードとして置き換える文字かどうか（[0-9a-fk-orA-FK-OR]）
+     */
+    private static boolean isReplaceableCode(char c) {
+        return isHex(c) || (c >= 'k' && c <= 'o') || c == 'r' || (c >= 'K' && c <= 'O') || c == 'R';
+    }
+
+    /**
+     * カラーコードとして除去する文字かどうか（[0-9a-fk-orxA-FK-ORX]）
+     */
+    private static boolean isStrippableCode(char c) {
+        return isReplaceableCode(c) || c == 'x' || c == 'X';
+    }
+
+    /**
+     * 1文字ずつ受け取って処理する段
+     */
+    private static abstract class Stage {
+
+        /**
+         * 1文字受け取る
+         * @param c 文字
+         */
+        abstract void accept(char c);
+
+        /**
+         * 入力の終わりを受け取る
+         */
+        abstract void finish();
+    }
+
+    /**
+     * 最後の段、受け取った文字をバッファへ書き込む
+     */
+    private static class Output extends Stage {
+
+        private StringBuilder target;
+
+        @Override
+        void accept(char c) {
+            target.append(c);
+        }
+
+        @Override
+        void finish() {
+            // do nothing.
+        }
+    }
+
+    /**
+     * 指定した文字と、それに続く指定数のカラーコード文字を除去する段。<br/>
+     * 開始の文字はカラーコード文字に含まれないため、一致は開始の文字の位置からしか始まらず、
+     * 正規表現の replaceAll と同じ結果になる。
+     */
+    private static class RemoveStage extends Stage {
+
+        private final char trigger;
+        private final int length;
+        private final char[] pending;
+        private int pendingSize;
+        private Stage next;
+
+        RemoveStage(char trigger, int length, Stage next) {
+            this.trigger = trigger;
+            this.length = length;
+            this.pending = new char[length + 1];
+            this.next = next;
+        }
+
+        @Override
+        void accept(char c) {
+            if ( pendingSize > 0 ) {
+                boolean matches = (trigger == '#') ? isHex(c) : isStrippableCode(c);
+                if ( matches ) {
+                    pending[pendingSize++] = c;
+                    if ( pendingSize == length + 1 ) {
+                        // 一致したので、全て捨てる
+                        pendingSize = 0;
+                    }
+                    return;
+                }
+                flush();
+            }
+            if ( c == trigger ) {
+                pending[0] = c;
+                pendingSize = 1;
+            } else {
+                next.accept(c);
+            }
+        }
+
+        @Override
+        void finish() {
+            flush();
+            next.finish();
+        }
+
+        private void flush() {
+            for ( int i = 0; i < pendingSize; i++ ) {
+                next.accept(pending[i]);
+            }
+            pendingSize = 0;
+        }
+    }
+
+    /**
+     * #rrggbb、#rgb、&amp;a を、カラーコードに置き換える段。<br/>
+     * #rrggbb → #rgb → &amp;a の順に replaceAll した場合と同じ結果になる。
+     */
+    private static class ReplaceStage extends Stage {
+
+        private final Stage next;
+        private final char[] hex = new char[6];
+        private int hexSize = -1;
+        private boolean ampersand;
+
+        ReplaceStage(Stage next) {
+            this.next = next;
+        }
+
+        @Override
+        void accept(char c) {
+
+            if ( hexSize >= 0 ) {
+                if ( isHex(c) ) {
+                    hex[hexSize++] = c;
+                    if ( hexSize == 6 ) {
+                        emitRgb(hex[0], hex[1], hex[2], hex[3], hex[4], hex[5]);
+                        hexSize = -1;
+                    }
+                    return;
+                }
+                resolveHex();
+            } else if ( ampersand ) {
+                ampersand = false;
+                if ( isReplaceableCode(c) ) {
+                    next.accept(COLOR_CHAR);
+                    next.accept(c);
+                    return;
+                }
+                next.accept('&');
+            }
+
+            if ( c == '#' ) {
+                hexSize = 0;
+            } else if ( c == '&' ) {
+                ampersand = true;
+            } else {
+                next.accept(c);
+            }
+        }
+
+        @Override
+        void finish() {
+            if ( hexSize >= 0 ) {
+                resolveHex();
+            } else if ( ampersand ) {
+                ampersand = false;
+                next.accept('&');
+            }
+            next.finish();
+        }
+
+        /**
+         * 6桁に満たなかった # を処理する。3桁以上あれば #rgb として置き換える。
+         */
+        private void resolveHex() {
+            int start = 0;
+            if ( hexSize >= 3 ) {
+                emitRgb(hex[0], hex[0], hex[1], hex[1], hex[2], hex[2]);
+                start = 3;
+            } else {
+                next.accept('#');
+            }
+            for ( int i = start; i < hexSize; i++ ) {
+                next.accept(hex[i]);
+            }
+            hexSize = -1;
+        }
+
+        private void emitRgb(char r1, char r2, char g1, char g2, char b1, char b2) {
+            next.accept(COLOR_CHAR);
+            next.accept('x');
+            next.accept(COLOR_CHAR);
+            next.accept(r1);
+            next.accept(COLOR_CHAR);
+            next.accept(r2);
+            next.accept(COLOR_CHAR);
+            next.accept(g1);
+            next.accept(COLOR_CHAR);
+            next.accept(g2);
+            next.accept(COLOR_CHAR);
+            next.accept(b1);
+            next.accept(COLOR_CHAR);
+            next.accept(b2);
+        }
+    }
+}
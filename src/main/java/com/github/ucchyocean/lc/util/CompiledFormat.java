@@ -0,0 +1,243 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.util;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.github.ucchyocean.lc.LunaChatAPI;
+
+/**
+ * チャットフォーマットを、文字列とキーワードのトークン列に解析したもの。<br/>
+ * 発言のたびにフォーマット全体を何度も走査しなくて済むように、一度解析した結果を保持しておき、
+ * 置き換えはトークン列を先頭から1回なぞるだけで行う。
+ * @author ucchy
+ */
+public class CompiledFormat {
+
+    /**
+     * フォーマット内のキーワードの種類
+     * @author ucchy
+     */
+    public enum Keyword {
+
+        CHANNEL("%ch"),
+        COLOR("%color"),
+        TO("%to"),
+        RECIEVER_SERVER("%recieverserver"),
+        DATE("%date"),
+        TIME("%time"),
+        DISPLAY_NAME("%displayname"),
+        USER_NAME("%username"),
+        PLAYER("%player"),
+        PREFIX("%prefix"),
+        SUFFIX("%suffix"),
+        WORLD("%world"),
+        SERVER("%server");
+
+        private final String key;
+
+        Keyword(String key) {
+            this.key = key;
+        }
+
+        /**
+         * フォーマットに記載するキーワード文字列を返す
+         * @return キーワード
+         */
+        public String getKey() {
+            return key;
+        }
+    }
+
+    /** チャンネルに依存しないフォーマットのキャッシュの最大数 */
+    private static final int CACHE_LIMIT = 64;
+
+    /** チャンネルに依存しないフォーマットのキャッシュ */
+    private static final ConcurrentHashMap<String, CompiledFormat> CACHE =
+            new ConcurrentHashMap<String, CompiledFormat>();
+
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    /** 日時文字列のキャッシュ（1秒ごとに更新される） */
+    private static volatile DateTimeCache dateTimeCache = new DateTimeCache(Long.MIN_VALUE, "", "");
+
+    private final String source;
+    private final List<Object> tokens;
+
+    /**
+     * コンストラクタ
+     * @param source 解析元のフォーマット
+     * @param tokens トークン（String または Keyword）
+     */
+    private CompiledFormat(String source, List<Object> tokens) {
+        this.source = source;
+        this.tokens = Collections.unmodifiableList(tokens);
+    }
+
+    /**
+     * チャンネル用のフォーマットを解析する。テンプレートのキーワード（%0～%9）は、解析時に展開される。
+     * @param format フォーマット
+     * @param api テンプレートの取得に使用するAPI
+     * @return 解析結果
+     */
+    public static CompiledFormat compileWithTemplates(String format, LunaChatAPI api) {
+
+        String expanded = format;
+
+        // テンプレートのキーワードを、まず最初に置き換える
+        for ( int i=0; i<=9; i++ ) {
+            String key = "%" + i;
+            if ( expanded.contains(key) ) {
+                String template = api.getTemplate("" + i);
+                if ( template != null ) {
+                    expanded = expanded.replace(key, template);
+                    break;
+                }
+            }
+        }
+
+        return new CompiledFormat(format, tokenize(expanded));
+    }
+
+    /**
+     * チャンネルに依存しないフォーマットを解析する。解析結果はキャッシュされる。
+     * @param format フォーマット
+     * @return 解析結果
+     */
+    public static CompiledFormat compile(String format) {
+
+        CompiledFormat compiled = CACHE.get(format);
+        if ( compiled != null ) {
+            return compiled;
+        }
+
+        compiled = new CompiledFormat(format, tokenize(format));
+        if ( CACHE.size() >= CACHE_LIMIT ) {
+            CACHE.clear();
+        }
+        CACHE.put(format, compiled);
+        return compiled;
+    }
+
+    /**
+     * 解析元のフォーマットを返す
+     * @return フォーマット
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * トークン列を返す。各要素は、String（そのまま出力する文字列）または Keyword である。
+     * @return トークン列
+     */
+    public List<Object> getTokens() {
+        return tokens;
+    }
+
+    /**
+     * 現在の日付文字列（yyyy/MM/dd）を返す
+     * @return 日付
+     */
+    public static String getCurrentDate() {
+        return currentDateTime().date;
+    }
+
+    /**
+     * 現在の時刻文字列（HH:mm:ss）を返す
+     * @return 時刻
+     */
+    public static String getCurrentTime() {
+        return currentDateTime().time;
+    }
+
+    /**
+     * 日時文字列のキャッシュを取得する。秒が変わっていたら作り直す。
+     * @return キャッシュ
+     */
+    private static DateTimeCache currentDateTime() {
+        long now = System.currentTimeMillis() / 1000;
+        DateTimeCache cache = dateTimeCache;
+        if ( cache.second != now ) {
+            LocalDateTime time = LocalDateTime.now(ZoneId.systemDefault());
+            cache = new DateTimeCache(now, DATE_FORMAT.format(time), TIME_FORMAT.format(time));
+            dateTimeCache = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * フォーマットをトークン列に分解する
+     * @param format フォーマット
+     * @return トークン列
+     */
+    private static List<Object> tokenize(String format) {
+
+        List<Object> tokens = new ArrayList<Object>();
+        StringBuilder literal = new StringBuilder();
+        int index = 0;
+
+        while ( index < format.length() ) {
+            char c = format.charAt(index);
+            Keyword keyword = (c == '%') ? matchKeyword(format, index) : null;
+            if ( keyword == null ) {
+                literal.append(c);
+                index++;
+                continue;
+            }
+            if ( literal.length() > 0 ) {
+                tokens.add(literal.toString());
+                literal.setLength(0);
+            }
+            tokens.add(keyword);
+            index += keyword.getKey().length();
+        }
+
+        if ( literal.length() > 0 ) {
+            tokens.add(literal.toString());
+        }
+        return tokens;
+    }
+
+    /**
+     * 指定した位置から始まるキーワードを探す
+     * @param format フォーマット
+     * @param index 位置
+     * @return キーワード、無い場合は null
+     */
+    private static Keyword matchKeyword(String format, int index) {
+        for ( Keyword keyword : Keyword.values() ) {
+            if ( format.startsWith(keyword.getKey(), index) ) {
+                return keyword;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 日時文字列のキャッシュ
+     * @author ucchy
+     */
+    private static class DateTimeCache {
+
+        private final long second;
+        private final String date;
+        private final String time;
+
+        private DateTimeCache(long second, String date, String time) {
+            this.second = second;
+            this.date = date;
+            this.time = time;
+        }
+    }
+}
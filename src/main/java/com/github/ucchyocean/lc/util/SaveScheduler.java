@@ -0,0 +1,113 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * ファイルの保存をまとめて行うクラス。<br/>
+ * 変更があったファイルを記録しておき、一定時間ごとに、専用のスレッドでまとめて保存する。
+ * 同じファイルに何回変更があっても、1回の間隔で保存されるのは1回だけになる。<br/>
+ * 保存処理は、保存用のスレッドで実行される。変更を行うスレッドと同時に実行されても問題ないように、
+ * 保存する内容を変更時に作成しておくか、スレッドセーフなデータから読み取ること。
+ * @author ucchy
+ */
+public class SaveScheduler {
+
+    /** 保存する間隔（ミリ秒） */
+    private static final long INTERVAL = 1000L;
+
+    private static final ConcurrentHashMap<Object, Runnable> DIRTY = new ConcurrentHashMap<Object, Runnable>();
+    private static final AtomicBoolean SCHEDULED = new AtomicBoolean();
+    private static final Object LOCK = new Object();
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "LunaChat-Save");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private SaveScheduler() {
+        // インスタンス化しない
+    }
+
+    /**
+     * 保存が必要になったことを記録する。保存は、次の保存のタイミングでまとめて行われる。
+     * @param key 保存対象を識別するキー（保存先のファイルなど）
+     * @param saver 保存処理
+     */
+    public static void markDirty(Object key, Runnable saver) {
+        DIRTY.put(key, saver);
+        if ( !schedule() ) {
+            // 停止済みなので、すぐに保存する
+            flush();
+        }
+    }
+
+    /**
+     * 保存の予定を取り消す。保存先のファイルを削除する前に呼び出すこと。
+     * 保存の実行中であれば、完了するまで待つ。
+     * @param key 保存対象を識別するキー
+     */
+    public static void cancel(Object key) {
+        synchronized (LOCK) {
+            DIRTY.remove(key);
+        }
+    }
+
+    /**
+     * 保存が必要なものを、全て今すぐ保存する
+     */
+    public static void flush() {
+        synchronized (LOCK) {
+            for ( Object key : DIRTY.keySet() ) {
+                Runnable saver = DIRTY.remove(key);
+                if ( saver == null ) continue;
+                try {
+                    saver.run();
+                } catch (Throwable e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        if ( !DIRTY.isEmpty() ) {
+            schedule();
+        }
+    }
+
+    /**
+     * 次の保存を予約する。既に予約されている場合は何もしない。
+     * @return 予約されているかどうか（停止済みで予約できなかった場合はfalse）
+     */
+    private static boolean schedule() {
+        if ( !SCHEDULED.compareAndSet(false, true) ) {
+            return true;
+        }
+        try {
+            TIMER.schedule(() -> {
+                SCHEDULED.set(false);
+                flush();
+            }, INTERVAL, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            SCHEDULED.set(false);
+            return false;
+        }
+    }
+
+    /**
+     * 保存用のスレッドを停止する。保存が必要なものは、全て今すぐ保存する。
+     */
+    public static void shutdown() {
+        TIMER.shutdown();
+        flush();
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 処理の段階ごとにかかった時間を計測するクラス
+ * @author ucchy
+ */
+public class StageTimer {
+
+    private final long start;
+    private long last;
+    private final LinkedHashMap<String, Long> stages;
+
+    /**
+     * コンストラクタ、計測を開始する
+     */
+    public StageTimer() {
+        this.start = System.nanoTime();
+        this.last = start;
+        this.stages = new LinkedHashMap<String, Long>();
+    }
+
+    /**
+     * 前回の記録から今までの時間を、指定した段階の時間として記録する
+     * @param stage 段階の名前
+     */
+    public void mark(String stage) {
+        long now = System.nanoTime();
+        stages.put(stage, now - last);
+        last = now;
+    }
+
+    /**
+     * 開始してから今までの時間を返す
+     * @return 時間（ミリ秒）
+     */
+    public long getTotalMillis() {
+        return (System.nanoTime() - start) / 1000000L;
+    }
+
+    /**
+     * 計測結果を「123ms (config 12ms, channels 100ms)」の形式で返す
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append(getTotalMillis()).append("ms (");
+        boolean first = true;
+        for ( Map.Entry<String, Long> entry : stages.entrySet() ) {
+            if ( !first ) buf.append(", ");
+            buf.append(entry.getKey()).append(' ').append(entry.getValue() / 1000000L).append("ms");
+            first = false;
+        }
+        return buf.append(')').toString();
+    }
+}
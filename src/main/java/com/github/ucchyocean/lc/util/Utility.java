@@ -84,23 +84,7 @@ public class Utility {
      */
     public static String replaceColorCode(String source) {
         if (source == null) return null;
-        return replaceWebColorCode(source)
-                .replaceAll("&([0-9a-fk-orA-FK-OR])", "\u00A7$1");
-    }
-
-    /**
-     * Webカラーコード（#99AABBなど）を、カラーコードに置き換えする
-     * @param source 置き換え元の文字列
-     * @return 置き換え後の文字列
-     */
-    private static String replaceWebColorCode(String source) {
-        return source
-                .replaceAll(
-                        "#([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])",
-                        "\u00A7x\u00A7$1\u00A7$2\u00A7$3\u00A7$4\u00A7$5\u00A7$6")
-                .replaceAll(
-                        "#([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])",
-                        "\u00A7x\u00A7$1\u00A7$1\u00A7$2\u00A7$2\u00A7$3\u00A7$3");
+        return ColorCodeCodec.replace(source);
     }
 
     /**
@@ -110,7 +94,7 @@ public class Utility {
      */
     public static String stripColorCode(String source) {
         if (source == null) return null;
-        return stripAltColorCode(source).replaceAll("\u00A7([0-9a-fk-orxA-FK-ORX])", "");
+        return ColorCodeCodec.strip(source);
     }
 
     /**
@@ -120,8 +104,7 @@ public class Utility {
      */
     public static String stripAltColorCode(String source) {
         if (source == null) return null;
-        source = source.replaceAll("#[0-9a-fA-F]{6}", "").replaceAll("#[0-9a-fA-F]{3}", "");
-        return source.replaceAll("&([0-9a-fk-orxA-FK-ORX])", "");
+        return ColorCodeCodec.stripAlt(source);
     }
 
     /**
@@ -12,13 +12,16 @@ package com.github.ucchyocean.lc.velocity;
 
 import com.github.ucchyocean.lc.*;
 import com.github.ucchyocean.lc.channel.Channel;
+import com.github.ucchyocean.lc.channel.ChannelManager;
 import com.github.ucchyocean.lc.event.EventResult;
 import com.github.ucchyocean.lc.japanize.Japanizer;
 import com.github.ucchyocean.lc.member.ChannelMember;
 import com.github.ucchyocean.lc.member.ChannelMemberOther;
+import com.github.ucchyocean.lc.member.PresenceRegistry;
 import com.github.ucchyocean.lc.messaging.BukkitChatMessage;
 import com.github.ucchyocean.lc.util.ChatColor;
 import com.github.ucchyocean.lc.util.ClickableFormat;
+import com.github.ucchyocean.lc.util.StageTimer;
 import com.github.ucchyocean.lc.util.Utility;
 import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.event.Subscribe;
@@ -26,6 +29,7 @@ import com.velocitypowered.api.event.connection.DisconnectEvent;
 import com.velocitypowered.api.event.connection.PluginMessageEvent;
 import com.velocitypowered.api.event.connection.PostLoginEvent;
 import com.velocitypowered.api.event.player.PlayerChatEvent;
+import com.velocitypowered.api.event.player.ServerConnectedEvent;
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.server.RegisteredServer;
 import net.kyori.text.Component;
@@ -33,11 +37,13 @@ import net.kyori.text.TextComponent;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 
 public class VelocityEventListener {
     private static final int MAX_LIST_ITEMS = 8;
@@ -64,57 +70,66 @@ public class VelocityEventListener {
         LunaChatConfig config = LunaChat.getConfig();
         Player player = event.getPlayer();
 
-        // UUIDをキャッシュ
+        // 接続中のプレイヤーとして登録する
+        PresenceRegistry.attach(player);
+
+        // UUIDをキャッシュ（新しいデータだけが、保存用のスレッドでまとめて保存される）
         LunaChat.getUUIDCacheData().put(player.getUniqueId().toString(), player.getUsername());
-        LunaChat.getUUIDCacheData().save();
+
+        // 各チャンネルの受信者を更新する
+        LunaChatAPI api = LunaChat.getAPI();
+        if ( api instanceof ChannelManager ) {
+            ((ChannelManager)api).onPlayerJoin(ChannelMember.getChannelMember(player));
+        }
 
         // 強制参加チャンネル設定を確認し、参加させる
-        forceJoinToForceJoinChannels(player);
+        // NOTE: チャンネルの作成や参加は、イベントのリスナーの処理が終わってから行われる。
+        //       このリスナーもVelocityのイベント用のスレッドで処理されているので、完了を待たずに、続けて処理する。
+        forceJoinToForceJoinChannels(player).thenCompose(v -> {
 
-        // グローバルチャンネル設定がある場合
-        if ( !config.getGlobalChannel().equals("") ) {
-            tryJoinToGlobalChannel(player);
-        }
+            // グローバルチャンネル設定がある場合
+            if ( !config.getGlobalChannel().equals("") ) {
+                return tryJoinToGlobalChannel(player);
+            }
+            return CompletableFuture.completedFuture(null);
+
+        }).thenRun(() -> {
 
-        // チャンネルチャット情報を表示する
-        if ( config.isShowListOnJoin() ) {
-            for ( Component msg : getListForMotd(player) ) {
-                player.sendMessage(msg);
+            // チャンネルチャット情報を表示する
+            if ( config.isShowListOnJoin() ) {
+                for ( Component msg : getListForMotd(player) ) {
+                    player.sendMessage(msg);
+                }
             }
-        }
+
+        }).exceptionally(e -> {
+            e.printStackTrace();
+            return null;
+        });
     }
 
     @Subscribe
     public void onQuit(DisconnectEvent event) {
 
         Player player = event.getPlayer();
-        String pname = player.getUsername();
-
-        // お互いがオフラインになるPMチャンネルがある場合は
-        // チャンネルをクリアする
-        ArrayList<Channel> deleteList = new ArrayList<>();
-
-        for ( Channel channel : LunaChat.getAPI().getChannels() ) {
-            String cname = channel.getName();
-            if ( channel.isPersonalChat() && cname.contains(pname) ) {
-                boolean isAllOffline = true;
-                for ( ChannelMember cp : channel.getMembers() ) {
-                    if ( cp.isOnline() ) {
-                        isAllOffline = false;
-                    }
-                }
-                if ( isAllOffline ) {
-                    deleteList.add(channel);
-                }
-            }
-        }
 
-        for ( Channel channel : deleteList ) {
-            LunaChat.getAPI().removeChannel(
-                    channel.getName(), ChannelMember.getChannelMember(player));
+        // 接続中のプレイヤーから外す
+        PresenceRegistry.detach(player);
+
+        // 各チャンネルの受信者から外し、お互いがオフラインになる1:1チャットを破棄する
+        LunaChatAPI api = LunaChat.getAPI();
+        if ( api instanceof ChannelManager ) {
+            ((ChannelManager)api).onPlayerQuit(ChannelMember.getChannelMember(player));
         }
     }
 
+    @Subscribe
+    public void onServerConnected(ServerConnectedEvent event) {
+
+        // 今いるサーバー名を更新する
+        PresenceRegistry.updateServer(event.getPlayer(), event.getServer().getServerInfo().getName());
+    }
+
     @Subscribe
     public void onPluginMessageReceived(PluginMessageEvent event) {
 
@@ -157,14 +172,29 @@ public class VelocityEventListener {
         }
 
         // 発言内容を非同期で処理する
-        LunaChatVelocity.getInstance().runAsyncTask(() ->
-                processChat(ChannelMember.getChannelMember(event.getPlayer()), event.getMessage()));
+        // 同じプレイヤーの発言は、前の発言の処理（イベントを含む）が完了してから、発言した順番に処理する
+        ChannelMember member = ChannelMember.getChannelMember(event.getPlayer());
+        String message = event.getMessage();
+        LunaChat.runStagedTask(LunaChatExecutor.TaskType.CHAT, member,
+                () -> processChat(member, message)).whenComplete((v, e) -> {
+            // イベントはキャンセル済みなので、受け付けられなかった発言は、発言者に知らせる
+            Throwable cause = (e instanceof CompletionException) ? e.getCause() : e;
+            if ( cause instanceof RejectedExecutionException ) {
+                member.sendMessage(TextComponent.builder(Messages.errmsgChatBusy()).build());
+            }
+        });
 
         // イベントをキャンセル
         event.setResult(PlayerChatEvent.ChatResult.denied());
     }
 
-    private void processChat(ChannelMember member, String message) {
+    /**
+     * 発言を処理する
+     * @param member 発言者
+     * @param message 発言内容
+     * @return 発言の処理が完了したときに完了するFuture
+     */
+    private CompletableFuture<?> processChat(ChannelMember member, String message) {
         // 頭にglobalMarkerが付いている場合は、グローバル発言にする
         if ( config.getGlobalMarker() != null &&
                 !config.getGlobalMarker().equals("") &&
@@ -173,21 +203,19 @@ public class VelocityEventListener {
 
             int offset = config.getGlobalMarker().length();
             message = message.substring(offset);
-            chatGlobal(member, message);
-            return;
+            return chatGlobal(member, message);
         }
 
         // クイックチャンネルチャット機能が有効で、専用の記号が含まれるなら、
         // クイックチャンネルチャットとして処理する。
         if ( config.isEnableQuickChannelChat() ) {
             String separator = config.getQuickChannelChatSeparator();
-            if ( message.contains(separator) ) {
-                String[] temp = message.split(separator, 2);
-                String name = temp[0];
-                String value = "";
-                if ( temp.length > 0 ) {
-                    value = temp[1];
-                }
+            int index = separator.isEmpty() ? -1 : message.indexOf(separator);
+            String name = index >= 0 ? message.substring(0, index) : null;
+
+            // URLなどを含む発言でチャンネルを検索しないよう、チャンネル名になり得る形のときだけ検索する
+            if ( name != null && isChannelNameShaped(name) ) {
+                String value = message.substring(index + separator.length());
 
                 Channel channel = api.getChannel(name);
                 if ( channel != null ) {
@@ -196,12 +224,11 @@ public class VelocityEventListener {
                         // 指定されたチャンネルに参加していないなら、エラーを表示して何も発言せずに終了する。
                         member.sendMessage(
                                 TextComponent.builder(Messages.errmsgNomember()).build());
-                        return;
+                        return CompletableFuture.completedFuture(null);
                     }
 
                     // 指定されたチャンネルに発言して終了する。
-                    chatToChannelWithEvent(member, channel, value);
-                    return;
+                    return chatToChannelWithEvent(member, channel, value);
                 }
             }
         }
@@ -212,19 +239,36 @@ public class VelocityEventListener {
         if ( channel == null ) {
             if ( config.isNoJoinAsGlobal() ) {
                 // グローバル発言にする
-                chatGlobal(member, message);
-                return;
+                return chatGlobal(member, message);
 
             } else {
                 // 何もせずに終了する
-                return;
+                return CompletableFuture.completedFuture(null);
             }
         }
 
-        chatToChannelWithEvent(member, channel, message);
+        return chatToChannelWithEvent(member, channel, message);
     }
 
-    private void chatGlobal(ChannelMember member, String message) {
+    /**
+     * 指定された文字列が、チャンネル名または別名になり得る形をしているかどうかを返す
+     * @param name 文字列
+     * @return チャンネル名または別名になり得るかどうか
+     */
+    private boolean isChannelNameShaped(String name) {
+        if ( api instanceof ChannelManager ) {
+            return ((ChannelManager)api).isChannelNameShaped(name);
+        }
+        return !name.isEmpty();
+    }
+
+    /**
+     * グローバル発言を処理する
+     * @param member 発言者
+     * @param message 発言内容
+     * @return 発言の処理が完了したときに完了するFuture
+     */
+    private CompletableFuture<?> chatGlobal(ChannelMember member, String message) {
 
         LunaChatConfig config = LunaChat.getConfig();
 
@@ -233,26 +277,31 @@ public class VelocityEventListener {
 
             // グローバルチャンネルの取得、無ければ作成
             Channel global = api.getChannel(config.getGlobalChannel());
-            if ( global == null ) {
-                global = api.createChannel(config.getGlobalChannel(), member);
-            }
-
-            // デフォルト発言先が無いなら、グローバルチャンネルに設定する
-            Channel dchannel = api.getDefaultChannel(member.getName());
-            if ( dchannel == null ) {
-                api.setDefaultChannel(member.getName(), global.getName());
-            }
+            CompletableFuture<Channel> created = (global != null)
+                    ? CompletableFuture.completedFuture(global)
+                    : api.createChannelAsync(config.getGlobalChannel(), member);
+            final String gmessage = message;
+            return created.thenCompose(channel -> {
+                if ( channel == null ) {
+                    // イベントでキャンセルされた
+                    return CompletableFuture.completedFuture(true);
+                }
 
-            // チャンネルチャット発言
-            chatToChannelWithEvent(member, global, message);
+                // デフォルト発言先が無いなら、グローバルチャンネルに設定する
+                Channel dchannel = api.getDefaultChannel(member.getName());
+                if ( dchannel == null ) {
+                    api.setDefaultChannel(member.getName(), channel.getName());
+                }
 
-            return;
+                // チャンネルチャット発言
+                return chatToChannelWithEvent(member, channel, gmessage);
+            });
 
         } else {
             // グローバルチャンネル設定が無い場合
 
             // NGワードのマスク
-            message = maskNGWord(message, config.getNgwordCompiled());
+            message = config.getNgwordFilter().mask(message);
 
             // Japanizeをスキップするかどうかフラグ
             boolean skipJapanize = !LunaChat.getAPI().isPlayerJapanize(member.getName());
@@ -281,7 +330,7 @@ public class VelocityEventListener {
                 if ( japanize.length() > 0 ) {
 
                     // NGワードのマスク
-                    japanize = maskNGWord(japanize, config.getNgwordCompiled());
+                    japanize = config.getNgwordFilter().mask(japanize);
 
                     // フォーマット化してメッセージを上書きする
                     String japanizeFormat = config.getJapanizeDisplayLine() == 1 ?
@@ -301,11 +350,9 @@ public class VelocityEventListener {
             // hideされているプレイヤーを除くすべてのプレイヤーに、
             // 発言内容を送信する。
             Component msg = format.makeTextComponent();
-            List<ChannelMember> hidelist = api.getHidelist(member);
-
             for ( RegisteredServer info : parent.getProxy().getAllServers()) {
                 for ( Player player : info.getPlayersConnected() ) {
-                    if ( !containsHideList(player, hidelist) ) {
+                    if ( !api.isHiding(ChannelMember.getChannelMember(player), member) ) {
                         sendMessage(player, msg);
                     }
                 }
@@ -320,93 +367,100 @@ public class VelocityEventListener {
 
             // ログに記録する
             LunaChat.getNormalChatLogger().log(Utility.stripColorCode(result), member.getName());
+
+            return CompletableFuture.completedFuture(null);
         }
     }
 
     /**
-     * チャンネルに発言処理を行う
+     * チャンネルに発言処理を行う。LunaChatPreChatEvent のリスナーの処理が終わってから、チャンネルに発言する。
      * @param player プレイヤー
      * @param channel チャンネル
      * @param message 発言内容
-     * @return イベントでキャンセルされたかどうか
+     * @return 発言の処理が完了したときに完了するFuture、イベントでキャンセルされた場合はtrueを返す
      */
-    private boolean chatToChannelWithEvent(ChannelMember player, Channel channel, String message) {
+    private CompletableFuture<Boolean> chatToChannelWithEvent(ChannelMember player, Channel channel, String message) {
 
-        // LunaChatPreChatEvent イベントコール
-        EventResult result = LunaChat.getEventSender().sendLunaChatPreChatEvent(
+        StageTimer timer = new StageTimer();
 
+        // LunaChatPreChatEvent イベントコール
+        CompletableFuture<EventResult> event = LunaChat.getEventSender().sendLunaChatPreChatEventAsync(
                 channel.getName(), player, message);
-        if ( result.isCancelled() ) {
-            return true;
-        }
-        Channel alt = result.getChannel();
-        if ( alt != null ) {
-            channel = alt;
-        }
-        message = result.getMessage();
-
-        // チャンネルチャット発言
-        channel.chat(player, message);
+        return LunaChat.getExecutor().thenCompose(LunaChatExecutor.TaskType.CHAT, event, result -> {
+            timer.mark("pre-chat-event");
+            if ( result.isCancelled() ) {
+                return CompletableFuture.completedFuture(true);
+            }
+            Channel alt = result.getChannel();
+            Channel target = (alt != null) ? alt : channel;
 
-        return false;
+            // チャンネルチャット発言
+            return target.chatAsync(player, result.getMessage(), timer).thenApply(v -> false);
+        });
     }
 
     /**
-     * NGワードをマスクする
-     * @param message メッセージ
-     * @param ngwords NGワード
-     * @return マスクされたメッセージ
+     * 強制参加チャンネルへ参加させる。設定されている順番に、1つずつ参加させる。
+     * @param player プレイヤー
+     * @return 全てのチャンネルへの参加が完了したときに完了するFuture
      */
-    private String maskNGWord(String message, List<Pattern> ngwords) {
-        for ( Pattern pattern : ngwords ) {
-            Matcher matcher = pattern.matcher(message);
-            if ( matcher.find() ) {
-                message = matcher.replaceAll(
-                        Utility.getAstariskString(matcher.group(0).length()));
-            }
+    private CompletableFuture<Void> forceJoinToForceJoinChannels(Player player) {
+
+        LunaChatConfig config = LunaChat.getConfig();
+
+        List<String> forceJoinChannels = config.getForceJoinChannels();
+
+        CompletableFuture<Void> done = CompletableFuture.completedFuture(null);
+        for ( String cname : forceJoinChannels ) {
+            done = done.thenCompose(v -> forceJoinToChannel(player, cname));
         }
-        return message;
+        return done;
     }
 
     /**
      * 強制参加チャンネルへ参加させる
      * @param player プレイヤー
+     * @param cname チャンネル名
+     * @return 参加が完了したときに完了するFuture
      */
-    private void forceJoinToForceJoinChannels(Player player) {
+    private CompletableFuture<Void> forceJoinToChannel(Player player, String cname) {
 
-        LunaChatConfig config = LunaChat.getConfig();
         LunaChatAPI api = LunaChat.getAPI();
+        ChannelMember cp = ChannelMember.getChannelMember(player);
 
-        List<String> forceJoinChannels = config.getForceJoinChannels();
-
-        for ( String cname : forceJoinChannels ) {
-
-            // チャンネルが存在しない場合は作成する
-            Channel channel = api.getChannel(cname);
-            if ( channel == null ) {
-                channel = api.createChannel(cname, ChannelMember.getChannelMember(player));
+        // チャンネルが存在しない場合は作成する
+        Channel channel = api.getChannel(cname);
+        CompletableFuture<Channel> created = (channel != null)
+                ? CompletableFuture.completedFuture(channel)
+                : api.createChannelAsync(cname, cp);
+
+        return created.thenCompose(c -> {
+            if ( c == null ) {
+                // イベントでキャンセルされた
+                return CompletableFuture.completedFuture(null);
             }
 
             // チャンネルのメンバーでないなら、参加する
-            ChannelMember cp = ChannelMember.getChannelMember(player);
-            if ( !channel.getMembers().contains(cp) ) {
-                channel.addMember(cp);
-            }
-
-            // デフォルト発言先が無いなら、グローバルチャンネルに設定する
-            Channel dchannel = api.getDefaultChannel(player.getUsername());
-            if ( dchannel == null ) {
-                api.setDefaultChannel(player.getUsername(), cname);
-            }
-        }
+            CompletableFuture<Boolean> joined = c.getMembers().contains(cp)
+                    ? CompletableFuture.completedFuture(false)
+                    : c.addMemberAsync(cp);
+
+            return joined.thenRun(() -> {
+                // デフォルト発言先が無いなら、グローバルチャンネルに設定する
+                Channel dchannel = api.getDefaultChannel(player.getUsername());
+                if ( dchannel == null ) {
+                    api.setDefaultChannel(player.getUsername(), cname);
+                }
+            });
+        });
     }
 
     /**
      * 既定のチャンネルへの参加を試みる。
      * @param player プレイヤー
-     * @return 参加できたかどうか
+     * @return 参加が完了したときに完了するFuture
      */
-    private boolean tryJoinToGlobalChannel(Player player) {
+    private CompletableFuture<Void> tryJoinToGlobalChannel(Player player) {
 
         LunaChatConfig config = LunaChat.getConfig();
         LunaChatAPI api = LunaChat.getAPI();
@@ -415,17 +469,17 @@ public class VelocityEventListener {
 
         // チャンネルが存在しない場合は作成する
         Channel global = api.getChannel(gcName);
-        if ( global == null ) {
-            global = api.createChannel(gcName, ChannelMember.getChannelMember(player));
-        }
-
-        // デフォルト発言先が無いなら、グローバルチャンネルに設定する
-        Channel dchannel = api.getDefaultChannel(player.getUsername());
-        if ( dchannel == null ) {
-            api.setDefaultChannel(player.getUsername(), gcName);
-        }
+        CompletableFuture<Channel> created = (global != null)
+                ? CompletableFuture.completedFuture(global)
+                : api.createChannelAsync(gcName, ChannelMember.getChannelMember(player));
 
-        return true;
+        return created.thenRun(() -> {
+            // デフォルト発言先が無いなら、グローバルチャンネルに設定する
+            Channel dchannel = api.getDefaultChannel(player.getUsername());
+            if ( dchannel == null ) {
+                api.setDefaultChannel(player.getUsername(), gcName);
+            }
+        });
     }
 
     /**
@@ -443,8 +497,13 @@ public class VelocityEventListener {
             dchannel = dc.getName().toLowerCase();
         }
 
-        // チャンネル一覧を取得して、参加人数でソートする
-        ArrayList<Channel> channels = new ArrayList<>(api.getChannels());
+        // 参加しているチャンネルとグローバルチャンネルを取得して、参加人数でソートする
+        ArrayList<Channel> channels = new ArrayList<>(api.getChannelsByMember(cp));
+        Channel global = api.getChannel(LunaChat.getConfig().getGlobalChannel());
+        if ( global != null && global.isGlobalChannel() && !channels.contains(global) ) {
+            channels.add(global);
+        }
+        Collection<Channel> banned = api.getBannedChannels(cp);
         channels.sort((c1, c2) -> {
             if (c1.getOnlineNum() == c2.getOnlineNum()) return c1.getName().compareTo(c2.getName());
             return c2.getOnlineNum() - c1.getOnlineNum();
@@ -456,7 +515,7 @@ public class VelocityEventListener {
         for ( Channel channel : channels ) {
 
             // BANされているチャンネルは表示しない
-            if ( channel.getBanned().contains(cp) ) {
+            if ( banned.contains(channel) ) {
                 continue;
             }
 
@@ -465,12 +524,6 @@ public class VelocityEventListener {
                 continue;
             }
 
-            // 参加していないチャンネルは、グローバルチャンネルを除き表示しない
-            if ( !channel.getMembers().contains(cp) &&
-                    !channel.isGlobalChannel() ) {
-                continue;
-            }
-
             String disp = ChatColor.WHITE + channel.getName();
             if ( channel.getName().equals(dchannel) ) {
                 disp = ChatColor.RED + channel.getName();
@@ -520,17 +573,4 @@ public class VelocityEventListener {
     }
      */
 
-    /**
-     * 指定されたプレイヤーが指定されたHideListに含まれるかどうかを判定する
-     * @param p プレイヤー
-     * @param list リスト
-     * @return 含まれるかどうか
-     */
-    private boolean containsHideList(Player p, List<ChannelMember> list) {
-        for ( ChannelMember m : list ) {
-            if (m.getName().equals(p.getUsername())) return true;
-        }
-        return false;
-    }
-
 }
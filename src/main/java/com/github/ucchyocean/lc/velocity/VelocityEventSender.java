@@ -10,16 +10,26 @@
  */
 package com.github.ucchyocean.lc.velocity;
 
+import com.github.ucchyocean.lc.LunaChat;
+import com.github.ucchyocean.lc.LunaChatConfig;
 import com.github.ucchyocean.lc.LunaChatVelocity;
 import com.github.ucchyocean.lc.event.EventResult;
 import com.github.ucchyocean.lc.event.EventSenderInterface;
+import com.github.ucchyocean.lc.event.EventType;
 import com.github.ucchyocean.lc.member.ChannelMember;
 import com.github.ucchyocean.lc.velocity.event.*;
 
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
 
+/**
+ * Velocityのイベント実行クラス。<br/>
+ * Velocityのイベントは、リスナーがVelocityのイベント用のスレッドで処理されるため、
+ * 全てのイベントに、完了を待たずにFutureを返す *Async のメソッドを用意している。<br/>
+ * 完了を待つ同期版のメソッドは、Velocityのイベントのリスナーの中から呼び出すと、
+ * イベント用のスレッドが全て待ち状態になって止まることがあるので、LunaChatの内部では使用しない。
+ */
 public class VelocityEventSender implements EventSenderInterface {
     /**
      * チャンネルチャットのチャットイベント
@@ -33,13 +43,36 @@ public class VelocityEventSender implements EventSenderInterface {
      */
     @Override
     public EventResult sendLunaChatChannelChatEvent(String channelName, ChannelMember member, String originalMessage, String ngMaskedMessage, String messageFormat) {
-        EventResult result = new EventResult();
-        LunaChatVelocityChannelChatEvent event = new LunaChatVelocityChannelChatEvent(channelName, member, originalMessage, ngMaskedMessage, messageFormat);
-        LunaChatVelocity.PROXY.getEventManager().fire(event);
-        result.setCancelled(event.isCancelled());
-        result.setNgMaskedMessage(event.getNgMaskedMessage());
-        result.setMessageFormat(event.getMessageFormat());
-        return result;
+        return sendLunaChatChannelChatEventAsync(channelName, member, originalMessage, ngMaskedMessage, messageFormat).join();
+    }
+
+    /**
+     * チャンネルチャットのチャットイベントを、完了を待たずに実行する
+     *
+     * @param channelName     チャンネル名
+     * @param member          発言者
+     * @param originalMessage 発言内容
+     * @param ngMaskedMessage 発言内容（NGマスク後）
+     * @param messageFormat   発言に適用されるフォーマット
+     * @return イベント実行結果のFuture
+     */
+    @Override
+    public CompletableFuture<EventResult> sendLunaChatChannelChatEventAsync(String channelName, ChannelMember member, String originalMessage, String ngMaskedMessage, String messageFormat) {
+        if ( isDisabled(EventType.CHANNEL_CHAT) ) {
+            EventResult result = new EventResult();
+            result.setNgMaskedMessage(ngMaskedMessage);
+            result.setMessageFormat(messageFormat);
+            return CompletableFuture.completedFuture(result);
+        }
+        return LunaChatVelocity.PROXY.getEventManager().fire(
+                new LunaChatVelocityChannelChatEvent(channelName, member, originalMessage, ngMaskedMessage, messageFormat)
+        ).thenApply(event -> {
+            EventResult result = new EventResult();
+            result.setCancelled(event.isCancelled());
+            result.setNgMaskedMessage(event.getNgMaskedMessage());
+            result.setMessageFormat(event.getMessageFormat());
+            return result;
+        });
     }
 
     /**
@@ -51,12 +84,31 @@ public class VelocityEventSender implements EventSenderInterface {
      */
     @Override
     public EventResult sendLunaChatChannelCreateEvent(String channelName, ChannelMember member) {
-        EventResult result = new EventResult();
-        LunaChatVelocityChannelCreateEvent event = new LunaChatVelocityChannelCreateEvent(channelName, member);
-        LunaChatVelocity.PROXY.getEventManager().fire(event);
-        result.setCancelled(event.isCancelled());
-        result.setChannelName(event.getChannelName());
-        return result;
+        return sendLunaChatChannelCreateEventAsync(channelName, member).join();
+    }
+
+    /**
+     * チャンネル作成イベントを、完了を待たずに実行する
+     *
+     * @param channelName チャンネル名
+     * @param member      作成した人
+     * @return イベント実行結果のFuture
+     */
+    @Override
+    public CompletableFuture<EventResult> sendLunaChatChannelCreateEventAsync(String channelName, ChannelMember member) {
+        if ( isDisabled(EventType.CHANNEL_CREATE) ) {
+            EventResult result = new EventResult();
+            result.setChannelName(channelName);
+            return CompletableFuture.completedFuture(result);
+        }
+        return LunaChatVelocity.PROXY.getEventManager().fire(
+                new LunaChatVelocityChannelCreateEvent(channelName, member)
+        ).thenApply(event -> {
+            EventResult result = new EventResult();
+            result.setCancelled(event.isCancelled());
+            result.setChannelName(event.getChannelName());
+            return result;
+        });
     }
 
     /**
@@ -69,11 +121,29 @@ public class VelocityEventSender implements EventSenderInterface {
      */
     @Override
     public EventResult sendLunaChatChannelMemberChangedEvent(String channelName, List<ChannelMember> before, List<ChannelMember> after) {
-        EventResult result = new EventResult();
-        LunaChatVelocityChannelMemberChangedEvent event = new LunaChatVelocityChannelMemberChangedEvent(channelName, before, after);
-        LunaChatVelocity.PROXY.getEventManager().fire(event);
-        result.setCancelled(event.isCancelled());
-        return result;
+        return sendLunaChatChannelMemberChangedEventAsync(channelName, before, after).join();
+    }
+
+    /**
+     * メンバー変更イベントを、完了を待たずに実行する
+     *
+     * @param channelName チャンネル名
+     * @param before      変更前のメンバー
+     * @param after       変更後のメンバー
+     * @return イベント実行結果のFuture
+     */
+    @Override
+    public CompletableFuture<EventResult> sendLunaChatChannelMemberChangedEventAsync(String channelName, List<ChannelMember> before, List<ChannelMember> after) {
+        if ( isDisabled(EventType.CHANNEL_MEMBER_CHANGED) ) {
+            return CompletableFuture.completedFuture(new EventResult());
+        }
+        return LunaChatVelocity.PROXY.getEventManager().fire(
+                new LunaChatVelocityChannelMemberChangedEvent(channelName, before, after)
+        ).thenApply(event -> {
+            EventResult result = new EventResult();
+            result.setCancelled(event.isCancelled());
+            return result;
+        });
     }
 
     /**
@@ -89,12 +159,36 @@ public class VelocityEventSender implements EventSenderInterface {
      */
     @Override
     public EventResult sendLunaChatChannelMessageEvent(String channelName, ChannelMember member, String message, List<ChannelMember> recipients, String displayName, String originalMessage) {
-        EventResult result = new EventResult();
-        LunaChatVelocityChannelMessageEvent event = new LunaChatVelocityChannelMessageEvent(channelName, member, message, recipients, displayName, originalMessage);
-        LunaChatVelocity.PROXY.getEventManager().fire(event);
-        result.setMessage(event.getMessage());
-        result.setRecipients(event.getRecipients());
-        return result;
+        return sendLunaChatChannelMessageEventAsync(channelName, member, message, recipients, displayName, originalMessage).join();
+    }
+
+    /**
+     * チャンネルチャットのメッセージイベントを、完了を待たずに実行する
+     *
+     * @param channelName     チャンネル名
+     * @param member          発言者
+     * @param message         発言内容（NGマスクやJapanizeされた後の内容）
+     * @param recipients      受信者
+     * @param displayName     発言者の表示名
+     * @param originalMessage 発言内容（元々の内容）
+     * @return イベント実行結果のFuture
+     */
+    @Override
+    public CompletableFuture<EventResult> sendLunaChatChannelMessageEventAsync(String channelName, ChannelMember member, String message, List<ChannelMember> recipients, String displayName, String originalMessage) {
+        if ( isDisabled(EventType.CHANNEL_MESSAGE) ) {
+            EventResult result = new EventResult();
+            result.setMessage(message);
+            result.setRecipients(recipients);
+            return CompletableFuture.completedFuture(result);
+        }
+        return LunaChatVelocity.PROXY.getEventManager().fire(
+                new LunaChatVelocityChannelMessageEvent(channelName, member, message, recipients, displayName, originalMessage)
+        ).thenApply(event -> {
+            EventResult result = new EventResult();
+            result.setMessage(event.getMessage());
+            result.setRecipients(event.getRecipients());
+            return result;
+        });
     }
 
     /**
@@ -107,14 +201,32 @@ public class VelocityEventSender implements EventSenderInterface {
      */
     @Override
     public EventResult sendLunaChatChannelOptionChangedEvent(String channelName, ChannelMember member, Map<String, String> options) {
-        EventResult result = new EventResult();
-        LunaChatVelocity.PROXY.getEventManager().fire(
+        return sendLunaChatChannelOptionChangedEventAsync(channelName, member, options).join();
+    }
+
+    /**
+     * オプション変更イベントを、完了を待たずに実行する
+     *
+     * @param channelName チャンネル名
+     * @param member      オプションを変更した人
+     * @param options     変更後のオプション
+     * @return イベント実行結果のFuture
+     */
+    @Override
+    public CompletableFuture<EventResult> sendLunaChatChannelOptionChangedEventAsync(String channelName, ChannelMember member, Map<String, String> options) {
+        if ( isDisabled(EventType.CHANNEL_OPTION_CHANGED) ) {
+            EventResult result = new EventResult();
+            result.setOptions(options);
+            return CompletableFuture.completedFuture(result);
+        }
+        return LunaChatVelocity.PROXY.getEventManager().fire(
                 new LunaChatVelocityChannelOptionChangedEvent(channelName, member, options)
-        ).whenComplete((co, ex) -> {
-            result.setCancelled(!co.getResult().isAllowed());
-            result.setOptions(co.getOptions());
+        ).thenApply(event -> {
+            EventResult result = new EventResult();
+            result.setCancelled(!event.getResult().isAllowed());
+            result.setOptions(event.getOptions());
+            return result;
         });
-        return result;
     }
 
     /**
@@ -126,14 +238,31 @@ public class VelocityEventSender implements EventSenderInterface {
      */
     @Override
     public EventResult sendLunaChatChannelRemoveEvent(String channelName, ChannelMember member) {
-        EventResult result = new EventResult();
-        LunaChatVelocity.PROXY.getEventManager().fire(
+        return sendLunaChatChannelRemoveEventAsync(channelName, member).join();
+    }
+
+    /**
+     * チャンネル削除イベントを、完了を待たずに実行する
+     *
+     * @param channelName チャンネル名
+     * @param member      削除を実行した人
+     * @return イベント実行結果のFuture
+     */
+    @Override
+    public CompletableFuture<EventResult> sendLunaChatChannelRemoveEventAsync(String channelName, ChannelMember member) {
+        if ( isDisabled(EventType.CHANNEL_REMOVE) ) {
+            EventResult result = new EventResult();
+            result.setChannelName(channelName);
+            return CompletableFuture.completedFuture(result);
+        }
+        return LunaChatVelocity.PROXY.getEventManager().fire(
                 new LunaChatVelocityChannelRemoveEvent(channelName, member)
-        ).whenComplete((co, ex) -> {
-            result.setCancelled(!co.getResult().isAllowed());
-            result.setChannelName(co.getChannelName());
+        ).thenApply(event -> {
+            EventResult result = new EventResult();
+            result.setCancelled(!event.getResult().isAllowed());
+            result.setChannelName(event.getChannelName());
+            return result;
         });
-        return result;
     }
 
     /**
@@ -147,14 +276,33 @@ public class VelocityEventSender implements EventSenderInterface {
      */
     @Override
     public EventResult sendLunaChatPostJapanizeEvent(String channelName, ChannelMember member, String original, String japanized) {
-        EventResult result = new EventResult();
-        LunaChatVelocity.PROXY.getEventManager().fire(
+        return sendLunaChatPostJapanizeEventAsync(channelName, member, original, japanized).join();
+    }
+
+    /**
+     * Japanize変換が行われた後に呼び出されるイベントを、完了を待たずに実行する
+     *
+     * @param channelName チャンネル名
+     * @param member      発言したメンバー
+     * @param original    変換前の文字列
+     * @param japanized   変換後の文字列
+     * @return イベント実行結果のFuture
+     */
+    @Override
+    public CompletableFuture<EventResult> sendLunaChatPostJapanizeEventAsync(String channelName, ChannelMember member, String original, String japanized) {
+        if ( isDisabled(EventType.POST_JAPANIZE) ) {
+            EventResult result = new EventResult();
+            result.setJapanized(japanized);
+            return CompletableFuture.completedFuture(result);
+        }
+        return LunaChatVelocity.PROXY.getEventManager().fire(
                 new LunaChatVelocityPostJapanizeEvent(channelName, member, original, japanized)
-        ).whenComplete((co, ex) -> {
-            result.setCancelled(!co.getResult().isAllowed());
-            result.setJapanized(co.getJapanized());
+        ).thenApply(event -> {
+            EventResult result = new EventResult();
+            result.setCancelled(!event.getResult().isAllowed());
+            result.setJapanized(event.getJapanized());
+            return result;
         });
-        return result;
     }
 
     /**
@@ -167,13 +315,44 @@ public class VelocityEventSender implements EventSenderInterface {
      */
     @Override
     public EventResult sendLunaChatPreChatEvent(String channelName, ChannelMember member, String message) {
-        EventResult result = new EventResult();
-        LunaChatVelocity.PROXY.getEventManager().fire(
+        return sendLunaChatPreChatEventAsync(channelName, member, message).join();
+    }
+
+    /**
+     * チャンネルチャットへの発言前に発生するイベントを、完了を待たずに実行する
+     *
+     * @param channelName チャンネル名
+     * @param member      発言したメンバー
+     * @param message     発言内容
+     * @return イベント実行結果のFuture
+     */
+    @Override
+    public CompletableFuture<EventResult> sendLunaChatPreChatEventAsync(String channelName, ChannelMember member, String message) {
+        if ( isDisabled(EventType.PRE_CHAT) ) {
+            EventResult result = new EventResult();
+            result.setChannelName(channelName);
+            result.setMessage(message);
+            return CompletableFuture.completedFuture(result);
+        }
+        return LunaChatVelocity.PROXY.getEventManager().fire(
                 new LunaChatVelocityPreChatEvent(channelName, member, message)
-        ).whenComplete((co, ex) -> {
-            result.setCancelled(!co.getResult().isAllowed());
-            result.setMessage(co.getMessage());
+        ).thenApply(event -> {
+            EventResult result = new EventResult();
+            result.setCancelled(!event.getResult().isAllowed());
+            result.setChannelName(event.getChannelName());
+            result.setMessage(event.getMessage());
+            return result;
         });
-        return result;
+    }
+
+    /**
+     * 指定した種類のイベントが、設定で無効にされているかどうかを返す。
+     * 無効なイベントは、イベントを作成せずに、変更なしの結果を返す。
+     * @param type イベントの種類
+     * @return 無効かどうか
+     */
+    private static boolean isDisabled(EventType type) {
+        LunaChatConfig config = LunaChat.getConfig();
+        return config != null && config.isEventDisabled(type);
     }
 }
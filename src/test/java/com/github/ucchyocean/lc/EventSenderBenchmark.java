@@ -0,0 +1,128 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.github.ucchyocean.lc.member.ChannelMember;
+import com.github.ucchyocean.lc.member.ChannelMemberOther;
+import com.github.ucchyocean.lc.velocity.VelocityEventSender;
+import com.velocitypowered.api.event.EventManager;
+import com.velocitypowered.api.proxy.ProxyServer;
+
+/**
+ * disabledEvents で、発言ごとのイベント（PreChat、ChannelChat、ChannelMessage）を無効にしたときの、
+ * 1発言あたりの処理時間の比較。<br/>
+ * イベントマネージャーは、リスナーの無いイベントを別スレッドで完了させるだけのスタブに置き換えているので、
+ * 実際のプロキシでは、リスナーの処理時間の分だけ差が大きくなる。<br/>
+ * テストとしては実行されない。gradle benchmark -PbenchmarkClass=com.github.ucchyocean.lc.EventSenderBenchmark で実行する。
+ * @author ucchy
+ */
+public class EventSenderBenchmark {
+
+    private static final int WARMUP_ROUNDS = 100000;
+    private static final int MEASURE_ROUNDS = 500000;
+
+    private static LunaChatConfig config;
+
+    /**
+     * 速度比較を実行する
+     * @param args 使用しない
+     * @throws IOException 設定ファイルを作成できなかった場合
+     */
+    public static void main(String[] args) throws IOException {
+
+        ExecutorService eventThread = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "event-stub");
+            thread.setDaemon(true);
+            return thread;
+        });
+        EventManager events = (EventManager)Proxy.newProxyInstance(
+                EventSenderBenchmark.class.getClassLoader(), new Class<?>[] {EventManager.class},
+                (proxy, method, arguments) -> {
+                    if ( method.getName().equals("fire") ) {
+                        Object event = arguments[0];
+                        return CompletableFuture.supplyAsync(() -> event, eventThread);
+                    }
+                    return null;
+                });
+        LunaChatVelocity.PROXY = (ProxyServer)Proxy.newProxyInstance(
+                EventSenderBenchmark.class.getClassLoader(), new Class<?>[] {ProxyServer.class},
+                (proxy, method, arguments) -> method.getName().equals("getEventManager") ? events : null);
+        LunaChat.setPlugin((PluginInterface)Proxy.newProxyInstance(
+                EventSenderBenchmark.class.getClassLoader(), new Class<?>[] {PluginInterface.class},
+                (proxy, method, arguments) -> method.getName().equals("getLunaChatConfig") ? config : null));
+
+        config = loadConfig("disabledEvents: []");
+        run("events enabled");
+        config = loadConfig("disabledEvents: [PreChat, ChannelChat, ChannelMessage]");
+        run("events disabled");
+    }
+
+    /**
+     * 1発言で呼び出されるイベントを、繰り返し実行して計測する
+     * @param name 名前
+     */
+    private static void run(String name) {
+
+        VelocityEventSender sender = new VelocityEventSender();
+        ChannelMember member = new ChannelMemberOther("sender");
+        List<ChannelMember> recipients = new ArrayList<ChannelMember>();
+        for ( int i = 0; i < 20; i++ ) {
+            recipients.add(new ChannelMemberOther("recipient" + i));
+        }
+
+        int sink = 0;
+        long start = 0;
+        for ( int i = 0; i < WARMUP_ROUNDS + MEASURE_ROUNDS; i++ ) {
+            if ( i == WARMUP_ROUNDS ) {
+                start = System.nanoTime();
+            }
+            String message = "hello " + (i & 0xff);
+            sink += sender.sendLunaChatPreChatEventAsync("global", member, message)
+                    .thenCompose(r -> sender.sendLunaChatChannelChatEventAsync(
+                            "global", member, message, r.getMessage(), "<%player> %msg"))
+                    .thenCompose(r -> sender.sendLunaChatChannelMessageEventAsync(
+                            "global", member, r.getNgMaskedMessage(), recipients, "sender", message))
+                    .join().getMessage().length();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format(Locale.ROOT, "%-16s %8.1f ns/message (%d)",
+                name, (double)elapsed / MEASURE_ROUNDS, sink));
+    }
+
+    /**
+     * 同梱の config.yml の disabledEvents を置き換えて一時フォルダに作成し、読み込む
+     * @param disabledEvents disabledEvents の設定
+     * @return コンフィグ
+     * @throws IOException 作成できなかった場合
+     */
+    private static LunaChatConfig loadConfig(String disabledEvents) throws IOException {
+        String content;
+        try ( InputStream stream = EventSenderBenchmark.class.getResourceAsStream("/config.yml") ) {
+            content = new String(stream.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        content = content.replace("disabledEvents: []", disabledEvents);
+
+        File folder = Files.createTempDirectory("lunachat-bench").toFile();
+        folder.deleteOnExit();
+        File file = new File(folder, "config.yml");
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        file.deleteOnExit();
+        return new LunaChatConfig(folder, null);
+    }
+}
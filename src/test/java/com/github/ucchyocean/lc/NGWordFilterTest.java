@@ -0,0 +1,112 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * NGWordFilter のテスト
+ * @author ucchy
+ */
+public class NGWordFilterTest {
+
+    /**
+     * 正規表現のNGワードの一致する範囲が同じ位置から重なっている場合に、長い方がマスクされること
+     */
+    @Test
+    public void testOverlappingRegexEntries() {
+        NGWordFilter filter = NGWordFilter.compile(Arrays.asList("a[b]", "abc."));
+        assertEquals("****", filter.mask("abcd"));
+
+        // 登録順が逆でも同じ
+        filter = NGWordFilter.compile(Arrays.asList("abc.", "a.?"));
+        assertEquals("****e", filter.mask("abcde"));
+        assertEquals("**xyz", filter.mask("abxyz"));
+    }
+
+    /**
+     * ただの文字列と正規表現のNGワードが混在していても、全てマスクされること
+     */
+    @Test
+    public void testLiteralAndRegex() {
+        NGWordFilter filter = NGWordFilter.compile(Arrays.asList("foo", "ba+r", "qu.x"));
+        NGWordFilter.Result result = filter.filter("xfooybaaarzquuxw");
+        assertTrue(result.isMatched());
+        assertEquals("x***y*****z****w", result.getMasked());
+        assertFalse(filter.filter("nothing here").isMatched());
+    }
+
+    /**
+     * 正規表現のアンカーと後読みが、メッセージ全体に対して照合したときと同じように扱われること
+     */
+    @Test
+    public void testAnchorsAndLookbehind() {
+        NGWordFilter filter = NGWordFilter.compile(Arrays.asList("^ab", "(?<=x)abc", "zz"));
+        assertEquals("**cx***", filter.mask("abcxabc"));
+        assertEquals("yabx***", filter.mask("yabxabc"));
+    }
+
+    /**
+     * 結合したパターンの結果が、NGワードを1つずつ照合したときの結果と一致すること
+     */
+    @Test
+    public void testMatchesPerEntryScan() {
+        Random random = new Random(20201018L);
+        String[] atoms = {"a", "b", "c", "a?", "b+", "[ab]", ".", "c*", "(ab)+", "a{2}"};
+        for ( int round = 0; round < 500; round++ ) {
+            List<String> entries = new ArrayList<String>();
+            int count = 2 + random.nextInt(6);
+            for ( int i = 0; i < count; i++ ) {
+                StringBuilder entry = new StringBuilder();
+                int length = 1 + random.nextInt(3);
+                for ( int j = 0; j < length; j++ ) {
+                    entry.append(atoms[random.nextInt(atoms.length)]);
+                }
+                entries.add(entry.toString());
+            }
+            NGWordFilter filter = NGWordFilter.compile(entries);
+            for ( int k = 0; k < 20; k++ ) {
+                StringBuilder message = new StringBuilder();
+                int length = random.nextInt(12);
+                for ( int j = 0; j < length; j++ ) {
+                    message.append("abcx".charAt(random.nextInt(4)));
+                }
+                String text = message.toString();
+                assertEquals(entries + " / " + text, maskEachEntry(entries, text), filter.mask(text));
+            }
+        }
+    }
+
+    /**
+     * NGワードを1つずつ、メッセージ全体に対して照合してマスクする（比較用）
+     * @param entries NGワード
+     * @param message メッセージ
+     * @return マスクされたメッセージ
+     */
+    private static String maskEachEntry(List<String> entries, String message) {
+        char[] chars = message.toCharArray();
+        for ( String entry : entries ) {
+            Matcher matcher = Pattern.compile(entry).matcher(message);
+            int from = 0;
+            while ( from < message.length() && matcher.find(from) ) {
+                Arrays.fill(chars, matcher.start(), matcher.end(), '*');
+                from = matcher.start() + 1;
+            }
+        }
+        return new String(chars);
+    }
+}
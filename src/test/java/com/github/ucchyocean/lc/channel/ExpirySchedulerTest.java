@@ -0,0 +1,394 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.channel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jetbrains.annotations.Nullable;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.github.ucchyocean.lc.LunaChat;
+import com.github.ucchyocean.lc.LunaChatAPI;
+import com.github.ucchyocean.lc.LunaChatConfig;
+import com.github.ucchyocean.lc.Messages;
+import com.github.ucchyocean.lc.PluginInterface;
+import com.github.ucchyocean.lc.member.ChannelMember;
+import com.github.ucchyocean.lc.member.ChannelMemberOther;
+import com.github.ucchyocean.lc.util.ClickableFormat;
+
+import net.kyori.text.Component;
+
+/**
+ * ExpiryScheduler のテスト。時刻を進めて runDue() を呼び出し、待機せずに期限切れの処理を確認する。
+ * @author ucchy
+ */
+public class ExpirySchedulerTest {
+
+    /** 登録されているチャンネル（LunaChatAPI#getChannel の結果） */
+    private static final Map<String, Channel> CHANNELS = new ConcurrentHashMap<String, Channel>();
+
+    private static LunaChatConfig config;
+
+    /**
+     * 同梱の config.yml と messages_en.yml を一時フォルダに作成し、LunaChatの参照先を設定する
+     * @throws Exception 設定できなかった場合
+     */
+    @BeforeClass
+    public static void setUpPlugin() throws Exception {
+
+        File folder = Files.createTempDirectory("lunachat-expiry").toFile();
+        folder.deleteOnExit();
+        copyResource("/config.yml", new File(folder, "config.yml"));
+        copyResource("/messages_en.yml", new File(folder, "messages_en.yml"));
+        copyResource("/messages_ja.yml", new File(folder, "messages_ja.yml"));
+        config = new LunaChatConfig(folder, null);
+        Messages.initialize(folder, null, "en");
+
+        LunaChatAPI api = (LunaChatAPI)Proxy.newProxyInstance(
+                ExpirySchedulerTest.class.getClassLoader(), new Class<?>[] {LunaChatAPI.class},
+                (proxy, method, arguments) -> method.getName().equals("getChannel")
+                        ? CHANNELS.get(((String)arguments[0]).toLowerCase()) : null);
+        PluginInterface plugin = (PluginInterface)Proxy.newProxyInstance(
+                ExpirySchedulerTest.class.getClassLoader(), new Class<?>[] {PluginInterface.class},
+                (proxy, method, arguments) -> {
+                    switch ( method.getName() ) {
+                    case "getLunaChatConfig": return config;
+                    case "getLunaChatAPI": return api;
+                    case "getDataFolder": return folder;
+                    default: return null;
+                    }
+                });
+
+        // LunaChat#setPlugin はパッケージプライベートなので、リフレクションで呼び出す
+        Method setPlugin = LunaChat.class.getDeclaredMethod("setPlugin", PluginInterface.class);
+        setPlugin.setAccessible(true);
+        setPlugin.invoke(null, plugin);
+    }
+
+    /**
+     * 順番がばらばらに登録された多数の期限付きBANとMuteが、時刻を進めるごとに、期限の来たものだけ解除されること
+     */
+    @Test
+    public void testOutOfOrderDeadlines() {
+
+        MutableClock clock = new MutableClock(0);
+        ExpiryScheduler scheduler = new ExpiryScheduler(clock);
+        Random random = new Random(12345);
+
+        List<TestChannel> channels = new ArrayList<TestChannel>();
+        for ( int i = 0; i < 20; i++ ) {
+            channels.add(register(new TestChannel("order" + i)));
+        }
+
+        // 期限をランダムな順番で登録する
+        List<Expiry> expiries = new ArrayList<Expiry>();
+        for ( int i = 0; i < 5000; i++ ) {
+            TestChannel channel = channels.get(random.nextInt(channels.size()));
+            ChannelMember member = new ChannelMemberOther("player" + i);
+            ExpiryScheduler.Kind kind = random.nextBoolean() ? ExpiryScheduler.Kind.BAN : ExpiryScheduler.Kind.MUTE;
+            long deadline = 1 + random.nextInt(100000);
+            punish(scheduler, channel, member, kind, deadline);
+            expiries.add(new Expiry(channel, member, kind, deadline));
+        }
+        assertEquals(5000, scheduler.size());
+
+        // 時刻を少しずつ進めて、期限の来たものだけが解除されることを確認する
+        long previous = 0;
+        int fired = 0;
+        while ( previous < 100000 ) {
+            long now = Math.min(100000, previous + 1 + random.nextInt(5000));
+            clock.set(now);
+
+            int expected = 0;
+            for ( Expiry e : expiries ) {
+                if ( previous < e.deadline && e.deadline <= now ) expected++;
+            }
+            assertEquals("runDue at " + now, expected, scheduler.runDue());
+            fired += expected;
+
+            for ( Expiry e : expiries ) {
+                assertEquals(e.member + " at " + now, e.deadline > now, e.isPunished());
+            }
+            assertEquals(5000 - fired, scheduler.size());
+            previous = now;
+        }
+
+        // 解除ごとに、チャンネルへ1回ずつ通知される
+        int notified = 0;
+        for ( TestChannel channel : channels ) {
+            notified += channel.systemMessages;
+            assertTrue(channel.getBanExpires().isEmpty());
+            assertTrue(channel.getMuteExpires().isEmpty());
+        }
+        assertEquals(5000, notified);
+        assertEquals(0, scheduler.runDue());
+    }
+
+    /**
+     * 期限が延長された場合は、古い期限の項目では解除されず、新しい期限で解除されること。
+     * 期限が短縮された場合は、新しい期限で解除され、古い期限の項目は何もしないこと。
+     */
+    @Test
+    public void testExtendedAndShortenedExpiry() {
+
+        MutableClock clock = new MutableClock(0);
+        ExpiryScheduler scheduler = new ExpiryScheduler(clock);
+        TestChannel channel = register(new TestChannel("extend"));
+
+        List<ChannelMember> extended = new ArrayList<ChannelMember>();
+        List<ChannelMember> shortened = new ArrayList<ChannelMember>();
+        for ( int i = 0; i < 1000; i++ ) {
+            ExpiryScheduler.Kind kind = (i % 2 == 0) ? ExpiryScheduler.Kind.BAN : ExpiryScheduler.Kind.MUTE;
+
+            // 1000 で登録した後、5000 に延長する
+            ChannelMember longer = new ChannelMemberOther("longer" + i);
+            punish(scheduler, channel, longer, kind, 1000);
+            punish(scheduler, channel, longer, kind, 5000);
+            extended.add(longer);
+
+            // 5000 で登録した後、2000 に短縮する
+            ChannelMember shorter = new ChannelMemberOther("shorter" + i);
+            punish(scheduler, channel, shorter, kind, 5000);
+            punish(scheduler, channel, shorter, kind, 2000);
+            shortened.add(shorter);
+        }
+        assertEquals(4000, scheduler.size());
+
+        // 古い期限の項目は取り出されるが、解除はされない
+        clock.set(1000);
+        assertEquals(1000, scheduler.runDue());
+        for ( int i = 0; i < 1000; i++ ) {
+            ExpiryScheduler.Kind kind = (i % 2 == 0) ? ExpiryScheduler.Kind.BAN : ExpiryScheduler.Kind.MUTE;
+            assertTrue(isPunished(channel, extended.get(i), kind));
+            assertEquals(Long.valueOf(5000), expiresOf(channel, kind).get(extended.get(i)));
+        }
+        assertEquals(0, channel.systemMessages);
+
+        // 短縮した期限で解除される
+        clock.set(2000);
+        assertEquals(1000, scheduler.runDue());
+        for ( int i = 0; i < 1000; i++ ) {
+            ExpiryScheduler.Kind kind = (i % 2 == 0) ? ExpiryScheduler.Kind.BAN : ExpiryScheduler.Kind.MUTE;
+            assertFalse(isPunished(channel, shortened.get(i), kind));
+            assertTrue(isPunished(channel, extended.get(i), kind));
+        }
+        assertEquals(1000, channel.systemMessages);
+
+        // 延長した期限で解除され、短縮前の古い項目では何も起きない
+        clock.set(5000);
+        assertEquals(2000, scheduler.runDue());
+        for ( int i = 0; i < 1000; i++ ) {
+            ExpiryScheduler.Kind kind = (i % 2 == 0) ? ExpiryScheduler.Kind.BAN : ExpiryScheduler.Kind.MUTE;
+            assertFalse(isPunished(channel, extended.get(i), kind));
+        }
+        assertEquals(2000, channel.systemMessages);
+        assertEquals(0, scheduler.size());
+    }
+
+    /**
+     * 期限の前にチャンネルが削除された場合は、期限が来ても何もしないこと。
+     * 同じ名前で作り直されたチャンネルにも影響しないこと。
+     */
+    @Test
+    public void testRemovedChannel() {
+
+        MutableClock clock = new MutableClock(0);
+        ExpiryScheduler scheduler = new ExpiryScheduler(clock);
+        TestChannel removed = register(new TestChannel("removed"));
+        TestChannel recreatedOld = register(new TestChannel("recreated"));
+        TestChannel kept = register(new TestChannel("kept"));
+
+        List<ChannelMember> members = new ArrayList<ChannelMember>();
+        for ( int i = 0; i < 500; i++ ) {
+            ChannelMember member = new ChannelMemberOther("member" + i);
+            members.add(member);
+            long deadline = 100 + i;
+            punish(scheduler, removed, member, ExpiryScheduler.Kind.BAN, deadline);
+            punish(scheduler, recreatedOld, member, ExpiryScheduler.Kind.MUTE, deadline);
+            punish(scheduler, kept, member, ExpiryScheduler.Kind.BAN, deadline);
+        }
+
+        // 期限の前に削除する。recreated は同じ名前で作り直し、同じメンバーをMuteしておく
+        CHANNELS.remove("removed");
+        TestChannel recreated = register(new TestChannel("recreated"));
+        for ( ChannelMember member : members ) {
+            recreated.getMuted().add(member);
+            recreated.setMuteExpire(member, 100);
+        }
+
+        clock.set(1000);
+        assertEquals(1500, scheduler.runDue());
+
+        for ( ChannelMember member : members ) {
+            assertTrue(removed.getBanned().contains(member));
+            assertTrue(recreatedOld.getMuted().contains(member));
+            assertTrue(recreated.getMuted().contains(member));
+            assertFalse(kept.getBanned().contains(member));
+        }
+        assertEquals(0, removed.systemMessages);
+        assertEquals(0, recreatedOld.systemMessages);
+        assertEquals(0, recreated.systemMessages);
+        assertEquals(500, kept.systemMessages);
+    }
+
+    /**
+     * チャンネルを登録する
+     * @param channel チャンネル
+     * @return 登録したチャンネル
+     */
+    private static TestChannel register(TestChannel channel) {
+        CHANNELS.put(channel.getName().toLowerCase(), channel);
+        return channel;
+    }
+
+    /**
+     * 期限付きBANまたはMuteを設定し、スケジューラに登録する（コマンドの処理と同じ手順）
+     * @param scheduler スケジューラ
+     * @param channel チャンネル
+     * @param member メンバー
+     * @param kind 種類
+     * @param deadline 期限
+     */
+    private static void punish(ExpiryScheduler scheduler, Channel channel,
+            ChannelMember member, ExpiryScheduler.Kind kind, long deadline) {
+        if ( kind == ExpiryScheduler.Kind.BAN ) {
+            if ( !channel.getBanned().contains(member) ) channel.getBanned().add(member);
+            channel.setBanExpire(member, deadline);
+        } else {
+            if ( !channel.getMuted().contains(member) ) channel.getMuted().add(member);
+            channel.setMuteExpire(member, deadline);
+        }
+        scheduler.schedule(channel, member, kind, deadline);
+    }
+
+    private static boolean isPunished(Channel channel, ChannelMember member, ExpiryScheduler.Kind kind) {
+        return kind == ExpiryScheduler.Kind.BAN
+                ? channel.getBanned().contains(member) : channel.getMuted().contains(member);
+    }
+
+    private static Map<ChannelMember, Long> expiresOf(Channel channel, ExpiryScheduler.Kind kind) {
+        return kind == ExpiryScheduler.Kind.BAN ? channel.getBanExpires() : channel.getMuteExpires();
+    }
+
+    private static void copyResource(String name, File target) throws IOException {
+        try ( InputStream stream = ExpirySchedulerTest.class.getResourceAsStream(name) ) {
+            Files.copy(stream, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        target.deleteOnExit();
+    }
+
+    /**
+     * 登録した期限
+     */
+    private static class Expiry {
+
+        private final Channel channel;
+        private final ChannelMember member;
+        private final ExpiryScheduler.Kind kind;
+        private final long deadline;
+
+        private Expiry(Channel channel, ChannelMember member, ExpiryScheduler.Kind kind, long deadline) {
+            this.channel = channel;
+            this.member = member;
+            this.kind = kind;
+            this.deadline = deadline;
+        }
+
+        private boolean isPunished() {
+            return ExpirySchedulerTest.isPunished(channel, member, kind);
+        }
+    }
+
+    /**
+     * テストから時刻を進められるClock
+     */
+    private static class MutableClock extends Clock {
+
+        private volatile long millis;
+
+        private MutableClock(long millis) {
+            this.millis = millis;
+        }
+
+        private void set(long millis) {
+            this.millis = millis;
+        }
+
+        @Override
+        public long millis() {
+            return millis;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+    }
+
+    /**
+     * 保存や送信を行わず、チャンネルへの通知の回数を数えるチャンネル
+     */
+    private static class TestChannel extends Channel {
+
+        private int systemMessages;
+
+        private TestChannel(String name) {
+            super(name);
+        }
+
+        @Override
+        public boolean save() {
+            return false;
+        }
+
+        @Override
+        public void sendSystemMessage(Component message, boolean sendDynmap, String name) {
+            systemMessages++;
+        }
+
+        @Override
+        protected void sendMessage(ChannelMember member, String message,
+                @Nullable ClickableFormat format, boolean sendDynmap) {
+            // 何もしない
+        }
+
+        @Override
+        protected void log(String message, String name) {
+            // 何もしない
+        }
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.util;
+
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * カラーコードの変換の、以前の正規表現による実装との速度比較。<br/>
+ * テストとしては実行されない。gradle benchmark -PbenchmarkClass=com.github.ucchyocean.lc.util.ColorCodeCodecBenchmark で実行する。
+ * @author ucchy
+ */
+public class ColorCodeCodecBenchmark {
+
+    private static final String[] MESSAGES = {
+        "hello everyone, how is it going today?",
+        "&aGreen &lbold &rreset and #ff8800orange text",
+        "a plain message with a # hash and an & ampersand",
+        "&6[&eShop&6] &fBuy #1a2 items now for &c50% off!",
+        "§aalready §bcoloured §ctext &dwith &eextras",
+    };
+
+    private static final int WARMUP_ROUNDS = 200000;
+    private static final int MEASURE_ROUNDS = 1000000;
+
+    /**
+     * 速度比較を実行する
+     * @param args 使用しない
+     */
+    public static void main(String[] args) {
+        run("replace (regex)", s -> ColorCodeCodecTest.Regex.replace(s));
+        run("replace (codec)", Utility::replaceColorCode);
+        run("strip (regex)", s -> ColorCodeCodecTest.Regex.strip(s));
+        run("strip (codec)", Utility::stripColorCode);
+        run("stripAlt (regex)", s -> ColorCodeCodecTest.Regex.stripAlt(s));
+        run("stripAlt (codec)", Utility::stripAltColorCode);
+    }
+
+    /**
+     * 1つの処理を計測して、1メッセージあたりの時間を表示する
+     * @param name 名前
+     * @param function 処理
+     */
+    private static void run(String name, Function<String, String> function) {
+        int sink = 0;
+        for ( int i = 0; i < WARMUP_ROUNDS; i++ ) {
+            sink += function.apply(MESSAGES[i % MESSAGES.length]).length();
+        }
+        long start = System.nanoTime();
+        for ( int i = 0; i < MEASURE_ROUNDS; i++ ) {
+            sink += function.apply(MESSAGES[i % MESSAGES.length]).length();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format(Locale.ROOT, "%-18s %8.1f ns/message (%d)",
+                name, (double)elapsed / MEASURE_ROUNDS, sink));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * @author     ucchy
+ * @license    LGPLv3
+ * @copyright  Copyright ucchy 2020
+ */
+package com.github.ucchyocean.lc.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * ColorCodeCodec のテスト。<br/>
+ * 以前の正規表現による実装を比較の基準として、同じ結果になることを確認する。
+ * @author ucchy
+ */
+public class ColorCodeCodecTest {
+
+    /** 網羅的に確認するときの文字の種類（カラーコードの開始文字と、境界になる文字） */
+    private static final char[] ALPHABET = {'&', '#', '§', 'a', 'F', '0', 'k', 'x', 'g', ' '};
+
+    /** 網羅的に確認する文字列の最大の長さ */
+    private static final int EXHAUSTIVE_LENGTH = 6;
+
+    /**
+     * 短い文字列を全て網羅して、以前の実装と同じ結果になること
+     */
+    @Test
+    public void testExhaustiveShortStrings() {
+        char[] buf = new char[EXHAUSTIVE_LENGTH];
+        for ( int length = 0; length <= EXHAUSTIVE_LENGTH; length++ ) {
+            int[] digits = new int[length];
+            while ( true ) {
+                for ( int i = 0; i < length; i++ ) {
+                    buf[i] = ALPHABET[digits[i]];
+                }
+                assertSameAsRegex(new String(buf, 0, length));
+                if ( !increment(digits) ) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * ランダムな長い文字列で、以前の実装と同じ結果になること
+     */
+    @Test
+    public void testRandomStrings() {
+        Random random = new Random(20201018L);
+        String alphabet = "&#§aAfF09kKoOrRxXgG #&";
+        for ( int n = 0; n < 200000; n++ ) {
+            int length = random.nextInt(40);
+            StringBuilder buf = new StringBuilder(length);
+            for ( int i = 0; i < length; i++ ) {
+                buf.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertSameAsRegex(buf.toString());
+        }
+    }
+
+    /**
+     * 代表的なケース
+     */
+    @Test
+    public void testTypicalCases() {
+        assertEquals("§aHello §lWorld", Utility.replaceColorCode("&aHello &lWorld"));
+        assertEquals("§x§1§2§3§4§5§6red",
+                Utility.replaceColorCode("#123456red"));
+        assertEquals("§x§a§a§b§b§c§cxyz",
+                Utility.replaceColorCode("#abcxyz"));
+        assertEquals("Hello World", Utility.stripColorCode("&aHello §lWorld#fff"));
+        assertEquals("§aHello", Utility.stripAltColorCode("§a&bHello"));
+
+        // 除去によって前後がつながり、新たにカラーコードになるケース
+        assertEquals("", Utility.stripColorCode("&#123a"));
+        assertEquals(Regex.strip("&&aa"), Utility.stripColorCode("&&aa"));
+    }
+
+    /**
+     * カラーコードの候補を含まない文字列は、そのまま返されること
+     */
+    @Test
+    public void testNoCopyWithoutCodes() {
+        String plain = "plain message without codes";
+        assertSame(plain, Utility.replaceColorCode(plain));
+        assertSame(plain, Utility.stripColorCode(plain));
+        assertSame(plain, Utility.stripAltColorCode(plain));
+    }
+
+    /**
+     * 3つの変換の結果が、以前の実装と同じであることを確認する
+     * @param source 変換元
+     */
+    private static void assertSameAsRegex(String source) {
+        assertEquals("replace: " + source, Regex.replace(source), Utility.replaceColorCode(source));
+        assertEquals("strip: " + source, Regex.strip(source), Utility.stripColorCode(source));
+        assertEquals("stripAlt: " + source, Regex.stripAlt(source), Utility.stripAltColorCode(source));
+    }
+
+    /**
+     * 各桁を ALPHABET の数で繰り上げながら、1つ進める
+     * @param digits 桁
+     * @return 進められたかどうか（最後まで到達したら false）
+     */
+    private static boolean increment(int[] digits) {
+        for ( int i = digits.length - 1; i >= 0; i-- ) {
+            if ( ++digits[i] < ALPHABET.length ) {
+                return true;
+            }
+            digits[i] = 0;
+        }
+        return false;
+    }
+
+    /**
+     * 以前の正規表現による実装（比較の基準）
+     */
+    static class Regex {
+
+        static String replace(String source) {
+            return source
+                    .replaceAll(
+                            "#([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])",
+                            "§x§$1§$2§$3§$4§$5§$6")
+                    .replaceAll(
+                            "#([0-9a-fA-F])([0-9a-fA-F])([0-9a-fA-F])",
+                            "§x§$1§$1§$2§$2§$3§$3")
+                    .replaceAll("&([0-9a-fk-orA-FK-OR])", "§$1");
+        }
+
+        static String strip(String source) {
+            return stripAlt(source).replaceAll("§([0-9a-fk-orxA-FK-ORX])", "");
+        }
+
+        static String stripAlt(String source) {
+            source = source.replaceAll("#[0-9a-fA-F]{6}", "").replaceAll("#[0-9a-fA-F]{3}", "");
+            return source.replaceAll("&([0-9a-fk-orxA-FK-ORX])", "");
+        }
+    }
+}